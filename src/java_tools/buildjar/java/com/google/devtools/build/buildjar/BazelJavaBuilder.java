@@ -39,10 +39,21 @@ public class BazelJavaBuilder {
 
   private static final String CMDNAME = "BazelJavaBuilder";
 
+  /**
+   * The system property that enables incremental compilation in persistent worker mode, e.g.
+   * through {@code javabuilder_jvm_opts} of the {@code java_toolchain}.
+   */
+  private static final String INCREMENTAL_PROPERTY = "bazel.javabuilder.incremental";
+
+  /** Whether to compile incrementally, see {@link IncrementalJavaLibraryBuilder}. */
+  private boolean incremental;
+
   /** The main method of the BazelJavaBuilder. */
   public static void main(String[] args) {
     BazelJavaBuilder builder = new BazelJavaBuilder();
     if (args.length == 1 && args[0].equals("--persistent_worker")) {
+      // Incremental compilation relies on the state kept between requests.
+      builder.incremental = Boolean.getBoolean(INCREMENTAL_PROPERTY);
       WorkRequestHandler workerHandler =
           new WorkRequestHandler(
               builder::parseAndBuild,
@@ -71,11 +82,7 @@ public class BazelJavaBuilder {
   public int parseAndBuild(List<String> args, PrintWriter pw) {
     try {
       JavaLibraryBuildRequest build = parse(args);
-      try (SimpleJavaLibraryBuilder builder =
-          build.getDependencyModule().reduceClasspath()
-              ? new ReducedClasspathJavaLibraryBuilder()
-              : new SimpleJavaLibraryBuilder()) {
-
+      try (SimpleJavaLibraryBuilder builder = createBuilder(build)) {
         return build(builder, build, pw);
       }
     } catch (InvalidCommandLineException e) {
@@ -87,6 +94,16 @@ public class BazelJavaBuilder {
     }
   }
 
+  private SimpleJavaLibraryBuilder createBuilder(JavaLibraryBuildRequest build) {
+    if (build.getDependencyModule().reduceClasspath()) {
+      return new ReducedClasspathJavaLibraryBuilder();
+    }
+    if (incremental) {
+      return new IncrementalJavaLibraryBuilder();
+    }
+    return new SimpleJavaLibraryBuilder();
+  }
+
   /**
    * Uses {@code builder} to build the target passed in {@code buildRequest}. All errors and
    * diagnostics should be written to {@code err}.
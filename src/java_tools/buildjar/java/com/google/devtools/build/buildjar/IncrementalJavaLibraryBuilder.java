@@ -0,0 +1,504 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.buildjar;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import com.google.devtools.build.buildjar.javac.BlazeJavacArguments;
+import com.google.devtools.build.buildjar.javac.BlazeJavacResult;
+import com.google.devtools.build.buildjar.javac.FormattedDiagnostic;
+import com.google.devtools.build.buildjar.javac.JavacRunner;
+import com.google.devtools.build.buildjar.javac.plugins.BlazeJavaCompilerPlugin;
+import com.google.devtools.build.buildjar.javac.plugins.dependency.DependencyModule;
+import com.google.devtools.build.buildjar.javac.plugins.dependency.SourceDependencyPlugin;
+import com.google.devtools.build.buildjar.javac.plugins.dependency.SourceDependencyPlugin.CompilationUnitDependencies;
+import com.google.devtools.build.buildjar.javac.plugins.dependency.StrictJavaDepsPlugin;
+import com.google.devtools.build.buildjar.javac.statistics.BlazeJavacStatistics;
+import com.google.devtools.build.lib.view.proto.Deps.Dependency;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+/**
+ * A variant of SimpleJavaLibraryBuilder for persistent workers, which keeps the classes compiled
+ * for each target in memory, and on the next request for the same target only recompiles the
+ * sources that changed, plus the sources that refer to a class whose ABI changed as a result.
+ *
+ * <p>The source-level dependency graph and the ABI hashes come from {@link
+ * SourceDependencyPlugin}. The classes of the sources that are not recompiled are restored into
+ * the class output directory, which is also put on the classpath of the compilation. If the
+ * classpath, the javac options, or anything else about the request other than the contents of
+ * the sources changed since the previous compilation, all sources are recompiled.
+ *
+ * <p>Requests that run annotation processors, or that have source jars or native header outputs,
+ * are always compiled from scratch: their outputs cannot be attributed to individual sources.
+ */
+public class IncrementalJavaLibraryBuilder extends SimpleJavaLibraryBuilder {
+
+  /**
+   * The maximum number of successive batches of sources compiled for a request, after which all
+   * the sources are compiled at once. ABI changes normally stop propagating after a couple of
+   * batches.
+   */
+  private static final int MAX_BATCHES = 8;
+
+  /** The maximum total size of the class files kept by {@link #DEFAULT_CACHE}. */
+  private static final long DEFAULT_CACHE_BYTES = 512L << 20;
+
+  /** The cache shared by all the requests of a worker. */
+  static final CompilationCache DEFAULT_CACHE = new CompilationCache(DEFAULT_CACHE_BYTES);
+
+  private final CompilationCache cache;
+
+  public IncrementalJavaLibraryBuilder() {
+    this(DEFAULT_CACHE);
+  }
+
+  @VisibleForTesting
+  IncrementalJavaLibraryBuilder(CompilationCache cache) {
+    this.cache = cache;
+  }
+
+  @Override
+  BlazeJavacResult compileSources(JavaLibraryBuildRequest build, JavacRunner javacRunner)
+      throws IOException {
+    if (!canCompileIncrementally(build)) {
+      return super.compileSources(build, javacRunner);
+    }
+    Path key = build.getOutputJar();
+    HashCode fingerprint = fingerprint(build);
+    ImmutableMap<Path, HashCode> sources = hashSources(build.getSourceFiles());
+
+    // Take the previous state out of the cache for the duration of the compilation; it is put
+    // back if the compilation fails, so that the next one is computed against the last
+    // successful compilation.
+    TargetState previous = cache.remove(key);
+    if (previous != null && !previous.fingerprint.equals(fingerprint)) {
+      previous = null;
+    }
+
+    Map<Path, CompilationUnitDependencies> units = new HashMap<>();
+    Set<Path> batch = new HashSet<>();
+    Set<String> changedClasses = new HashSet<>();
+    if (previous == null) {
+      batch.addAll(sources.keySet());
+    } else {
+      units.putAll(previous.units);
+      for (Map.Entry<Path, HashCode> source : sources.entrySet()) {
+        if (!source.getValue().equals(previous.sources.get(source.getKey()))) {
+          batch.add(source.getKey());
+        }
+      }
+      Set<Path> removedSources = new HashSet<>();
+      for (Path removed : previous.sources.keySet()) {
+        if (!sources.containsKey(removed)) {
+          removedSources.add(removed);
+          CompilationUnitDependencies unit = units.remove(removed);
+          if (unit != null) {
+            changedClasses.addAll(unit.definedClasses().keySet());
+          }
+        }
+      }
+      batch.addAll(dependents(units, changedClasses));
+      previous.restoreClasses(build.getClassDir(), Sets.union(batch, removedSources));
+    }
+
+    ImmutableList<Path> classPath =
+        previous == null
+            ? build.getClassPath()
+            : ImmutableList.<Path>builder()
+                .add(build.getClassDir())
+                .addAll(build.getClassPath())
+                .build();
+    List<BlazeJavacResult> results = new ArrayList<>();
+    while (!batch.isEmpty()) {
+      boolean lastBatch = results.size() + 1 == MAX_BATCHES;
+      if (lastBatch) {
+        batch = new HashSet<>(sources.keySet());
+      }
+      if (previous != null) {
+        previous.deleteClasses(build.getClassDir(), batch);
+      }
+      SourceDependencyPlugin plugin = new SourceDependencyPlugin();
+      BlazeJavacResult result =
+          javacRunner.invokeJavac(arguments(build, classPath, batch, plugin, !results.isEmpty()));
+      results.add(result);
+      if (!result.isOk()) {
+        if (previous != null) {
+          cache.put(key, previous);
+        }
+        return combine(build, results);
+      }
+
+      // Sources without any class, e.g. a package-info.java without annotations, are not
+      // reported by the plugin.
+      Map<Path, CompilationUnitDependencies> compiledUnits = new HashMap<>();
+      Map<Path, Path> sourcesByAbsolutePath = new HashMap<>();
+      for (Path source : batch) {
+        sourcesByAbsolutePath.put(source.toAbsolutePath().normalize(), source);
+      }
+      for (Map.Entry<Path, CompilationUnitDependencies> entry :
+          plugin.getDependencies().entrySet()) {
+        Path source = sourcesByAbsolutePath.get(entry.getKey());
+        if (source == null) {
+          // We can't tell which classes come from which source; don't rely on them.
+          prepareSourceCompilation(build);
+          return super.compileSources(build, javacRunner);
+        }
+        compiledUnits.put(source, entry.getValue());
+      }
+      changedClasses.clear();
+      for (Path source : batch) {
+        CompilationUnitDependencies before = units.remove(source);
+        CompilationUnitDependencies after = compiledUnits.get(source);
+        if (after != null) {
+          units.put(source, after);
+        }
+        changedClasses.addAll(abiChanges(before, after));
+      }
+      if (previous == null || lastBatch) {
+        break;
+      }
+      // The sources of this batch were compiled against each other, but the sources of earlier
+      // batches may refer to the classes whose ABI changed in this one.
+      Set<Path> dependents = dependents(units, changedClasses);
+      dependents.removeAll(batch);
+      batch = dependents;
+    }
+
+    DependencyModule dependencyModule = build.getDependencyModule();
+    if (previous != null) {
+      previous.mergeDependencies(dependencyModule);
+    }
+    cache.put(
+        key,
+        new TargetState(
+            fingerprint,
+            sources,
+            ImmutableMap.copyOf(units),
+            readClasses(build.getClassDir()),
+            ImmutableMap.copyOf(dependencyModule.getExplicitDependenciesMap()),
+            ImmutableMap.copyOf(dependencyModule.getImplicitDependenciesMap()),
+            dependencyModule.getContainedPackages()));
+    return combine(build, results);
+  }
+
+  /** Returns true if the outputs of the compilation can be attributed to individual sources. */
+  private static boolean canCompileIncrementally(JavaLibraryBuildRequest build) {
+    return build.getProcessors().isEmpty()
+        && build.getSourceJars().isEmpty()
+        && build.getNativeHeaderOutput() == null
+        && !build.getSourceFiles().isEmpty()
+        && build.getSourceFiles().stream()
+            .noneMatch(f -> f.getFileName().toString().equals("module-info.java"));
+  }
+
+  /** Returns a fingerprint of everything about the request except the contents of the sources. */
+  private static HashCode fingerprint(JavaLibraryBuildRequest build) throws IOException {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    for (String option : build.getJavacOpts()) {
+      hasher.putString(option, UTF_8).putByte((byte) 0);
+    }
+    hasher.putString(String.valueOf(build.getTargetLabel()), UTF_8);
+    hasher.putString(build.getClassDir().toString(), UTF_8);
+    hasher.putString(String.valueOf(build.getSystem()), UTF_8);
+    hasher.putString(build.getSourcePath().toString(), UTF_8);
+    DependencyModule dependencyModule = build.getDependencyModule();
+    hasher.putString(dependencyModule.getStrictJavaDeps().name(), UTF_8);
+    hasher.putString(dependencyModule.directJars().toString(), UTF_8);
+    // The classpath jars are identified by their contents: their size and modification time can
+    // stay the same when they change, and the restored classes would then be stale.
+    for (Path entry : Iterables.concat(build.getBootClassPath(), build.getClassPath())) {
+      hasher.putString(entry.toString(), UTF_8);
+      if (Files.isRegularFile(entry)) {
+        hasher.putBytes(MoreFiles.asByteSource(entry).hash(Hashing.murmur3_128()).asBytes());
+      }
+    }
+    return hasher.hash();
+  }
+
+  private static ImmutableMap<Path, HashCode> hashSources(List<Path> sources) throws IOException {
+    ImmutableMap.Builder<Path, HashCode> result = ImmutableMap.builder();
+    for (Path source : ImmutableSet.copyOf(sources)) {
+      result.put(source, MoreFiles.asByteSource(source).hash(Hashing.murmur3_128()));
+    }
+    return result.build();
+  }
+
+  /** Returns the sources that refer to any of the given classes. */
+  private static Set<Path> dependents(
+      Map<Path, CompilationUnitDependencies> units, Set<String> classes) {
+    Set<Path> result = new HashSet<>();
+    if (classes.isEmpty()) {
+      return result;
+    }
+    for (Map.Entry<Path, CompilationUnitDependencies> unit : units.entrySet()) {
+      for (String referenced : unit.getValue().referencedClasses()) {
+        if (classes.contains(referenced)) {
+          result.add(unit.getKey());
+          break;
+        }
+      }
+    }
+    return result;
+  }
+
+  /** Returns the classes that were added, removed or whose ABI changed in a compilation unit. */
+  private static Set<String> abiChanges(
+      @Nullable CompilationUnitDependencies before, @Nullable CompilationUnitDependencies after) {
+    Map<String, HashCode> beforeClasses =
+        before == null ? ImmutableMap.of() : before.definedClasses();
+    Map<String, HashCode> afterClasses = after == null ? ImmutableMap.of() : after.definedClasses();
+    Set<String> result = new HashSet<>();
+    for (Map.Entry<String, HashCode> entry : beforeClasses.entrySet()) {
+      if (!entry.getValue().equals(afterClasses.get(entry.getKey()))) {
+        result.add(entry.getKey());
+      }
+    }
+    for (String added : afterClasses.keySet()) {
+      if (!beforeClasses.containsKey(added)) {
+        result.add(added);
+      }
+    }
+    return result;
+  }
+
+  private static BlazeJavacArguments arguments(
+      JavaLibraryBuildRequest build,
+      ImmutableList<Path> classPath,
+      Set<Path> batch,
+      SourceDependencyPlugin sourceDependencyPlugin,
+      boolean freshPlugins) {
+    ImmutableList.Builder<BlazeJavaCompilerPlugin> plugins = ImmutableList.builder();
+    for (BlazeJavaCompilerPlugin plugin : build.getPlugins()) {
+      // The strict deps plugin keeps the diagnostics it reported; don't report them twice.
+      plugins.add(
+          freshPlugins && plugin instanceof StrictJavaDepsPlugin
+              ? build.getDependencyModule().getPlugin()
+              : plugin);
+    }
+    plugins.add(sourceDependencyPlugin);
+    return build.toBlazeJavacArguments(classPath).toBuilder()
+        .sourceFiles(
+            build.getSourceFiles().stream()
+                .filter(batch::contains)
+                .distinct()
+                .collect(toImmutableList()))
+        .plugins(plugins.build())
+        .build();
+  }
+
+  /** Combines the results of the compilations of the successive batches of sources. */
+  private static BlazeJavacResult combine(
+      JavaLibraryBuildRequest build, List<BlazeJavacResult> results) {
+    if (results.isEmpty()) {
+      // Nothing changed since the previous compilation.
+      return BlazeJavacResult.ok();
+    }
+    BlazeJavacResult last = results.get(results.size() - 1);
+    ImmutableList.Builder<FormattedDiagnostic> diagnostics = ImmutableList.builder();
+    StringBuilder output = new StringBuilder();
+    for (BlazeJavacResult result : results) {
+      diagnostics.addAll(result.diagnostics());
+      output.append(result.output());
+    }
+    BlazeJavacStatistics.Builder stats =
+        last.statistics().toBuilder()
+            .transitiveClasspathLength(build.getClassPath().size())
+            .reducedClasspathLength(build.getClassPath().size())
+            .transitiveClasspathFallback(false);
+    return BlazeJavacResult.createFullResult(
+        last.status(), diagnostics.build(), output.toString(), last.compiler(), stats.build());
+  }
+
+  private static ImmutableMap<String, byte[]> readClasses(Path classDir) throws IOException {
+    ImmutableMap.Builder<String, byte[]> result = ImmutableMap.builder();
+    try (Stream<Path> files = Files.walk(classDir)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        if (Files.isRegularFile(file)) {
+          result.put(classDir.relativize(file).toString(), Files.readAllBytes(file));
+        }
+      }
+    }
+    return result.build();
+  }
+
+  /** The state kept for a target after its last successful compilation. */
+  static final class TargetState {
+    private final HashCode fingerprint;
+    private final ImmutableMap<Path, HashCode> sources;
+    private final ImmutableMap<Path, CompilationUnitDependencies> units;
+    /** The class files, keyed by their path relative to the class output directory. */
+    private final ImmutableMap<String, byte[]> classes;
+
+    private final ImmutableMap<Path, Dependency> explicitDependencies;
+    private final ImmutableMap<Path, Dependency> implicitDependencies;
+    private final ImmutableSet<String> packages;
+    private final long size;
+
+    TargetState(
+        HashCode fingerprint,
+        ImmutableMap<Path, HashCode> sources,
+        ImmutableMap<Path, CompilationUnitDependencies> units,
+        ImmutableMap<String, byte[]> classes,
+        ImmutableMap<Path, Dependency> explicitDependencies,
+        ImmutableMap<Path, Dependency> implicitDependencies,
+        ImmutableSet<String> packages) {
+      this.fingerprint = fingerprint;
+      this.sources = sources;
+      this.units = units;
+      this.classes = classes;
+      this.explicitDependencies = explicitDependencies;
+      this.implicitDependencies = implicitDependencies;
+      this.packages = packages;
+      this.size = classes.values().stream().mapToLong(c -> c.length).sum();
+    }
+
+    /** Returns the sources defining each top-level class. */
+    private Map<String, Path> sourcesByClass() {
+      Map<String, Path> result = new HashMap<>();
+      units.forEach(
+          (source, unit) -> unit.definedClasses().keySet().forEach(c -> result.put(c, source)));
+      return result;
+    }
+
+    /**
+     * Returns the source that the class file with the given relative path was compiled from, or
+     * null if it is unknown.
+     */
+    @Nullable
+    private static Path sourceOf(String classFile, Map<String, Path> sourcesByClass) {
+      if (!classFile.endsWith(".class")) {
+        return null;
+      }
+      String name = classFile.substring(0, classFile.length() - ".class".length());
+      name = name.replace('\\', '/').replace('/', '.');
+      // Nested and local classes are named after their top-level class, followed by a '$'.
+      while (true) {
+        Path source = sourcesByClass.get(name);
+        if (source != null) {
+          return source;
+        }
+        int dollar = name.lastIndexOf('$');
+        if (dollar < 0) {
+          return null;
+        }
+        name = name.substring(0, dollar);
+      }
+    }
+
+    /** Writes the classes of all the sources except the given ones to the output directory. */
+    void restoreClasses(Path classDir, Set<Path> excludedSources) throws IOException {
+      Map<String, Path> sourcesByClass = sourcesByClass();
+      for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+        Path source = sourceOf(entry.getKey(), sourcesByClass);
+        if (source != null && !excludedSources.contains(source)) {
+          Path file = classDir.resolve(entry.getKey());
+          Files.createDirectories(file.getParent());
+          Files.write(file, entry.getValue());
+        }
+      }
+    }
+
+    /** Deletes the classes of the given sources from the output directory. */
+    void deleteClasses(Path classDir, Set<Path> sources) throws IOException {
+      Map<String, Path> sourcesByClass = sourcesByClass();
+      for (String classFile : classes.keySet()) {
+        if (sources.contains(sourceOf(classFile, sourcesByClass))) {
+          Files.deleteIfExists(classDir.resolve(classFile));
+        }
+      }
+    }
+
+    /**
+     * Adds the dependencies of the sources that were not recompiled to those collected by the
+     * compilation. The result over-approximates the dependencies of the target until its next
+     * full compilation, which is harmless: a dependency is never reported as unused when it is
+     * needed.
+     */
+    void mergeDependencies(DependencyModule dependencyModule) {
+      Map<Path, Dependency> explicit = dependencyModule.getExplicitDependenciesMap();
+      Map<Path, Dependency> implicit = dependencyModule.getImplicitDependenciesMap();
+      explicitDependencies.forEach(
+          (path, dependency) -> {
+            if (explicit.putIfAbsent(path, dependency) == null) {
+              implicit.remove(path);
+            }
+          });
+      implicitDependencies.forEach(
+          (path, dependency) -> {
+            if (!explicit.containsKey(path)) {
+              implicit.putIfAbsent(path, dependency);
+            }
+          });
+      dependencyModule.addContainedPackages(packages);
+    }
+  }
+
+  /**
+   * The states of the targets compiled by a worker, evicting the least recently compiled targets
+   * when the total size of their classes exceeds a limit.
+   */
+  static final class CompilationCache {
+    private final long maxBytes;
+    private final LinkedHashMap<Path, TargetState> states = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    CompilationCache(long maxBytes) {
+      this.maxBytes = maxBytes;
+    }
+
+    @Nullable
+    synchronized TargetState remove(Path outputJar) {
+      TargetState state = states.remove(outputJar);
+      if (state != null) {
+        bytes -= state.size;
+      }
+      return state;
+    }
+
+    synchronized void put(Path outputJar, TargetState state) {
+      remove(outputJar);
+      states.put(outputJar, state);
+      bytes += state.size;
+      Iterator<TargetState> eldest = states.values().iterator();
+      while (bytes > maxBytes && eldest.hasNext()) {
+        bytes -= eldest.next().size;
+        eldest.remove();
+      }
+    }
+  }
+}
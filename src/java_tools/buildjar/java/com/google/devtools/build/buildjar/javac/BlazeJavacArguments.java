@@ -73,6 +73,8 @@ public abstract class BlazeJavacArguments {
   /** Stop compiling after the first diagnostic that could cause transitive classpath fallback. */
   public abstract boolean failFast();
 
+  public abstract Builder toBuilder();
+
   public static Builder builder() {
     return new AutoValue_BlazeJavacArguments.Builder()
         .classPath(ImmutableList.of())
@@ -21,6 +21,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Streams;
 import com.google.devtools.build.buildjar.JarOwner;
 import com.google.devtools.build.buildjar.javac.plugins.BlazeJavaCompilerPlugin;
@@ -85,6 +86,7 @@ public final class DependencyModule {
   private final FixMessage fixMessage;
   private final Set<String> exemptGenerators;
   private final Set<PackageSymbol> packages;
+  private final Set<String> additionalPackages;
 
   DependencyModule(
       StrictJavaDeps strictJavaDeps,
@@ -110,6 +112,7 @@ public final class DependencyModule {
     this.fixMessage = fixMessage;
     this.exemptGenerators = exemptGenerators;
     this.packages = new HashSet<>();
+    this.additionalPackages = new HashSet<>();
   }
 
   /** Returns a plugin to be enabled in the compiler. */
@@ -150,12 +153,7 @@ public final class DependencyModule {
       deps.setRequiresReducedClasspathFallback(true);
     }
 
-    deps.addAllContainedPackage(
-        packages
-            .stream()
-            .map(pkg -> pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString())
-            .sorted()
-            .collect(toImmutableList()));
+    deps.addAllContainedPackage(getContainedPackages());
 
     // Filter using the original classpath, to preserve ordering.
     for (Path entry : classpath) {
@@ -203,6 +201,23 @@ public final class DependencyModule {
     return packages.add(packge);
   }
 
+  /**
+   * Adds the names of packages built by this target that were not compiled by this invocation,
+   * e.g. because they were reused from a previous incremental compilation.
+   */
+  public void addContainedPackages(Collection<String> packageNames) {
+    additionalPackages.addAll(packageNames);
+  }
+
+  /** Returns the sorted names of the packages built by this target. */
+  public ImmutableSortedSet<String> getContainedPackages() {
+    ImmutableSortedSet.Builder<String> result = ImmutableSortedSet.naturalOrder();
+    for (PackageSymbol pkg : packages) {
+      result.add(pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString());
+    }
+    return result.addAll(additionalPackages).build();
+  }
+
   /** Returns the name (label) of the originating target. */
   public String getTargetLabel() {
     return targetLabel;
@@ -0,0 +1,269 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.buildjar.javac.plugins.dependency;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.devtools.build.buildjar.javac.plugins.BlazeJavaCompilerPlugin;
+import com.sun.tools.javac.code.Attribute;
+import com.sun.tools.javac.code.Flags;
+import com.sun.tools.javac.code.Kinds;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Symbol.ClassSymbol;
+import com.sun.tools.javac.code.Symbol.MethodSymbol;
+import com.sun.tools.javac.code.Symbol.PackageSymbol;
+import com.sun.tools.javac.code.Symbol.VarSymbol;
+import com.sun.tools.javac.code.Type;
+import com.sun.tools.javac.comp.AttrContext;
+import com.sun.tools.javac.comp.Env;
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.tree.TreeScanner;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+import javax.tools.JavaFileObject;
+
+/**
+ * A plugin for BlazeJavaCompiler that records, for each compilation unit, the top-level classes it
+ * defines, a hash of their ABI, and the top-level classes it references. This is the source-level
+ * dependency graph used to recompile only the affected sources of a target when some of them
+ * change.
+ *
+ * <p>The ABI hash covers everything about a class that can affect the compilation of other
+ * sources: its non-private members, their types, modifiers, annotations and thrown exceptions, the
+ * values of constant fields, and its non-private nested classes. Since a class inherits the
+ * members of its supertypes, the ABI hashes of its supertypes are part of its own. Method bodies
+ * and private members are not included, so editing them does not change the hash.
+ *
+ * <p>A {@code package-info.java} with annotations is reported as defining the {@code package-info}
+ * class of its package.
+ */
+public final class SourceDependencyPlugin extends BlazeJavaCompilerPlugin {
+
+  /** Modifiers that are part of the ABI of a class or member. */
+  private static final long ABI_FLAGS =
+      Flags.AccessFlags
+          | Flags.STATIC
+          | Flags.FINAL
+          | Flags.ABSTRACT
+          | Flags.INTERFACE
+          | Flags.ENUM
+          | Flags.ANNOTATION
+          | Flags.DEFAULT
+          | Flags.VARARGS
+          | Flags.DEPRECATED;
+
+  /** The dependency information collected for one compilation unit. */
+  @AutoValue
+  public abstract static class CompilationUnitDependencies {
+    /** The flat names of the top-level classes defined in the unit, mapped to their ABI hash. */
+    public abstract ImmutableMap<String, HashCode> definedClasses();
+
+    /** The flat names of the top-level classes the unit refers to, including its own. */
+    public abstract ImmutableSet<String> referencedClasses();
+
+    static CompilationUnitDependencies create(
+        Map<String, HashCode> definedClasses, Set<String> referencedClasses) {
+      return new AutoValue_SourceDependencyPlugin_CompilationUnitDependencies(
+          ImmutableMap.copyOf(definedClasses), ImmutableSet.copyOf(referencedClasses));
+    }
+  }
+
+  private final Map<Path, Map<String, HashCode>> definedClasses = new LinkedHashMap<>();
+  private final Map<Path, Set<String>> referencedClasses = new HashMap<>();
+
+  /** The ABI hashes of the classes hashed so far, including those of the supertypes. */
+  private final Map<ClassSymbol, HashCode> abiHashes = new HashMap<>();
+
+  /** The classes whose ABI hash is being computed, to break cycles through nested classes. */
+  private final Set<ClassSymbol> hashing = new HashSet<>();
+
+  @Override
+  public void postFlow(Env<AttrContext> env) {
+    JCTree.JCCompilationUnit toplevel = env.toplevel;
+    Path source = Paths.get(toplevel.sourcefile.toUri()).normalize();
+    Map<String, HashCode> defined =
+        definedClasses.computeIfAbsent(source, s -> new LinkedHashMap<>());
+    Set<String> referenced = referencedClasses.computeIfAbsent(source, s -> new HashSet<>());
+    if (toplevel.sourcefile.isNameCompatible("package-info", JavaFileObject.Kind.SOURCE)) {
+      PackageSymbol packge = toplevel.packge;
+      String name = packge.isUnnamed() ? "package-info" : packge.fullname + ".package-info";
+      Hasher hasher = Hashing.murmur3_128().newHasher();
+      hashAnnotations(packge, hasher);
+      defined.put(name, hasher.hash());
+      new ReferenceScanner(referenced).scan(toplevel);
+      return;
+    }
+    ClassSymbol outermost = env.enclClass.sym.outermostClass();
+    defined.put(outermost.flatname.toString(), abiHash(outermost));
+    new ReferenceScanner(referenced).scan(env.tree);
+    new ReferenceScanner(referenced).scan(toplevel.getImports());
+  }
+
+  /**
+   * Returns the dependency information of the compilation units that were compiled without
+   * errors, keyed by the absolute path of their source file.
+   */
+  public ImmutableMap<Path, CompilationUnitDependencies> getDependencies() {
+    ImmutableMap.Builder<Path, CompilationUnitDependencies> result = ImmutableMap.builder();
+    for (Map.Entry<Path, Map<String, HashCode>> entry : definedClasses.entrySet()) {
+      result.put(
+          entry.getKey(),
+          CompilationUnitDependencies.create(
+              entry.getValue(), referencedClasses.get(entry.getKey())));
+    }
+    return result.build();
+  }
+
+  /**
+   * Returns the ABI hash of the given class, or null if it is already being computed, i.e. if the
+   * class is a supertype of one of its own nested classes.
+   */
+  @Nullable
+  private HashCode abiHash(ClassSymbol sym) {
+    HashCode result = abiHashes.get(sym);
+    if (result != null || !hashing.add(sym)) {
+      return result;
+    }
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    hashClass(sym, hasher);
+    result = hasher.hash();
+    hashing.remove(sym);
+    abiHashes.put(sym, result);
+    return result;
+  }
+
+  private void hashClass(ClassSymbol sym, Hasher hasher) {
+    hasher.putString(sym.flatname, UTF_8).putLong(sym.flags() & ABI_FLAGS);
+    hasher.putString(String.valueOf(sym.getTypeParameters()), UTF_8);
+    hasher.putString(String.valueOf(sym.getSuperclass()), UTF_8);
+    hasher.putString(String.valueOf(sym.getInterfaces()), UTF_8);
+    // The sources that refer to a class only through one of its subclasses, e.g. the subclasses
+    // of the subclass, are not recompiled when the class changes unless the subclass's hash does.
+    for (Type supertype :
+        Iterables.concat(ImmutableList.of(sym.getSuperclass()), sym.getInterfaces())) {
+      if (supertype.tsym instanceof ClassSymbol) {
+        HashCode supertypeHash = abiHash((ClassSymbol) supertype.tsym);
+        if (supertypeHash != null) {
+          hasher.putBytes(supertypeHash.asBytes());
+        }
+      }
+    }
+    hashAnnotations(sym, hasher);
+    for (Symbol member : sym.getEnclosedElements()) {
+      if ((member.flags() & Flags.PRIVATE) != 0) {
+        continue;
+      }
+      if (member.kind == Kinds.Kind.TYP) {
+        hashClass((ClassSymbol) member, hasher);
+        continue;
+      }
+      hasher.putString(member.name, UTF_8).putLong(member.flags() & ABI_FLAGS);
+      hasher.putString(String.valueOf(member.type), UTF_8);
+      if (member.kind == Kinds.Kind.VAR) {
+        hasher.putString(String.valueOf(((VarSymbol) member).getConstValue()), UTF_8);
+      } else if (member.kind == Kinds.Kind.MTH) {
+        hasher.putString(String.valueOf(((MethodSymbol) member).getThrownTypes()), UTF_8);
+      }
+      hashAnnotations(member, hasher);
+    }
+  }
+
+  private static void hashAnnotations(Symbol sym, Hasher hasher) {
+    for (Attribute.Compound annotation : sym.getRawAttributes()) {
+      hasher.putString(annotation.toString(), UTF_8);
+    }
+  }
+
+  /**
+   * Collects the outermost classes of every symbol and type the tree refers to. This is
+   * deliberately coarser than what javac needs: recompiling a source that did not actually depend
+   * on a changed class is only wasted work, but missing a dependency would leave stale classes.
+   */
+  private static class ReferenceScanner extends TreeScanner {
+    private final Set<String> referenced;
+
+    ReferenceScanner(Set<String> referenced) {
+      this.referenced = referenced;
+    }
+
+    @Override
+    public void scan(JCTree tree) {
+      if (tree == null) {
+        return;
+      }
+      if (tree.type != null) {
+        addType(tree.type);
+      }
+      super.scan(tree);
+    }
+
+    @Override
+    public void visitIdent(JCTree.JCIdent tree) {
+      addSymbol(tree.sym);
+    }
+
+    @Override
+    public void visitSelect(JCTree.JCFieldAccess tree) {
+      super.visitSelect(tree);
+      addSymbol(tree.sym);
+    }
+
+    @Override
+    public void visitReference(JCTree.JCMemberReference tree) {
+      super.visitReference(tree);
+      addSymbol(tree.sym);
+    }
+
+    @Override
+    public void visitNewClass(JCTree.JCNewClass tree) {
+      super.visitNewClass(tree);
+      addSymbol(tree.constructor);
+    }
+
+    private void addType(Type type) {
+      addSymbol(type.tsym);
+      for (Type argument : type.getTypeArguments()) {
+        addType(argument);
+      }
+    }
+
+    private void addSymbol(Symbol sym) {
+      if (sym == null
+          || sym.kind == Kinds.Kind.PCK
+          || sym.kind == Kinds.Kind.MDL
+          || sym.kind == Kinds.Kind.ERR) {
+        return;
+      }
+      ClassSymbol outermost = sym.outermostClass();
+      if (outermost != null) {
+        referenced.add(outermost.flatname.toString());
+      }
+    }
+  }
+}
@@ -0,0 +1,198 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.buildjar;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.devtools.build.buildjar.IncrementalJavaLibraryBuilder.CompilationCache;
+import com.google.devtools.build.buildjar.javac.BlazeJavacResult;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * {@link IncrementalJavaLibraryBuilder}Test: checks that the jars built incrementally are the same
+ * as those built from scratch with {@link SimpleJavaLibraryBuilder}.
+ */
+@RunWith(JUnit4.class)
+public class IncrementalJavaLibraryBuilderTest {
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final CompilationCache cache = new CompilationCache(Long.MAX_VALUE);
+  private Path sourceDir;
+  private Path outputDir;
+
+  @Before
+  public void setUp() throws IOException {
+    sourceDir = temporaryFolder.newFolder("src").toPath();
+    outputDir = temporaryFolder.newFolder("out").toPath();
+  }
+
+  private Path writeSource(String name, String... lines) throws IOException {
+    Path source = sourceDir.resolve(name);
+    Files.createDirectories(source.getParent());
+    Files.write(source, ImmutableList.copyOf(lines), UTF_8);
+    return source;
+  }
+
+  private static JavaLibraryBuildRequest request(Path output, List<Path> sources)
+      throws Exception {
+    List<String> args = new ArrayList<>();
+    args.add("--sources");
+    for (Path source : sources) {
+      args.add(source.toString());
+    }
+    args.add("--output");
+    args.add(output.toString());
+    args.add("--target_label");
+    args.add("//test:test");
+    return new JavaLibraryBuildRequest(new OptionsParser(args), ImmutableList.of());
+  }
+
+  private BlazeJavacResult buildIncrementally(Path... sources) throws Exception {
+    try (SimpleJavaLibraryBuilder builder = new IncrementalJavaLibraryBuilder(cache)) {
+      return builder.run(
+          request(outputDir.resolve("incremental.jar"), ImmutableList.copyOf(sources)));
+    }
+  }
+
+  private BlazeJavacResult buildFromScratch(Path... sources) throws Exception {
+    try (SimpleJavaLibraryBuilder builder = new SimpleJavaLibraryBuilder()) {
+      return builder.run(request(outputDir.resolve("full.jar"), ImmutableList.copyOf(sources)));
+    }
+  }
+
+  private static ImmutableMap<String, HashCode> readJar(Path jar) throws IOException {
+    ImmutableMap.Builder<String, HashCode> result = ImmutableMap.builder();
+    try (JarFile jf = new JarFile(jar.toFile())) {
+      Enumeration<JarEntry> entries = jf.entries();
+      while (entries.hasMoreElements()) {
+        JarEntry je = entries.nextElement();
+        result.put(
+            je.getName(),
+            Hashing.sha256().hashBytes(ByteStreams.toByteArray(jf.getInputStream(je))));
+      }
+    }
+    return result.build();
+  }
+
+  /** Builds the sources from scratch and checks that the incremental build has the same outputs. */
+  private void assertSameAsFullBuild(BlazeJavacResult incremental, Path... sources)
+      throws Exception {
+    BlazeJavacResult full = buildFromScratch(sources);
+    assertThat(full.isOk()).isTrue();
+    assertThat(incremental.isOk()).isTrue();
+    assertThat(readJar(outputDir.resolve("incremental.jar")))
+        .containsExactlyEntriesIn(readJar(outputDir.resolve("full.jar")));
+  }
+
+  private static String diagnostics(BlazeJavacResult result) {
+    StringBuilder output = new StringBuilder(result.output());
+    result.diagnostics().forEach(d -> output.append(d.getFormatted()).append('\n'));
+    return output.toString();
+  }
+
+  @Test
+  public void changedMethodBody() throws Exception {
+    Path a = writeSource("A.java", "class A {", "  int f() { return 1; }", "}");
+    Path b = writeSource("B.java", "class B {", "  int g() { return new A().f(); }", "}");
+    assertThat(buildIncrementally(a, b).isOk()).isTrue();
+
+    writeSource("A.java", "class A {", "  int f() { return 2; }", "}");
+    assertSameAsFullBuild(buildIncrementally(a, b), a, b);
+  }
+
+  @Test
+  public void changedSupertype() throws Exception {
+    Path a = writeSource("A.java", "abstract class A {}");
+    Path b = writeSource("B.java", "abstract class B extends A {}");
+    Path c = writeSource("C.java", "class C extends B {}");
+    assertThat(buildIncrementally(a, b, c).isOk()).isTrue();
+
+    // C does not refer to A, but it has to be recompiled to find out that it no longer compiles.
+    writeSource("A.java", "abstract class A {", "  abstract void f();", "}");
+    BlazeJavacResult result = buildIncrementally(a, b, c);
+    assertThat(result.isOk()).isFalse();
+    assertThat(diagnostics(result)).contains("C is not abstract");
+
+    writeSource("C.java", "class C extends B {", "  @Override", "  void f() {}", "}");
+    assertSameAsFullBuild(buildIncrementally(a, b, c), a, b, c);
+  }
+
+  @Test
+  public void removedSource() throws Exception {
+    Path a = writeSource("A.java", "class A {", "  static class Nested {}", "}");
+    Path b = writeSource("B.java", "class B {", "  A.Nested nested;", "}");
+    Path c = writeSource("C.java", "class C {}");
+    assertThat(buildIncrementally(a, b, c).isOk()).isTrue();
+
+    assertSameAsFullBuild(buildIncrementally(a, b), a, b);
+    assertThat(readJar(outputDir.resolve("incremental.jar"))).doesNotContainKey("C.class");
+
+    // The classes of A must not be restored for B to compile against.
+    BlazeJavacResult result = buildIncrementally(b);
+    assertThat(result.isOk()).isFalse();
+    assertThat(diagnostics(result)).contains("cannot find symbol");
+  }
+
+  @Test
+  public void packageInfo() throws Exception {
+    Path packageInfo = writeSource("p/package-info.java", "@Deprecated", "package p;");
+    Path a = writeSource("p/A.java", "package p;", "class A {}");
+    assertThat(buildIncrementally(packageInfo, a).isOk()).isTrue();
+
+    writeSource("p/A.java", "package p;", "class A {", "  void f() {}", "}");
+    assertSameAsFullBuild(buildIncrementally(packageInfo, a), packageInfo, a);
+    assertThat(readJar(outputDir.resolve("incremental.jar"))).containsKey("p/package-info.class");
+
+    assertSameAsFullBuild(buildIncrementally(a), a);
+    assertThat(readJar(outputDir.resolve("incremental.jar")))
+        .doesNotContainKey("p/package-info.class");
+  }
+
+  @Test
+  public void failedCompilationKeepsPreviousState() throws Exception {
+    Path a = writeSource("A.java", "class A {", "  int f() { return 1; }", "}");
+    Path b = writeSource("B.java", "class B {", "  int g() { return new A().f(); }", "}");
+    Path c = writeSource("C.java", "class C {}");
+    assertThat(buildIncrementally(a, b, c).isOk()).isTrue();
+
+    writeSource("A.java", "class A {", "  int h() { return 1; }", "}");
+    writeSource("C.java", "class C {", "  int x;", "}");
+    assertThat(buildIncrementally(a, b, c).isOk()).isFalse();
+
+    // A is back to what it was in the last successful compilation, but C still has to be
+    // recompiled, even though it was compiled without errors in the failed one.
+    writeSource("A.java", "class A {", "  int f() { return 1; }", "}");
+    assertSameAsFullBuild(buildIncrementally(a, b, c), a, b, c);
+  }
+}
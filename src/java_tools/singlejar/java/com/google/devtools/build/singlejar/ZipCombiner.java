@@ -32,9 +32,15 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.CRC32;
 import java.util.zip.Deflater;
@@ -62,6 +68,11 @@ import javax.annotation.Nullable;
  * <p>This class performs only rudimentary data checking. If the input files
  * are damaged, the output will likely also be damaged.
  *
+ * <p>A combiner created with more than one thread compresses entries on a
+ * thread pool, while entries that need no compression are still copied raw.
+ * The output is identical to that of a single-threaded combiner: entries are
+ * written in the order in which they were added.
+ *
  * <p>Also see:
  * <a href="http://www.pkware.com/documents/casestudies/APPNOTE.TXT">ZIP format</a>
  */
@@ -200,6 +211,17 @@ public class ZipCombiner implements AutoCloseable {
     }
   }
 
+  /** An output entry along with its data, as it is to be written. */
+  private static final class PreparedEntry {
+    private final ZipFileEntry entry;
+    private final byte[] data;
+
+    PreparedEntry(ZipFileEntry entry, byte[] data) {
+      this.entry = entry;
+      this.data = data;
+    }
+  }
+
   private final class FilterCallback implements StrategyCallback {
     private String filename;
     private final AtomicBoolean called = new AtomicBoolean();
@@ -245,9 +267,24 @@ public class ZipCombiner implements AutoCloseable {
     return new Inflater(true);
   }
 
+  /** Returns the DEFLATE compression of the given data. */
+  private static byte[] deflate(byte[] uncompressed) throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    copyStream(new DeflaterInputStream(new ByteArrayInputStream(uncompressed), getDeflater()),
+        compressed);
+    return compressed.toByteArray();
+  }
+
+  /** Returns all data from the input stream. */
+  private static byte[] readStream(InputStream in) throws IOException {
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    copyStream(in, buf);
+    return buf.toByteArray();
+  }
+
   /** Copies all data from the input stream to the output stream. */
   private static long copyStream(InputStream from, OutputStream to) throws IOException {
-    byte[] buf = new byte[0x1000];
+    byte[] buf = new byte[0x10000];
     long total = 0;
     int r;
     while ((r = from.read(buf)) != -1) {
@@ -265,6 +302,12 @@ public class ZipCombiner implements AutoCloseable {
   private final Map<String, ZipFileEntry> entries;
   private final Map<String, EntryAction> actions;
 
+  /** The pool compressing entries, or null if entries are compressed by the calling thread. */
+  @Nullable private final ExecutorService executor;
+  /** The entries added but not yet written, in order. */
+  private final ArrayDeque<Future<PreparedEntry>> pending;
+  private final int maxPending;
+
   /**
    * Creates a {@link ZipCombiner} for combining ZIP files using the specified {@link OutputMode},
    * {@link ZipEntryFilter}, and destination {@link OutputStream}.
@@ -274,12 +317,39 @@ public class ZipCombiner implements AutoCloseable {
    * @param out the {@link OutputStream} for writing the combined ZIP file
    */
   public ZipCombiner(OutputMode mode, ZipEntryFilter entryFilter, OutputStream out) {
+    this(mode, entryFilter, out, 1);
+  }
+
+  /**
+   * Creates a {@link ZipCombiner} for combining ZIP files using the specified {@link OutputMode},
+   * {@link ZipEntryFilter}, and destination {@link OutputStream}, which compresses entries using
+   * the specified number of threads.
+   *
+   * <p>Entries waiting for a preceding entry to be compressed are buffered in memory; at most a
+   * few entries per thread are buffered at once.
+   *
+   * @param mode the compression preference for the output ZIP file
+   * @param entryFilter the filter to use when adding ZIP files to the combined output
+   * @param out the {@link OutputStream} for writing the combined ZIP file
+   * @param threads the number of threads compressing entries; 1 compresses them on the calling
+   *     thread
+   */
+  public ZipCombiner(OutputMode mode, ZipEntryFilter entryFilter, OutputStream out,
+      int threads) {
+    checkArgument(threads >= 1, "The number of threads must be positive, was %s.", threads);
     this.mode = mode;
     this.entryFilter = entryFilter;
     this.callback = new FilterCallback();
-    this.out = new ZipWriter(new BufferedOutputStream(out), UTF_8);
+    this.out = new ZipWriter(new BufferedOutputStream(out, 0x10000), UTF_8);
     this.entries = new HashMap<>();
     this.actions = new HashMap<>();
+    this.executor = threads == 1 ? null : Executors.newFixedThreadPool(threads, r -> {
+      Thread thread = new Thread(r, "ZipCombiner");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.pending = new ArrayDeque<>();
+    this.maxPending = 4 * threads;
   }
 
   /**
@@ -324,6 +394,7 @@ public class ZipCombiner implements AutoCloseable {
    * @throws IOException if there is an error writing the prefix file
    */
   public void prependExecutable(InputStream in) throws IOException {
+    flushPending();
     out.startPrefixFile();
     copyStream(in, out);
     out.endPrefixFile();
@@ -361,9 +432,7 @@ public class ZipCombiner implements AutoCloseable {
     entry.setCompressedSize(0);
     entry.setTime(date != null ? date.getTime() : new Date().getTime());
     entry.setExtra(new ExtraDataList(extra));
-    out.putNextEntry(entry);
-    out.closeEntry();
-    entries.put(filename, entry);
+    writeEntry(entry, new ByteArrayInputStream(new byte[0]));
   }
 
   /**
@@ -410,10 +479,7 @@ public class ZipCombiner implements AutoCloseable {
     checkArgument(!entries.containsKey(entry.getName()), "Zip already contains a file named '%s'.",
         entry.getName());
 
-    ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
-    copyStream(in, uncompressed);
-
-    writeEntryFromBuffer(new ZipFileEntry(entry), uncompressed.toByteArray());
+    writeEntryFromBuffer(new ZipFileEntry(entry), readStream(in));
   }
 
   /**
@@ -481,6 +547,17 @@ public class ZipCombiner implements AutoCloseable {
 
   /** Writes an entry with the given name, date and external file attributes from the buffer. */
   private void writeEntryFromBuffer(ZipFileEntry entry, byte[] uncompressed) throws IOException {
+    if (executor == null) {
+      writeEntry(prepareEntryFromBuffer(entry, uncompressed));
+    } else {
+      entries.put(entry.getName(), entry);
+      addPending(executor.submit(() -> prepareEntryFromBuffer(entry, uncompressed)));
+    }
+  }
+
+  /** Computes the CRC and compressed data of an entry from its uncompressed data. */
+  private PreparedEntry prepareEntryFromBuffer(ZipFileEntry entry, byte[] uncompressed)
+      throws IOException {
     CRC32 crc = new CRC32();
     crc.update(uncompressed);
 
@@ -489,14 +566,12 @@ public class ZipCombiner implements AutoCloseable {
     if (mode == OutputMode.FORCE_STORED) {
       entry.setMethod(Compression.STORED);
       entry.setCompressedSize(uncompressed.length);
-      writeEntry(entry, new ByteArrayInputStream(uncompressed));
+      return new PreparedEntry(entry, uncompressed);
     } else {
-      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
-      copyStream(new DeflaterInputStream(new ByteArrayInputStream(uncompressed), getDeflater()),
-          compressed);
+      byte[] compressed = deflate(uncompressed);
       entry.setMethod(Compression.DEFLATED);
-      entry.setCompressedSize(compressed.size());
-      writeEntry(entry, new ByteArrayInputStream(compressed.toByteArray()));
+      entry.setCompressedSize(compressed.length);
+      return new PreparedEntry(entry, compressed);
     }
   }
 
@@ -525,14 +600,23 @@ public class ZipCombiner implements AutoCloseable {
 
     InputStream data;
     if (mode == OutputMode.FORCE_DEFLATE && entry.getMethod() != Compression.DEFLATED) {
-      // The output mode is deflate, but the entry compression is not. Create a deflater stream
-      // from the raw file data and deflate to a temporary byte array to determine the deflated
-      // size. Then use this byte array as the input stream for writing the entry.
-      ByteArrayOutputStream tmp = new ByteArrayOutputStream();
-      copyStream(new DeflaterInputStream(zip.getRawInputStream(entry), getDeflater()), tmp);
-      data = new ByteArrayInputStream(tmp.toByteArray());
+      // The output mode is deflate, but the entry compression is not. Deflate the raw file data
+      // to a temporary byte array to determine the deflated size, on the thread pool if there is
+      // one. Then use this byte array for writing the entry.
+      byte[] raw = readStream(zip.getRawInputStream(entry));
       outEntry.setMethod(Compression.DEFLATED);
-      outEntry.setCompressedSize(tmp.size());
+      if (executor != null) {
+        entries.put(outEntry.getName(), outEntry);
+        addPending(executor.submit(() -> {
+          byte[] compressed = deflate(raw);
+          outEntry.setCompressedSize(compressed.length);
+          return new PreparedEntry(outEntry, compressed);
+        }));
+        return;
+      }
+      byte[] compressed = deflate(raw);
+      data = new ByteArrayInputStream(compressed);
+      outEntry.setCompressedSize(compressed.length);
     } else if (mode == OutputMode.FORCE_STORED && entry.getMethod() != Compression.STORED) {
       // The output mode is stored, but the entry compression is not; create an inflater stream
       // from the raw file data. 
@@ -548,12 +632,65 @@ public class ZipCombiner implements AutoCloseable {
 
   /**
    * Writes the specified {@link ZipFileEntry} using the data from the given {@link InputStream}.
+   *
+   * <p>The data is streamed to the output unless entries added earlier are still being
+   * compressed, in which case it is buffered until they have been written.
    */
   private void writeEntry(ZipFileEntry entry, InputStream data) throws IOException {
-    out.putNextEntry(entry);
-    copyStream(data, out);
-    out.closeEntry();
     entries.put(entry.getName(), entry);
+    if (pending.isEmpty()) {
+      out.putNextEntry(entry);
+      copyStream(data, out);
+      out.closeEntry();
+    } else {
+      addPending(CompletableFuture.completedFuture(new PreparedEntry(entry, readStream(data))));
+    }
+  }
+
+  /** Writes a prepared entry. */
+  private void writeEntry(PreparedEntry prepared) throws IOException {
+    entries.put(prepared.entry.getName(), prepared.entry);
+    out.putNextEntry(prepared.entry);
+    out.write(prepared.data);
+    out.closeEntry();
+  }
+
+  /**
+   * Queues an entry to be written after the entries already queued, writing the oldest ones if
+   * too many are queued.
+   */
+  private void addPending(Future<PreparedEntry> entry) throws IOException {
+    pending.add(entry);
+    while (pending.size() > maxPending || (!pending.isEmpty() && pending.peek().isDone())) {
+      writeEntry(getPrepared(pending.remove()));
+    }
+  }
+
+  /** Writes all queued entries. */
+  private void flushPending() throws IOException {
+    while (!pending.isEmpty()) {
+      writeEntry(getPrepared(pending.remove()));
+    }
+  }
+
+  /** Waits for an entry to be prepared, rethrowing any exception thrown in preparing it. */
+  private static PreparedEntry getPrepared(Future<PreparedEntry> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while compressing zip entries.", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
   }
 
   /**
@@ -592,6 +729,13 @@ public class ZipCombiner implements AutoCloseable {
         writeEntryFromBuffer(e, uncompressed.toByteArray());
       }
     }
+    try {
+      flushPending();
+    } finally {
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+    }
     out.finish();
   }
 
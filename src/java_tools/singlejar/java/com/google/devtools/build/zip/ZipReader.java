@@ -22,7 +22,8 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
-import java.nio.channels.Channels;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.Collection;
 import java.util.zip.ZipEntry;
@@ -42,6 +43,10 @@ import java.util.zip.ZipFile;
  *
  * <p><em>NOTE:</em> The entries are read from the central directory. If the entry is not listed
  * there, it will not be returned from {@link #entries()} or {@link #getEntry(String)}.
+ *
+ * <p>Entry data is read with positional reads, so the streams returned by {@link
+ * #getInputStream(ZipFileEntry)} and {@link #getRawInputStream(ZipFileEntry)} can be opened and
+ * read concurrently by several threads, each using its own stream.
  */
 public class ZipReader implements Closeable, AutoCloseable {
 
@@ -330,6 +335,45 @@ public class ZipReader implements Closeable, AutoCloseable {
    * @throws IOException if an I/O error has occurred
    */
   protected InputStream getStreamAt(long fileOffset) throws IOException {
-    return new BufferedInputStream(Channels.newInputStream(in.getChannel().position(fileOffset)));
+    return new BufferedInputStream(new PositionalInputStream(in.getChannel(), fileOffset));
+  }
+
+  /**
+   * An input stream reading a file channel from a given offset, without using or changing the
+   * position of the channel.
+   */
+  private static class PositionalInputStream extends InputStream {
+    private final FileChannel channel;
+    private long position;
+
+    PositionalInputStream(FileChannel channel, long position) {
+      this.channel = channel;
+      this.position = position;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      int read = channel.read(ByteBuffer.wrap(b, off, len), position);
+      if (read > 0) {
+        position += read;
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = Math.max(0, Math.min(n, channel.size() - position));
+      position += skipped;
+      return skipped;
+    }
   }
 }
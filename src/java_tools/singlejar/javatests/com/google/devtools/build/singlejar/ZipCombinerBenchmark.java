@@ -0,0 +1,118 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.singlejar;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.devtools.build.singlejar.ZipCombiner.OutputMode;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Measures the time taken by {@link ZipCombiner} to combine a set of synthetic jars, sequentially
+ * and with a thread pool, in each {@link OutputMode}.
+ *
+ * <p>Usage: {@code ZipCombinerBenchmark [jars [entries_per_jar [entry_size [threads]]]]}
+ */
+public final class ZipCombinerBenchmark {
+
+  private ZipCombinerBenchmark() {}
+
+  public static void main(String[] args) throws IOException {
+    int jars = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    int entriesPerJar = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+    int entrySize = args.length > 2 ? Integer.parseInt(args[2]) : 4096;
+    int threads =
+        args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+    File dir = Files.createTempDirectory("zipcombiner").toFile();
+    try {
+      List<File> inputs = new ArrayList<>();
+      Random random = new Random(0);
+      for (int i = 0; i < jars; i++) {
+        File jar = new File(dir, "input" + i + ".jar");
+        writeSyntheticJar(jar, i, entriesPerJar, entrySize, random);
+        inputs.add(jar);
+      }
+      File output = new File(dir, "output.jar");
+      System.out.printf(
+          "%d jars of %d entries of %d bytes, half of them stored%n",
+          jars, entriesPerJar, entrySize);
+      for (OutputMode mode : OutputMode.values()) {
+        for (int t : new int[] {1, threads}) {
+          // Warm up, then measure.
+          combine(inputs, output, mode, t);
+          long start = System.nanoTime();
+          combine(inputs, output, mode, t);
+          long millis = (System.nanoTime() - start) / 1_000_000;
+          System.out.printf(
+              "%-13s %2d threads: %6d ms, %d bytes%n", mode, t, millis, output.length());
+        }
+      }
+    } finally {
+      for (File f : dir.listFiles()) {
+        f.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  private static void combine(List<File> inputs, File output, OutputMode mode, int threads)
+      throws IOException {
+    try (OutputStream out = new FileOutputStream(output);
+        ZipCombiner combiner = new ZipCombiner(mode, new CopyEntryFilter(), out, threads)) {
+      for (File input : inputs) {
+        combiner.addZip(input);
+      }
+    }
+  }
+
+  /** Writes a jar of compressible entries, alternately deflated and stored. */
+  private static void writeSyntheticJar(
+      File file, int index, int entries, int entrySize, Random random) throws IOException {
+    String[] words = {"class", "public", "static", "final", "void", "int", "return", "new"};
+    try (ZipOutputStream out =
+        new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      for (int i = 0; i < entries; i++) {
+        StringBuilder content = new StringBuilder();
+        while (content.length() < entrySize) {
+          content.append(words[random.nextInt(words.length)]).append(random.nextInt(100));
+        }
+        byte[] data = content.substring(0, entrySize).getBytes(UTF_8);
+        ZipEntry entry = new ZipEntry("p" + index + "/C" + i + ".class");
+        if (i % 2 == 1) {
+          CRC32 crc = new CRC32();
+          crc.update(data);
+          entry.setMethod(ZipEntry.STORED);
+          entry.setSize(data.length);
+          entry.setCrc(crc.getValue());
+        }
+        out.putNextEntry(entry);
+        out.write(data);
+        out.closeEntry();
+      }
+    }
+  }
+}
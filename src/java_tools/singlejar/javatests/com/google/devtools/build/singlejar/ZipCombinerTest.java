@@ -797,4 +797,48 @@ public class ZipCombinerTest {
     assertThat(zipInput.getNextEntry()).isNull();
     new ZipTester(out.toByteArray()).validate();
   }
+
+  private File mixedZip(int index) throws IOException {
+    ZipFactory factory = new ZipFactory();
+    for (int i = 0; i < 20; i++) {
+      factory.addFile("dir" + index + "/deflated" + i, "Deflated " + index + " " + i, true);
+      factory.addFile("dir" + index + "/stored" + i, "Stored " + index + " " + i, false);
+    }
+    factory.addFile("shared.txt", "Shared " + index);
+    factory.addFile("META-INF/services/Service", "Impl" + index + "\n");
+    return writeInputStreamToFile(factory.toInputStream());
+  }
+
+  private byte[] combineMixedZips(OutputMode mode, int threads) throws IOException {
+    ZipEntryFilter filter =
+        (filename, callback) -> {
+          if (filename.startsWith("META-INF/services/")) {
+            callback.customMerge(ZipCombiner.DOS_EPOCH, new ConcatenateStrategy());
+          } else {
+            callback.copy(null);
+          }
+        };
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ZipCombiner zipCombiner = new ZipCombiner(mode, filter, out, threads)) {
+      zipCombiner.addDirectory("dir/", ZipCombiner.DOS_EPOCH);
+      for (int i = 0; i < 3; i++) {
+        zipCombiner.addZip(mixedZip(i));
+        zipCombiner.addFile("added" + i, ZipCombiner.DOS_EPOCH, asStream("Added " + i));
+      }
+    }
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testParallelOutputIsIdenticalToSequential() throws IOException {
+    for (OutputMode mode : OutputMode.values()) {
+      byte[] sequential = combineMixedZips(mode, 1);
+      byte[] parallel = combineMixedZips(mode, 4);
+      assertThat(parallel).isEqualTo(sequential);
+    }
+    ZipInputStream zipInput =
+        new ZipInputStream(new ByteArrayInputStream(combineMixedZips(OutputMode.DONT_CARE, 4)));
+    assertEntry(zipInput, "dir/", new byte[0]);
+    assertEntry(zipInput, "dir0/deflated0", "Deflated 0 0");
+  }
 }
@@ -504,6 +504,11 @@ static vector<string> GetServerExeArgs(const blaze_util::Path &jvm_path,
   } else {
     result.push_back("--nowatchfs");
   }
+  if (startup_options.experimental_compact_skyframe_graph) {
+    result.push_back("--experimental_compact_skyframe_graph");
+  } else {
+    result.push_back("--noexperimental_compact_skyframe_graph");
+  }
   if (startup_options.fatal_event_bus_exceptions) {
     result.push_back("--fatal_event_bus_exceptions");
   } else {
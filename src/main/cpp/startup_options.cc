@@ -80,6 +80,7 @@ StartupOptions::StartupOptions(const string &product_name,
       oom_more_eagerly_threshold(100),
       write_command_log(true),
       watchfs(false),
+      experimental_compact_skyframe_graph(false),
       fatal_event_bus_exceptions(false),
       command_port(0),
       connect_timeout_secs(30),
@@ -135,6 +136,8 @@ StartupOptions::StartupOptions(const string &product_name,
   RegisterNullaryStartupFlag("preemptible", &preemptible);
   RegisterNullaryStartupFlag("expand_configs_in_place",
                              &expand_configs_in_place);
+  RegisterNullaryStartupFlag("experimental_compact_skyframe_graph",
+                             &experimental_compact_skyframe_graph);
   RegisterNullaryStartupFlag("fatal_event_bus_exceptions",
                              &fatal_event_bus_exceptions);
   RegisterNullaryStartupFlag("host_jvm_debug", &host_jvm_debug);
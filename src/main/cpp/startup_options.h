@@ -196,6 +196,9 @@ class StartupOptions {
   // If true, Blaze will listen to OS-level file change notifications.
   bool watchfs;
 
+  // If true, the server stores the Skyframe graph with compact node entries.
+  bool experimental_compact_skyframe_graph;
+
   // Temporary flag for enabling EventBus exceptions to be fatal.
   bool fatal_event_bus_exceptions;
 
@@ -0,0 +1,57 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link ResourcePrioritizer} that prefers the actions expected to hold their resources the
+ * longest, so that long running actions are not stuck behind a stream of short ones at the end of a
+ * build.
+ *
+ * <p>The expected duration of an action is the moving average of the durations of the previous
+ * actions with the same mnemonic, which is kept for the lifetime of the server. Actions with an
+ * unknown mnemonic get the lowest priority.
+ */
+public final class LongestFirstPrioritizer implements ResourcePrioritizer {
+
+  private static final LongestFirstPrioritizer INSTANCE = new LongestFirstPrioritizer();
+
+  /** Weight of the most recent duration in the moving average, as a power of two. */
+  private static final int DECAY_SHIFT = 2;
+
+  private final ConcurrentHashMap<String, Long> averageMillisByMnemonic = new ConcurrentHashMap<>();
+
+  @VisibleForTesting
+  LongestFirstPrioritizer() {}
+
+  /** Returns the instance shared by all builds of this server. */
+  public static LongestFirstPrioritizer instance() {
+    return INSTANCE;
+  }
+
+  @Override
+  public long getPriority(ActionExecutionMetadata owner, ResourceSet resources) {
+    return averageMillisByMnemonic.getOrDefault(owner.getMnemonic(), 0L);
+  }
+
+  @Override
+  public void actionCompleted(ActionExecutionMetadata owner, long durationNanos) {
+    long millis = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+    averageMillisByMnemonic.merge(
+        owner.getMnemonic(), millis, (average, last) -> average + ((last - average) >> DECAY_SHIFT));
+  }
+}
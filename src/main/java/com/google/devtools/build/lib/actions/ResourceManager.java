@@ -18,17 +18,20 @@ import static com.google.devtools.build.lib.profiler.AutoProfiler.profiled;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.clock.BlazeClock;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.profiler.AutoProfiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.unix.ProcMeminfoParser;
 import com.google.devtools.build.lib.util.OS;
-import com.google.devtools.build.lib.util.Pair;
 import java.io.IOException;
+import java.util.Comparator;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Used to keep track of resources consumed by the Blaze action execution threads and throttle them
@@ -57,6 +60,11 @@ import java.util.concurrent.CountDownLatch;
  * guarantees that at least one thread will always be able to acquire any amount of requested
  * resources (even if it is greater than amount of available resources). Therefore, assuming that
  * threads correctly release acquired resources, Blaze will never be fully blocked.
+ *
+ * <p>The used resources are updated with compare-and-set, so that acquiring resources while nobody
+ * is waiting and releasing them while nobody is waiting never lock. Waiting requests are kept
+ * sorted by the priority assigned by the {@link ResourcePrioritizer}; only handing out released
+ * resources to them is serialized.
  */
 @ThreadSafe
 public class ResourceManager {
@@ -69,12 +77,14 @@ public class ResourceManager {
     final ResourceManager rm;
     final ActionExecutionMetadata actionMetadata;
     final ResourceSet resourceSet;
+    final long acquiredNanos;
 
     public ResourceHandle(ResourceManager rm, ActionExecutionMetadata actionMetadata,
         ResourceSet resources) {
       this.rm = rm;
       this.actionMetadata = actionMetadata;
       this.resourceSet = resources;
+      this.acquiredNanos = BlazeClock.nanoTime();
     }
 
     /**
@@ -83,6 +93,72 @@ public class ResourceManager {
     @Override
     public void close() {
       rm.releaseResources(actionMetadata, resourceSet);
+      rm.prioritizer.actionCompleted(actionMetadata, BlazeClock.nanoTime() - acquiredNanos);
+    }
+  }
+
+  /** An immutable snapshot of the used resources. */
+  private static final class Usage {
+    static final Usage NONE = new Usage(0, 0, 0);
+
+    final double cpu;
+    final double ram;
+    final int localTestCount;
+
+    Usage(double cpu, double ram, int localTestCount) {
+      this.cpu = cpu;
+      this.ram = ram;
+      this.localTestCount = localTestCount;
+    }
+
+    boolean isNone() {
+      return cpu == 0.0 && ram == 0.0 && localTestCount == 0;
+    }
+
+    Usage plus(ResourceSet resources) {
+      return new Usage(
+          cpu + resources.getCpuUsage(),
+          ram + resources.getMemoryMb(),
+          localTestCount + resources.getLocalTestCount());
+    }
+
+    Usage minus(ResourceSet resources) {
+      // TODO(bazel-team): (2010) rounding error can accumulate and value below can end up being
+      // e.g. 1E-15. So if it is small enough, we set it to 0. But maybe there is a better solution.
+      double epsilon = 0.0001;
+      double newCpu = cpu - resources.getCpuUsage();
+      double newRam = ram - resources.getMemoryMb();
+      return new Usage(
+          newCpu < epsilon ? 0 : newCpu,
+          newRam < epsilon ? 0 : newRam,
+          localTestCount - resources.getLocalTestCount());
+    }
+  }
+
+  /** A thread blocked in {@link #acquireResources}. */
+  private static final class Request {
+    static final int WAITING = 0;
+    static final int GRANTED = 1;
+    static final int CANCELLED = 2;
+
+    // Requests that need neither CPU nor RAM don't compete with the others, and come first so
+    // that processWaitingThreads() can stop at the first request that needs CPU or RAM once they
+    // are exhausted.
+    static final Comparator<Request> ORDER =
+        Comparator.<Request, Boolean>comparing(r -> needsCpuOrRam(r.resources))
+            .thenComparing(Comparator.<Request>comparingLong(r -> r.priority).reversed())
+            .thenComparingLong(r -> r.sequence);
+
+    final ResourceSet resources;
+    final long priority;
+    final long sequence;
+    final CountDownLatch latch = new CountDownLatch(1);
+    final AtomicInteger state = new AtomicInteger(WAITING);
+
+    Request(ResourceSet resources, long priority, long sequence) {
+      this.resources = resources;
+      this.priority = priority;
+      this.sequence = sequence;
     }
   }
 
@@ -117,35 +193,32 @@ public class ResourceManager {
   private static final double MIN_NECESSARY_CPU_RATIO = 0.6;
   private static final double MIN_NECESSARY_RAM_RATIO = 1.0;
 
-  // List of blocked threads. Associated CountDownLatch object will always
-  // be initialized to 1 during creation in the acquire() method.
-  private final List<Pair<ResourceSet, CountDownLatch>> requestList;
+  // Blocked threads, in the order in which they should be unblocked. A request is only ever
+  // added and granted while holding the lock on this object, but may be cancelled and removed
+  // concurrently by its own thread.
+  private final ConcurrentSkipListSet<Request> requests =
+      new ConcurrentSkipListSet<>(Request.ORDER);
+
+  private final AtomicLong requestCounter = new AtomicLong();
 
   // The total amount of resources on the local host. Must be set by
   // an explicit call to setAvailableResources(), often using
   // LocalHostCapacity.getLocalHostCapacity() as an argument.
-  private ResourceSet staticResources = null;
-
-  @VisibleForTesting public ResourceSet availableResources = null;
-
-  // Used amount of CPU capacity (where 1.0 corresponds to the one fully
-  // occupied CPU core. Corresponds to the CPU resource definition in the
-  // ResourceSet class.
-  private double usedCpu;
+  private volatile ResourceSet staticResources = null;
 
-  // Used amount of RAM capacity in MB. Corresponds to the RAM resource
-  // definition in the ResourceSet class.
-  private double usedRam;
+  @VisibleForTesting public volatile ResourceSet availableResources = null;
 
-  // Used local test count. Corresponds to the local test count definition in the ResourceSet class.
-  private int usedLocalTestCount;
+  // Used amount of CPU capacity (where 1.0 corresponds to the one fully occupied CPU core), RAM
+  // capacity in MB and local test count. Correspond to the resource definitions in the ResourceSet
+  // class.
+  private final AtomicReference<Usage> usage = new AtomicReference<>(Usage.NONE);
 
   // Determines if local memory estimates are used.
-  private boolean localMemoryEstimate = false;
+  private volatile boolean localMemoryEstimate = false;
 
-  private ResourceManager() {
-    requestList = new LinkedList<>();
-  }
+  private volatile ResourcePrioritizer prioritizer = ResourcePrioritizer.FIFO;
+
+  private ResourceManager() {}
 
   @VisibleForTesting public static ResourceManager instanceForTestingOnly() {
     return new ResourceManager();
@@ -156,14 +229,13 @@ public class ResourceManager {
    * Note - it does not reset available resources. Use separate call to setAvailableResources().
    */
   public synchronized void resetResourceUsage() {
-    usedCpu = 0;
-    usedRam = 0;
-    usedLocalTestCount = 0;
-    for (Pair<ResourceSet, CountDownLatch> request : requestList) {
-      // CountDownLatch can be set only to 0 or 1.
-      request.second.countDown();
+    usage.set(Usage.NONE);
+    for (Request request : requests) {
+      if (request.state.compareAndSet(Request.WAITING, Request.GRANTED)) {
+        request.latch.countDown();
+      }
     }
-    requestList.clear();
+    requests.clear();
   }
 
   /**
@@ -189,6 +261,14 @@ public class ResourceManager {
     localMemoryEstimate = value;
   }
 
+  /**
+   * Sets the order in which waiting threads acquire resources. Only affects requests that start
+   * waiting afterwards.
+   */
+  public void setPrioritizer(ResourcePrioritizer prioritizer) {
+    this.prioritizer = Preconditions.checkNotNull(prioritizer);
+  }
+
   /**
    * Acquires requested resource set. Will block if resource is not available.
    * NB! This method must be thread-safe!
@@ -202,23 +282,18 @@ public class ResourceManager {
 
     AutoProfiler p =
         profiled("Aquiring resources for: " + owner.describe(), ProfilerTask.ACTION_LOCK);
-    CountDownLatch latch = null;
+    Request request = null;
     try {
-      latch = acquire(resources);
-      if (latch != null) {
-        latch.await();
+      request = acquire(owner, resources);
+      if (request != null) {
+        request.latch.await();
       }
     } catch (InterruptedException e) {
-      // Synchronize on this to avoid any racing with #processWaitingThreads
-      synchronized (this) {
-        if (latch.getCount() == 0) {
-          // Resources already acquired by other side. Release them, but not inside this
-          // synchronized block to avoid deadlock.
-          release(resources);
-        } else {
-          // Inform other side that resources shouldn't be acquired.
-          latch.countDown();
-        }
+      if (!request.state.compareAndSet(Request.WAITING, Request.CANCELLED)) {
+        // Resources already acquired by other side. Release them.
+        release(resources);
+      } else {
+        requests.remove(request);
       }
       throw e;
     }
@@ -226,7 +301,7 @@ public class ResourceManager {
     threadLocked.set(true);
 
     // Profile acquisition only if it waited for resource to become available.
-    if (latch != null) {
+    if (request != null) {
       p.complete();
     }
 
@@ -245,16 +320,7 @@ public class ResourceManager {
     Preconditions.checkState(
         !threadHasResources(), "tryAcquire with existing resource lock during %s", owner);
 
-    boolean acquired = false;
-
-    synchronized (this) {
-      if (areResourcesAvailable(resources)) {
-        incrementResources(resources);
-        acquired = true;
-      }
-    }
-
-    if (acquired) {
+    if (tryIncrementResources(resources, getSystemRemainingRam())) {
       threadLocked.set(resources != ResourceSet.ZERO);
       return new ResourceHandle(this, owner, resources);
     }
@@ -262,17 +328,35 @@ public class ResourceManager {
     return null;
   }
 
-  private void incrementResources(ResourceSet resources) {
-    usedCpu += resources.getCpuUsage();
-    usedRam += resources.getMemoryMb();
-    usedLocalTestCount += resources.getLocalTestCount();
+  /**
+   * Marks {@code resources} as used if they are available.
+   *
+   * @param systemRemainingRam the result of {@link #getSystemRemainingRam}
+   */
+  private boolean tryIncrementResources(ResourceSet resources, double systemRemainingRam) {
+    while (true) {
+      Usage current = usage.get();
+      if (!areResourcesAvailable(current, resources, systemRemainingRam)) {
+        return false;
+      }
+      if (usage.compareAndSet(current, current.plus(resources))) {
+        return true;
+      }
+    }
+  }
+
+  private void decrementResources(ResourceSet resources) {
+    Usage current;
+    do {
+      current = usage.get();
+    } while (!usage.compareAndSet(current, current.minus(resources)));
   }
 
   /**
    * Return true if any resources have been claimed through this manager.
    */
-  public synchronized boolean inUse() {
-    return usedCpu != 0.0 || usedRam != 0.0 || usedLocalTestCount != 0 || !requestList.isEmpty();
+  public boolean inUse() {
+    return !usage.get().isNone() || !requests.isEmpty();
   }
 
 
@@ -309,32 +393,31 @@ public class ResourceManager {
     }
   }
 
-  private synchronized CountDownLatch acquire(ResourceSet resources) {
-    if (areResourcesAvailable(resources)) {
-      incrementResources(resources);
+  /**
+   * Acquires the resources if they are available, and otherwise returns the request to wait for.
+   */
+  private Request acquire(ActionExecutionMetadata owner, ResourceSet resources) {
+    // Don't overtake waiting requests, which may have a higher priority. Requests for no resources
+    // never wait, so that they need not be considered when resources are released.
+    if ((requests.isEmpty() || isZero(resources))
+        && tryIncrementResources(resources, getSystemRemainingRam())) {
       return null;
     }
-    Pair<ResourceSet, CountDownLatch> request =
-      new Pair<>(resources, new CountDownLatch(1));
-    requestList.add(request);
-    return request.second;
+    Request request =
+        new Request(
+            resources,
+            prioritizer.getPriority(owner, resources),
+            requestCounter.getAndIncrement());
+    requests.add(request);
+    // Resources may have been released between the check above and adding the request, in which
+    // case the releasing thread may not have seen the request.
+    processWaitingThreads();
+    return request;
   }
 
-  private synchronized boolean release(ResourceSet resources) {
-    usedCpu -= resources.getCpuUsage();
-    usedRam -= resources.getMemoryMb();
-    usedLocalTestCount -= resources.getLocalTestCount();
-
-    // TODO(bazel-team): (2010) rounding error can accumulate and value below can end up being
-    // e.g. 1E-15. So if it is small enough, we set it to 0. But maybe there is a better solution.
-    double epsilon = 0.0001;
-    if (usedCpu < epsilon) {
-      usedCpu = 0;
-    }
-    if (usedRam < epsilon) {
-      usedRam = 0;
-    }
-    if (!requestList.isEmpty()) {
+  private boolean release(ResourceSet resources) {
+    decrementResources(resources);
+    if (!requests.isEmpty()) {
       processWaitingThreads();
       return true;
     }
@@ -343,30 +426,90 @@ public class ResourceManager {
 
   /**
    * Tries to unblock one or more waiting threads if there are sufficient resources available.
+   *
+   * <p>Waiting threads are unblocked in priority order. The scan stops as soon as neither CPU nor
+   * RAM are left and only requests that need one of them remain.
    */
   private synchronized void processWaitingThreads() {
-    Iterator<Pair<ResourceSet, CountDownLatch>> iterator = requestList.iterator();
+    double systemRemainingRam = getSystemRemainingRam();
+    Iterator<Request> iterator = requests.iterator();
     while (iterator.hasNext()) {
-      Pair<ResourceSet, CountDownLatch> request = iterator.next();
-      if (request.second.getCount() != 0) {
-        if (areResourcesAvailable(request.first)) {
-          incrementResources(request.first);
-          request.second.countDown();
-          iterator.remove();
-        }
-      } else {
+      Request request = iterator.next();
+      if (request.state.get() != Request.WAITING) {
         // Cancelled by other side.
         iterator.remove();
+        continue;
+      }
+      if (tryIncrementResources(request.resources, systemRemainingRam)) {
+        iterator.remove();
+        if (request.state.compareAndSet(Request.WAITING, Request.GRANTED)) {
+          request.latch.countDown();
+        } else {
+          // Cancelled while the resources were acquired on its behalf.
+          decrementResources(request.resources);
+        }
+      } else if (needsCpuOrRam(request.resources)
+          && isExhausted(usage.get(), systemRemainingRam)) {
+        break;
+      }
+    }
+  }
+
+  private static boolean isZero(ResourceSet resources) {
+    return resources.getCpuUsage() == 0.0
+        && resources.getMemoryMb() == 0.0
+        && resources.getLocalTestCount() == 0;
+  }
+
+  private static boolean needsCpuOrRam(ResourceSet resources) {
+    return resources.getCpuUsage() != 0.0 || resources.getMemoryMb() != 0.0;
+  }
+
+  // Returns true if no request that needs CPU or RAM can be satisfied.
+  private boolean isExhausted(Usage current, double systemRemainingRam) {
+    return current.cpu > 0.0
+        && current.cpu >= availableResources.getCpuUsage()
+        && current.ram > 0.0
+        && getRemainingRam(current, systemRemainingRam) <= 0;
+  }
+
+  /**
+   * Returns the currently free system memory minus the reserved memory if local memory estimates
+   * are used, and NaN otherwise. Reading it is expensive, so it is read once per scan over the
+   * waiting requests.
+   */
+  private double getSystemRemainingRam() {
+    if (localMemoryEstimate && OS.getCurrent() == OS.LINUX) {
+      try {
+        ProcMeminfoParser memInfo = new ProcMeminfoParser();
+        double totalFreeRam = memInfo.getFreeRamKb() / 1024;
+        double reserveMemory = staticResources.getMemoryMb();
+        return totalFreeRam - reserveMemory;
+      } catch (IOException e) {
+        // If we get an error trying to determine the currently free system memory for any reason,
+        // just continue on.  It is not terribly clear what could cause this, aside from an
+        // unexpected ABI breakage in the linux kernel or an OS-level misconfiguration such as not
+        // having permissions to read /proc/meminfo.
+        //
+        // Returning NaN results in behavior as if localMemoryEstimate was disabled.
       }
     }
+    return Double.NaN;
+  }
+
+  private double getRemainingRam(Usage current, double systemRemainingRam) {
+    return Double.isNaN(systemRemainingRam)
+        ? availableResources.getMemoryMb() - current.ram
+        : systemRemainingRam;
   }
 
   // Method will return true if all requested resources are considered to be available.
-  private boolean areResourcesAvailable(ResourceSet resources) {
+  private boolean areResourcesAvailable(
+      Usage current, ResourceSet resources, double systemRemainingRam) {
     Preconditions.checkNotNull(availableResources);
     // Comparison below is robust, since any calculation errors will be fixed
     // by the release() method.
-    if (usedCpu == 0.0 && usedRam == 0.0 && usedLocalTestCount == 0) {
+    if (current.isNone()) {
       return true;
     }
     // Use only MIN_NECESSARY_???_RATIO of the resource value to check for
@@ -379,27 +522,9 @@ public class ResourceManager {
     int localTestCount = resources.getLocalTestCount();
 
     double availableCpu = availableResources.getCpuUsage();
-    double availableRam = availableResources.getMemoryMb();
     int availableLocalTestCount = availableResources.getLocalTestCount();
 
-    double remainingRam = availableRam - usedRam;
-
-    if (localMemoryEstimate && OS.getCurrent() == OS.LINUX) {
-      try {
-        ProcMeminfoParser memInfo = new ProcMeminfoParser();
-        double totalFreeRam = memInfo.getFreeRamKb() / 1024;
-        double reserveMemory = staticResources.getMemoryMb();
-        remainingRam = totalFreeRam - reserveMemory;
-      } catch (IOException e) {
-        // If we get an error trying to determine the currently free system memory for any reason,
-        // just continue on.  It is not terribly clear what could cause this, aside from an
-        // unexpected ABI breakage in the linux kernel or an OS-level misconfiguration such as not
-        // having permissions to read /proc/meminfo.
-        //
-        // remainingRam is initialized to a value that results in behavior as if localMemoryEstimate
-        // was disabled.
-      }
-    }
+    double remainingRam = getRemainingRam(current, systemRemainingRam);
 
     // Resources are considered available if any one of the conditions below is true:
     // 1) If resource is not requested at all, it is available.
@@ -408,20 +533,23 @@ public class ResourceManager {
     // ensure that at any given time, at least one thread is able to acquire
     // resources even if it requests more than available.
     // 3) If used resource amount is less than total available resource amount.
-    boolean cpuIsAvailable = cpu == 0.0 || usedCpu == 0.0 || usedCpu + cpu <= availableCpu;
-    boolean ramIsAvailable = ram == 0.0 || usedRam == 0.0 || ram <= remainingRam;
-    boolean localTestCountIsAvailable = localTestCount == 0 || usedLocalTestCount == 0
-        || usedLocalTestCount + localTestCount <= availableLocalTestCount;
+    boolean cpuIsAvailable = cpu == 0.0 || current.cpu == 0.0 || current.cpu + cpu <= availableCpu;
+    boolean ramIsAvailable = ram == 0.0 || current.ram == 0.0 || ram <= remainingRam;
+    boolean localTestCountIsAvailable =
+        localTestCount == 0
+            || current.localTestCount == 0
+            || current.localTestCount + localTestCount <= availableLocalTestCount;
     return cpuIsAvailable && ramIsAvailable && localTestCountIsAvailable;
   }
 
   @VisibleForTesting
-  synchronized int getWaitCount() {
-    return requestList.size();
+  int getWaitCount() {
+    return requests.size();
   }
 
   @VisibleForTesting
-  synchronized boolean isAvailable(double ram, double cpu, int localTestCount) {
-    return areResourcesAvailable(ResourceSet.create(ram, cpu, localTestCount));
+  boolean isAvailable(double ram, double cpu, int localTestCount) {
+    return areResourcesAvailable(
+        usage.get(), ResourceSet.create(ram, cpu, localTestCount), getSystemRemainingRam());
   }
 }
@@ -0,0 +1,43 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions;
+
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+
+/**
+ * Decides in which order the {@link ResourceManager} hands out resources to the actions waiting for
+ * them.
+ *
+ * <p>Whenever resources are released, waiting actions are considered in decreasing order of their
+ * priority, and in the order they started waiting among equal priorities. Actions that do not fit
+ * into the released resources may still be overtaken by lower priority ones that do.
+ */
+@ThreadSafe
+public interface ResourcePrioritizer {
+
+  /** Hands out resources in the order they were requested. */
+  ResourcePrioritizer FIFO = (owner, resources) -> 0;
+
+  /**
+   * Returns the priority of {@code owner} requesting {@code resources}. Called once for every
+   * request that has to wait.
+   */
+  long getPriority(ActionExecutionMetadata owner, ResourceSet resources);
+
+  /**
+   * Called when {@code owner} releases resources that it held for {@code durationNanos}, so that
+   * implementations can learn from past actions.
+   */
+  default void actionCompleted(ActionExecutionMetadata owner, long durationNanos) {}
+}
@@ -21,6 +21,8 @@ import com.google.devtools.build.lib.actions.cache.Protos.ActionCacheStatistics;
 import com.google.devtools.build.lib.actions.cache.Protos.ActionCacheStatistics.MissReason;
 import com.google.devtools.build.lib.clock.Clock;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ConditionallyThreadSafe;
+import com.google.devtools.build.lib.metrics.Counter;
+import com.google.devtools.build.lib.metrics.MetricRegistry;
 import com.google.devtools.build.lib.profiler.AutoProfiler;
 import com.google.devtools.build.lib.profiler.GoogleAutoProfilerUtils;
 import com.google.devtools.build.lib.util.PersistentMap;
@@ -46,7 +48,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * An implementation of the ActionCache interface that uses a {@link StringIndexer} to reduce memory
- * footprint and saves cached actions using the {@link PersistentMap}.
+ * footprint and saves cached actions using the {@link PersistentMap}, or optionally the off-heap
+ * {@link MappedActionMap}.
  */
 @ConditionallyThreadSafe // condition: each instance must instantiated with
 // different cache root
@@ -65,7 +68,41 @@ public class CompactPersistentActionCache implements ActionCache {
 
   private static final int VERSION = 12;
 
-  private final class ActionMap extends PersistentMap<Integer, byte[]> {
+  // Server-lifetime totals, unlike the per-cache statistics below.
+  private static final Counter HITS_METRIC =
+      MetricRegistry.instance().counter("bazel_action_cache_hits", "Action cache hits.");
+  private static final Map<MissReason, Counter> MISSES_METRIC = new EnumMap<>(MissReason.class);
+
+  static {
+    for (MissReason reason : MissReason.values()) {
+      if (reason != MissReason.UNRECOGNIZED) {
+        MISSES_METRIC.put(
+            reason,
+            MetricRegistry.instance()
+                .counter(
+                    "bazel_action_cache_misses", "Action cache misses.", "reason", reason.name()));
+      }
+    }
+  }
+
+  /** The persistent store of the encoded entries, keyed by the indices of their action keys. */
+  interface ActionStore extends Map<Integer, byte[]> {
+    /**
+     * Writes all updates to disk and returns the size of the store on disk.
+     *
+     * @throws IOException if there was an I/O error during this call, or any update since the last
+     *     save
+     */
+    long save() throws IOException;
+
+    /**
+     * Releases the files held open by the store, which must not be used afterwards. Updates since
+     * the last {@link #save} may be lost.
+     */
+    void close() throws IOException;
+  }
+
+  private final class ActionMap extends PersistentMap<Integer, byte[]> implements ActionStore {
     private final Clock clock;
     private long nextUpdateSecs;
 
@@ -112,6 +149,11 @@ public class CompactPersistentActionCache implements ActionCache {
       }
     }
 
+    @Override
+    public void close() {
+      // Saving closes the journal, and the map holds no other files open.
+    }
+
     @Override
     protected Integer readKey(DataInputStream in) throws IOException {
       return in.readInt();
@@ -149,13 +191,23 @@ public class CompactPersistentActionCache implements ActionCache {
     }
   }
 
-  private final PersistentMap<Integer, byte[]> map;
+  private final ActionStore map;
   private final PersistentStringIndexer indexer;
 
   private final AtomicInteger hits = new AtomicInteger();
   private final Map<MissReason, AtomicInteger> misses = new EnumMap<>(MissReason.class);
 
   public CompactPersistentActionCache(Path cacheRoot, Clock clock) throws IOException {
+    this(cacheRoot, clock, /* memoryMapped= */ false);
+  }
+
+  /**
+   * Creates an action cache in {@code cacheRoot}. If {@code memoryMapped} is true, the entries are
+   * kept in a {@link MappedActionMap}, which requires {@code cacheRoot} to be on the local file
+   * system; the entries of the other format are ignored.
+   */
+  public CompactPersistentActionCache(Path cacheRoot, Clock clock, boolean memoryMapped)
+      throws IOException {
     Path cacheFile = cacheFile(cacheRoot);
     Path journalFile = journalFile(cacheRoot);
     Path indexFile = cacheRoot.getChild("filename_index_v" + VERSION + ".blaze");
@@ -171,7 +223,12 @@ public class CompactPersistentActionCache implements ActionCache {
     }
 
     try {
-      map = new ActionMap(backingMap, clock, cacheFile, journalFile);
+      if (memoryMapped) {
+        cacheRoot.createDirectoryAndParents();
+        map = new MappedActionMap(mappedDataFile(cacheRoot), mappedIndexFile(cacheRoot));
+      } else {
+        map = new ActionMap(backingMap, clock, cacheFile, journalFile);
+      }
     } catch (IOException e) {
       renameCorruptedFiles(cacheRoot);
       throw new IOException("Failed to load action cache data", e);
@@ -181,6 +238,7 @@ public class CompactPersistentActionCache implements ActionCache {
     if (!map.isEmpty()) {
       String integrityError = validateIntegrity(indexer.size(), map.get(VALIDATION_KEY));
       if (integrityError != null) {
+        map.close();
         renameCorruptedFiles(cacheRoot);
         throw new IOException("Failed action cache referential integrity check: " + integrityError);
       }
@@ -249,6 +307,14 @@ public class CompactPersistentActionCache implements ActionCache {
     return cacheRoot.getChild("action_journal_v" + VERSION + ".blaze");
   }
 
+  public static Path mappedDataFile(Path cacheRoot) {
+    return cacheRoot.getChild("action_data_v" + VERSION + ".blaze");
+  }
+
+  public static Path mappedIndexFile(Path cacheRoot) {
+    return cacheRoot.getChild("action_index_v" + VERSION + ".blaze");
+  }
+
   @Override
   public ActionCache.Entry get(String key) {
     int index = indexer.getIndex(key);
@@ -307,6 +373,14 @@ public class CompactPersistentActionCache implements ActionCache {
     map.clear();
   }
 
+  /**
+   * Releases the files held open by this cache, which must not be used afterwards. Updates since
+   * the last {@link #save} may be lost.
+   */
+  public synchronized void close() throws IOException {
+    map.close();
+  }
+
   @Override
   public synchronized String toString() {
     StringBuilder builder = new StringBuilder();
@@ -445,6 +519,7 @@ public class CompactPersistentActionCache implements ActionCache {
   @Override
   public void accountHit() {
     hits.incrementAndGet();
+    HITS_METRIC.inc();
   }
 
   @Override
@@ -453,6 +528,7 @@ public class CompactPersistentActionCache implements ActionCache {
     Preconditions.checkNotNull(counter, "Miss reason %s was not registered in the misses map "
         + "during cache construction", reason);
     counter.incrementAndGet();
+    MISSES_METRIC.get(reason).inc();
   }
 
   @Override
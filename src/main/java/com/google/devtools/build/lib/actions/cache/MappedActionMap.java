@@ -0,0 +1,637 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.flogger.GoogleLogger;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * An action cache store that keeps its entries off-heap, in two memory-mapped files.
+ *
+ * <p>The data file is an append-only log of records, each holding a key and its value or a removal
+ * marker. The index file is an open-addressing hash table from key to the offset of the latest
+ * record for that key. Opening the store only maps the files, and entries are paged in when they
+ * are looked up, so neither startup time nor heap usage grow with the number of entries.
+ *
+ * <p>Updates append a record and then update the index in place. Before the first update after
+ * opening or saving, the index is marked dirty on disk; {@link #save} syncs the data file and
+ * only then marks the index clean. If the store is opened with a dirty index, e.g. after a crash,
+ * or with an index that doesn't belong to the data file, the index is rebuilt by scanning the
+ * data file, dropping a partially written trailing record. {@link #save} also compacts the data
+ * file once most of it is made of superseded records.
+ *
+ * <p>Like {@link com.google.devtools.build.lib.util.PersistentMap}, this is not quite a {@link
+ * Map}: updates that fail due to an I/O error are dropped, and the error is reported by the next
+ * call to {@link #save}. Keys must not be null and values must not be null or empty. The
+ * implementation is not synchronized.
+ */
+final class MappedActionMap extends AbstractMap<Integer, byte[]>
+    implements CompactPersistentActionCache.ActionStore {
+
+  private static final GoogleLogger logger = GoogleLogger.forEnclosingClass();
+
+  private static final int DATA_MAGIC = 0x41434454; // "ACDT"
+  private static final int INDEX_MAGIC = 0x41434958; // "ACIX"
+  private static final int FORMAT_VERSION = 1;
+
+  /** Magic, version and generation. */
+  private static final int DATA_HEADER_SIZE = 16;
+
+  private static final int RECORD_MARKER = 0xfe;
+  private static final int REMOVED = -1;
+  /** Marker, key and value length. */
+  private static final int RECORD_HEADER_SIZE = 9;
+
+  /** The data file is mapped in segments of this size, growing the file as needed. */
+  @VisibleForTesting static final int SEGMENT_SIZE = 1 << 24;
+
+  // Index header layout.
+  private static final int INDEX_GENERATION = 8;
+  private static final int INDEX_DATA_END = 16;
+  private static final int INDEX_LIVE_BYTES = 24;
+  private static final int INDEX_SIZE = 32;
+  private static final int INDEX_OCCUPIED = 36;
+  private static final int INDEX_CAPACITY = 40;
+  private static final int INDEX_DIRTY = 44;
+  private static final int INDEX_HEADER_SIZE = 48;
+
+  // Index slots are a key, a state and a record offset.
+  private static final int SLOT_SIZE = 16;
+  private static final int EMPTY = 0;
+  private static final int LIVE = 1;
+  private static final int DELETED = 2;
+
+  private static final int MIN_CAPACITY = 1024;
+  private static final int MAX_CAPACITY = 1 << 26;
+
+  /** Data files smaller than this are never compacted. */
+  private static final long MIN_COMPACTION_SIZE = 1 << 24;
+
+  private final File dataFile;
+  private final File indexFile;
+  private final Random random = new Random();
+
+  private FileChannel dataChannel;
+  private final List<MappedByteBuffer> segments = new ArrayList<>();
+  private MappedByteBuffer index;
+
+  private long generation;
+  private long dataEnd;
+  /** The total size of the records that the index points to. */
+  private long liveBytes;
+  /** The number of live entries. */
+  private int size;
+  /** The number of non-empty index slots, including those of removed keys. */
+  private int occupied;
+  private int capacity;
+  private boolean dirty;
+
+  /**
+   * If non-null, the message of an {@link IOException} thrown by a failed update, reported by the
+   * next call to {@link #save}.
+   */
+  private String deferredIOFailure;
+
+  /**
+   * Opens the store in the given files, which must be on the local file system, creating them if
+   * they don't exist.
+   */
+  MappedActionMap(Path dataPath, Path indexPath) throws IOException {
+    this.dataFile = dataPath.getPathFile();
+    this.indexFile = indexPath.getPathFile();
+    try {
+      open();
+    } catch (IOException e) {
+      if (dataChannel != null) {
+        dataChannel.close();
+      }
+      throw e;
+    }
+  }
+
+  private void open() throws IOException {
+    dataChannel = new RandomAccessFile(dataFile, "rw").getChannel();
+    segments.clear();
+    dirty = false;
+    if (!readDataHeader()) {
+      logger.atInfo().log("Creating new action cache in %s", dataFile);
+      generation = random.nextLong();
+      dataChannel.truncate(0);
+      writeDataHeader();
+      createIndex(indexFile, MIN_CAPACITY);
+      index = mapIndex(indexFile);
+      capacity = MIN_CAPACITY;
+      dataEnd = DATA_HEADER_SIZE;
+      liveBytes = 0;
+      size = 0;
+      occupied = 0;
+      markClean();
+      return;
+    }
+    index = indexFile.exists() ? mapIndex(indexFile) : null;
+    if (index == null
+        || index.getInt(0) != INDEX_MAGIC
+        || index.getInt(4) != FORMAT_VERSION
+        || index.getLong(INDEX_GENERATION) != generation
+        || index.getInt(INDEX_DIRTY) != 0) {
+      rebuildIndex();
+      return;
+    }
+    dataEnd = index.getLong(INDEX_DATA_END);
+    liveBytes = index.getLong(INDEX_LIVE_BYTES);
+    size = index.getInt(INDEX_SIZE);
+    occupied = index.getInt(INDEX_OCCUPIED);
+    capacity = index.getInt(INDEX_CAPACITY);
+  }
+
+  /** Reads the header of the data file and returns whether it is valid. */
+  private boolean readDataHeader() throws IOException {
+    if (dataChannel.size() < DATA_HEADER_SIZE) {
+      return false;
+    }
+    ByteBuffer header = ByteBuffer.allocate(DATA_HEADER_SIZE);
+    dataChannel.read(header, 0);
+    header.flip();
+    if (header.getInt() != DATA_MAGIC || header.getInt() != FORMAT_VERSION) {
+      return false;
+    }
+    generation = header.getLong();
+    return true;
+  }
+
+  private void writeDataHeader() throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(DATA_HEADER_SIZE);
+    header.putInt(DATA_MAGIC).putInt(FORMAT_VERSION).putLong(generation).flip();
+    dataChannel.write(header, 0);
+  }
+
+  /** Creates an empty index file with the given capacity for the current generation. */
+  private void createIndex(File file, int capacity) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(0);
+      raf.setLength(INDEX_HEADER_SIZE + (long) capacity * SLOT_SIZE);
+      raf.writeInt(INDEX_MAGIC);
+      raf.writeInt(FORMAT_VERSION);
+      raf.writeLong(generation);
+      raf.seek(INDEX_CAPACITY);
+      raf.writeInt(capacity);
+    }
+  }
+
+  private static MappedByteBuffer mapIndex(File file) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      if (raf.length() < INDEX_HEADER_SIZE || raf.length() > Integer.MAX_VALUE) {
+        return null;
+      }
+      return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+    }
+  }
+
+  /** Rebuilds the index from the records in the data file. */
+  private void rebuildIndex() throws IOException {
+    logger.atInfo().log("Rebuilding action cache index %s", indexFile);
+    long fileSize = dataChannel.size();
+    long pos = DATA_HEADER_SIZE;
+    int records = 0;
+    while (pos + RECORD_HEADER_SIZE <= fileSize) {
+      byte[] header = read(pos, RECORD_HEADER_SIZE);
+      ByteBuffer buf = ByteBuffer.wrap(header);
+      int length = buf.getInt(5);
+      if ((buf.get(0) & 0xff) != RECORD_MARKER
+          || (length < 0 && length != REMOVED)
+          || pos + recordSize(length) > fileSize) {
+        break;
+      }
+      pos += recordSize(length);
+      records++;
+    }
+
+    createIndex(indexFile, capacityFor(records));
+    index = mapIndex(indexFile);
+    capacity = index.getInt(INDEX_CAPACITY);
+    size = 0;
+    occupied = 0;
+    liveBytes = 0;
+    long end = pos;
+    pos = DATA_HEADER_SIZE;
+    while (pos < end) {
+      ByteBuffer header = ByteBuffer.wrap(read(pos, RECORD_HEADER_SIZE));
+      int key = header.getInt(1);
+      int length = header.getInt(5);
+      int slot = findSlot(index, capacity, key);
+      int state = index.getInt(slotOffset(slot) + 4);
+      if (state == LIVE) {
+        liveBytes -= recordSize(readLength(index.getLong(slotOffset(slot) + 8)));
+        size--;
+      } else if (state == EMPTY) {
+        occupied++;
+      }
+      if (length == REMOVED) {
+        setSlot(index, slot, key, DELETED, 0);
+      } else {
+        setSlot(index, slot, key, LIVE, pos);
+        liveBytes += recordSize(length);
+        size++;
+      }
+      pos += recordSize(length);
+    }
+    dataEnd = end;
+    markClean();
+  }
+
+  private static long recordSize(int length) {
+    return RECORD_HEADER_SIZE + (length == REMOVED ? 0 : length);
+  }
+
+  private static int capacityFor(int entries) {
+    int capacity = MIN_CAPACITY;
+    while (capacity < MAX_CAPACITY && entries * 4L >= capacity * 3L) {
+      capacity *= 2;
+    }
+    return capacity;
+  }
+
+  private static int slotOffset(int slot) {
+    return INDEX_HEADER_SIZE + slot * SLOT_SIZE;
+  }
+
+  private static int hash(int key) {
+    int h = key * 0x9e3779b9;
+    return h ^ (h >>> 16);
+  }
+
+  /** Returns the slot holding {@code key}, or the empty slot where it would be inserted. */
+  private static int findSlot(ByteBuffer index, int capacity, int key) {
+    int mask = capacity - 1;
+    int slot = hash(key) & mask;
+    while (true) {
+      int offset = slotOffset(slot);
+      if (index.getInt(offset + 4) == EMPTY || index.getInt(offset) == key) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  private static void setSlot(ByteBuffer index, int slot, int key, int state, long offset) {
+    int pos = slotOffset(slot);
+    index.putInt(pos, key);
+    index.putInt(pos + 4, state);
+    index.putLong(pos + 8, offset);
+  }
+
+  private MappedByteBuffer segment(int i) throws IOException {
+    while (segments.size() <= i) {
+      // Mapping a region beyond the end of the file grows the file.
+      segments.add(
+          dataChannel.map(
+              FileChannel.MapMode.READ_WRITE, (long) segments.size() * SEGMENT_SIZE, SEGMENT_SIZE));
+    }
+    return segments.get(i);
+  }
+
+  private byte[] read(long pos, int length) throws IOException {
+    byte[] result = new byte[length];
+    int done = 0;
+    while (done < length) {
+      long p = pos + done;
+      ByteBuffer segment = segment((int) (p / SEGMENT_SIZE)).duplicate();
+      segment.position((int) (p % SEGMENT_SIZE));
+      int n = Math.min(length - done, segment.remaining());
+      segment.get(result, done, n);
+      done += n;
+    }
+    return result;
+  }
+
+  private void write(long pos, byte[] data) throws IOException {
+    int done = 0;
+    while (done < data.length) {
+      long p = pos + done;
+      ByteBuffer segment = segment((int) (p / SEGMENT_SIZE)).duplicate();
+      segment.position((int) (p % SEGMENT_SIZE));
+      int n = Math.min(data.length - done, segment.remaining());
+      segment.put(data, done, n);
+      done += n;
+    }
+  }
+
+  private int readLength(long recordOffset) throws IOException {
+    return ByteBuffer.wrap(read(recordOffset + 5, Integer.BYTES)).getInt();
+  }
+
+  /** Marks the index as dirty on disk before it is first modified. */
+  private void markDirty() {
+    if (!dirty) {
+      dirty = true;
+      index.putInt(INDEX_DIRTY, 1);
+      index.force();
+    }
+  }
+
+  /** Syncs the data file and then writes out the index, marked as clean. */
+  private void markClean() throws IOException {
+    for (MappedByteBuffer segment : segments) {
+      segment.force();
+    }
+    dataChannel.force(false);
+    index.putLong(INDEX_GENERATION, generation);
+    index.putLong(INDEX_DATA_END, dataEnd);
+    index.putLong(INDEX_LIVE_BYTES, liveBytes);
+    index.putInt(INDEX_SIZE, size);
+    index.putInt(INDEX_OCCUPIED, occupied);
+    index.putInt(INDEX_CAPACITY, capacity);
+    index.putInt(INDEX_DIRTY, 0);
+    index.force();
+    dirty = false;
+  }
+
+  @Override
+  public byte[] get(Object key) {
+    if (!(key instanceof Integer)) {
+      return null;
+    }
+    int slot = findSlot(index, capacity, (Integer) key);
+    int offset = slotOffset(slot);
+    if (index.getInt(offset + 4) != LIVE) {
+      return null;
+    }
+    long recordOffset = index.getLong(offset + 8);
+    try {
+      return read(recordOffset + RECORD_HEADER_SIZE, readLength(recordOffset));
+    } catch (IOException e) {
+      deferredIOFailure = e.getMessage() + " during read";
+      return null;
+    }
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return key instanceof Integer
+        && index.getInt(slotOffset(findSlot(index, capacity, (Integer) key)) + 4) == LIVE;
+  }
+
+  @Override
+  public byte[] put(Integer key, byte[] value) {
+    Preconditions.checkNotNull(key);
+    Preconditions.checkArgument(value.length > 0, "Empty values are not supported");
+    byte[] previous = get(key);
+    append(key, value);
+    return previous;
+  }
+
+  @Override
+  public byte[] remove(Object key) {
+    byte[] previous = get(key);
+    if (previous != null) {
+      append((Integer) key, null);
+    }
+    return previous;
+  }
+
+  /** Appends a record for {@code key}, removing it if {@code value} is null. */
+  private void append(int key, byte[] value) {
+    if (deferredIOFailure != null) {
+      return;
+    }
+    try {
+      int slot = findSlot(index, capacity, key);
+      int state = index.getInt(slotOffset(slot) + 4);
+      if (state == EMPTY && occupied + 1 >= capacity) {
+        throw new IOException("Too many action cache entries");
+      }
+      markDirty();
+      int length = value == null ? REMOVED : value.length;
+      ByteBuffer record = ByteBuffer.allocate((int) recordSize(length));
+      record.put((byte) RECORD_MARKER).putInt(key).putInt(length);
+      if (value != null) {
+        record.put(value);
+      }
+      long recordOffset = dataEnd;
+      write(recordOffset, record.array());
+      dataEnd += record.capacity();
+
+      if (state == LIVE) {
+        liveBytes -= recordSize(readLength(index.getLong(slotOffset(slot) + 8)));
+        size--;
+      } else if (state == EMPTY) {
+        occupied++;
+      }
+      if (value == null) {
+        setSlot(index, slot, key, DELETED, 0);
+      } else {
+        setSlot(index, slot, key, LIVE, recordOffset);
+        liveBytes += record.capacity();
+        size++;
+      }
+      if (occupied * 4L >= capacity * 3L && capacity < MAX_CAPACITY) {
+        resizeIndex(capacityFor(size));
+      }
+    } catch (IOException e) {
+      deferredIOFailure = e.getMessage() + " during append";
+    }
+  }
+
+  /** Replaces the index with one of the given capacity, dropping the slots of removed keys. */
+  private void resizeIndex(int newCapacity) throws IOException {
+    File tmp = new File(indexFile.getPath() + ".tmp");
+    createIndex(tmp, newCapacity);
+    MappedByteBuffer newIndex = mapIndex(tmp);
+    for (int slot = 0; slot < capacity; slot++) {
+      int offset = slotOffset(slot);
+      if (index.getInt(offset + 4) == LIVE) {
+        int key = index.getInt(offset);
+        setSlot(
+            newIndex, findSlot(newIndex, newCapacity, key), key, LIVE, index.getLong(offset + 8));
+      }
+    }
+    newIndex.putInt(INDEX_DIRTY, 1);
+    newIndex.force();
+    if (!tmp.renameTo(indexFile)) {
+      throw new IOException("Failed to replace " + indexFile + " with " + tmp);
+    }
+    index = newIndex;
+    capacity = newCapacity;
+    occupied = size;
+  }
+
+  /**
+   * Writes all updates to disk and compacts the data file if most of it is made of superseded
+   * records. Returns the size of the files.
+   *
+   * @throws IOException if there was an I/O error during this call, or any update since the last
+   *     save
+   */
+  @Override
+  public long save() throws IOException {
+    if (deferredIOFailure != null) {
+      try {
+        throw new IOException(deferredIOFailure);
+      } finally {
+        deferredIOFailure = null;
+      }
+    }
+    if (dirty) {
+      if (dataEnd >= MIN_COMPACTION_SIZE && liveBytes * 2 < dataEnd) {
+        compact();
+      } else {
+        markClean();
+      }
+    }
+    return dataEnd + index.capacity();
+  }
+
+  /** Rewrites the data file with only the live records, and builds a new index for it. */
+  private void compact() throws IOException {
+    logger.atInfo().log(
+        "Compacting action cache %s: %d of %d bytes are live", dataFile, liveBytes, dataEnd);
+    File tmpData = new File(dataFile.getPath() + ".tmp");
+    File tmpIndex = new File(indexFile.getPath() + ".tmp");
+    long newGeneration = random.nextLong();
+    long oldGeneration = generation;
+    generation = newGeneration;
+    int newCapacity = capacityFor(size);
+    createIndex(tmpIndex, newCapacity);
+    MappedByteBuffer newIndex = mapIndex(tmpIndex);
+    long pos = DATA_HEADER_SIZE;
+    try (FileChannel out = new RandomAccessFile(tmpData, "rw").getChannel()) {
+      out.truncate(0);
+      ByteBuffer header = ByteBuffer.allocate(DATA_HEADER_SIZE);
+      header.putInt(DATA_MAGIC).putInt(FORMAT_VERSION).putLong(newGeneration).flip();
+      out.write(header, 0);
+      for (int slot = 0; slot < capacity; slot++) {
+        int offset = slotOffset(slot);
+        if (index.getInt(offset + 4) != LIVE) {
+          continue;
+        }
+        int key = index.getInt(offset);
+        long recordOffset = index.getLong(offset + 8);
+        byte[] record = read(recordOffset, (int) recordSize(readLength(recordOffset)));
+        out.write(ByteBuffer.wrap(record), pos);
+        setSlot(newIndex, findSlot(newIndex, newCapacity, key), key, LIVE, pos);
+        pos += record.length;
+      }
+      out.force(false);
+    } catch (IOException e) {
+      generation = oldGeneration;
+      throw e;
+    }
+    newIndex.putLong(INDEX_DATA_END, pos);
+    newIndex.putLong(INDEX_LIVE_BYTES, pos - DATA_HEADER_SIZE);
+    newIndex.putInt(INDEX_SIZE, size);
+    newIndex.putInt(INDEX_OCCUPIED, size);
+    newIndex.force();
+
+    // The generation check makes a crash between the renames rebuild the index.
+    dataChannel.close();
+    try {
+      if (!tmpData.renameTo(dataFile) || !tmpIndex.renameTo(indexFile)) {
+        throw new IOException("Failed to replace " + dataFile + " with compacted " + tmpData);
+      }
+    } finally {
+      open();
+    }
+  }
+
+  @Override
+  public void clear() {
+    try {
+      dataChannel.close();
+      dataFile.delete();
+      indexFile.delete();
+      deferredIOFailure = null;
+      open();
+    } catch (IOException e) {
+      deferredIOFailure = e.getMessage() + " during clear";
+    }
+  }
+
+  /**
+   * Closes the data file. The memory mappings are released once their buffers are garbage
+   * collected.
+   */
+  @Override
+  public void close() throws IOException {
+    segments.clear();
+    index = null;
+    dataChannel.close();
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public Set<Map.Entry<Integer, byte[]>> entrySet() {
+    return new AbstractSet<Map.Entry<Integer, byte[]>>() {
+      @Override
+      public int size() {
+        return size;
+      }
+
+      @Override
+      public Iterator<Map.Entry<Integer, byte[]>> iterator() {
+        return new Iterator<Map.Entry<Integer, byte[]>>() {
+          private int slot = advance(0);
+
+          private int advance(int from) {
+            while (from < capacity && index.getInt(slotOffset(from) + 4) != LIVE) {
+              from++;
+            }
+            return from;
+          }
+
+          @Override
+          public boolean hasNext() {
+            return slot < capacity;
+          }
+
+          @Override
+          public Map.Entry<Integer, byte[]> next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            int key = index.getInt(slotOffset(slot));
+            slot = advance(slot + 1);
+            return new SimpleImmutableEntry<>(key, get(key));
+          }
+        };
+      }
+    };
+  }
+
+  /** Returns the size of the data file, including superseded records. */
+  @VisibleForTesting
+  long getDataSize() {
+    return dataEnd;
+  }
+}
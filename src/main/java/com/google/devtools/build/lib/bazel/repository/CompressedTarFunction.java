@@ -25,7 +25,6 @@ import com.google.devtools.build.lib.vfs.PathFragment;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -35,6 +34,10 @@ import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 
 /**
  * Common code for unarchiving a compressed TAR file.
+ *
+ * <p>The archive is decompressed and read on the calling thread, as compressed streams cannot be
+ * split. The contents of small files are buffered and written by a {@link ParallelFileWriter}, so
+ * that creating and writing them overlaps with decompression.
  */
 public abstract class CompressedTarFunction implements Decompressor {
   protected abstract InputStream getDecompressorStream(DecompressorDescriptor descriptor)
@@ -52,7 +55,9 @@ public abstract class CompressedTarFunction implements Decompressor {
     // Store link, target info of symlinks, we create them after regular files are extracted.
     Map<Path, PathFragment> symlinks = new HashMap<>();
 
-    try (InputStream decompressorStream = getDecompressorStream(descriptor)) {
+    try (InputStream decompressorStream = getDecompressorStream(descriptor);
+        ParallelFileWriter writer =
+            new ParallelFileWriter(ParallelFileWriter.DEFAULT_MAX_BUFFERED_BYTES)) {
       TarArchiveInputStream tarStream = new TarArchiveInputStream(decompressorStream);
       TarArchiveEntry entry;
       while ((entry = tarStream.getNextTarEntry()) != null) {
@@ -83,6 +88,8 @@ public abstract class CompressedTarFunction implements Decompressor {
               symlinks.put(filePath, targetName);
             } else {
               Path targetPath = descriptor.repositoryPath().getRelative(targetName);
+              writer.awaitPath(targetPath);
+              writer.awaitPath(filePath);
               if (filePath.equals(targetPath)) {
                 // The behavior here is semantically different, depending on whether the underlying
                 // filesystem is case-sensitive or case-insensitive. However, it is effectively the
@@ -101,15 +108,26 @@ public abstract class CompressedTarFunction implements Decompressor {
               }
             }
           } else {
-            try (OutputStream out = filePath.getOutputStream()) {
-              ByteStreams.copy(tarStream, out);
-            }
-            filePath.chmod(entry.getMode());
-
             // This can only be done on real files, not links, or it will skip the reader to
             // the next "real" file to try to find the mod time info.
-            Date lastModified = entry.getLastModifiedDate();
-            filePath.setLastModifiedTime(lastModified.getTime());
+            long lastModified = entry.getLastModifiedDate().getTime();
+            int mode = entry.getMode();
+            if (!entry.isSparse() && writer.canBuffer(entry.getSize())) {
+              // Buffer the contents, so that the file is written while the stream moves on.
+              byte[] contents = new byte[(int) entry.getSize()];
+              ByteStreams.readFully(tarStream, contents);
+              writer.submit(
+                  filePath,
+                  contents.length,
+                  () -> writeFile(filePath, contents, mode, lastModified));
+            } else {
+              writer.awaitPath(filePath);
+              try (OutputStream out = filePath.getOutputStream()) {
+                ByteStreams.copy(tarStream, out);
+              }
+              filePath.chmod(mode);
+              filePath.setLastModifiedTime(lastModified);
+            }
           }
         }
         if (Thread.interrupted()) {
@@ -117,6 +135,8 @@ public abstract class CompressedTarFunction implements Decompressor {
         }
       }
 
+      writer.awaitAll();
+
       for (Map.Entry<Path, PathFragment> symlink : symlinks.entrySet()) {
         Path linkPath = symlink.getKey();
         if (linkPath.exists()) {
@@ -132,4 +152,13 @@ public abstract class CompressedTarFunction implements Decompressor {
 
     return descriptor.repositoryPath();
   }
+
+  private static void writeFile(Path path, byte[] contents, int mode, long lastModified)
+      throws IOException {
+    try (OutputStream out = path.getOutputStream()) {
+      out.write(contents);
+    }
+    path.chmod(mode);
+    path.setLastModifiedTime(lastModified);
+  }
 }
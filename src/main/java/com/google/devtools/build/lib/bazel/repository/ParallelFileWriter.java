@@ -0,0 +1,181 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.bazel.repository;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.SilentCloseable;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the files extracted from an archive on a thread pool, so that creating and writing many
+ * files overlaps with reading the archive.
+ *
+ * <p>Writes are submitted by a single thread. Writes to the same path are applied in the order they
+ * were submitted, as archives may contain several entries for a path and the last one wins. The
+ * memory used by the contents of pending writes is bounded: {@link #submit} blocks until earlier
+ * writes release enough of it.
+ */
+final class ParallelFileWriter implements AutoCloseable {
+
+  /** The write of a single file. */
+  interface FileWrite {
+    void write() throws IOException, InterruptedException;
+  }
+
+  private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+  /** The default bound on the size of the contents held by pending writes. */
+  static final int DEFAULT_MAX_BUFFERED_BYTES = 64 << 20;
+
+  private final int maxBufferedBytes;
+  private final Semaphore bufferedBytes;
+  private final Map<Path, Future<?>> pending = new HashMap<>();
+  private final List<Future<?>> writes = new ArrayList<>();
+  private ExecutorService executor;
+  private volatile boolean failed;
+
+  ParallelFileWriter(int maxBufferedBytes) {
+    this.maxBufferedBytes = maxBufferedBytes;
+    this.bufferedBytes = new Semaphore(maxBufferedBytes);
+  }
+
+  /**
+   * Returns whether the contents of an entry of the given size should be buffered and written by
+   * {@link #submit}, as opposed to being written by the calling thread.
+   */
+  boolean canBuffer(long size) {
+    return size >= 0 && size <= maxBufferedBytes / 4;
+  }
+
+  /**
+   * Schedules a write of the given path, which holds {@code size} bytes of buffered contents until
+   * it completes.
+   *
+   * @throws IOException if an earlier write failed
+   */
+  void submit(Path path, int size, FileWrite write) throws IOException, InterruptedException {
+    if (failed) {
+      // Surface the failure now rather than after reading the rest of the archive.
+      awaitAll();
+    }
+    awaitPath(path);
+    bufferedBytes.acquire(size);
+    if (executor == null) {
+      executor =
+          Executors.newFixedThreadPool(
+              THREADS,
+              new ThreadFactoryBuilder().setNameFormat("extract-%d").setDaemon(true).build());
+    }
+    Future<?> future;
+    try {
+      future =
+          executor.submit(
+              () -> {
+                try {
+                  write.write();
+                } catch (Exception e) {
+                  failed = true;
+                  throw e;
+                } finally {
+                  bufferedBytes.release(size);
+                }
+                return null;
+              });
+    } catch (RuntimeException e) {
+      bufferedBytes.release(size);
+      throw e;
+    }
+    pending.put(path, future);
+    writes.add(future);
+  }
+
+  /**
+   * Waits for the pending write of the given path, if any, so that the caller can use the path.
+   *
+   * @throws IOException if the write failed
+   */
+  void awaitPath(Path path) throws IOException, InterruptedException {
+    Future<?> future = pending.remove(path);
+    if (future != null) {
+      await(future);
+    }
+  }
+
+  /**
+   * Waits for all the submitted writes to complete.
+   *
+   * @throws IOException if a write failed
+   */
+  void awaitAll() throws IOException, InterruptedException {
+    if (writes.isEmpty()) {
+      return;
+    }
+    try (SilentCloseable c =
+        Profiler.instance().profile("waiting for " + writes.size() + " extracted files")) {
+      for (Future<?> future : writes) {
+        await(future);
+      }
+    }
+    writes.clear();
+    pending.clear();
+  }
+
+  private static void await(Future<?> future) throws IOException, InterruptedException {
+    try {
+      future.get();
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause(), IOException.class, InterruptedException.class);
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * Cancels the writes that have not started, e.g. after a failure or an interruption, and waits
+   * for the running ones, so that no file is written after this returns.
+   */
+  @Override
+  public void close() {
+    if (executor == null) {
+      return;
+    }
+    executor.shutdownNow();
+    boolean interrupted = false;
+    while (true) {
+      try {
+        if (executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS)) {
+          break;
+        }
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
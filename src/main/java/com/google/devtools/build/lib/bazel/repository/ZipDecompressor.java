@@ -39,6 +39,9 @@ import javax.annotation.Nullable;
 
 /**
  * Creates a repository by decompressing a zip file.
+ *
+ * <p>Entries are inflated and written by a {@link ParallelFileWriter}, reading the archive
+ * concurrently.
  */
 public class ZipDecompressor implements Decompressor {
   public static final Decompressor INSTANCE = new ZipDecompressor();
@@ -82,7 +85,9 @@ public class ZipDecompressor implements Decompressor {
     // Store link, target info of symlinks, we create them after regular files are extracted.
     Map<Path, PathFragment> symlinks = new HashMap<>();
 
-    try (ZipReader reader = new ZipReader(descriptor.archivePath().getPathFile())) {
+    try (ZipReader reader = new ZipReader(descriptor.archivePath().getPathFile());
+        ParallelFileWriter writer =
+            new ParallelFileWriter(ParallelFileWriter.DEFAULT_MAX_BUFFERED_BYTES)) {
       Collection<ZipFileEntry> entries = reader.entries();
       for (ZipFileEntry entry : entries) {
         StripPrefixedPath entryPath = StripPrefixedPath.maybeDeprefix(entry.getName(), prefix);
@@ -91,8 +96,18 @@ public class ZipDecompressor implements Decompressor {
           continue;
         }
         extractZipEntry(
-            reader, entry, destinationDirectory, entryPath.getPathFragment(), prefix, symlinks);
+            reader,
+            entry,
+            destinationDirectory,
+            entryPath.getPathFragment(),
+            prefix,
+            symlinks,
+            writer);
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
       }
+      writer.awaitAll();
 
       if (prefix.isPresent() && !foundPrefix) {
         Set<String> prefixes = new HashSet<>();
@@ -122,7 +137,8 @@ public class ZipDecompressor implements Decompressor {
       Path destinationDirectory,
       PathFragment strippedRelativePath,
       Optional<String> prefix,
-      Map<Path, PathFragment> symlinks)
+      Map<Path, PathFragment> symlinks,
+      ParallelFileWriter writer)
       throws IOException, InterruptedException {
     if (strippedRelativePath.isAbsolute()) {
       throw new IOException(
@@ -154,15 +170,21 @@ public class ZipDecompressor implements Decompressor {
       target = maybeDeprefixSymlink(target, prefix, destinationDirectory);
       symlinks.put(outputPath, target);
     } else {
-      try (InputStream input = reader.getInputStream(entry);
-          OutputStream output = outputPath.getOutputStream()) {
-        ByteStreams.copy(input, output);
-        if (Thread.interrupted()) {
-          throw new InterruptedException();
-        }
-      }
-      outputPath.chmod(permissions);
-      outputPath.setLastModifiedTime(entry.getTime());
+      // The reader supports concurrent streams, so the entry is inflated by the writer's thread.
+      writer.submit(
+          outputPath,
+          /* size= */ 0,
+          () -> {
+            try (InputStream input = reader.getInputStream(entry);
+                OutputStream output = outputPath.getOutputStream()) {
+              ByteStreams.copy(input, output);
+              if (Thread.interrupted()) {
+                throw new InterruptedException();
+              }
+            }
+            outputPath.chmod(permissions);
+            outputPath.setLastModifiedTime(entry.getTime());
+          });
     }
   }
 
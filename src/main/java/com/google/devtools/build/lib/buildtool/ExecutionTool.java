@@ -32,8 +32,10 @@ import com.google.devtools.build.lib.actions.ArtifactFactory;
 import com.google.devtools.build.lib.actions.BuildFailedException;
 import com.google.devtools.build.lib.actions.DynamicStrategyRegistry;
 import com.google.devtools.build.lib.actions.Executor;
+import com.google.devtools.build.lib.actions.LongestFirstPrioritizer;
 import com.google.devtools.build.lib.actions.PackageRoots;
 import com.google.devtools.build.lib.actions.ResourceManager;
+import com.google.devtools.build.lib.actions.ResourcePrioritizer;
 import com.google.devtools.build.lib.actions.ResourceSet;
 import com.google.devtools.build.lib.actions.TestExecException;
 import com.google.devtools.build.lib.actions.cache.ActionCache;
@@ -76,9 +78,11 @@ import com.google.devtools.build.lib.profiler.ProfilePhase;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.profiler.SilentCloseable;
+import com.google.devtools.build.lib.runtime.ActionDurationStore;
 import com.google.devtools.build.lib.runtime.BlazeModule;
 import com.google.devtools.build.lib.runtime.BlazeRuntime;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
+import com.google.devtools.build.lib.runtime.CriticalPathPrioritizer;
 import com.google.devtools.build.lib.server.FailureDetails;
 import com.google.devtools.build.lib.server.FailureDetails.Execution;
 import com.google.devtools.build.lib.server.FailureDetails.Execution.Code;
@@ -107,6 +111,7 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import javax.annotation.Nullable;
 
@@ -342,7 +347,8 @@ public class ExecutionTool {
       skyframeExecutor.drainChangedFiles();
 
       try (SilentCloseable c = Profiler.instance().profile("configureResourceManager")) {
-        configureResourceManager(env.getLocalResourceManager(), request);
+        configureResourceManager(
+            env.getLocalResourceManager(), request, env::getActionDurationStore);
       }
 
       Profiler.instance().markPhase(ProfilePhase.EXECUTE);
@@ -796,11 +802,16 @@ public class ExecutionTool {
   }
 
   @VisibleForTesting
-  public static void configureResourceManager(ResourceManager resourceMgr, BuildRequest request) {
+  public static void configureResourceManager(
+      ResourceManager resourceMgr,
+      BuildRequest request,
+      Supplier<ActionDurationStore> actionDurationStore) {
     ExecutionOptions options = request.getOptions(ExecutionOptions.class);
     ResourceSet resources;
     resources = ResourceSet.createWithRamCpu(options.localRamResources, options.localCpuResources);
     resourceMgr.setUseLocalMemoryEstimate(options.localMemoryEstimate);
+    resourceMgr.setPrioritizer(
+        createResourcePrioritizer(options.localResourcePriority, actionDurationStore));
 
     resourceMgr.setAvailableResources(
         ResourceSet.create(
@@ -811,6 +822,21 @@ public class ExecutionTool {
                 : Integer.MAX_VALUE));
   }
 
+  private static ResourcePrioritizer createResourcePrioritizer(
+      ExecutionOptions.LocalResourcePriority priority,
+      Supplier<ActionDurationStore> actionDurationStore) {
+    switch (priority) {
+      case FIFO:
+        return ResourcePrioritizer.FIFO;
+      case LONGEST_FIRST:
+        return LongestFirstPrioritizer.instance();
+      case CRITICAL_PATH:
+        return new CriticalPathPrioritizer(
+            actionDurationStore.get(), LongestFirstPrioritizer.instance());
+    }
+    throw new IllegalStateException("Unknown local resource priority " + priority);
+  }
+
   /**
    * Writes the action cache files to disk, reporting any errors that occurred during writing and
    * capturing statistics.
@@ -131,7 +131,11 @@ public class SkyframeBuilder implements Builder {
     // but plumbing the flag through is hard.
     int fsvcThreads = buildRequestOptions == null ? 200 : buildRequestOptions.fsvcThreads;
     skyframeExecutor.detectModifiedOutputFiles(
-        modifiedOutputFiles, lastExecutionTimeRange, trustRemoteArtifacts, fsvcThreads);
+        modifiedOutputFiles,
+        lastExecutionTimeRange,
+        executor.getExecRoot(),
+        trustRemoteArtifacts,
+        fsvcThreads);
     try (SilentCloseable c = Profiler.instance().profile("configureActionExecutor")) {
       skyframeExecutor.configureActionExecutor(fileCache, actionInputPrefetcher);
     }
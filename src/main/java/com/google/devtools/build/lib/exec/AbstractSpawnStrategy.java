@@ -42,6 +42,9 @@ import com.google.devtools.build.lib.events.ExtendedEventHandler;
 import com.google.devtools.build.lib.exec.SpawnCache.CacheHandle;
 import com.google.devtools.build.lib.exec.SpawnRunner.ProgressStatus;
 import com.google.devtools.build.lib.exec.SpawnRunner.SpawnExecutionContext;
+import com.google.devtools.build.lib.metrics.Counter;
+import com.google.devtools.build.lib.metrics.LatencyHistogram;
+import com.google.devtools.build.lib.metrics.MetricRegistry;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.SilentCloseable;
 import com.google.devtools.build.lib.server.FailureDetails;
@@ -70,14 +73,26 @@ public abstract class AbstractSpawnStrategy implements SandboxedSpawnStrategy {
    */
   private static final AtomicInteger execCount = new AtomicInteger();
 
+  private static final Counter spawnCacheHits =
+      MetricRegistry.instance()
+          .counter("bazel_spawn_cache_hits", "Spawns whose results came from a spawn cache.");
+
   private final SpawnInputExpander spawnInputExpander;
   private final SpawnRunner spawnRunner;
   private final boolean verboseFailures;
+  private final LatencyHistogram spawnLatency;
 
   protected AbstractSpawnStrategy(Path execRoot, SpawnRunner spawnRunner, boolean verboseFailures) {
     this.spawnInputExpander = new SpawnInputExpander(execRoot, false);
     this.spawnRunner = spawnRunner;
     this.verboseFailures = verboseFailures;
+    this.spawnLatency =
+        MetricRegistry.instance()
+            .histogram(
+                "bazel_spawn_latency_seconds",
+                "Wall time of the spawns executed by each spawn runner.",
+                "runner",
+                Strings.nullToEmpty(spawnRunner.getName()));
   }
 
   /**
@@ -135,9 +150,12 @@ public abstract class AbstractSpawnStrategy implements SandboxedSpawnStrategy {
     try (CacheHandle cacheHandle = cache.lookup(spawn, context)) {
       if (cacheHandle.hasResult()) {
         spawnResult = Preconditions.checkNotNull(cacheHandle.getResult());
+        spawnCacheHits.inc();
       } else {
         // Actual execution.
+        long startNanos = System.nanoTime();
         spawnResult = spawnRunner.execAsync(spawn, context).get();
+        spawnLatency.recordNanos(System.nanoTime() - startNanos);
         actionExecutionContext
             .getEventHandler()
             .post(new SpawnExecutedEvent(spawn, spawnResult, Instant.now()));
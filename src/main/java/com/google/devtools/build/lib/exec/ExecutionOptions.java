@@ -337,6 +337,22 @@ public class ExecutionOptions extends OptionsBase {
   )
   public boolean localMemoryEstimate;
 
+  @Option(
+      name = "experimental_local_resource_priority",
+      defaultValue = "fifo",
+      documentationCategory = OptionDocumentationCategory.EXECUTION_STRATEGY,
+      effectTags = {OptionEffectTag.EXECUTION},
+      converter = LocalResourcePriority.Converter.class,
+      help =
+          "The order in which actions waiting for local resources acquire them. 'fifo' hands "
+              + "them out in the order they were requested. 'longest_first' prefers actions whose "
+              + "mnemonic took the longest on average in previous builds of this server. "
+              + "'critical_path' prefers actions that were followed by the longest chain of "
+              + "dependent actions in previous builds, which are recorded in the output base. "
+              + "Combine with --experimental_stats_summary to compare the execution time of the "
+              + "different orders.")
+  public LocalResourcePriority localResourcePriority;
+
   @Option(
       name = "local_test_jobs",
       defaultValue = "auto",
@@ -378,6 +394,28 @@ public class ExecutionOptions extends OptionsBase {
               + "number of file digests to be cached.")
   public long cacheSizeForComputedFileDigests;
 
+  @Option(
+      name = "experimental_persist_computed_file_digests",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+      effectTags = {OptionEffectTag.EXECUTION},
+      help =
+          "If enabled, file digests cached in memory by --cache_computed_file_digests are also "
+              + "written to a file in the output base, so that they survive server restarts. Has "
+              + "no effect if --cache_computed_file_digests is 0.")
+  public boolean persistComputedFileDigests;
+
+  @Option(
+      name = "experimental_memory_mapped_action_cache",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+      effectTags = {OptionEffectTag.EXECUTION},
+      help =
+          "If enabled, the action cache keeps its entries in memory-mapped files in the output "
+              + "base instead of loading them into the heap, so that loading it takes constant "
+              + "time. Entries written with the other setting are not reused.")
+  public boolean memoryMappedActionCache;
+
   @Option(
     name = "experimental_enable_critical_path_profiling",
     defaultValue = "true",
@@ -476,6 +514,20 @@ public class ExecutionOptions extends OptionsBase {
               + " artifact as a separate input.")
   public Void ignoredDisableAllArchivedArtifacts;
 
+  /** An enum for the order in which local resources are handed out to waiting actions. */
+  public enum LocalResourcePriority {
+    FIFO,
+    LONGEST_FIRST,
+    CRITICAL_PATH;
+
+    /** Converts to {@link LocalResourcePriority}. */
+    public static class Converter extends EnumConverter<LocalResourcePriority> {
+      public Converter() {
+        super(LocalResourcePriority.class, "local resource priority");
+      }
+    }
+  }
+
   /** An enum for specifying different formats of test output. */
   public enum TestOutputFormat {
     SUMMARY, // Provide summary output only.
@@ -22,8 +22,8 @@ import com.google.common.base.Preconditions;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableBiMap;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Interner;
@@ -35,6 +35,7 @@ import com.google.devtools.build.lib.actions.ActionExecutionMetadata;
 import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.ArtifactFactory;
 import com.google.devtools.build.lib.actions.ExecException;
+import com.google.devtools.build.lib.actions.FileArtifactValue;
 import com.google.devtools.build.lib.cmdline.PackageIdentifier;
 import com.google.devtools.build.lib.concurrent.BlazeInterners;
 import com.google.devtools.build.lib.events.Event;
@@ -74,9 +75,10 @@ import java.util.regex.PatternSyntaxException;
 import javax.annotation.Nullable;
 
 /**
- * Scans a source file and extracts the literal inclusions it specifies. Does not store results --
- * repeated requests to the same file will result in repeated scans. Clients should implement a
- * caching layer in order to avoid unnecessary disk access when requesting an already scanned file.
+ * Scans a source file and extracts the literal inclusions it specifies. Does not store results in
+ * memory -- repeated requests to the same file will result in repeated scans, or reads of the
+ * {@link PersistentInclusionCache} if there is one. Clients should implement a caching layer in
+ * order to avoid unnecessary disk access when requesting an already scanned file.
  */
 @VisibleForTesting
 class IncludeParser {
@@ -554,13 +556,27 @@ class IncludeParser {
   /** The externally-scoped immutable hints helper that is shared by all scanners. */
   private final Hints hints;
 
+  /** The on-disk cache of extracted inclusions, or null if disabled. */
+  @Nullable private final PersistentInclusionCache persistentCache;
+
   /**
    * Constructs a new FileParser.
    *
    * @param hints regexps for converting computed includes into simple strings
    */
   public IncludeParser(Hints hints) {
+    this(hints, /*persistentCache=*/ null);
+  }
+
+  /**
+   * Constructs a new FileParser.
+   *
+   * @param hints regexps for converting computed includes into simple strings
+   * @param persistentCache the on-disk cache of extracted inclusions, or null to always extract
+   */
+  IncludeParser(Hints hints, @Nullable PersistentInclusionCache persistentCache) {
     this.hints = hints;
+    this.persistentCache = persistentCache;
   }
 
   /**
@@ -668,8 +684,8 @@ class IncludeParser {
   private static final Pattern BS_NL_PAT = Pattern.compile("\\\\" + "\n");
 
   // Keep this in sync with the grep-includes binary's scanning output format.
-  private static final ImmutableMap<Character, Kind> KIND_MAP =
-      ImmutableMap.of(
+  private static final ImmutableBiMap<Character, Kind> KIND_MAP =
+      ImmutableBiMap.of(
           '"', Kind.QUOTE,
           '<', Kind.ANGLE,
           'q', Kind.NEXT_QUOTE,
@@ -733,6 +749,21 @@ class IncludeParser {
     }
   }
 
+  /**
+   * Formats inclusions in the output format of the auxiliary include-scanning binary, which {@link
+   * #processIncludes} reads back.
+   */
+  static byte[] formatIncludes(Collection<Inclusion> inclusions) {
+    StringBuilder result = new StringBuilder();
+    for (Inclusion inclusion : inclusions) {
+      result
+          .append(KIND_MAP.inverse().get(inclusion.kind))
+          .append(inclusion.getPathString())
+          .append('\n');
+    }
+    return result.toString().getBytes(ISO_8859_1);
+  }
+
   @VisibleForTesting
   Inclusion extractInclusion(String line) {
     return extractInclusion(line.getBytes(ISO_8859_1), 0, line.length());
@@ -806,22 +837,29 @@ class IncludeParser {
   @VisibleForTesting
   List<Inclusion> extractInclusions(byte[] chars) {
     List<Inclusion> inclusions = new ArrayList<>();
+    byte directivePrefix = (byte) getDirectivePrefix();
     int lineBegin = 0; // the first char of each line
     int end = chars.length; // the file end
     while (lineBegin < end) {
       int lineEnd = lineBegin; // the char after the last non-\n in each line
+      // Most lines hold no directive at all, so note whether the line contains the directive
+      // prefix while looking for its end, and only parse the lines that do.
+      boolean hasDirectivePrefix = false;
       // skip to the next \n or after end of buffer, ignoring continuations
       while (lineEnd < end) {
-        if (chars[lineEnd] == '\n') {
+        byte c = chars[lineEnd];
+        if (c == '\n') {
           break;
-        } else if (chars[lineEnd] == '\\') {
-          lineEnd++;
-          if (chars[lineEnd] == '\n') {
-            lineEnd++;
-          }
-        } else {
+        } else if (c == directivePrefix) {
+          hasDirectivePrefix = true;
+        } else if (c == '\\' && lineEnd + 1 < end && chars[lineEnd + 1] == '\n') {
           lineEnd++;
         }
+        lineEnd++;
+      }
+      if (!hasDirectivePrefix) {
+        lineBegin = lineEnd + 1;
+        continue;
       }
 
       // TODO(bazel-team) handle multiline block comments /* */ for the cases:
@@ -860,6 +898,42 @@ class IncludeParser {
       @Nullable SpawnIncludeScanner remoteIncludeScanner,
       boolean isOutputFile)
       throws IOException, ExecException, InterruptedException {
+    Collection<Inclusion> inclusions = null;
+    byte[] digest = null;
+    if (persistentCache != null) {
+      FileArtifactValue metadata = actionExecutionContext.getMetadataProvider().getMetadata(file);
+      digest = metadata == null ? null : metadata.getDigest();
+      if (digest != null) {
+        inclusions = persistentCache.get(getFileType(), digest);
+      }
+    }
+    if (inclusions == null) {
+      inclusions =
+          extractInclusionsUncached(
+              file,
+              actionExecutionMetadata,
+              actionExecutionContext,
+              grepIncludes,
+              remoteIncludeScanner,
+              isOutputFile);
+      if (digest != null) {
+        persistentCache.put(getFileType(), digest, inclusions);
+      }
+    }
+    if (hints != null) {
+      inclusions.addAll(hints.getHintedInclusions(file));
+    }
+    return ImmutableList.copyOf(inclusions);
+  }
+
+  private Collection<Inclusion> extractInclusionsUncached(
+      Artifact file,
+      ActionExecutionMetadata actionExecutionMetadata,
+      ActionExecutionContext actionExecutionContext,
+      Artifact grepIncludes,
+      @Nullable SpawnIncludeScanner remoteIncludeScanner,
+      boolean isOutputFile)
+      throws IOException, ExecException, InterruptedException {
     Collection<Inclusion> inclusions;
 
     // TODO(ulfjack): grepIncludes may be null if the corresponding attribute on the rule is missing
@@ -898,10 +972,7 @@ class IncludeParser {
         }
       }
     }
-    if (hints != null) {
-      inclusions.addAll(hints.getHintedInclusions(file));
-    }
-    return ImmutableList.copyOf(inclusions);
+    return inclusions;
   }
 
   /**
@@ -963,6 +1034,15 @@ class IncludeParser {
     return IncludesKeywordData.NONE;
   }
 
+  /**
+   * Returns the character that starts the directives recognized by {@link #expectIncludeKeyword}.
+   * Lines that do not contain it are not parsed. Must be overridden along with {@link
+   * #expectIncludeKeyword} if the subclass recognizes other directives.
+   */
+  protected char getDirectivePrefix() {
+    return '#';
+  }
+
   /**
    * Returns true if we interested in the given inclusion kind. Can be overridden by the subclass.
    */
@@ -63,6 +63,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Module that provides implementations of {@link CppIncludeExtractionContext},
@@ -74,11 +75,17 @@ public class IncludeScanningModule extends BlazeModule {
   private static final PathFragment INCLUDE_HINTS_FILENAME =
       PathFragment.create("tools/cpp/INCLUDE_HINTS");
 
+  /** The directory of the output base holding the {@link PersistentInclusionCache}. */
+  private static final String PERSISTENT_CACHE_DIRECTORY = "include_scanning_cache";
+
   private final MutableSupplier<SpawnIncludeScanner> spawnIncludeScannerSupplier =
       new MutableSupplier<>();
   private final MutableSupplier<ArtifactFactory> artifactFactory = new MutableSupplier<>();
   private IncludeScannerLifecycleManager lifecycleManager;
 
+  /** Whether the {@link PersistentInclusionCache} was trimmed since the server started. */
+  private final AtomicBoolean persistentCacheTrimmed = new AtomicBoolean();
+
   protected PathFragment getIncludeHintsFilename() {
     return INCLUDE_HINTS_FILENAME;
   }
@@ -103,7 +110,8 @@ public class IncludeScanningModule extends BlazeModule {
   @ThreadHostile
   public void executorInit(CommandEnvironment env, BuildRequest request, ExecutorBuilder builder) {
     lifecycleManager =
-        new IncludeScannerLifecycleManager(env, request, spawnIncludeScannerSupplier);
+        new IncludeScannerLifecycleManager(
+            env, request, spawnIncludeScannerSupplier, persistentCacheTrimmed);
     builder.addExecutorLifecycleListener(lifecycleManager);
   }
 
@@ -222,6 +230,7 @@ public class IncludeScanningModule extends BlazeModule {
   private static class IncludeScannerLifecycleManager implements ExecutorLifecycleListener {
     private final CommandEnvironment env;
     private final BuildRequest buildRequest;
+    private final AtomicBoolean persistentCacheTrimmed;
 
     private final Supplier<SpawnIncludeScanner> spawnScannerSupplier;
     private IncludeScannerSupplier includeScannerSupplier;
@@ -230,9 +239,11 @@ public class IncludeScanningModule extends BlazeModule {
     public IncludeScannerLifecycleManager(
         CommandEnvironment env,
         BuildRequest buildRequest,
-        MutableSupplier<SpawnIncludeScanner> spawnScannerSupplier) {
+        MutableSupplier<SpawnIncludeScanner> spawnScannerSupplier,
+        AtomicBoolean persistentCacheTrimmed) {
       this.env = env;
       this.buildRequest = buildRequest;
+      this.persistentCacheTrimmed = persistentCacheTrimmed;
 
       IncludeScanningOptions options = buildRequest.getOptions(IncludeScanningOptions.class);
       spawnScannerSupplier.set(
@@ -257,6 +268,27 @@ public class IncludeScanningModule extends BlazeModule {
         ActionGraph actionGraph,
         Supplier<ArtifactsToOwnerLabels> topLevelArtifactsToAccountingGroups)
         throws AbruptExitException, InterruptedException {
+      IncludeScanningOptions options = buildRequest.getOptions(IncludeScanningOptions.class);
+      PersistentInclusionCache persistentCache =
+          options.persistentIncludeScanningCache
+              ? new PersistentInclusionCache(
+                  env.getDirectories().getOutputBase().getChild(PERSISTENT_CACHE_DIRECTORY))
+              : null;
+      if (persistentCache != null && persistentCacheTrimmed.compareAndSet(false, true)) {
+        long maxEntries = options.persistentIncludeScanningCacheMaxEntries;
+        Thread trimmer =
+            new Thread(
+                () -> {
+                  try {
+                    persistentCache.trim(maxEntries);
+                  } catch (IOException e) {
+                    logger.atWarning().withCause(e).log("Failed to trim include scanning cache");
+                  }
+                },
+                "include-scanning-cache-trimmer");
+        trimmer.setDaemon(true);
+        trimmer.start();
+      }
       try {
         includeScannerSupplier.init(
             new IncludeParser(
@@ -265,7 +297,8 @@ public class IncludeScanningModule extends BlazeModule {
                         env.getSkyframeExecutor()
                             .evaluateSkyKeyForExecutionSetup(
                                 env.getReporter(), IncludeHintsFunction.INCLUDE_HINTS_KEY),
-                    env.getSkyframeBuildView().getArtifactFactory())));
+                    env.getSkyframeBuildView().getArtifactFactory()),
+                persistentCache));
       } catch (ExecException e) {
         throw new AbruptExitException(
             DetailedExitCode.of(
@@ -100,4 +100,26 @@ public class IncludeScanningOptions extends OptionsBase {
               + " \"auto\" means to use a reasonable value derived from the machine's hardware"
               + " profile (e.g. the number of processors).")
   public int includeScanningParallelism;
+
+  @Option(
+      name = "experimental_persistent_include_scanning_cache",
+      documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+      effectTags = {OptionEffectTag.EXECUTION, OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS},
+      defaultValue = "false",
+      help =
+          "If enabled, the '#include' lines extracted from C++ sources and headers are stored in "
+              + "the output base, keyed by the digest of the file contents, and reused by later "
+              + "builds, including builds on a new server.")
+  public boolean persistentIncludeScanningCache;
+
+  @Option(
+      name = "experimental_persistent_include_scanning_cache_max_entries",
+      documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+      effectTags = {OptionEffectTag.EXECUTION, OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS},
+      defaultValue = "500000",
+      help =
+          "The maximum number of files whose '#include' lines are kept by "
+              + "--experimental_persistent_include_scanning_cache. The least recently used ones "
+              + "are deleted in the background at the first build of each server.")
+  public long persistentIncludeScanningCacheMaxEntries;
 }
@@ -0,0 +1,153 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.includescanning;
+
+import com.google.common.flogger.GoogleLogger;
+import com.google.common.io.BaseEncoding;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.includescanning.IncludeParser.GrepIncludesFileType;
+import com.google.devtools.build.lib.includescanning.IncludeParser.Inclusion;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * On-disk cache of the inclusions extracted from source files, keyed by the digest of their
+ * contents. Unlike the in-memory parse cache of {@link LegacyIncludeScanner}, it survives server
+ * restarts, so a cold server does not have to parse every header again.
+ *
+ * <p>Each entry is a file named after the digest, holding the inclusions in the output format of
+ * the grep-includes binary. Entries are written to a temporary file and renamed into place, so a
+ * reader never sees a partial entry. Since the key is the digest of the contents, an entry never
+ * goes stale; entries that cannot be read are treated as misses.
+ *
+ * <p>The number of entries is bounded by {@link #trim}, which deletes the least recently used
+ * ones. An entry's modification time is refreshed every time it is read.
+ */
+@ThreadSafe
+final class PersistentInclusionCache {
+  private static final GoogleLogger logger = GoogleLogger.forEnclosingClass();
+
+  private static final AtomicLong tempFileCounter = new AtomicLong();
+
+  private final Path directory;
+
+  PersistentInclusionCache(Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Returns the inclusions of a file with the given type and digest, or null if they are not in
+   * the cache.
+   */
+  @Nullable
+  List<Inclusion> get(GrepIncludesFileType fileType, byte[] digest) {
+    Path entry = entryPath(fileType, digest);
+    if (!entry.exists()) {
+      return null;
+    }
+    try {
+      List<Inclusion> inclusions = IncludeParser.processIncludes(entry);
+      try {
+        entry.setLastModifiedTime(-1L);
+      } catch (IOException e) {
+        // Only makes the entry more likely to be trimmed.
+      }
+      return inclusions;
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Discarding unreadable include scanning cache entry");
+      try {
+        entry.delete();
+      } catch (IOException deleteException) {
+        e.addSuppressed(deleteException);
+      }
+      return null;
+    }
+  }
+
+  /** Stores the inclusions of a file with the given type and digest. Failures are only logged. */
+  void put(GrepIncludesFileType fileType, byte[] digest, Collection<Inclusion> inclusions) {
+    Path entry = entryPath(fileType, digest);
+    Path temp =
+        entry.getParentDirectory()
+            .getChild(entry.getBaseName() + ".tmp" + tempFileCounter.incrementAndGet());
+    try {
+      entry.getParentDirectory().createDirectoryAndParents();
+      FileSystemUtils.writeContent(temp, IncludeParser.formatIncludes(inclusions));
+      temp.renameTo(entry);
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Failed to write include scanning cache entry %s", entry);
+      try {
+        temp.delete();
+      } catch (IOException deleteException) {
+        // Ignored, the entry was not written either way.
+      }
+    }
+  }
+
+  /**
+   * Deletes the least recently used entries, and any temporary files left behind by an interrupted
+   * {@link #put}, until at most {@code maxEntries} remain.
+   */
+  void trim(long maxEntries) throws IOException {
+    if (!directory.isDirectory()) {
+      return;
+    }
+    Map<Path, Long> entries = new HashMap<>();
+    for (Path fileTypeDirectory : directory.getDirectoryEntries()) {
+      if (!fileTypeDirectory.isDirectory()) {
+        continue;
+      }
+      for (Path shard : fileTypeDirectory.getDirectoryEntries()) {
+        if (!shard.isDirectory()) {
+          continue;
+        }
+        for (Path entry : shard.getDirectoryEntries()) {
+          FileStatus status = entry.statIfFound();
+          if (status != null && status.isFile()) {
+            entries.put(entry, status.getLastModifiedTime());
+          }
+        }
+      }
+    }
+    if (entries.size() <= maxEntries) {
+      return;
+    }
+    List<Path> leastRecentlyUsed = new ArrayList<>(entries.keySet());
+    leastRecentlyUsed.sort(Comparator.comparing(entries::get));
+    for (Path entry : leastRecentlyUsed.subList(0, (int) (entries.size() - maxEntries))) {
+      entry.delete();
+    }
+    logger.atInfo().log("Deleted %d include scanning cache entries", entries.size() - maxEntries);
+  }
+
+  private Path entryPath(GrepIncludesFileType fileType, byte[] digest) {
+    String hex = BaseEncoding.base16().lowerCase().encode(digest);
+    // Shard the entries by the first two hex digits to keep directories small.
+    return directory
+        .getChild(fileType.getFileType())
+        .getChild(hex.substring(0, 2))
+        .getChild(hex);
+  }
+}
@@ -0,0 +1,50 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.metrics;
+
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing count, such as the number of action cache hits since the server
+ * started.
+ *
+ * <p>Counters are striped, so that threads incrementing the same counter rarely contend.
+ */
+@ThreadSafe
+public final class Counter extends MetricRegistry.Metric {
+  private final LongAdder value = new LongAdder();
+
+  Counter() {}
+
+  public void inc() {
+    value.increment();
+  }
+
+  public void inc(long delta) {
+    value.add(delta);
+  }
+
+  public long get() {
+    return value.sum();
+  }
+
+  @Override
+  void write(String name, String labels, Appendable out) throws IOException {
+    out.append(name).append("_total").append(labels).append(' ');
+    out.append(Long.toString(get())).append('\n');
+  }
+}
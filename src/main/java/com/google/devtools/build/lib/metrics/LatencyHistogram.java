@@ -0,0 +1,166 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.metrics;
+
+import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies, in nanoseconds, with a bounded relative error.
+ *
+ * <p>Like an HDR histogram, the buckets are log-linear: each power-of-two range of values is split
+ * into {@code 2^SUB_BUCKET_BITS} equal sub-buckets, so every recorded value is known to within
+ * 12.5%, over the whole range of {@code long}, in a fixed array of a few hundred counters.
+ * Recording a value does not allocate.
+ *
+ * <p>In the OpenMetrics export, the latencies are in seconds, and the cumulative buckets are
+ * reported at every factor of four from 2^20 ns (about a millisecond) to 2^40 ns (about 18
+ * minutes). Because these bounds coincide with bucket boundaries, the reported counts are exact
+ * (each bucket counts the values strictly below its bound).
+ */
+@ThreadSafe
+public final class LatencyHistogram extends MetricRegistry.Metric {
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int NUM_BUCKETS = index(Long.MAX_VALUE) + 1;
+
+  private static final int MIN_EXPORTED_BOUND_BITS = 20;
+  private static final int MAX_EXPORTED_BOUND_BITS = 40;
+  private static final int EXPORTED_BOUND_STEP_BITS = 2;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+  private final LongAdder sumNanos = new LongAdder();
+
+  LatencyHistogram() {}
+
+  /** Records a latency. Negative latencies are recorded as zero. */
+  public void recordNanos(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    buckets.incrementAndGet(index(nanos));
+    sumNanos.add(nanos);
+  }
+
+  public void record(Duration duration) {
+    recordNanos(duration.toNanos());
+  }
+
+  /** Returns the number of recorded latencies. */
+  public long getCount() {
+    long count = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      count += buckets.get(i);
+    }
+    return count;
+  }
+
+  /** Returns the sum of the recorded latencies, in nanoseconds. */
+  public long getSumNanos() {
+    return sumNanos.sum();
+  }
+
+  /**
+   * Returns the largest value that is equivalent, at the resolution of the histogram, to the value
+   * at the given percentile (between 0 and 100) of the recorded latencies, or 0 if none have been
+   * recorded.
+   */
+  public long valueAtPercentile(double percentile) {
+    Preconditions.checkArgument(percentile >= 0 && percentile <= 100, percentile);
+    long[] snapshot = snapshot();
+    long count = 0;
+    for (long n : snapshot) {
+      count += n;
+    }
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return upperBound(i) - 1;
+      }
+    }
+    throw new IllegalStateException("unreachable");
+  }
+
+  private long[] snapshot() {
+    long[] snapshot = new long[NUM_BUCKETS];
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      snapshot[i] = buckets.get(i);
+    }
+    return snapshot;
+  }
+
+  /** Returns the index of the bucket holding the given non-negative value. */
+  static int index(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+    return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+  }
+
+  /** Returns the smallest value above the bucket with the given index. */
+  static long upperBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index + 1;
+    }
+    int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+    int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+    long upper = (long) (SUB_BUCKETS + subBucket + 1) << shift;
+    return upper < 0 ? Long.MAX_VALUE : upper;
+  }
+
+  @Override
+  void write(String name, String labels, Appendable out) throws IOException {
+    long[] snapshot = snapshot();
+    // Separate the label list from the "le" label.
+    String prefix = labels.isEmpty() ? "{" : labels.substring(0, labels.length() - 1) + ",";
+    long cumulative = 0;
+    int i = 0;
+    for (int bits = MIN_EXPORTED_BOUND_BITS;
+        bits <= MAX_EXPORTED_BOUND_BITS;
+        bits += EXPORTED_BOUND_STEP_BITS) {
+      for (int end = index(1L << bits); i < end; i++) {
+        cumulative += snapshot[i];
+      }
+      writeBucket(name, prefix, Double.toString((1L << bits) / 1e9), cumulative, out);
+    }
+    for (; i < NUM_BUCKETS; i++) {
+      cumulative += snapshot[i];
+    }
+    writeBucket(name, prefix, "+Inf", cumulative, out);
+    out.append(name).append("_count").append(labels).append(' ');
+    out.append(Long.toString(cumulative)).append('\n');
+    out.append(name).append("_sum").append(labels).append(' ');
+    out.append(Double.toString(getSumNanos() / 1e9)).append('\n');
+  }
+
+  private static void writeBucket(
+      String name, String labelPrefix, String bound, long count, Appendable out)
+      throws IOException {
+    out.append(name).append("_bucket").append(labelPrefix).append("le=\"").append(bound);
+    out.append("\"} ").append(Long.toString(count)).append('\n');
+  }
+}
@@ -0,0 +1,213 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.metrics;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * A registry of the server's always-on metrics, which can be exported in the OpenMetrics text
+ * format (see {@link MetricsHttpServer}).
+ *
+ * <p>Metrics live as long as the server. Subsystems look up their metrics once, typically in a
+ * static field, and then update them on their hot paths: counters and histograms are lock-free and
+ * do not allocate.
+ *
+ * <p>Each metric belongs to a family, which has a name, a type and a help string, and is
+ * identified within the family by its labels, given as alternating names and values.
+ */
+@ThreadSafe
+public final class MetricRegistry {
+
+  private static final MetricRegistry INSTANCE = new MetricRegistry();
+
+  private static final Pattern NAME = Pattern.compile("[a-zA-Z_][a-zA-Z0-9_]*");
+
+  /** A metric of some family. */
+  abstract static class Metric {
+    /**
+     * Writes the samples of this metric in the OpenMetrics text format, given the family name and
+     * the formatted labels ({@code {name="value",...}}, or the empty string if none).
+     */
+    abstract void write(String name, String labels, Appendable out) throws IOException;
+  }
+
+  private enum Type {
+    COUNTER("counter"),
+    GAUGE("gauge"),
+    HISTOGRAM("histogram");
+
+    private final String name;
+
+    Type(String name) {
+      this.name = name;
+    }
+  }
+
+  private static final class Family {
+    private final Type type;
+    private final String help;
+    // Keyed and ordered by formatted labels.
+    private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+    private Family(Type type, String help) {
+      this.type = type;
+      this.help = help;
+    }
+  }
+
+  private static final class Gauge extends Metric {
+    private final LongSupplier supplier;
+
+    private Gauge(LongSupplier supplier) {
+      this.supplier = supplier;
+    }
+
+    @Override
+    void write(String name, String labels, Appendable out) throws IOException {
+      out.append(name).append(labels).append(' ');
+      out.append(Long.toString(supplier.getAsLong())).append('\n');
+    }
+  }
+
+  private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+  /** Returns the registry of the server. */
+  public static MetricRegistry instance() {
+    return INSTANCE;
+  }
+
+  /** Creates an empty registry; for tests. */
+  static MetricRegistry createForTesting() {
+    return new MetricRegistry();
+  }
+
+  private MetricRegistry() {}
+
+  /**
+   * Returns the counter of the given family with the given labels, creating it if needed.
+   *
+   * @throws IllegalArgumentException if a family of the same name but different type exists
+   */
+  public Counter counter(String name, String help, String... labels) {
+    return (Counter) getOrCreate(Type.COUNTER, name, help, labels, Counter::new);
+  }
+
+  /**
+   * Returns the latency histogram of the given family with the given labels, creating it if
+   * needed.
+   *
+   * @throws IllegalArgumentException if a family of the same name but different type exists
+   */
+  public LatencyHistogram histogram(String name, String help, String... labels) {
+    return (LatencyHistogram)
+        getOrCreate(Type.HISTOGRAM, name, help, labels, LatencyHistogram::new);
+  }
+
+  /**
+   * Registers a gauge whose value is read from the supplier at export time, replacing any gauge of
+   * the same family and labels. The supplier must be thread-safe and cheap.
+   *
+   * @throws IllegalArgumentException if a family of the same name but different type exists
+   */
+  public void gauge(String name, String help, LongSupplier supplier, String... labels) {
+    Family family = getFamily(Type.GAUGE, name, help);
+    family.metrics.put(formatLabels(labels), new Gauge(supplier));
+  }
+
+  private Metric getOrCreate(
+      Type type, String name, String help, String[] labels, Supplier<Metric> factory) {
+    Family family = getFamily(type, name, help);
+    return family.metrics.computeIfAbsent(formatLabels(labels), k -> factory.get());
+  }
+
+  private Family getFamily(Type type, String name, String help) {
+    checkArgument(NAME.matcher(name).matches(), "bad metric name '%s'", name);
+    checkArgument(
+        type != Type.COUNTER || !name.endsWith("_total"),
+        "counter name '%s' must not end in _total",
+        name);
+    Family family = families.computeIfAbsent(name, k -> new Family(type, help));
+    checkArgument(
+        family.type == type,
+        "metric '%s' is already registered as a %s",
+        name,
+        family.type.name);
+    return family;
+  }
+
+  private static String formatLabels(String[] labels) {
+    checkArgument(labels.length % 2 == 0, "labels must be name/value pairs");
+    if (labels.length == 0) {
+      return "";
+    }
+    StringBuilder buf = new StringBuilder("{");
+    for (int i = 0; i < labels.length; i += 2) {
+      checkArgument(NAME.matcher(labels[i]).matches(), "bad label name '%s'", labels[i]);
+      checkArgument(!labels[i].equals("le"), "label name 'le' is reserved");
+      if (i > 0) {
+        buf.append(',');
+      }
+      buf.append(labels[i]).append("=\"");
+      escape(labels[i + 1], buf);
+      buf.append('"');
+    }
+    return buf.append('}').toString();
+  }
+
+  private static void escape(String value, StringBuilder buf) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '\\':
+          buf.append("\\\\");
+          break;
+        case '"':
+          buf.append("\\\"");
+          break;
+        case '\n':
+          buf.append("\\n");
+          break;
+        default:
+          buf.append(c);
+      }
+    }
+  }
+
+  /** Writes a snapshot of all metrics in the OpenMetrics text format. */
+  public void writeOpenMetrics(Appendable out) throws IOException {
+    for (Map.Entry<String, Family> e : families.entrySet()) {
+      String name = e.getKey();
+      Family family = e.getValue();
+      out.append("# TYPE ").append(name).append(' ').append(family.type.name).append('\n');
+      if (!family.help.isEmpty()) {
+        StringBuilder help = new StringBuilder();
+        escape(family.help, help);
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+      }
+      for (Map.Entry<String, Metric> m : family.metrics.entrySet()) {
+        m.getValue().write(name, m.getKey(), out);
+      }
+    }
+    out.append("# EOF\n");
+  }
+}
@@ -0,0 +1,99 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.metrics;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the metrics of a {@link MetricRegistry} in the OpenMetrics text format at {@code
+ * /metrics}, on a port of the loopback interface, so that a local Prometheus-compatible scraper
+ * can collect them while the server is running.
+ */
+public final class MetricsHttpServer {
+  static final String CONTENT_TYPE =
+      "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  private MetricsHttpServer(HttpServer server, ExecutorService executor) {
+    this.server = server;
+    this.executor = executor;
+  }
+
+  /**
+   * Starts serving the registry on the given port of the loopback interface; port 0 picks a free
+   * port.
+   */
+  public static MetricsHttpServer start(int port, MetricRegistry registry) throws IOException {
+    HttpServer server =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    server.createContext("/metrics", exchange -> handle(exchange, registry));
+    // Scrapes are rare and cheap: a single thread is plenty.
+    ExecutorService executor =
+        Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("metrics-http-server")
+                .setDaemon(true)
+                .build());
+    server.setExecutor(executor);
+    server.start();
+    return new MetricsHttpServer(server, executor);
+  }
+
+  private static void handle(HttpExchange exchange, MetricRegistry registry) throws IOException {
+    try {
+      String method = exchange.getRequestMethod();
+      if (!method.equals("GET") && !method.equals("HEAD")) {
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+      StringBuilder buf = new StringBuilder();
+      registry.writeOpenMetrics(buf);
+      byte[] body = buf.toString().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+      if (method.equals("HEAD")) {
+        exchange.sendResponseHeaders(200, -1);
+        return;
+      }
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /** Returns the port on which the metrics are served. */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /** Stops serving, without waiting for scrapes in progress. */
+  public void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+}
@@ -14,6 +14,7 @@
 package com.google.devtools.build.lib.metrics;
 
 import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.runtime.BlazeModule;
 import com.google.devtools.build.lib.runtime.Command;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
@@ -21,11 +22,13 @@ import com.google.devtools.common.options.Option;
 import com.google.devtools.common.options.OptionDocumentationCategory;
 import com.google.devtools.common.options.OptionEffectTag;
 import com.google.devtools.common.options.OptionsBase;
+import java.io.IOException;
 import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
 
 /**
  * A blaze module that installs metrics instrumentations and issues a {@link BuildMetricsEvent} at
- * the end of the build.
+ * the end of the build. It also serves the server's {@link MetricRegistry} over HTTP if requested.
  */
 public class MetricsModule extends BlazeModule {
 
@@ -42,12 +45,31 @@ public class MetricsModule extends BlazeModule {
     public boolean bepPublishUsedHeapSizePostBuild;
   }
 
+  /** Options for the export of the server's metrics, which apply to every command. */
+  public static final class ExportOptions extends OptionsBase {
+    @Option(
+        name = "experimental_metrics_http_port",
+        defaultValue = "0",
+        documentationCategory = OptionDocumentationCategory.LOGGING,
+        effectTags = {OptionEffectTag.BAZEL_MONITORING},
+        help =
+            "If positive, the server serves its metrics (action cache, spawn, remote call, "
+                + "worker, sandbox and Skyframe counters and latency histograms) in the "
+                + "OpenMetrics text format at http://localhost:<port>/metrics, until a command "
+                + "sets a different port. 0 stops serving them.")
+    public int metricsHttpPort;
+  }
+
   private final AtomicInteger numAnalyses = new AtomicInteger();
   private final AtomicInteger numBuilds = new AtomicInteger();
 
+  @Nullable private MetricsHttpServer metricsHttpServer;
+
   @Override
   public Iterable<Class<? extends OptionsBase>> getCommandOptions(Command command) {
-    return "build".equals(command.name()) ? ImmutableList.of(Options.class) : ImmutableList.of();
+    return "build".equals(command.name())
+        ? ImmutableList.of(Options.class, ExportOptions.class)
+        : ImmutableList.of(ExportOptions.class);
   }
 
   /**
@@ -62,8 +84,40 @@ public class MetricsModule extends BlazeModule {
   @Override
   public void beforeCommand(CommandEnvironment env) {
     MetricsCollector.installInEnv(env, numAnalyses, numBuilds);
+    ExportOptions exportOptions = env.getOptions().getOptions(ExportOptions.class);
+    if (exportOptions != null) {
+      updateMetricsHttpServer(env, exportOptions.metricsHttpPort);
+    }
+  }
+
+  private synchronized void updateMetricsHttpServer(CommandEnvironment env, int port) {
+    if (metricsHttpServer != null && metricsHttpServer.getPort() == port) {
+      return;
+    }
+    stopMetricsHttpServer();
+    if (port <= 0) {
+      return;
+    }
+    try {
+      metricsHttpServer = MetricsHttpServer.start(port, MetricRegistry.instance());
+    } catch (IOException e) {
+      env.getReporter()
+          .handle(Event.warn("Could not serve metrics on port " + port + ": " + e.getMessage()));
+    }
+  }
+
+  private synchronized void stopMetricsHttpServer() {
+    if (metricsHttpServer != null) {
+      metricsHttpServer.stop();
+      metricsHttpServer = null;
+    }
   }
 
   @Override
   public void afterCommand() {}
+
+  @Override
+  public void blazeShutdown() {
+    stopMetricsHttpServer();
+  }
 }
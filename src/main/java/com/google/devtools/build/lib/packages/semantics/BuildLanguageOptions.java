@@ -269,6 +269,19 @@ public class BuildLanguageOptions extends OptionsBase implements Serializable {
               + "directory.")
   public boolean experimentalSiblingRepositoryLayout;
 
+  @Option(
+      name = "experimental_starlark_bytecode",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.STARLARK_SEMANTICS,
+      effectTags = {OptionEffectTag.LOADING_AND_ANALYSIS},
+      metadataTags = {
+        OptionMetadataTag.EXPERIMENTAL,
+      },
+      help =
+          "If set to true, the bodies of Starlark functions are compiled to bytecode when first"
+              + " called and executed by the bytecode interpreter.")
+  public boolean experimentalStarlarkBytecode;
+
   @Option(
       name = "experimental_exec_groups",
       defaultValue = "false",
@@ -664,6 +677,8 @@ public class BuildLanguageOptions extends OptionsBase implements Serializable {
             .setBool(EXPERIMENTAL_REPO_REMOTE_EXEC, experimentalRepoRemoteExec)
             .setBool(EXPERIMENTAL_DISABLE_EXTERNAL_PACKAGE, experimentalDisableExternalPackage)
             .setBool(EXPERIMENTAL_SIBLING_REPOSITORY_LAYOUT, experimentalSiblingRepositoryLayout)
+            .setBool(
+                StarlarkSemantics.EXPERIMENTAL_STARLARK_BYTECODE, experimentalStarlarkBytecode)
             .setBool(EXPERIMENTAL_EXEC_GROUPS, experimentalExecGroups)
             .setBool(INCOMPATIBLE_APPLICABLE_LICENSES, incompatibleApplicableLicenses)
             .setBool(
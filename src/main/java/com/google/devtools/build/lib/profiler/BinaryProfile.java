@@ -0,0 +1,138 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.profiler;
+
+import com.google.devtools.build.lib.profiler.JsonProfile.BuildMetadata;
+import com.google.devtools.build.lib.profiler.statistics.CriticalPathStatistics;
+import com.google.devtools.build.lib.profiler.statistics.PhaseSummaryStatistics;
+import com.google.devtools.build.lib.profiler.statistics.TraceEventStatistics;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.function.Consumer;
+
+/**
+ * Reads a profile in the {@link BinaryTraceFormat} in a single streaming pass, computing its
+ * statistics without keeping its trace events in memory.
+ *
+ * <p>The events are presented as the {@link TraceEvent}s that {@link JsonProfile} would have read
+ * from the equivalent JSON profile.
+ */
+public final class BinaryProfile {
+  private final BuildMetadata buildMetadata;
+  private final PhaseSummaryStatistics phaseSummaryStatistics;
+  private final CriticalPathStatistics criticalPathStatistics;
+
+  public BinaryProfile(File profileFile) throws IOException {
+    this(new BufferedInputStream(new FileInputStream(profileFile)), traceEvent -> {});
+  }
+
+  /**
+   * Reads a binary profile from the stream, which it closes, passing each trace event to the
+   * consumer as well as to the statistics.
+   */
+  public BinaryProfile(InputStream inputStream, Consumer<TraceEvent> consumer) throws IOException {
+    TraceEventStatistics statistics = new TraceEventStatistics();
+    Consumer<TraceEvent> sink = statistics.andThen(consumer);
+    try (InputStream in = inputStream) {
+      BinaryTraceFormat.Decoder decoder = new BinaryTraceFormat.Decoder(in);
+      String[] header = decoder.readHeader();
+      buildMetadata = BuildMetadata.create(header[0], header[2], header[1]);
+      for (int tag; (tag = decoder.readTag()) != BinaryTraceFormat.END; ) {
+        switch (tag) {
+          case BinaryTraceFormat.THREAD:
+            {
+              long threadId = decoder.readVarLong();
+              decoder.readString(); // name
+              decoder.readVarLong(); // sort index
+              sink.accept(TraceEvent.create(null, "thread_name", null, null, threadId, null, null));
+              sink.accept(
+                  TraceEvent.create(null, "thread_sort_index", null, null, threadId, null, null));
+              break;
+            }
+          case BinaryTraceFormat.EVENT:
+            {
+              String category = decoder.readString();
+              String name = decoder.readString();
+              long threadId = decoder.readVarLong();
+              long timestampMicros = decoder.readTimestamp();
+              long durationMicros = decoder.readDuration();
+              String primaryOutput = decoder.readString();
+              String targetLabel = decoder.readString();
+              sink.accept(
+                  TraceEvent.create(
+                      category,
+                      name,
+                      ofMicros(timestampMicros),
+                      durationMicros < 0 ? null : ofMicros(durationMicros),
+                      threadId,
+                      primaryOutput,
+                      targetLabel));
+              break;
+            }
+          case BinaryTraceFormat.COUNTER:
+            {
+              String name = decoder.readString();
+              long threadId = decoder.readVarLong();
+              long timestampMicros = decoder.readTimestamp();
+              decoder.readString(); // value
+              sink.accept(
+                  TraceEvent.create(
+                      null, name, ofMicros(timestampMicros), null, threadId, null, null));
+              break;
+            }
+          default:
+            throw new IllegalStateException("unexpected tag " + tag);
+        }
+      }
+    }
+    phaseSummaryStatistics = statistics.getPhaseSummaryStatistics();
+    criticalPathStatistics = statistics.getCriticalPathStatistics();
+  }
+
+  private static Duration ofMicros(long micros) {
+    // Duration has no microseconds :-/.
+    return Duration.ofNanos(micros * 1000);
+  }
+
+  /** Reports whether the file starts with the magic number of the binary profile format. */
+  public static boolean isBinaryProfile(File profileFile) {
+    try (InputStream inputStream = new FileInputStream(profileFile)) {
+      byte[] prefix = new byte[16];
+      int n = 0;
+      for (int r; n < prefix.length && (r = inputStream.read(prefix, n, prefix.length - n)) > 0; ) {
+        n += r;
+      }
+      return BinaryTraceFormat.hasMagic(prefix, n);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  public BuildMetadata getBuildMetadata() {
+    return buildMetadata;
+  }
+
+  public PhaseSummaryStatistics getPhaseSummaryStatistics() {
+    return phaseSummaryStatistics;
+  }
+
+  public CriticalPathStatistics getCriticalPathStatistics() {
+    return criticalPathStatistics;
+  }
+}
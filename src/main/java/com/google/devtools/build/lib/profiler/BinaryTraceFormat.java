@@ -0,0 +1,285 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.profiler;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * The compact binary trace profile format, an alternative to the JSON trace format for builds
+ * whose JSON profiles are too large to write or analyze comfortably.
+ *
+ * <p>A binary profile holds the same events as the JSON profile, in the same order. It starts with
+ * {@link #MAGIC}, a format version, and the build id, output base and date strings, followed by a
+ * sequence of records, each introduced by a tag byte:
+ *
+ * <ul>
+ *   <li>{@link #THREAD}: thread id, thread name, sort index.
+ *   <li>{@link #EVENT}: category, name, thread id, timestamp, duration, primary output, target
+ *       label.
+ *   <li>{@link #COUNTER}: name, thread id, timestamp, value.
+ *   <li>{@link #END}: the end of the profile.
+ * </ul>
+ *
+ * <p>Integers are unsigned LEB128 varints. Timestamps are in microseconds since the start of the
+ * profile, encoded as the zigzag varint difference from the timestamp of the previous record.
+ * Durations are in microseconds, plus one; zero means the event is instantaneous.
+ *
+ * <p>Strings are interned: a string is written as a varint reference {@code r}, where 0 means
+ * null, 1 means a UTF-8 string follows (length, then bytes), 2 means the same but the string is
+ * also added to the table of interned strings, and {@code r >= 3} denotes the interned string at
+ * index {@code r - 3}. The table holds at most {@link #MAX_INTERNED_STRINGS} strings, so readers
+ * and writers need only bounded memory however large the profile.
+ */
+public final class BinaryTraceFormat {
+
+  private BinaryTraceFormat() {}
+
+  /** The first bytes of every binary profile. */
+  private static final byte[] MAGIC = {'B', 'Z', 'L', 'T', 'R', 'A', 'C', 'E'};
+
+  static final int VERSION = 1;
+
+  static final int END = 0;
+  static final int THREAD = 1;
+  static final int EVENT = 2;
+  static final int COUNTER = 3;
+
+  static final int MAX_INTERNED_STRINGS = 1 << 16;
+
+  private static final int NULL_STRING = 0;
+  private static final int INLINE_STRING = 1;
+  private static final int INTERNED_INLINE_STRING = 2;
+  private static final int FIRST_INTERNED_REF = 3;
+
+  /** Reports whether the given bytes, read from the start of a file, begin a binary profile. */
+  public static boolean hasMagic(byte[] prefix, int length) {
+    if (length < MAGIC.length) {
+      return false;
+    }
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (prefix[i] != MAGIC[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Writes the records of a binary profile. Not thread-safe. */
+  static final class Encoder {
+    private final OutputStream out;
+    private final Map<String, Integer> interned = new HashMap<>();
+    private long lastTimestampMicros = 0;
+
+    Encoder(OutputStream out) {
+      this.out = out;
+    }
+
+    void writeHeader(String buildId, String outputBase, String date) throws IOException {
+      out.write(MAGIC);
+      writeVarLong(VERSION);
+      writeString(buildId);
+      writeString(outputBase);
+      writeString(date);
+    }
+
+    void writeThread(long threadId, String name, long sortIndex) throws IOException {
+      out.write(THREAD);
+      writeVarLong(threadId);
+      writeString(name);
+      writeVarLong(sortIndex);
+    }
+
+    void writeEvent(
+        @Nullable String category,
+        String name,
+        long threadId,
+        long timestampMicros,
+        long durationMicros,
+        boolean instant,
+        @Nullable String primaryOutput,
+        @Nullable String targetLabel)
+        throws IOException {
+      out.write(EVENT);
+      writeString(category);
+      writeString(name);
+      writeVarLong(threadId);
+      writeTimestamp(timestampMicros);
+      writeVarLong(instant ? 0 : durationMicros + 1);
+      writeString(primaryOutput);
+      writeString(targetLabel);
+    }
+
+    void writeCounter(String name, long threadId, long timestampMicros, String value)
+        throws IOException {
+      out.write(COUNTER);
+      writeString(name);
+      writeVarLong(threadId);
+      writeTimestamp(timestampMicros);
+      writeString(value);
+    }
+
+    void writeEnd() throws IOException {
+      out.write(END);
+    }
+
+    private void writeTimestamp(long timestampMicros) throws IOException {
+      long delta = timestampMicros - lastTimestampMicros;
+      lastTimestampMicros = timestampMicros;
+      writeVarLong((delta << 1) ^ (delta >> 63)); // zigzag
+    }
+
+    private void writeString(@Nullable String s) throws IOException {
+      if (s == null) {
+        writeVarLong(NULL_STRING);
+        return;
+      }
+      Integer index = interned.get(s);
+      if (index != null) {
+        writeVarLong(FIRST_INTERNED_REF + index);
+        return;
+      }
+      if (interned.size() < MAX_INTERNED_STRINGS) {
+        interned.put(s, interned.size());
+        writeVarLong(INTERNED_INLINE_STRING);
+      } else {
+        writeVarLong(INLINE_STRING);
+      }
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      writeVarLong(bytes.length);
+      out.write(bytes);
+    }
+
+    private void writeVarLong(long v) throws IOException {
+      while ((v & ~0x7FL) != 0) {
+        out.write((int) ((v & 0x7F) | 0x80));
+        v >>>= 7;
+      }
+      out.write((int) v);
+    }
+  }
+
+  /** Reads the records of a binary profile. Not thread-safe. */
+  static final class Decoder {
+    private final InputStream in;
+    private final List<String> interned = new ArrayList<>();
+    private long lastTimestampMicros = 0;
+
+    Decoder(InputStream in) {
+      this.in = in;
+    }
+
+    /** Reads the magic number and version, and returns the build id, output base and date. */
+    String[] readHeader() throws IOException {
+      byte[] magic = new byte[MAGIC.length];
+      for (int i = 0; i < magic.length; i++) {
+        magic[i] = (byte) readByte();
+      }
+      if (!hasMagic(magic, magic.length)) {
+        throw new IOException("not a binary profile");
+      }
+      long version = readVarLong();
+      if (version != VERSION) {
+        throw new IOException("unsupported binary profile version " + version);
+      }
+      return new String[] {readString(), readString(), readString()};
+    }
+
+    /** Reads the tag of the next record: one of END, THREAD, EVENT or COUNTER. */
+    int readTag() throws IOException {
+      int tag = readByte();
+      if (tag > COUNTER) {
+        throw new IOException("corrupt binary profile: unknown record " + tag);
+      }
+      return tag;
+    }
+
+    long readVarLong() throws IOException {
+      long v = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = readByte();
+        v |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return v;
+        }
+      }
+      throw new IOException("corrupt binary profile: varint too long");
+    }
+
+    /** Reads a timestamp in microseconds since the start of the profile. */
+    long readTimestamp() throws IOException {
+      long zigzag = readVarLong();
+      lastTimestampMicros += (zigzag >>> 1) ^ -(zigzag & 1);
+      return lastTimestampMicros;
+    }
+
+    /** Reads a duration in microseconds, or -1 for an instantaneous event. */
+    long readDuration() throws IOException {
+      return readVarLong() - 1;
+    }
+
+    @Nullable
+    String readString() throws IOException {
+      long ref = readVarLong();
+      if (ref == NULL_STRING) {
+        return null;
+      }
+      if (ref >= FIRST_INTERNED_REF) {
+        long index = ref - FIRST_INTERNED_REF;
+        if (index >= interned.size()) {
+          throw new IOException("corrupt binary profile: bad string reference " + ref);
+        }
+        return interned.get((int) index);
+      }
+      long length = readVarLong();
+      if (length > Integer.MAX_VALUE) {
+        throw new IOException("corrupt binary profile: string too long");
+      }
+      byte[] bytes = new byte[(int) length];
+      int n = 0;
+      while (n < bytes.length) {
+        int r = in.read(bytes, n, bytes.length - n);
+        if (r < 0) {
+          throw new EOFException("truncated binary profile");
+        }
+        n += r;
+      }
+      String s = new String(bytes, StandardCharsets.UTF_8);
+      if (ref == INTERNED_INLINE_STRING) {
+        if (interned.size() >= MAX_INTERNED_STRINGS) {
+          throw new IOException("corrupt binary profile: too many interned strings");
+        }
+        interned.add(s);
+      }
+      return s;
+    }
+
+    private int readByte() throws IOException {
+      int b = in.read();
+      if (b < 0) {
+        throw new EOFException("truncated binary profile");
+      }
+      return b;
+    }
+  }
+}
@@ -15,7 +15,9 @@
 package com.google.devtools.build.lib.profiler;
 
 import com.google.auto.value.AutoValue;
+import com.google.devtools.build.lib.profiler.statistics.CriticalPathStatistics;
 import com.google.devtools.build.lib.profiler.statistics.PhaseSummaryStatistics;
+import com.google.devtools.build.lib.profiler.statistics.TraceEventStatistics;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonToken;
 import java.io.BufferedReader;
@@ -25,7 +27,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
-import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.zip.GZIPInputStream;
 import javax.annotation.Nullable;
@@ -39,13 +41,18 @@ import javax.annotation.Nullable;
 public final class JsonProfile {
   private BuildMetadata buildMetadata;
   private PhaseSummaryStatistics phaseSummaryStatistics;
-  private List<TraceEvent> traceEvents;
+  private CriticalPathStatistics criticalPathStatistics;
+  @Nullable private List<TraceEvent> traceEvents;
 
   public JsonProfile(File profileFile) throws IOException {
     this(getInputStream(profileFile));
   }
 
   public JsonProfile(InputStream inputStream) throws IOException {
+    this(inputStream, /*retainTraceEvents=*/ true);
+  }
+
+  private JsonProfile(InputStream inputStream, boolean retainTraceEvents) throws IOException {
     try (JsonReader reader =
         new JsonReader(
             new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8)))) {
@@ -56,34 +63,15 @@ public final class JsonProfile {
           if ("otherData".equals(objectKey)) {
             buildMetadata = parseBuildMetadata(reader);
           } else if ("traceEvents".equals(objectKey)) {
-            traceEvents = TraceEvent.parseTraceEvents(reader);
-            phaseSummaryStatistics = new PhaseSummaryStatistics();
-            TraceEvent lastPhaseEvent = null;
-            Duration maxEndTime = Duration.ZERO;
-            for (TraceEvent traceEvent : traceEvents) {
-              if (traceEvent.timestamp() != null) {
-                Duration curEndTime = traceEvent.timestamp();
-                if (traceEvent.duration() != null) {
-                  curEndTime = curEndTime.plus(traceEvent.duration());
-                }
-                if (curEndTime.compareTo(maxEndTime) > 0) {
-                  maxEndTime = curEndTime;
-                }
-              }
-              if (ProfilerTask.PHASE.description.equals(traceEvent.category())) {
-                if (lastPhaseEvent != null) {
-                  phaseSummaryStatistics.addProfilePhase(
-                      ProfilePhase.getPhaseFromDescription(lastPhaseEvent.name()),
-                      traceEvent.timestamp().minus(lastPhaseEvent.timestamp()));
-                }
-                lastPhaseEvent = traceEvent;
-              }
-            }
-            if (lastPhaseEvent != null) {
-              phaseSummaryStatistics.addProfilePhase(
-                  ProfilePhase.getPhaseFromDescription(lastPhaseEvent.name()),
-                  maxEndTime.minus(lastPhaseEvent.timestamp()));
+            TraceEventStatistics statistics = new TraceEventStatistics();
+            if (retainTraceEvents) {
+              traceEvents = new ArrayList<>();
+              TraceEvent.parseTraceEvents(reader, statistics.andThen(traceEvents::add));
+            } else {
+              TraceEvent.parseTraceEvents(reader, statistics);
             }
+            phaseSummaryStatistics = statistics.getPhaseSummaryStatistics();
+            criticalPathStatistics = statistics.getCriticalPathStatistics();
           } else {
             reader.skipValue();
           }
@@ -92,6 +80,14 @@ public final class JsonProfile {
     }
   }
 
+  /**
+   * Reads a JSON profile, computing its statistics as the trace events are read, without keeping
+   * the events in memory. {@link #getTraceEvents} returns null for the result.
+   */
+  public static JsonProfile summarize(File profileFile) throws IOException {
+    return new JsonProfile(getInputStream(profileFile), /*retainTraceEvents=*/ false);
+  }
+
   private static InputStream getInputStream(File profileFile) throws IOException {
     InputStream inputStream = new FileInputStream(profileFile);
     if (profileFile.getName().endsWith(".gz")) {
@@ -129,6 +125,12 @@ public final class JsonProfile {
     return phaseSummaryStatistics;
   }
 
+  public CriticalPathStatistics getCriticalPathStatistics() {
+    return criticalPathStatistics;
+  }
+
+  /** Returns the trace events, or null if the profile was read by {@link #summarize}. */
+  @Nullable
   public List<TraceEvent> getTraceEvents() {
     return traceEvents;
   }
@@ -85,7 +85,8 @@ public final class Profiler {
   /** File format enum. */
   public enum Format {
     JSON_TRACE_FILE_FORMAT,
-    JSON_TRACE_FILE_COMPRESSED_FORMAT
+    JSON_TRACE_FILE_COMPRESSED_FORMAT,
+    BINARY_TRACE_FILE_FORMAT
   }
 
   /** A task that was very slow. */
@@ -409,6 +410,16 @@ public final class Profiler {
                   buildID,
                   includePrimaryOutput,
                   includeTargetLabel);
+          break;
+        case BINARY_TRACE_FILE_FORMAT:
+          writer =
+              new BinaryTraceFileWriter(
+                  stream,
+                  execStartTimeNanos,
+                  outputBase,
+                  buildID,
+                  includePrimaryOutput,
+                  includeTargetLabel);
       }
       writer.start();
     }
@@ -1176,4 +1187,118 @@ public final class Profiler {
       }
     }
   }
+
+  /**
+   * Writes the profile in the compact {@link BinaryTraceFormat}. The events are those of the JSON
+   * trace format, except that they are never merged as for a slim profile.
+   */
+  private static class BinaryTraceFileWriter extends FileWriter {
+    private final OutputStream outStream;
+    private final long profileStartTimeNanos;
+    private final ThreadLocal<Boolean> metadataPosted =
+        ThreadLocal.withInitial(() -> Boolean.FALSE);
+    private final boolean includePrimaryOutput;
+    private final boolean includeTargetLabel;
+    private final UUID buildID;
+    private final String outputBase;
+
+    BinaryTraceFileWriter(
+        OutputStream outStream,
+        long profileStartTimeNanos,
+        String outputBase,
+        UUID buildID,
+        boolean includePrimaryOutput,
+        boolean includeTargetLabel) {
+      this.outStream = outStream;
+      this.profileStartTimeNanos = profileStartTimeNanos;
+      this.outputBase = outputBase;
+      this.buildID = buildID;
+      this.includePrimaryOutput = includePrimaryOutput;
+      this.includeTargetLabel = includeTargetLabel;
+    }
+
+    @Override
+    public void enqueue(TaskData data) {
+      if (!metadataPosted.get()) {
+        metadataPosted.set(Boolean.TRUE);
+        queue.add(
+            new TaskData(
+                /* id= */ 0,
+                /* startTimeNanos= */ -1,
+                ProfilerTask.THREAD_NAME,
+                Thread.currentThread().getName()));
+      }
+      queue.add(data);
+    }
+
+    private long toMicros(long timeNanos) {
+      return TimeUnit.NANOSECONDS.toMicros(timeNanos - profileStartTimeNanos);
+    }
+
+    @Override
+    public void run() {
+      try {
+        boolean receivedPoisonPill = false;
+        try (OutputStream out = new BufferedOutputStream(outStream, 262144)) {
+          BinaryTraceFormat.Encoder encoder = new BinaryTraceFormat.Encoder(out);
+          encoder.writeHeader(buildID.toString(), outputBase, new Date().toString());
+          encoder.writeThread(
+              JsonTraceFileWriter.CRITICAL_PATH_THREAD_ID,
+              "Critical Path",
+              JsonTraceFileWriter.CRITICAL_PATH_SORT_INDEX);
+
+          TaskData data;
+          while ((data = queue.take()) != POISON_PILL) {
+            Preconditions.checkNotNull(data);
+            if (data.type == ProfilerTask.THREAD_NAME) {
+              encoder.writeThread(
+                  data.threadId,
+                  JsonTraceFileWriter.getReadableName(data.description),
+                  JsonTraceFileWriter.getSortIndex(data.description));
+              continue;
+            }
+
+            if (data.type == ProfilerTask.LOCAL_CPU_USAGE
+                || data.type == ProfilerTask.LOCAL_MEMORY_USAGE
+                || data.type == ProfilerTask.ACTION_COUNTS) {
+              // Skip counts equal to zero, as in the JSON profile.
+              if (!"0.0".equals(data.description)) {
+                encoder.writeCounter(
+                    data.type.description,
+                    data.threadId,
+                    toMicros(data.startTimeNanos),
+                    data.description);
+              }
+              continue;
+            }
+
+            ActionTaskData actionData =
+                data instanceof ActionTaskData ? (ActionTaskData) data : null;
+            encoder.writeEvent(
+                data.type == null ? null : data.type.description,
+                data.description,
+                data.type == ProfilerTask.CRITICAL_PATH_COMPONENT
+                    ? JsonTraceFileWriter.CRITICAL_PATH_THREAD_ID
+                    : data.threadId,
+                toMicros(data.startTimeNanos),
+                TimeUnit.NANOSECONDS.toMicros(data.duration),
+                data.duration == 0,
+                includePrimaryOutput && actionData != null ? actionData.primaryOutputPath : null,
+                includeTargetLabel && actionData != null ? actionData.targetLabel : null);
+          }
+          receivedPoisonPill = true;
+          encoder.writeEnd();
+        } catch (IOException e) {
+          this.savedException = e;
+          if (!receivedPoisonPill) {
+            while (queue.take() != POISON_PILL) {
+              // We keep emptying the queue, but we can't write anything.
+            }
+          }
+        }
+      } catch (InterruptedException e) {
+        // Exit silently.
+      }
+    }
+  }
 }
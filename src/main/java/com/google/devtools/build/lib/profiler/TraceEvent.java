@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 import javax.annotation.Nullable;
 
 /**
@@ -161,11 +162,17 @@ public abstract class TraceEvent {
 
   public static List<TraceEvent> parseTraceEvents(JsonReader reader) throws IOException {
     List<TraceEvent> traceEvents = new ArrayList<>();
+    parseTraceEvents(reader, traceEvents::add);
+    return traceEvents;
+  }
+
+  /** Parses an array of trace events, passing each one to the consumer as soon as it is read. */
+  public static void parseTraceEvents(JsonReader reader, Consumer<TraceEvent> consumer)
+      throws IOException {
     reader.beginArray();
     while (reader.hasNext()) {
-      traceEvents.add(createFromJsonReader(reader));
+      consumer.accept(createFromJsonReader(reader));
     }
     reader.endArray();
-    return traceEvents;
   }
 }
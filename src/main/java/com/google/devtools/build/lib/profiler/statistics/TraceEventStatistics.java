@@ -0,0 +1,81 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.profiler.statistics;
+
+import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.profiler.ProfilePhase;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
+import com.google.devtools.build.lib.profiler.TraceEvent;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+
+/**
+ * Computes the {@link PhaseSummaryStatistics} and {@link CriticalPathStatistics} of a profile from
+ * its trace events, which are passed in one at a time. Only the critical path entries are kept, so
+ * the memory needed does not grow with the size of the profile.
+ */
+public final class TraceEventStatistics implements Consumer<TraceEvent> {
+
+  private final PhaseSummaryStatistics phaseSummaryStatistics = new PhaseSummaryStatistics();
+  private final List<TraceEvent> criticalPathEntries = new ArrayList<>();
+  @Nullable private TraceEvent lastPhaseEvent;
+  private Duration maxEndTime = Duration.ZERO;
+  private boolean finished;
+
+  @Override
+  public void accept(TraceEvent traceEvent) {
+    Preconditions.checkState(!finished, "statistics already computed");
+    if (traceEvent.timestamp() != null) {
+      Duration curEndTime = traceEvent.timestamp();
+      if (traceEvent.duration() != null) {
+        curEndTime = curEndTime.plus(traceEvent.duration());
+      }
+      if (curEndTime.compareTo(maxEndTime) > 0) {
+        maxEndTime = curEndTime;
+      }
+    }
+    if (ProfilerTask.PHASE.description.equals(traceEvent.category())) {
+      if (lastPhaseEvent != null) {
+        phaseSummaryStatistics.addProfilePhase(
+            ProfilePhase.getPhaseFromDescription(lastPhaseEvent.name()),
+            traceEvent.timestamp().minus(lastPhaseEvent.timestamp()));
+      }
+      lastPhaseEvent = traceEvent;
+    } else if (ProfilerTask.CRITICAL_PATH_COMPONENT.description.equals(traceEvent.category())) {
+      criticalPathEntries.add(traceEvent);
+    }
+  }
+
+  /** Returns the phase statistics. No more events may be added after this call. */
+  public PhaseSummaryStatistics getPhaseSummaryStatistics() {
+    if (!finished) {
+      finished = true;
+      // The last phase lasts until the end of the last event.
+      if (lastPhaseEvent != null) {
+        phaseSummaryStatistics.addProfilePhase(
+            ProfilePhase.getPhaseFromDescription(lastPhaseEvent.name()),
+            maxEndTime.minus(lastPhaseEvent.timestamp()));
+      }
+    }
+    return phaseSummaryStatistics;
+  }
+
+  /** Returns the critical path statistics of the events added so far. */
+  public CriticalPathStatistics getCriticalPathStatistics() {
+    return new CriticalPathStatistics(criticalPathEntries);
+  }
+}
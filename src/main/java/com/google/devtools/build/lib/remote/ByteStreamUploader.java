@@ -37,6 +37,7 @@ import com.google.common.util.concurrent.SettableFuture;
 import com.google.devtools.build.lib.authandtls.CallCredentialsProvider;
 import com.google.devtools.build.lib.remote.RemoteRetrier.ProgressiveBackoff;
 import com.google.devtools.build.lib.remote.common.RemoteActionExecutionContext;
+import com.google.devtools.build.lib.remote.util.BlobCompressor;
 import com.google.devtools.build.lib.remote.util.TracingMetadataUtils;
 import com.google.devtools.build.lib.remote.util.Utils;
 import io.grpc.CallOptions;
@@ -289,9 +290,14 @@ class ByteStreamUploader extends AbstractReferenceCounted {
     }
   }
 
-  private static String buildUploadResourceName(String instanceName, UUID uuid, Digest digest) {
+  private static String buildUploadResourceName(
+      String instanceName, UUID uuid, Digest digest, @Nullable BlobCompressor compressor) {
     String resourceName =
-        format("uploads/%s/blobs/%s/%d", uuid, digest.getHash(), digest.getSizeBytes());
+        compressor == null
+            ? format("uploads/%s/blobs/%s/%d", uuid, digest.getHash(), digest.getSizeBytes())
+            : format(
+                "uploads/%s/compressed-blobs/%s/%s/%d",
+                uuid, compressor.getName(), digest.getHash(), digest.getSizeBytes());
     if (!Strings.isNullOrEmpty(instanceName)) {
       resourceName = instanceName + "/" + resourceName;
     }
@@ -316,7 +322,8 @@ class ByteStreamUploader extends AbstractReferenceCounted {
     }
 
     UUID uploadId = UUID.randomUUID();
-    String resourceName = buildUploadResourceName(instanceName, uploadId, digest);
+    String resourceName =
+        buildUploadResourceName(instanceName, uploadId, digest, chunker.getCompressor());
     AsyncUpload newUpload =
         new AsyncUpload(
             context,
@@ -369,6 +376,8 @@ class ByteStreamUploader extends AbstractReferenceCounted {
     private final Chunker chunker;
 
     private ClientCall<WriteRequest, WriteResponse> call;
+    /** Whether the server responded that it has the whole blob. */
+    private volatile boolean writeCompleted;
 
     AsyncUpload(
         RemoteActionExecutionContext context,
@@ -396,7 +405,7 @@ class ByteStreamUploader extends AbstractReferenceCounted {
               () ->
                   retrier.executeAsync(
                       () -> {
-                        if (committedOffset.get() < chunker.getSize()) {
+                        if (!isComplete(committedOffset)) {
                           return callAndQueryOnFailure(committedOffset, progressiveBackoff);
                         }
                         return Futures.immediateFuture(null);
@@ -409,7 +418,15 @@ class ByteStreamUploader extends AbstractReferenceCounted {
           (result) -> {
             long committedSize = committedOffset.get();
             long expected = chunker.getSize();
-            if (committedSize != expected) {
+            if (chunker.getCompressor() != null) {
+              if (!writeCompleted) {
+                return Futures.immediateFailedFuture(
+                    new IOException(
+                        format(
+                            "write incomplete: committed_size %d of compressed blob of %d bytes",
+                            committedSize, expected)));
+              }
+            } else if (committedSize != expected) {
               String message =
                   format(
                       "write incomplete: committed_size %d for %d total", committedSize, expected);
@@ -420,6 +437,18 @@ class ByteStreamUploader extends AbstractReferenceCounted {
           MoreExecutors.directExecutor());
     }
 
+    /**
+     * Returns whether the server has the whole blob. Offsets of compressed uploads refer to the
+     * compressed data, whose size isn't known in advance, so they are complete only once the server
+     * says so.
+     */
+    private boolean isComplete(AtomicLong committedOffset) {
+      if (chunker.getCompressor() != null) {
+        return writeCompleted;
+      }
+      return committedOffset.get() >= chunker.getSize();
+    }
+
     private ByteStreamFutureStub bsFutureStub() {
       return ByteStreamGrpc.newFutureStub(channel)
           .withInterceptors(
@@ -471,7 +500,12 @@ class ByteStreamUploader extends AbstractReferenceCounted {
               bsFutureStub()
                   .queryWriteStatus(
                       QueryWriteStatusRequest.newBuilder().setResourceName(resourceName).build()),
-              (response) -> response.getCommittedSize(),
+              (response) -> {
+                if (response.getComplete()) {
+                  writeCompleted = true;
+                }
+                return response.getCommittedSize();
+              },
               MoreExecutors.directExecutor());
       ListenableFuture<Long> guardedCommittedSizeFuture =
           Futures.catchingAsync(
@@ -540,6 +574,7 @@ class ByteStreamUploader extends AbstractReferenceCounted {
             @Override
             public void onMessage(WriteResponse response) {
               // upload was completed either by us or someone else
+              writeCompleted = true;
               committedOffset.set(response.getCommittedSize());
               halfClose();
             }
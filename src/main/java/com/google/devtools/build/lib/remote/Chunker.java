@@ -23,15 +23,18 @@ import com.google.common.io.ByteStreams;
 import com.google.devtools.build.lib.actions.ActionInput;
 import com.google.devtools.build.lib.actions.ActionInputHelper;
 import com.google.devtools.build.lib.actions.cache.VirtualActionInput;
+import com.google.devtools.build.lib.remote.util.BlobCompressor;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.protobuf.ByteString;
 import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.function.Supplier;
+import javax.annotation.Nullable;
 
 /**
  * Splits a data source into one or more {@link Chunk}s of at most {@code chunkSize} bytes.
@@ -40,6 +43,10 @@ import java.util.function.Supplier;
  * {@code false}, the chunker closes the underlying data source (i.e. file) itself. However, in
  * case of error or when a data source does not get fully consumed, a user must call
  * {@link #reset()} manually.
+ *
+ * <p>If a {@link BlobCompressor} is set, the chunks are pieces of the compressed data source and
+ * their offsets refer to the compressed data, whose size is only known once it has been fully
+ * consumed. {@link #getSize()} always returns the size of the uncompressed data.
  */
 public final class Chunker {
 
@@ -97,6 +104,7 @@ public final class Chunker {
   private final long size;
   private final int chunkSize;
   private final Chunk emptyChunk;
+  @Nullable private final BlobCompressor compressor;
 
   private InputStream data;
   private long offset;
@@ -107,10 +115,20 @@ public final class Chunker {
   private boolean initialized;
 
   Chunker(Supplier<InputStream> dataSupplier, long size, int chunkSize) {
+    this(dataSupplier, size, chunkSize, /* compressor= */ null);
+  }
+
+  Chunker(
+      Supplier<InputStream> dataSupplier,
+      long size,
+      int chunkSize,
+      @Nullable BlobCompressor compressor) {
     this.dataSupplier = checkNotNull(dataSupplier);
     this.size = size;
     this.chunkSize = chunkSize;
     this.emptyChunk = new Chunk(ByteString.EMPTY, 0);
+    // Empty blobs are never transferred compressed.
+    this.compressor = size > 0 ? compressor : null;
   }
 
   public long getOffset() {
@@ -121,6 +139,12 @@ public final class Chunker {
     return size;
   }
 
+  /** Returns the compressor applied to the data source, or null if it is not compressed. */
+  @Nullable
+  public BlobCompressor getCompressor() {
+    return compressor;
+  }
+
   /**
    * Reset the {@link Chunker} state to when it was newly constructed.
    *
@@ -178,6 +202,10 @@ public final class Chunker {
       return emptyChunk;
     }
 
+    if (compressor != null) {
+      return nextCompressed();
+    }
+
     // The cast to int is safe, because the return value is capped at chunkSize.
     int bytesToRead = (int) Math.min(bytesLeft(), chunkSize);
     if (bytesToRead == 0) {
@@ -214,7 +242,35 @@ public final class Chunker {
     return new Chunk(blob, offsetBefore);
   }
 
+  private Chunk nextCompressed() throws IOException {
+    if (chunkCache == null) {
+      chunkCache = new byte[chunkSize];
+    }
+    long offsetBefore = offset;
+    int bytesRead = ByteStreams.read(data, chunkCache, 0, chunkSize);
+    offset += bytesRead;
+    ByteString blob = ByteString.copyFrom(chunkCache, 0, bytesRead);
+
+    // The compressed size isn't known up front, so peek ahead to find out whether this is the
+    // last chunk.
+    int next = bytesRead < chunkSize ? -1 : data.read();
+    if (next == -1) {
+      data.close();
+      data = null;
+      chunkCache = null;
+    } else {
+      ((PushbackInputStream) data).unread(next);
+    }
+
+    return new Chunk(blob, offsetBefore);
+  }
+
+  /**
+   * Returns the number of bytes of the uncompressed data source that are left. Must not be called
+   * if the data source is compressed.
+   */
   public long bytesLeft() {
+    checkState(compressor == null, "bytesLeft() is unknown for compressed data");
     return getSize() - getOffset();
   }
 
@@ -227,6 +283,9 @@ public final class Chunker {
     checkState(chunkCache == null);
     try {
       data = dataSupplier.get();
+      if (compressor != null) {
+        data = new PushbackInputStream(compressor.compress(data));
+      }
     } catch (RuntimeException e) {
       Throwables.propagateIfPossible(e.getCause(), IOException.class);
       throw e;
@@ -243,6 +302,7 @@ public final class Chunker {
     private int chunkSize = getDefaultChunkSize();
     private long size;
     private Supplier<InputStream> inputStream;
+    @Nullable private BlobCompressor compressor;
 
     public Builder setInput(byte[] data) {
       checkState(inputStream == null);
@@ -303,9 +363,15 @@ public final class Chunker {
       return this;
     }
 
+    /** Sets the compressor to apply to the input, or null to send it uncompressed. */
+    public Builder setCompressor(@Nullable BlobCompressor compressor) {
+      this.compressor = compressor;
+      return this;
+    }
+
     public Chunker build() {
       checkNotNull(inputStream);
-      return new Chunker(inputStream, size, chunkSize);
+      return new Chunker(inputStream, size, chunkSize, compressor);
     }
   }
 }
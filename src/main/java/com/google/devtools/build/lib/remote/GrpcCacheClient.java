@@ -38,6 +38,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.flogger.GoogleLogger;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -50,6 +51,7 @@ import com.google.devtools.build.lib.remote.common.MissingDigestsFinder;
 import com.google.devtools.build.lib.remote.common.RemoteActionExecutionContext;
 import com.google.devtools.build.lib.remote.common.RemoteCacheClient;
 import com.google.devtools.build.lib.remote.options.RemoteOptions;
+import com.google.devtools.build.lib.remote.util.BlobCompressor;
 import com.google.devtools.build.lib.remote.util.DigestOutputStream;
 import com.google.devtools.build.lib.remote.util.DigestUtil;
 import com.google.devtools.build.lib.remote.util.TracingMetadataUtils;
@@ -82,6 +84,7 @@ public class GrpcCacheClient implements RemoteCacheClient, MissingDigestsFinder
   private final RemoteRetrier retrier;
   private final ByteStreamUploader uploader;
   private final int maxMissingBlobsDigestsPerMessage;
+  @Nullable private final BlobCompressor compressor;
 
   private AtomicBoolean closed = new AtomicBoolean();
 
@@ -93,12 +96,35 @@ public class GrpcCacheClient implements RemoteCacheClient, MissingDigestsFinder
       RemoteRetrier retrier,
       DigestUtil digestUtil,
       ByteStreamUploader uploader) {
+    this(
+        channel,
+        callCredentialsProvider,
+        options,
+        retrier,
+        digestUtil,
+        uploader,
+        /* compressor= */ null);
+  }
+
+  /**
+   * Creates a client that transfers blobs compressed with {@code compressor} unless it is null.
+   * The server must have advertised support for the compressor.
+   */
+  public GrpcCacheClient(
+      ReferenceCountedChannel channel,
+      CallCredentialsProvider callCredentialsProvider,
+      RemoteOptions options,
+      RemoteRetrier retrier,
+      DigestUtil digestUtil,
+      ByteStreamUploader uploader,
+      @Nullable BlobCompressor compressor) {
     this.callCredentialsProvider = callCredentialsProvider;
     this.channel = channel;
     this.options = options;
     this.digestUtil = digestUtil;
     this.retrier = retrier;
     this.uploader = uploader;
+    this.compressor = compressor;
     maxMissingBlobsDigestsPerMessage = computeMaxMissingBlobsDigestsPerMessage();
     Preconditions.checkState(
         maxMissingBlobsDigestsPerMessage > 0, "Error: gRPC message size too small.");
@@ -292,20 +318,50 @@ public class GrpcCacheClient implements RemoteCacheClient, MissingDigestsFinder
       return Futures.immediateFuture(null);
     }
 
+    OutputStream destination = out;
     @Nullable Supplier<Digest> digestSupplier = null;
     if (options.remoteVerifyDownloads) {
       DigestOutputStream digestOut = digestUtil.newDigestOutputStream(out);
       digestSupplier = digestOut::digest;
       out = digestOut;
     }
+    if (compressor == null) {
+      return downloadBlob(context, digest, out, destination, digestSupplier);
+    }
 
-    return downloadBlob(context, digest, out, digestSupplier);
+    OutputStream decompressor = compressor.decompress(out);
+    ListenableFuture<Void> downloadFuture =
+        downloadBlob(context, digest, decompressor, destination, digestSupplier);
+    // A successful download closes the decompressor, a failed one must still release it.
+    Futures.addCallback(
+        downloadFuture,
+        new FutureCallback<Void>() {
+          @Override
+          public void onSuccess(Void result) {}
+
+          @Override
+          public void onFailure(Throwable t) {
+            try {
+              decompressor.close();
+            } catch (IOException e) {
+              // The download failed already.
+            }
+          }
+        },
+        MoreExecutors.directExecutor());
+    return downloadFuture;
   }
 
+  /**
+   * Downloads the blob by writing it to {@code out}, which is {@code destination} or a stream
+   * wrapping it. The decompressing stream, if any, is closed once the whole blob was written to it,
+   * and {@code destination} is flushed.
+   */
   private ListenableFuture<Void> downloadBlob(
       RemoteActionExecutionContext context,
       Digest digest,
       OutputStream out,
+      OutputStream destination,
       @Nullable Supplier<Digest> digestSupplier) {
     AtomicLong offset = new AtomicLong(0);
     ProgressiveBackoff progressiveBackoff = new ProgressiveBackoff(retrier::newBackoff);
@@ -315,7 +371,13 @@ public class GrpcCacheClient implements RemoteCacheClient, MissingDigestsFinder
                 retrier.executeAsync(
                     () ->
                         requestRead(
-                            context, offset, progressiveBackoff, digest, out, digestSupplier),
+                            context,
+                            offset,
+                            progressiveBackoff,
+                            digest,
+                            out,
+                            destination,
+                            digestSupplier),
                     progressiveBackoff),
             callCredentialsProvider);
 
@@ -327,10 +389,22 @@ public class GrpcCacheClient implements RemoteCacheClient, MissingDigestsFinder
   }
 
   public static String getResourceName(String instanceName, Digest digest) {
+    return getResourceName(instanceName, digest, /* compressor= */ null);
+  }
+
+  public static String getResourceName(
+      String instanceName, Digest digest, @Nullable BlobCompressor compressor) {
     String resourceName = "";
     if (!instanceName.isEmpty()) {
       resourceName += instanceName + "/";
     }
+    if (compressor != null) {
+      return resourceName
+          + "compressed-blobs/"
+          + compressor.getName()
+          + "/"
+          + DigestUtil.toString(digest);
+    }
     return resourceName + "blobs/" + DigestUtil.toString(digest);
   }
 
@@ -340,8 +414,10 @@ public class GrpcCacheClient implements RemoteCacheClient, MissingDigestsFinder
       ProgressiveBackoff progressiveBackoff,
       Digest digest,
       OutputStream out,
+      OutputStream destination,
       @Nullable Supplier<Digest> digestSupplier) {
-    String resourceName = getResourceName(options.remoteInstanceName, digest);
+    // For compressed blobs, the read offset refers to the compressed data.
+    String resourceName = getResourceName(options.remoteInstanceName, digest, compressor);
     SettableFuture<Void> future = SettableFuture.create();
     bsAsyncStub(context)
         .read(
@@ -377,10 +453,14 @@ public class GrpcCacheClient implements RemoteCacheClient, MissingDigestsFinder
               @Override
               public void onCompleted() {
                 try {
+                  if (compressor != null) {
+                    // Decompresses the remaining data, without closing the stream of the caller.
+                    out.close();
+                  }
                   if (digestSupplier != null) {
                     Utils.verifyBlobContents(digest, digestSupplier.get());
                   }
-                  out.flush();
+                  destination.flush();
                   future.set(null);
                 } catch (IOException e) {
                   future.setException(e);
@@ -399,7 +479,10 @@ public class GrpcCacheClient implements RemoteCacheClient, MissingDigestsFinder
     return uploader.uploadBlobAsync(
         context,
         digest,
-        Chunker.builder().setInput(digest.getSizeBytes(), path).build(),
+        Chunker.builder()
+            .setInput(digest.getSizeBytes(), path)
+            .setCompressor(compressor)
+            .build(),
         /* forceUpload= */ true);
   }
 
@@ -409,7 +492,7 @@ public class GrpcCacheClient implements RemoteCacheClient, MissingDigestsFinder
     return uploader.uploadBlobAsync(
         context,
         digest,
-        Chunker.builder().setInput(data.toByteArray()).build(),
+        Chunker.builder().setInput(data.toByteArray()).setCompressor(compressor).build(),
         /* forceUpload= */ true);
   }
 }
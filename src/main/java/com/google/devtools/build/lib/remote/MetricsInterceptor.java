@@ -0,0 +1,96 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.remote;
+
+import com.google.devtools.build.lib.metrics.LatencyHistogram;
+import com.google.devtools.build.lib.metrics.MetricRegistry;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The ClientInterceptor that records the latency and failures of remote calls in the {@link
+ * MetricRegistry}, by gRPC method.
+ */
+public class MetricsInterceptor implements ClientInterceptor {
+
+  private static final ConcurrentHashMap<String, LatencyHistogram> latencies =
+      new ConcurrentHashMap<>();
+
+  @Override
+  public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(
+      MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
+    return new MetricsCall<>(next.newCall(method, callOptions), method.getFullMethodName());
+  }
+
+  private static LatencyHistogram latency(String method) {
+    return latencies.computeIfAbsent(
+        method,
+        m ->
+            MetricRegistry.instance()
+                .histogram(
+                    "bazel_remote_call_latency_seconds",
+                    "Time from the start of a remote call until it is closed.",
+                    "method",
+                    m));
+  }
+
+  private static class MetricsCall<ReqT, RespT>
+      extends ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT> {
+    private final String method;
+
+    MetricsCall(ClientCall<ReqT, RespT> delegate, String method) {
+      super(delegate);
+      this.method = method;
+    }
+
+    @Override
+    public void start(Listener<RespT> responseListener, Metadata headers) {
+      long startNanos = System.nanoTime();
+      super.start(
+          new ForwardingClientCallListener.SimpleForwardingClientCallListener<RespT>(
+              responseListener) {
+            @Override
+            public void onClose(Status status, Metadata trailers) {
+              try {
+                latency(method).recordNanos(System.nanoTime() - startNanos);
+                if (!status.isOk()) {
+                  MetricRegistry.instance()
+                      .counter(
+                          "bazel_remote_call_errors",
+                          "Remote calls that failed, by gRPC status code.",
+                          "method",
+                          method,
+                          "code",
+                          status.getCode().name())
+                      .inc();
+                }
+              } finally {
+                // Make sure to call super.onClose, otherwise gRPC will silently hang indefinitely.
+                super.onClose(status, trailers);
+              }
+            }
+          },
+          headers);
+    }
+  }
+}
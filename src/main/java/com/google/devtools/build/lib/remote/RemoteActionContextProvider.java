@@ -17,7 +17,9 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.flogger.GoogleLogger;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import com.google.devtools.build.lib.actions.ActionGraph;
 import com.google.devtools.build.lib.actions.ActionInput;
@@ -32,6 +34,7 @@ import com.google.devtools.build.lib.remote.common.RemoteExecutionClient;
 import com.google.devtools.build.lib.remote.common.RemotePathResolver;
 import com.google.devtools.build.lib.remote.common.RemotePathResolver.DefaultRemotePathResolver;
 import com.google.devtools.build.lib.remote.common.RemotePathResolver.SiblingRepositoryLayoutResolver;
+import com.google.devtools.build.lib.remote.merkletree.MerkleTreeCache;
 import com.google.devtools.build.lib.remote.options.RemoteOptions;
 import com.google.devtools.build.lib.remote.util.DigestUtil;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
@@ -41,6 +44,8 @@ import javax.annotation.Nullable;
 /** Provide a remote execution context. */
 final class RemoteActionContextProvider implements ExecutorLifecycleListener {
 
+  private static final GoogleLogger logger = GoogleLogger.forEnclosingClass();
+
   private final CommandEnvironment env;
   private final RemoteCache cache;
   @Nullable private final RemoteExecutionClient executor;
@@ -48,6 +53,7 @@ final class RemoteActionContextProvider implements ExecutorLifecycleListener {
   private final DigestUtil digestUtil;
   @Nullable private final Path logDir;
   private ImmutableSet<ActionInput> filesToDownload = ImmutableSet.of();
+  @Nullable private final MerkleTreeCache merkleTreeCache;
 
   private RemoteActionContextProvider(
       CommandEnvironment env,
@@ -62,6 +68,11 @@ final class RemoteActionContextProvider implements ExecutorLifecycleListener {
     this.retryScheduler = retryScheduler;
     this.digestUtil = digestUtil;
     this.logDir = logDir;
+    RemoteOptions remoteOptions = env.getOptions().getOptions(RemoteOptions.class);
+    this.merkleTreeCache =
+        remoteOptions != null && remoteOptions.remoteMerkleTreeCache
+            ? new MerkleTreeCache(remoteOptions.remoteMerkleTreeCacheSize)
+            : null;
   }
 
   public static RemoteActionContextProvider createForRemoteCaching(
@@ -129,7 +140,8 @@ final class RemoteActionContextProvider implements ExecutorLifecycleListener {
             digestUtil,
             logDir,
             filesToDownload,
-            createRemotePathResolver());
+            createRemotePathResolver(),
+            merkleTreeCache);
     registryBuilder.registerStrategy(
         new RemoteSpawnStrategy(env.getExecRoot(), spawnRunner, verboseFailures), "remote");
   }
@@ -151,7 +163,8 @@ final class RemoteActionContextProvider implements ExecutorLifecycleListener {
             env.getReporter(),
             digestUtil,
             filesToDownload,
-            createRemotePathResolver());
+            createRemotePathResolver(),
+            merkleTreeCache);
     registryBuilder.register(SpawnCache.class, spawnCache, "remote-cache");
   }
 
@@ -173,6 +186,12 @@ final class RemoteActionContextProvider implements ExecutorLifecycleListener {
 
   @Override
   public void executionPhaseEnding() {
+    if (merkleTreeCache != null) {
+      CacheStats stats = merkleTreeCache.getStats();
+      logger.atInfo().log(
+          "Merkle tree cache: %d hits, %d misses, %d evictions",
+          stats.hitCount(), stats.missCount(), stats.evictionCount());
+    }
     cache.close();
     if (executor != null) {
       executor.close();
@@ -484,6 +484,14 @@ public class RemoteCache implements AutoCloseable {
       return COMPLETED_SUCCESS;
     }
 
+    return Futures.transformAsync(
+        cacheProtocol.copyBlobToFile(digest, path),
+        (copied) -> copied ? COMPLETED_SUCCESS : downloadBlobToFile(context, path, digest),
+        directExecutor());
+  }
+
+  private ListenableFuture<Void> downloadBlobToFile(
+      RemoteActionExecutionContext context, Path path, Digest digest) {
     OutputStream out = new LazyFileOutputStream(path);
     SettableFuture<Void> outerF = SettableFuture.create();
     ListenableFuture<Void> f = cacheProtocol.downloadBlob(context, digest, out);
@@ -21,8 +21,10 @@ import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.remote.common.RemoteCacheClient;
 import com.google.devtools.build.lib.remote.disk.DiskAndRemoteCacheClient;
 import com.google.devtools.build.lib.remote.disk.DiskCacheClient;
+import com.google.devtools.build.lib.remote.disk.DiskCacheGarbageCollector;
 import com.google.devtools.build.lib.remote.http.HttpCacheClient;
 import com.google.devtools.build.lib.remote.options.RemoteOptions;
+import com.google.devtools.build.lib.remote.util.BlobCompressor;
 import com.google.devtools.build.lib.remote.util.DigestUtil;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
@@ -47,8 +49,33 @@ public final class RemoteCacheClientFactory {
       RemoteCacheClient remoteCacheClient,
       RemoteOptions options)
       throws IOException {
+    return createDiskAndRemoteClient(
+        workingDirectory,
+        diskCachePath,
+        remoteVerifyDownloads,
+        digestUtil,
+        remoteCacheClient,
+        options,
+        /* diskCacheGarbageCollector= */ null);
+  }
+
+  public static RemoteCacheClient createDiskAndRemoteClient(
+      Path workingDirectory,
+      PathFragment diskCachePath,
+      boolean remoteVerifyDownloads,
+      DigestUtil digestUtil,
+      RemoteCacheClient remoteCacheClient,
+      RemoteOptions options,
+      @Nullable DiskCacheGarbageCollector diskCacheGarbageCollector)
+      throws IOException {
     DiskCacheClient diskCacheClient =
-        createDiskCache(workingDirectory, diskCachePath, remoteVerifyDownloads, digestUtil);
+        createDiskCache(
+            workingDirectory,
+            diskCachePath,
+            remoteVerifyDownloads,
+            digestUtil,
+            diskCacheGarbageCollector,
+            options.diskCacheCompression);
     return new DiskAndRemoteCacheClient(diskCacheClient, remoteCacheClient, options);
   }
 
@@ -58,17 +85,42 @@ public final class RemoteCacheClientFactory {
       Path workingDirectory,
       DigestUtil digestUtil)
       throws IOException {
+    return create(
+        options, creds, workingDirectory, digestUtil, /* diskCacheGarbageCollector= */ null);
+  }
+
+  /**
+   * Creates a cache client for the given options. If {@code diskCacheGarbageCollector} is not
+   * null, it bounds the size of the disk cache, if any.
+   */
+  public static RemoteCacheClient create(
+      RemoteOptions options,
+      @Nullable Credentials creds,
+      Path workingDirectory,
+      DigestUtil digestUtil,
+      @Nullable DiskCacheGarbageCollector diskCacheGarbageCollector)
+      throws IOException {
     Preconditions.checkNotNull(workingDirectory, "workingDirectory");
     if (isHttpCache(options) && isDiskCache(options)) {
       return createDiskAndHttpCache(
-          workingDirectory, options.diskCache, options, creds, digestUtil);
+          workingDirectory,
+          options.diskCache,
+          options,
+          creds,
+          digestUtil,
+          diskCacheGarbageCollector);
     }
     if (isHttpCache(options)) {
       return createHttp(options, creds, digestUtil);
     }
     if (isDiskCache(options)) {
       return createDiskCache(
-          workingDirectory, options.diskCache, options.remoteVerifyDownloads, digestUtil);
+          workingDirectory,
+          options.diskCache,
+          options.remoteVerifyDownloads,
+          digestUtil,
+          diskCacheGarbageCollector,
+          options.diskCacheCompression);
     }
     throw new IllegalArgumentException(
         "Unrecognized RemoteOptions configuration: remote Http cache URL and/or local disk cache"
@@ -122,14 +174,21 @@ public final class RemoteCacheClientFactory {
       Path workingDirectory,
       PathFragment diskCachePath,
       boolean verifyDownloads,
-      DigestUtil digestUtil)
+      DigestUtil digestUtil,
+      @Nullable DiskCacheGarbageCollector garbageCollector,
+      boolean compression)
       throws IOException {
     Path cacheDir =
         workingDirectory.getRelative(Preconditions.checkNotNull(diskCachePath, "diskCachePath"));
     if (!cacheDir.exists()) {
       cacheDir.createDirectoryAndParents();
     }
-    return new DiskCacheClient(cacheDir, verifyDownloads, digestUtil);
+    return new DiskCacheClient(
+        cacheDir,
+        verifyDownloads,
+        digestUtil,
+        garbageCollector,
+        compression ? BlobCompressor.DEFLATE : null);
   }
 
   private static RemoteCacheClient createDiskAndHttpCache(
@@ -137,7 +196,8 @@ public final class RemoteCacheClientFactory {
       PathFragment diskCachePath,
       RemoteOptions options,
       Credentials cred,
-      DigestUtil digestUtil)
+      DigestUtil digestUtil,
+      @Nullable DiskCacheGarbageCollector diskCacheGarbageCollector)
       throws IOException {
     Path cacheDir =
         workingDirectory.getRelative(Preconditions.checkNotNull(diskCachePath, "diskCachePath"));
@@ -152,7 +212,8 @@ public final class RemoteCacheClientFactory {
         options.remoteVerifyDownloads,
         digestUtil,
         httpCache,
-        options);
+        options,
+        diskCacheGarbageCollector);
   }
 
   public static boolean isDiskCache(RemoteOptions options) {
@@ -24,6 +24,7 @@ import com.google.common.base.Strings;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.Subscribe;
 import com.google.common.flogger.GoogleLogger;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -50,6 +51,7 @@ import com.google.devtools.build.lib.bazel.repository.downloader.Downloader;
 import com.google.devtools.build.lib.buildeventstream.BuildEventArtifactUploader;
 import com.google.devtools.build.lib.buildeventstream.LocalFilesArtifactUploader;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
+import com.google.devtools.build.lib.buildtool.buildevent.BuildCompleteEvent;
 import com.google.devtools.build.lib.collect.nestedset.NestedSet;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.Reporter;
@@ -61,10 +63,12 @@ import com.google.devtools.build.lib.packages.TargetUtils;
 import com.google.devtools.build.lib.remote.RemoteServerCapabilities.ServerCapabilitiesRequirement;
 import com.google.devtools.build.lib.remote.common.RemoteCacheClient;
 import com.google.devtools.build.lib.remote.common.RemoteExecutionClient;
+import com.google.devtools.build.lib.remote.disk.DiskCacheGarbageCollector;
 import com.google.devtools.build.lib.remote.downloader.GrpcRemoteDownloader;
 import com.google.devtools.build.lib.remote.logging.LoggingInterceptor;
 import com.google.devtools.build.lib.remote.options.RemoteOptions;
 import com.google.devtools.build.lib.remote.options.RemoteOutputsMode;
+import com.google.devtools.build.lib.remote.util.BlobCompressor;
 import com.google.devtools.build.lib.remote.util.DigestUtil;
 import com.google.devtools.build.lib.remote.util.TracingMetadataUtils;
 import com.google.devtools.build.lib.remote.util.Utils;
@@ -103,6 +107,7 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.Executors;
+import javax.annotation.Nullable;
 
 /** RemoteModule provides distributed cache and remote execution for Bazel. */
 public final class RemoteModule extends BlazeModule {
@@ -119,6 +124,11 @@ public final class RemoteModule extends BlazeModule {
   private RemoteOutputsMode remoteOutputsMode;
   private RemoteOutputService remoteOutputService;
 
+  /** Bounds the size of the disk cache; kept across commands so the cache is only scanned once. */
+  @Nullable private DiskCacheGarbageCollector diskCacheGarbageCollector;
+
+  @Nullable private Reporter diskCacheReporter;
+
   private ChannelFactory channelFactory =
       new ChannelFactory() {
         @Override
@@ -159,7 +169,12 @@ public final class RemoteModule extends BlazeModule {
     return !Strings.isNullOrEmpty(options.remoteDownloader);
   }
 
-  private static void verifyServerCapabilities(
+  /**
+   * Fetches the capabilities of the server behind {@code channel} and checks that they meet {@code
+   * requirement}. Returns null if interrupted.
+   */
+  @Nullable
+  private static ServerCapabilities verifyServerCapabilities(
       RemoteOptions remoteOptions,
       ReferenceCountedChannel channel,
       CallCredentials credentials,
@@ -180,7 +195,7 @@ public final class RemoteModule extends BlazeModule {
       capabilities = rsc.get(env.getBuildRequestId(), env.getCommandId().toString());
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
-      return;
+      return null;
     }
     checkClientServerCompatibility(
         capabilities,
@@ -188,6 +203,7 @@ public final class RemoteModule extends BlazeModule {
         digestUtil.getDigestFunction(),
         env.getReporter(),
         requirement);
+    return capabilities;
   }
 
   private void initHttpAndDiskCache(
@@ -215,7 +231,8 @@ public final class RemoteModule extends BlazeModule {
               remoteOptions,
               creds,
               Preconditions.checkNotNull(env.getWorkingDirectory(), "workingDirectory"),
-              digestUtil);
+              digestUtil,
+              diskCacheGarbageCollector);
     } catch (IOException e) {
       handleInitFailure(env, e, Code.CACHE_INIT_FAILURE);
       return;
@@ -279,6 +296,11 @@ public final class RemoteModule extends BlazeModule {
     }
 
     env.getEventBus().register(this);
+    if (enableDiskCache) {
+      initDiskCacheGarbageCollector(env, remoteOptions);
+    } else {
+      shutdownDiskCacheGarbageCollector();
+    }
     String invocationId = env.getCommandId().toString();
     String buildRequestId = env.getBuildRequestId();
     env.getReporter().handle(Event.info(String.format("Invocation ID: %s", invocationId)));
@@ -308,6 +330,8 @@ public final class RemoteModule extends BlazeModule {
       loggingInterceptor = new LoggingInterceptor(rpcLogFile, env.getRuntime().getClock());
     }
 
+    ClientInterceptor metricsInterceptor = new MetricsInterceptor();
+
     ReferenceCountedChannel execChannel = null;
     ReferenceCountedChannel cacheChannel = null;
     ReferenceCountedChannel downloaderChannel = null;
@@ -322,6 +346,7 @@ public final class RemoteModule extends BlazeModule {
     if (enableRemoteExecution) {
       ImmutableList.Builder<ClientInterceptor> interceptors = ImmutableList.builder();
       interceptors.add(TracingMetadataUtils.newExecHeadersInterceptor(remoteOptions));
+      interceptors.add(metricsInterceptor);
       if (loggingInterceptor != null) {
         interceptors.add(loggingInterceptor);
       }
@@ -345,6 +370,7 @@ public final class RemoteModule extends BlazeModule {
     if (cacheChannel == null) {
       ImmutableList.Builder<ClientInterceptor> interceptors = ImmutableList.builder();
       interceptors.add(TracingMetadataUtils.newCacheHeadersInterceptor(remoteOptions));
+      interceptors.add(metricsInterceptor);
       if (loggingInterceptor != null) {
         interceptors.add(loggingInterceptor);
       }
@@ -366,6 +392,7 @@ public final class RemoteModule extends BlazeModule {
         downloaderChannel = cacheChannel.retain();
       } else {
         ImmutableList.Builder<ClientInterceptor> interceptors = ImmutableList.builder();
+        interceptors.add(metricsInterceptor);
         if (loggingInterceptor != null) {
           interceptors.add(loggingInterceptor);
         }
@@ -412,6 +439,7 @@ public final class RemoteModule extends BlazeModule {
     //
     // If they point to different endpoints, we check the endpoint with execution or cache
     // capabilities respectively.
+    ServerCapabilities cacheCapabilities = null;
     try {
       if (execChannel != null) {
         if (cacheChannel != execChannel) {
@@ -423,33 +451,36 @@ public final class RemoteModule extends BlazeModule {
               env,
               digestUtil,
               ServerCapabilitiesRequirement.EXECUTION);
-          verifyServerCapabilities(
-              remoteOptions,
-              cacheChannel,
-              credentials,
-              retrier,
-              env,
-              digestUtil,
-              ServerCapabilitiesRequirement.CACHE);
+          cacheCapabilities =
+              verifyServerCapabilities(
+                  remoteOptions,
+                  cacheChannel,
+                  credentials,
+                  retrier,
+                  env,
+                  digestUtil,
+                  ServerCapabilitiesRequirement.CACHE);
         } else {
-          verifyServerCapabilities(
-              remoteOptions,
-              execChannel,
-              credentials,
-              retrier,
-              env,
-              digestUtil,
-              ServerCapabilitiesRequirement.EXECUTION_AND_CACHE);
+          cacheCapabilities =
+              verifyServerCapabilities(
+                  remoteOptions,
+                  execChannel,
+                  credentials,
+                  retrier,
+                  env,
+                  digestUtil,
+                  ServerCapabilitiesRequirement.EXECUTION_AND_CACHE);
         }
       } else {
-        verifyServerCapabilities(
-            remoteOptions,
-            cacheChannel,
-            credentials,
-            retrier,
-            env,
-            digestUtil,
-            ServerCapabilitiesRequirement.CACHE);
+        cacheCapabilities =
+            verifyServerCapabilities(
+                remoteOptions,
+                cacheChannel,
+                credentials,
+                retrier,
+                env,
+                digestUtil,
+                ServerCapabilitiesRequirement.CACHE);
       }
     } catch (IOException e) {
       String errorMessage =
@@ -485,6 +516,14 @@ public final class RemoteModule extends BlazeModule {
             remoteOptions.remoteTimeout.getSeconds(),
             retrier);
 
+    BlobCompressor compressor = null;
+    if (remoteOptions.cacheCompression && cacheCapabilities != null) {
+      // RemoteServerCapabilities warns if there is no common compressor.
+      compressor =
+          BlobCompressor.negotiate(
+              cacheCapabilities.getCacheCapabilities().getSupportedCompressorsList());
+    }
+
     cacheChannel.release();
     RemoteCacheClient cacheClient =
         new GrpcCacheClient(
@@ -493,7 +532,8 @@ public final class RemoteModule extends BlazeModule {
             remoteOptions,
             retrier,
             digestUtil,
-            uploader.retain());
+            uploader.retain(),
+            compressor);
     uploader.release();
     buildEventArtifactUploaderFactoryDelegate.init(
         new ByteStreamBuildEventArtifactUploaderFactory(
@@ -546,7 +586,8 @@ public final class RemoteModule extends BlazeModule {
                   remoteOptions.remoteVerifyDownloads,
                   digestUtil,
                   cacheClient,
-                  remoteOptions);
+                  remoteOptions,
+                  diskCacheGarbageCollector);
         } catch (IOException e) {
           handleInitFailure(env, e, Code.CACHE_INIT_FAILURE);
           return;
@@ -732,6 +773,47 @@ public final class RemoteModule extends BlazeModule {
     }
   }
 
+  private void initDiskCacheGarbageCollector(CommandEnvironment env, RemoteOptions remoteOptions) {
+    if (remoteOptions.diskCacheGcMaxSize <= 0 && remoteOptions.diskCacheGcMaxEntries <= 0) {
+      shutdownDiskCacheGarbageCollector();
+      return;
+    }
+    Path root = env.getWorkingDirectory().getRelative(remoteOptions.diskCache);
+    if (diskCacheGarbageCollector == null
+        || !diskCacheGarbageCollector.getRoot().equals(root)
+        || !diskCacheGarbageCollector.hasBudget(
+            remoteOptions.diskCacheGcMaxSize, remoteOptions.diskCacheGcMaxEntries)) {
+      shutdownDiskCacheGarbageCollector();
+      diskCacheGarbageCollector =
+          DiskCacheGarbageCollector.create(
+              root,
+              remoteOptions.diskCacheGcMaxSize,
+              remoteOptions.diskCacheGcMaxEntries,
+              env.getRuntime().getClock());
+    }
+    diskCacheGarbageCollector.resetForCommand();
+    diskCacheReporter = env.getReporter();
+  }
+
+  private void shutdownDiskCacheGarbageCollector() {
+    if (diskCacheGarbageCollector != null) {
+      diskCacheGarbageCollector.shutdown();
+      diskCacheGarbageCollector = null;
+    }
+  }
+
+  @Subscribe
+  public void buildComplete(BuildCompleteEvent event) {
+    if (diskCacheGarbageCollector != null && diskCacheReporter != null) {
+      diskCacheReporter.handle(Event.info(diskCacheGarbageCollector.getSummary()));
+    }
+  }
+
+  @Override
+  public void blazeShutdown() {
+    shutdownDiskCacheGarbageCollector();
+  }
+
   @Override
   public void afterCommand() throws AbruptExitException {
     IOException failure = null;
@@ -754,6 +836,7 @@ public final class RemoteModule extends BlazeModule {
     actionInputFetcher = null;
     remoteOutputsMode = null;
     remoteOutputService = null;
+    diskCacheReporter = null;
 
     if (failure != null) {
       throw createExitException(failureMessage, ExitCode.LOCAL_ENVIRONMENTAL_ERROR, failureCode);
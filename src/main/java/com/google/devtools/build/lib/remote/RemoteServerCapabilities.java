@@ -28,10 +28,12 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.remote.common.RemoteActionExecutionContext;
 import com.google.devtools.build.lib.remote.options.RemoteOptions;
+import com.google.devtools.build.lib.remote.util.BlobCompressor;
 import com.google.devtools.build.lib.remote.util.TracingMetadataUtils;
 import io.grpc.CallCredentials;
 import io.grpc.StatusRuntimeException;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
@@ -255,6 +257,18 @@ class RemoteServerCapabilities {
           "remote_result_cache_priority",
           cacheCap.getCachePriorityCapabilities(),
           result);
+
+      // Check that the server supports a compressor if compression was requested.
+      if (remoteOptions.cacheCompression
+          && BlobCompressor.negotiate(cacheCap.getSupportedCompressorsList()) == null) {
+        result.addWarning(
+            String.format(
+                "--experimental_remote_cache_compression is set, but the remote cache supports "
+                    + "none of the client's compressors %s (server supports %s). Blobs will be "
+                    + "transferred uncompressed.",
+                Arrays.toString(BlobCompressor.values()),
+                cacheCap.getSupportedCompressorsList()));
+      }
     }
 
     return result.build();
@@ -53,6 +53,7 @@ import com.google.devtools.build.lib.remote.common.RemoteActionExecutionContext;
 import com.google.devtools.build.lib.remote.common.RemoteCacheClient.ActionKey;
 import com.google.devtools.build.lib.remote.common.RemotePathResolver;
 import com.google.devtools.build.lib.remote.merkletree.MerkleTree;
+import com.google.devtools.build.lib.remote.merkletree.MerkleTreeCache;
 import com.google.devtools.build.lib.remote.options.RemoteOptions;
 import com.google.devtools.build.lib.remote.options.RemoteOutputsMode;
 import com.google.devtools.build.lib.remote.util.DigestUtil;
@@ -87,6 +88,7 @@ final class RemoteSpawnCache implements SpawnCache {
 
   private final DigestUtil digestUtil;
   private final RemotePathResolver remotePathResolver;
+  @Nullable private final MerkleTreeCache merkleTreeCache;
 
   /**
    * If {@link RemoteOutputsMode#TOPLEVEL} is specified it contains the artifacts that should be
@@ -104,7 +106,8 @@ final class RemoteSpawnCache implements SpawnCache {
       @Nullable Reporter cmdlineReporter,
       DigestUtil digestUtil,
       ImmutableSet<ActionInput> filesToDownload,
-      RemotePathResolver remotePathResolver) {
+      RemotePathResolver remotePathResolver,
+      @Nullable MerkleTreeCache merkleTreeCache) {
     this.execRoot = execRoot;
     this.options = options;
     this.verboseFailures = verboseFailures;
@@ -115,6 +118,7 @@ final class RemoteSpawnCache implements SpawnCache {
     this.digestUtil = digestUtil;
     this.filesToDownload = Preconditions.checkNotNull(filesToDownload, "filesToDownload");
     this.remotePathResolver = remotePathResolver;
+    this.merkleTreeCache = merkleTreeCache;
   }
 
   @Override
@@ -131,7 +135,8 @@ final class RemoteSpawnCache implements SpawnCache {
 
     SortedMap<PathFragment, ActionInput> inputMap = remotePathResolver.getInputMapping(context);
     MerkleTree merkleTree =
-        MerkleTree.build(inputMap, context.getMetadataProvider(), execRoot, digestUtil);
+        RemoteSpawnRunner.buildInputMerkleTree(
+            spawn, context, inputMap, remotePathResolver, merkleTreeCache, execRoot, digestUtil);
     SpawnMetrics.Builder spawnMetrics =
         SpawnMetrics.Builder.forRemoteExec()
             .setInputBytes(merkleTree.getInputBytes())
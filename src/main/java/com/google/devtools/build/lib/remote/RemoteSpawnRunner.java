@@ -73,6 +73,7 @@ import com.google.devtools.build.lib.remote.common.RemoteCacheClient.ActionKey;
 import com.google.devtools.build.lib.remote.common.RemoteExecutionClient;
 import com.google.devtools.build.lib.remote.common.RemotePathResolver;
 import com.google.devtools.build.lib.remote.merkletree.MerkleTree;
+import com.google.devtools.build.lib.remote.merkletree.MerkleTreeCache;
 import com.google.devtools.build.lib.remote.options.RemoteOptions;
 import com.google.devtools.build.lib.remote.options.RemoteOutputsMode;
 import com.google.devtools.build.lib.remote.util.DigestUtil;
@@ -124,6 +125,7 @@ public class RemoteSpawnRunner implements SpawnRunner {
   private final DigestUtil digestUtil;
   private final Path logDir;
   private final RemotePathResolver remotePathResolver;
+  @Nullable private final MerkleTreeCache merkleTreeCache;
 
   /**
    * If {@link RemoteOutputsMode#TOPLEVEL} is specified it contains the artifacts that should be
@@ -148,7 +150,8 @@ public class RemoteSpawnRunner implements SpawnRunner {
       DigestUtil digestUtil,
       Path logDir,
       ImmutableSet<ActionInput> filesToDownload,
-      RemotePathResolver remotePathResolver) {
+      RemotePathResolver remotePathResolver,
+      @Nullable MerkleTreeCache merkleTreeCache) {
     this.execRoot = execRoot;
     this.remoteOptions = remoteOptions;
     this.executionOptions = executionOptions;
@@ -163,6 +166,7 @@ public class RemoteSpawnRunner implements SpawnRunner {
     this.logDir = logDir;
     this.filesToDownload = Preconditions.checkNotNull(filesToDownload, "filesToDownload");
     this.remotePathResolver = remotePathResolver;
+    this.merkleTreeCache = merkleTreeCache;
   }
 
   @Override
@@ -220,7 +224,8 @@ public class RemoteSpawnRunner implements SpawnRunner {
 
     SortedMap<PathFragment, ActionInput> inputMap = remotePathResolver.getInputMapping(context);
     final MerkleTree merkleTree =
-        MerkleTree.build(inputMap, context.getMetadataProvider(), execRoot, digestUtil);
+        buildInputMerkleTree(
+            spawn, context, inputMap, remotePathResolver, merkleTreeCache, execRoot, digestUtil);
     SpawnMetrics.Builder spawnMetrics =
         SpawnMetrics.Builder.forRemoteExec()
             .setInputBytes(merkleTree.getInputBytes())
@@ -715,6 +720,34 @@ public class RemoteSpawnRunner implements SpawnRunner {
     return action.build();
   }
 
+  /**
+   * Returns the merkle tree of {@code inputMap}, the input mapping of {@code spawn}. If a {@link
+   * MerkleTreeCache} is given and the mapping consists of the spawn's input files laid out by their
+   * exec paths, the tree is built from the cached trees of the nested set of input files instead.
+   */
+  static MerkleTree buildInputMerkleTree(
+      Spawn spawn,
+      SpawnExecutionContext context,
+      SortedMap<PathFragment, ActionInput> inputMap,
+      RemotePathResolver remotePathResolver,
+      @Nullable MerkleTreeCache merkleTreeCache,
+      Path execRoot,
+      DigestUtil digestUtil)
+      throws IOException {
+    if (merkleTreeCache != null
+        && Strings.isNullOrEmpty(remotePathResolver.getWorkingDirectory())
+        && spawn.getRunfilesSupplier().getArtifacts().isEmpty()
+        && spawn.getFilesetMappings().isEmpty()) {
+      return merkleTreeCache.build(
+          spawn.getInputFiles(),
+          context.getArtifactExpander(),
+          context.getMetadataProvider(),
+          execRoot,
+          digestUtil);
+    }
+    return MerkleTree.build(inputMap, context.getMetadataProvider(), execRoot, digestUtil);
+  }
+
   static Command buildCommand(
       Collection<? extends ActionInput> outputs,
       List<String> arguments,
@@ -18,6 +18,7 @@ import build.bazel.remote.execution.v2.Action;
 import build.bazel.remote.execution.v2.ActionResult;
 import build.bazel.remote.execution.v2.Digest;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.protobuf.ByteString;
@@ -101,6 +102,17 @@ public interface RemoteCacheClient extends MissingDigestsFinder {
   ListenableFuture<Void> downloadBlob(
       RemoteActionExecutionContext context, Digest digest, OutputStream out);
 
+  /**
+   * Copies the BLOB for the given {@code digest} to {@code path} if this cache holds it in a local
+   * file that can be copied without streaming its contents, e.g. with a reflink.
+   *
+   * @return A future completing with {@code false} if the BLOB has to be fetched with {@link
+   *     #downloadBlob} instead, or failing with an {@link IOException} if the copy failed.
+   */
+  default ListenableFuture<Boolean> copyBlobToFile(Digest digest, Path path) {
+    return Futures.immediateFuture(false);
+  }
+
   /**
    * Uploads a {@code file} to the CAS.
    *
@@ -168,6 +168,11 @@ public final class DiskAndRemoteCacheClient implements RemoteCacheClient {
     }
   }
 
+  @Override
+  public ListenableFuture<Boolean> copyBlobToFile(Digest digest, Path path) {
+    return diskCache.copyBlobToFile(digest, path);
+  }
+
   @Override
   public ListenableFuture<ActionResult> downloadActionResult(
       RemoteActionExecutionContext context, ActionKey actionKey, boolean inlineOutErr) {
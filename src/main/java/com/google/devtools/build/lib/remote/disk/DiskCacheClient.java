@@ -15,23 +15,41 @@ package com.google.devtools.build.lib.remote.disk;
 
 import build.bazel.remote.execution.v2.ActionResult;
 import build.bazel.remote.execution.v2.Digest;
+import build.bazel.remote.execution.v2.Directory;
+import build.bazel.remote.execution.v2.FileNode;
+import build.bazel.remote.execution.v2.OutputDirectory;
+import build.bazel.remote.execution.v2.OutputFile;
+import build.bazel.remote.execution.v2.Tree;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.devtools.build.lib.remote.common.CacheNotFoundException;
 import com.google.devtools.build.lib.remote.common.RemoteActionExecutionContext;
 import com.google.devtools.build.lib.remote.common.RemoteCacheClient;
+import com.google.devtools.build.lib.remote.util.BlobCompressor;
 import com.google.devtools.build.lib.remote.util.DigestOutputStream;
 import com.google.devtools.build.lib.remote.util.DigestUtil;
 import com.google.devtools.build.lib.remote.util.Utils;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 
 /** A on-disk store for the remote action cache. */
@@ -40,14 +58,79 @@ public class DiskCacheClient implements RemoteCacheClient {
   private static final String AC_DIRECTORY = "ac";
   private static final String CAS_DIRECTORY = "cas";
 
+  /** The maximum number of CAS entries copied to output files at the same time. */
+  private static final int COPY_THREADS = 16;
+
   private final Path root;
   private final boolean verifyDownloads;
   private final DigestUtil digestUtil;
+  @Nullable private final DiskCacheGarbageCollector garbageCollector;
+  @Nullable private final BlobCompressor compressor;
+
+  /**
+   * Runs the copies of CAS entries to output files, which include a digest pass over the copy when
+   * downloads are verified, so that they don't block the thread downloading the outputs.
+   */
+  private final ListeningExecutorService copyExecutor;
 
   public DiskCacheClient(Path root, boolean verifyDownloads, DigestUtil digestUtil) {
+    this(root, verifyDownloads, digestUtil, /* garbageCollector= */ null);
+  }
+
+  /**
+   * Creates a disk cache whose size is bounded by the given {@link DiskCacheGarbageCollector}, or
+   * an unbounded one if {@code garbageCollector} is null.
+   */
+  public DiskCacheClient(
+      Path root,
+      boolean verifyDownloads,
+      DigestUtil digestUtil,
+      @Nullable DiskCacheGarbageCollector garbageCollector) {
+    this(root, verifyDownloads, digestUtil, garbageCollector, /* compressor= */ null);
+  }
+
+  /**
+   * Creates a disk cache that stores CAS entries compressed with {@code compressor}, or
+   * uncompressed if it is null. Action cache entries are small and always stored uncompressed.
+   */
+  public DiskCacheClient(
+      Path root,
+      boolean verifyDownloads,
+      DigestUtil digestUtil,
+      @Nullable DiskCacheGarbageCollector garbageCollector,
+      @Nullable BlobCompressor compressor) {
+    Preconditions.checkArgument(
+        garbageCollector == null || garbageCollector.getRoot().equals(root),
+        "garbage collector manages %s, not %s",
+        garbageCollector == null ? null : garbageCollector.getRoot(),
+        root);
     this.root = root;
     this.verifyDownloads = verifyDownloads;
     this.digestUtil = digestUtil;
+    this.garbageCollector = garbageCollector;
+    this.compressor = compressor;
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            COPY_THREADS,
+            COPY_THREADS,
+            60,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            new ThreadFactoryBuilder()
+                .setNameFormat("disk-cache-copy-%d")
+                .setDaemon(true)
+                .build());
+    executor.allowCoreThreadTimeOut(true);
+    this.copyExecutor = MoreExecutors.listeningDecorator(executor);
+  }
+
+  /**
+   * Returns the name of the directory holding the CAS entries compressed with {@code compressor}.
+   * Compressed entries are kept apart from uncompressed ones, so that disk caches written with
+   * and without compression can't be confused.
+   */
+  public static String casDirectory(@Nullable BlobCompressor compressor) {
+    return compressor == null ? CAS_DIRECTORY : CAS_DIRECTORY + "_" + compressor.getName();
   }
 
   /** Returns {@code true} if the provided {@code key} is stored in the CAS. */
@@ -61,19 +144,81 @@ public class DiskCacheClient implements RemoteCacheClient {
   }
 
   public void captureFile(Path src, Digest digest, boolean isActionCache) throws IOException {
+    if (!isActionCache && compressor != null) {
+      try (InputStream in = src.getInputStream()) {
+        saveFile(digest.getHash(), in, /* actionResult= */ false);
+      }
+      src.delete();
+      return;
+    }
     Path target = toPath(digest.getHash(), isActionCache);
     target.getParentDirectory().createDirectoryAndParents();
     src.renameTo(target);
+    if (garbageCollector != null) {
+      garbageCollector.recordInsertion(target, target.getFileSize());
+    }
+  }
+
+  @Override
+  public ListenableFuture<Boolean> copyBlobToFile(Digest digest, Path path) {
+    if (compressor != null) {
+      // Compressed entries have to be decompressed through streams.
+      return Futures.immediateFuture(false);
+    }
+    return copyExecutor.submit(() -> copy(digest, path));
+  }
+
+  private boolean copy(Digest digest, Path path) throws IOException {
+    Path p = toPath(digest.getHash(), /* actionResult= */ false);
+    if (!p.exists()) {
+      // Let downloadBlob record the miss.
+      return false;
+    }
+    try {
+      if (!FileSystemUtils.copyFileEfficiently(p, path)) {
+        return false;
+      }
+    } catch (FileNotFoundException e) {
+      // The entry was evicted between the existence check and the copy.
+      return false;
+    }
+    if (verifyDownloads) {
+      // Reading the copy only once is still cheaper than streaming the entry into it.
+      Utils.verifyBlobContents(digest, digestUtil.compute(path));
+    }
+    if (garbageCollector != null) {
+      garbageCollector.recordHit(p, digest.getSizeBytes());
+    }
+    return true;
   }
 
   private ListenableFuture<Void> download(Digest digest, OutputStream out, boolean isActionCache) {
     Path p = toPath(digest.getHash(), isActionCache);
     if (!p.exists()) {
+      if (garbageCollector != null) {
+        garbageCollector.recordMiss();
+      }
       return Futures.immediateFailedFuture(new CacheNotFoundException(digest));
     } else {
       try (InputStream in = p.getInputStream()) {
-        ByteStreams.copy(in, out);
+        long size;
+        if (!isActionCache && compressor != null) {
+          try (OutputStream decompressed = compressor.decompress(out)) {
+            size = ByteStreams.copy(in, decompressed);
+          }
+        } else {
+          size = ByteStreams.copy(in, out);
+        }
+        if (garbageCollector != null) {
+          garbageCollector.recordHit(p, size);
+        }
         return Futures.immediateFuture(null);
+      } catch (FileNotFoundException e) {
+        // The entry was evicted between the existence check and opening it.
+        if (garbageCollector != null) {
+          garbageCollector.recordMiss();
+        }
+        return Futures.immediateFailedFuture(new CacheNotFoundException(digest));
       } catch (IOException e) {
         return Futures.immediateFailedFuture(e);
       }
@@ -104,8 +249,74 @@ public class DiskCacheClient implements RemoteCacheClient {
   @Override
   public ListenableFuture<ActionResult> downloadActionResult(
       RemoteActionExecutionContext context, ActionKey actionKey, boolean inlineOutErr) {
-    return Utils.downloadAsActionResult(
-        actionKey, (digest, out) -> download(digest, out, /* isActionCache= */ true));
+    ListenableFuture<ActionResult> actionResult =
+        Utils.downloadAsActionResult(
+            actionKey, (digest, out) -> download(digest, out, /* isActionCache= */ true));
+    if (garbageCollector == null) {
+      return actionResult;
+    }
+    return Futures.transform(
+        actionResult,
+        (result) -> {
+          if (result != null) {
+            pinOutputs(result);
+          }
+          return result;
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Keeps the CAS entries of the outputs of {@code actionResult} from being evicted before they are
+   * downloaded, which would turn the action cache hit into a failure.
+   */
+  private void pinOutputs(ActionResult actionResult) {
+    for (OutputFile file : actionResult.getOutputFilesList()) {
+      pinBlob(file.getDigest());
+    }
+    for (OutputDirectory directory : actionResult.getOutputDirectoriesList()) {
+      pinBlob(directory.getTreeDigest());
+      pinTreeContents(directory.getTreeDigest());
+    }
+    if (actionResult.hasStdoutDigest()) {
+      pinBlob(actionResult.getStdoutDigest());
+    }
+    if (actionResult.hasStderrDigest()) {
+      pinBlob(actionResult.getStderrDigest());
+    }
+  }
+
+  private void pinBlob(Digest digest) {
+    garbageCollector.pin(toPath(digest.getHash(), /* actionResult= */ false));
+  }
+
+  private void pinTreeContents(Digest treeDigest) {
+    Path p = toPath(treeDigest.getHash(), /* actionResult= */ false);
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    try (InputStream in = p.getInputStream()) {
+      if (compressor != null) {
+        try (OutputStream decompressed = compressor.decompress(data)) {
+          ByteStreams.copy(in, decompressed);
+        }
+      } else {
+        ByteStreams.copy(in, data);
+      }
+    } catch (IOException e) {
+      // The tree is missing or unreadable, so downloading the outputs fails anyway.
+      return;
+    }
+    Tree tree;
+    try {
+      tree = Tree.parseFrom(data.toByteArray());
+    } catch (InvalidProtocolBufferException e) {
+      return;
+    }
+    for (Directory directory :
+        Iterables.concat(ImmutableList.of(tree.getRoot()), tree.getChildrenList())) {
+      for (FileNode file : directory.getFilesList()) {
+        pinBlob(file.getDigest());
+      }
+    }
   }
 
   @Override
@@ -118,7 +329,9 @@ public class DiskCacheClient implements RemoteCacheClient {
   }
 
   @Override
-  public void close() {}
+  public void close() {
+    copyExecutor.shutdown();
+  }
 
   @Override
   public ListenableFuture<Void> uploadFile(
@@ -155,7 +368,7 @@ public class DiskCacheClient implements RemoteCacheClient {
   }
 
   protected Path toPath(String key, boolean actionResult) {
-    String cacheFolder = actionResult ? AC_DIRECTORY : CAS_DIRECTORY;
+    String cacheFolder = actionResult ? AC_DIRECTORY : casDirectory(compressor);
     // Create the file in a subfolder to bypass possible folder file count limits
     return root.getChild(cacheFolder).getChild(key.substring(0, 2)).getChild(key);
   }
@@ -163,17 +376,31 @@ public class DiskCacheClient implements RemoteCacheClient {
   private void saveFile(String key, InputStream in, boolean actionResult) throws IOException {
     Path target = toPath(key, actionResult);
     if (target.exists()) {
+      if (garbageCollector != null) {
+        // Keep the existing entry from being evicted while it's still in use.
+        garbageCollector.recordInsertion(target, target.getFileSize());
+      }
       return;
     }
     target.getParentDirectory().createDirectoryAndParents();
 
     // Write a temporary file first, and then rename, to avoid data corruption in case of a crash.
     Path temp = toPathNoSplit(UUID.randomUUID().toString());
+    long size;
     try (OutputStream out = temp.getOutputStream()) {
-      ByteStreams.copy(in, out);
+      if (!actionResult && compressor != null) {
+        try (InputStream compressed = compressor.compress(in)) {
+          size = ByteStreams.copy(compressed, out);
+        }
+      } else {
+        size = ByteStreams.copy(in, out);
+      }
     }
     // TODO(ulfjack): Fsync temp here before we rename it to avoid data loss in the case of machine
     // crashes (the OS may reorder the writes and the rename).
     temp.renameTo(target);
+    if (garbageCollector != null) {
+      garbageCollector.recordInsertion(target, size);
+    }
   }
 }
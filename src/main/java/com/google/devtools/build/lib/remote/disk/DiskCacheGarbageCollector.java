@@ -0,0 +1,364 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote.disk;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.GoogleLogger;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.clock.Clock;
+import com.google.devtools.build.lib.remote.util.BlobCompressor;
+import com.google.devtools.build.lib.vfs.Dirent;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a {@link DiskCacheClient} directory within a size and entry budget by evicting the least
+ * recently used entries.
+ *
+ * <p>The collector keeps an in-memory index of every entry in the {@code ac} and {@code cas}
+ * subdirectories together with its size and last access time. The index is populated by a
+ * background scan of the cache directory when the collector is created and is updated by the
+ * {@link DiskCacheClient} on every read and write. Since file system access times are unreliable
+ * (e.g. on {@code noatime} mounts), the last modification time of an entry is bumped on every
+ * access and used as the access time when the directory is scanned again by a later server.
+ *
+ * <p>Collections run on a single background thread once the cache exceeds its budget, and evict
+ * entries until the cache is back to {@link #LOW_WATERMARK} of its budget. Entries that have been
+ * read or written since the last call to {@link #resetForCommand}, and the outputs of action
+ * results read since then, are pinned and never evicted, so that blobs referenced by in-flight
+ * actions of the current command stay available. Pinning and evicting an entry are atomic with
+ * respect to each other.
+ *
+ * <p>An instance is meant to outlive a single command, so that the cache directory is only
+ * scanned once per server.
+ */
+public final class DiskCacheGarbageCollector {
+
+  private static final GoogleLogger logger = GoogleLogger.forEnclosingClass();
+
+  /** Fraction of the budget a collection shrinks the cache to, to avoid collecting constantly. */
+  @VisibleForTesting static final double LOW_WATERMARK = 0.9;
+
+  private static final ImmutableList<String> CACHE_DIRECTORIES = cacheDirectories();
+
+  private static ImmutableList<String> cacheDirectories() {
+    ImmutableList.Builder<String> directories = ImmutableList.builder();
+    directories.add("ac").add(DiskCacheClient.casDirectory(/* compressor= */ null));
+    for (BlobCompressor compressor : BlobCompressor.values()) {
+      directories.add(DiskCacheClient.casDirectory(compressor));
+    }
+    return directories.build();
+  }
+
+  private static final class Entry {
+    final long size;
+    final long lastAccessMillis;
+
+    Entry(long size, long lastAccessMillis) {
+      this.size = size;
+      this.lastAccessMillis = lastAccessMillis;
+    }
+  }
+
+  private final Path root;
+  private final long maxSizeBytes;
+  private final long maxEntries;
+  private final Clock clock;
+  private final ExecutorService executor;
+
+  private final Map<Path, Entry> index = new ConcurrentHashMap<>();
+  private final Set<Path> pinned = ConcurrentHashMap.newKeySet();
+  private final AtomicLong totalSizeBytes = new AtomicLong();
+  private final AtomicBoolean collectionPending = new AtomicBoolean();
+  private volatile boolean scanned;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictedEntries = new AtomicLong();
+  private final AtomicLong evictedBytes = new AtomicLong();
+
+  /**
+   * Creates a collector for the disk cache at {@code root} and starts scanning it in the
+   * background.
+   *
+   * @param maxSizeBytes the maximum total size of all entries, or 0 for no limit
+   * @param maxEntries the maximum number of entries, or 0 for no limit
+   */
+  public static DiskCacheGarbageCollector create(
+      Path root, long maxSizeBytes, long maxEntries, Clock clock) {
+    ExecutorService executor =
+        Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("disk-cache-gc-%d")
+                .setDaemon(true)
+                .build());
+    DiskCacheGarbageCollector gc =
+        new DiskCacheGarbageCollector(root, maxSizeBytes, maxEntries, clock, executor);
+    gc.startScan();
+    return gc;
+  }
+
+  @VisibleForTesting
+  DiskCacheGarbageCollector(
+      Path root, long maxSizeBytes, long maxEntries, Clock clock, ExecutorService executor) {
+    checkArgument(maxSizeBytes >= 0, "maxSizeBytes must be non-negative");
+    checkArgument(maxEntries >= 0, "maxEntries must be non-negative");
+    this.root = Preconditions.checkNotNull(root);
+    this.maxSizeBytes = maxSizeBytes;
+    this.maxEntries = maxEntries;
+    this.clock = Preconditions.checkNotNull(clock);
+    this.executor = Preconditions.checkNotNull(executor);
+  }
+
+  /** Returns the root directory of the disk cache managed by this collector. */
+  public Path getRoot() {
+    return root;
+  }
+
+  /** Returns whether this collector enforces the given budget. */
+  public boolean hasBudget(long maxSizeBytes, long maxEntries) {
+    return this.maxSizeBytes == maxSizeBytes && this.maxEntries == maxEntries;
+  }
+
+  @VisibleForTesting
+  void startScan() {
+    submit(
+        () -> {
+          scan();
+          maybeCollect();
+        });
+  }
+
+  private void scan() {
+    for (String dir : CACHE_DIRECTORIES) {
+      Path cacheDir = root.getChild(dir);
+      try {
+        if (!cacheDir.isDirectory()) {
+          continue;
+        }
+        for (Dirent shard : cacheDir.readdir(Symlinks.NOFOLLOW)) {
+          if (shard.getType() != Dirent.Type.DIRECTORY) {
+            continue;
+          }
+          Path shardDir = cacheDir.getChild(shard.getName());
+          for (Dirent file : shardDir.readdir(Symlinks.NOFOLLOW)) {
+            if (file.getType() != Dirent.Type.FILE) {
+              continue;
+            }
+            Path path = shardDir.getChild(file.getName());
+            FileStatus status = path.statIfFound(Symlinks.NOFOLLOW);
+            if (status != null) {
+              // Entries accessed while the scan is running are more recent; keep them.
+              Entry entry = new Entry(status.getSize(), status.getLastModifiedTime());
+              if (index.putIfAbsent(path, entry) == null) {
+                totalSizeBytes.addAndGet(entry.size);
+              }
+            }
+          }
+        }
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Failed to scan disk cache directory %s", cacheDir);
+      }
+    }
+    scanned = true;
+  }
+
+  /** Records a disk cache lookup of {@code path} that found an entry of the given size. */
+  public void recordHit(Path path, long size) {
+    hits.incrementAndGet();
+    recordAccess(path, size);
+    try {
+      path.setLastModifiedTime(clock.currentTimeMillis());
+    } catch (IOException e) {
+      // Only affects the eviction order seen by a later server.
+      logger.atFine().withCause(e).log("Failed to update access time of %s", path);
+    }
+  }
+
+  /** Records a disk cache lookup that did not find an entry. */
+  public void recordMiss() {
+    misses.incrementAndGet();
+  }
+
+  /** Records that an entry of the given size was written to {@code path}. */
+  public void recordInsertion(Path path, long size) {
+    recordAccess(path, size);
+    if (isOverBudget(1.0)) {
+      submit(this::maybeCollect);
+    }
+  }
+
+  /**
+   * Keeps the entry at {@code path} from being evicted until the next {@link #resetForCommand},
+   * e.g. because it is an output of an action result that was just read.
+   */
+  public void pin(Path path) {
+    // Pins under the lock of the index entry, which eviction holds while it deletes the entry.
+    index.compute(
+        path,
+        (p, entry) -> {
+          pinned.add(p);
+          return entry;
+        });
+  }
+
+  private void recordAccess(Path path, long size) {
+    Entry entry = new Entry(size, clock.currentTimeMillis());
+    index.compute(
+        path,
+        (p, previous) -> {
+          pinned.add(p);
+          totalSizeBytes.addAndGet(previous == null ? size : size - previous.size);
+          return entry;
+        });
+  }
+
+  /**
+   * Unpins all entries and resets the counters. Must be called before each command that uses the
+   * disk cache.
+   */
+  public void resetForCommand() {
+    pinned.clear();
+    hits.set(0);
+    misses.set(0);
+    evictedEntries.set(0);
+    evictedBytes.set(0);
+  }
+
+  private boolean isOverBudget(double fraction) {
+    return (maxSizeBytes > 0 && totalSizeBytes.get() > maxSizeBytes * fraction)
+        || (maxEntries > 0 && index.size() > maxEntries * fraction);
+  }
+
+  private void submit(Runnable task) {
+    if (!collectionPending.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      executor.execute(
+          () -> {
+            collectionPending.set(false);
+            task.run();
+          });
+    } catch (RejectedExecutionException e) {
+      // The collector has been shut down.
+      collectionPending.set(false);
+    }
+  }
+
+  @VisibleForTesting
+  void maybeCollect() {
+    if (!scanned || !isOverBudget(1.0)) {
+      return;
+    }
+    List<Map.Entry<Path, Entry>> candidates = new ArrayList<>(index.size());
+    for (Map.Entry<Path, Entry> e : index.entrySet()) {
+      if (!pinned.contains(e.getKey())) {
+        candidates.add(e);
+      }
+    }
+    candidates.sort(Comparator.comparingLong(e -> e.getValue().lastAccessMillis));
+    for (Map.Entry<Path, Entry> candidate : candidates) {
+      if (!isOverBudget(LOW_WATERMARK)) {
+        break;
+      }
+      evict(candidate.getKey(), candidate.getValue());
+    }
+  }
+
+  /**
+   * Deletes the entry at {@code path} unless it was pinned or accessed since {@code entry} was
+   * read from the index. The entry stays in the index if it can't be deleted.
+   */
+  private void evict(Path path, Entry entry) {
+    index.computeIfPresent(
+        path,
+        (p, current) -> {
+          if (current != entry || pinned.contains(p)) {
+            // Accessed since the snapshot was taken.
+            return current;
+          }
+          try {
+            p.delete();
+          } catch (IOException e) {
+            logger.atWarning().withCause(e).log("Failed to evict disk cache entry %s", p);
+            return current;
+          }
+          totalSizeBytes.addAndGet(-entry.size);
+          evictedEntries.incrementAndGet();
+          evictedBytes.addAndGet(entry.size);
+          return null;
+        });
+  }
+
+  /** Returns the total size of all entries known to the collector. */
+  public long getTotalSizeBytes() {
+    return totalSizeBytes.get();
+  }
+
+  /** Returns the number of entries known to the collector. */
+  public int getEntryCount() {
+    return index.size();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getEvictedEntries() {
+    return evictedEntries.get();
+  }
+
+  public long getEvictedBytes() {
+    return evictedBytes.get();
+  }
+
+  /** Returns a one-line summary of the counters since the last {@link #resetForCommand}. */
+  public String getSummary() {
+    return String.format(
+        "Disk cache: %d hits, %d misses, %d evicted (%d bytes), %d entries (%d bytes) in use",
+        getHits(),
+        getMisses(),
+        getEvictedEntries(),
+        getEvictedBytes(),
+        getEntryCount(),
+        getTotalSizeBytes());
+  }
+
+  /** Stops the background thread. Pending collections are abandoned. */
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+}
@@ -30,9 +30,15 @@ import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.protobuf.ByteString;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nullable;
 
@@ -157,6 +163,119 @@ public class MerkleTree {
     }
   }
 
+  /**
+   * Merges multiple merkle trees into a single tree containing the files of all of them.
+   *
+   * <p>Only directories that appear in more than one of the trees are rebuilt; all other
+   * directories, and their digests, are reused as is. The result is identical to the tree built
+   * from the union of the inputs of all trees.
+   *
+   * @throws IOException if the trees contain different files, or a file and a directory, at the
+   *     same path
+   */
+  public static MerkleTree merge(Collection<MerkleTree> trees, DigestUtil digestUtil)
+      throws IOException {
+    List<MerkleTree> nonEmptyTrees = new ArrayList<>(trees.size());
+    for (MerkleTree tree : trees) {
+      if (!tree.digestDirectoryMap.isEmpty()) {
+        nonEmptyTrees.add(tree);
+      }
+    }
+    if (nonEmptyTrees.isEmpty()) {
+      return new MerkleTree(
+          ImmutableMap.of(), ImmutableMap.of(), digestUtil.compute(new byte[0]), 0, 0);
+    }
+    if (nonEmptyTrees.size() == 1) {
+      return nonEmptyTrees.get(0);
+    }
+
+    Map<Digest, Directory> allDirectories = new HashMap<>();
+    Map<Digest, PathOrBytes> digestFileMap = new HashMap<>();
+    Set<Digest> rootDigests = new LinkedHashSet<>();
+    for (MerkleTree tree : nonEmptyTrees) {
+      allDirectories.putAll(tree.digestDirectoryMap);
+      digestFileMap.putAll(tree.digestFileMap);
+      rootDigests.add(tree.rootDigest);
+    }
+    Digest rootDigest =
+        mergeDirectories(rootDigests, PathFragment.EMPTY_FRAGMENT, allDirectories, digestUtil);
+
+    // Drop the directories that were replaced by merged ones, and recompute the statistics.
+    Map<Digest, Directory> digestDirectoryMap = new HashMap<>();
+    long[] filesAndBytes = new long[2];
+    collectReachable(rootDigest, allDirectories, digestDirectoryMap, filesAndBytes);
+    return new MerkleTree(
+        digestDirectoryMap,
+        digestFileMap,
+        rootDigest,
+        filesAndBytes[0],
+        filesAndBytes[1] + rootDigest.getSizeBytes());
+  }
+
+  private static Digest mergeDirectories(
+      Set<Digest> digests,
+      PathFragment dirname,
+      Map<Digest, Directory> allDirectories,
+      DigestUtil digestUtil)
+      throws IOException {
+    if (digests.size() == 1) {
+      return digests.iterator().next();
+    }
+    Map<String, FileNode> files = new TreeMap<>();
+    Map<String, Set<Digest>> dirs = new TreeMap<>();
+    for (Digest digest : digests) {
+      Directory dir = allDirectories.get(digest);
+      for (FileNode file : dir.getFilesList()) {
+        FileNode previous = files.putIfAbsent(file.getName(), file);
+        if (previous != null && !previous.equals(file)) {
+          throw new IOException(
+              String.format(
+                  "Conflicting inputs for '%s': %s and %s",
+                  dirname.getChild(file.getName()),
+                  previous.getDigest().getHash(),
+                  file.getDigest().getHash()));
+        }
+      }
+      for (DirectoryNode subdir : dir.getDirectoriesList()) {
+        dirs.computeIfAbsent(subdir.getName(), (k) -> new LinkedHashSet<>())
+            .add(subdir.getDigest());
+      }
+    }
+
+    Directory.Builder b = Directory.newBuilder().addAllFiles(files.values());
+    for (Map.Entry<String, Set<Digest>> e : dirs.entrySet()) {
+      PathFragment subDirname = dirname.getChild(e.getKey());
+      if (files.containsKey(e.getKey())) {
+        throw new IOException(
+            String.format("Conflicting inputs for '%s': file and directory", subDirname));
+      }
+      Digest subDirDigest = mergeDirectories(e.getValue(), subDirname, allDirectories, digestUtil);
+      b.addDirectories(
+          DirectoryNode.newBuilder().setName(e.getKey()).setDigest(subDirDigest).build());
+    }
+    Directory protoDir = b.build();
+    Digest protoDirDigest = digestUtil.compute(protoDir);
+    allDirectories.put(protoDirDigest, protoDir);
+    return protoDirDigest;
+  }
+
+  private static void collectReachable(
+      Digest digest,
+      Map<Digest, Directory> allDirectories,
+      Map<Digest, Directory> reachable,
+      long[] filesAndBytes) {
+    Directory dir = allDirectories.get(digest);
+    reachable.put(digest, dir);
+    for (FileNode file : dir.getFilesList()) {
+      filesAndBytes[0]++;
+      filesAndBytes[1] += file.getDigest().getSizeBytes();
+    }
+    for (DirectoryNode subdir : dir.getDirectoriesList()) {
+      filesAndBytes[1] += subdir.getDigest().getSizeBytes();
+      collectReachable(subdir.getDigest(), allDirectories, reachable, filesAndBytes);
+    }
+  }
+
   private static MerkleTree build(DirectoryTree tree, DigestUtil digestUtil) {
     Preconditions.checkNotNull(tree);
     if (tree.isEmpty()) {
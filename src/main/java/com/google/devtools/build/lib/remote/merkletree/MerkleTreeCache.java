@@ -0,0 +1,127 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote.merkletree;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ActionInputHelper;
+import com.google.devtools.build.lib.actions.Artifact.ArtifactExpander;
+import com.google.devtools.build.lib.actions.MetadataProvider;
+import com.google.devtools.build.lib.collect.nestedset.NestedSet;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.SilentCloseable;
+import com.google.devtools.build.lib.remote.util.DigestUtil;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Caches the {@link MerkleTree}s of the nodes of a {@link NestedSet} of inputs.
+ *
+ * <p>Actions of the same build commonly share large parts of their inputs, e.g. the transitive
+ * headers of a C++ library or the class path of a Java library, and these shared parts are usually
+ * the same {@link NestedSet} nodes. Building the merkle tree of a spawn from scratch hashes the
+ * directory protos of all of its inputs every time. Instead, the tree of each node is built once
+ * from its direct elements and the cached trees of its successors, and only the directories that
+ * appear in more than one of them are hashed again.
+ *
+ * <p>Nodes are identified by {@link NestedSet#toNode}, so the cache must not outlive the command
+ * it was created for: the metadata of the inputs, and hence the trees, may change between
+ * commands.
+ */
+public final class MerkleTreeCache {
+
+  private final Cache<NestedSet.Node, MerkleTree> cache;
+
+  /** Creates a cache that holds the trees of at most {@code maximumSize} nodes. */
+  public MerkleTreeCache(long maximumSize) {
+    checkArgument(maximumSize > 0, "maximumSize must be positive");
+    this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+  }
+
+  /**
+   * Returns the merkle tree of {@code inputs}, laid out by their exec paths relative to {@code
+   * execRoot}.
+   *
+   * <p>The result is equal to the tree built by {@link MerkleTree#build(SortedMap,
+   * MetadataProvider, Path, DigestUtil)} from the expanded {@code inputs}.
+   */
+  public MerkleTree build(
+      NestedSet<? extends ActionInput> inputs,
+      ArtifactExpander artifactExpander,
+      MetadataProvider metadataProvider,
+      Path execRoot,
+      DigestUtil digestUtil)
+      throws IOException {
+    try (SilentCloseable c = Profiler.instance().profile("MerkleTreeCache.build")) {
+      return buildNode(inputs, artifactExpander, metadataProvider, execRoot, digestUtil);
+    }
+  }
+
+  private MerkleTree buildNode(
+      NestedSet<? extends ActionInput> node,
+      ArtifactExpander artifactExpander,
+      MetadataProvider metadataProvider,
+      Path execRoot,
+      DigestUtil digestUtil)
+      throws IOException {
+    NestedSet.Node key = node.toNode();
+    MerkleTree tree = cache.getIfPresent(key);
+    if (tree != null) {
+      return tree;
+    }
+
+    List<MerkleTree> trees = new ArrayList<>();
+    trees.add(
+        buildLeaves(node.getLeaves(), artifactExpander, metadataProvider, execRoot, digestUtil));
+    for (NestedSet<? extends ActionInput> nonLeaf : node.getNonLeaves()) {
+      trees.add(buildNode(nonLeaf, artifactExpander, metadataProvider, execRoot, digestUtil));
+    }
+    tree = MerkleTree.merge(trees, digestUtil);
+    // Trees are not computed under the cache's lock, as that would serialize the spawns sharing a
+    // node. A racing thread may build the same tree, which is harmless.
+    cache.put(key, tree);
+    return tree;
+  }
+
+  private static MerkleTree buildLeaves(
+      List<? extends ActionInput> leaves,
+      ArtifactExpander artifactExpander,
+      MetadataProvider metadataProvider,
+      Path execRoot,
+      DigestUtil digestUtil)
+      throws IOException {
+    NestedSet<ActionInput> leafSet =
+        NestedSetBuilder.<ActionInput>stableOrder().addAll(leaves).build();
+    SortedMap<PathFragment, ActionInput> inputMap = new TreeMap<>();
+    for (ActionInput input : ActionInputHelper.expandArtifacts(leafSet, artifactExpander)) {
+      inputMap.put(input.getExecPath(), input);
+    }
+    return MerkleTree.build(inputMap, metadataProvider, execRoot, digestUtil);
+  }
+
+  /** Returns the hit and miss counts of this cache. */
+  public CacheStats getStats() {
+    return cache.stats();
+  }
+}
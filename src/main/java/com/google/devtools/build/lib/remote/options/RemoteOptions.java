@@ -309,6 +309,74 @@ public final class RemoteOptions extends OptionsBase {
               + "If the directory does not exist, it will be created.")
   public PathFragment diskCache;
 
+  @Option(
+      name = "experimental_disk_cache_gc_max_size",
+      defaultValue = "0",
+      documentationCategory = OptionDocumentationCategory.REMOTE,
+      effectTags = {OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS},
+      help =
+          "If set to a positive value, the total size in bytes of the entries in the --disk_cache "
+              + "directory is kept below this limit by evicting the least recently used entries "
+              + "in the background. Entries used by the current build are never evicted. "
+              + "0 means no limit.")
+  public long diskCacheGcMaxSize;
+
+  @Option(
+      name = "experimental_disk_cache_gc_max_entries",
+      defaultValue = "0",
+      documentationCategory = OptionDocumentationCategory.REMOTE,
+      effectTags = {OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS},
+      help =
+          "If set to a positive value, the number of entries in the --disk_cache directory is kept "
+              + "below this limit by evicting the least recently used entries in the background. "
+              + "Entries used by the current build are never evicted. 0 means no limit.")
+  public long diskCacheGcMaxEntries;
+
+  @Option(
+      name = "experimental_disk_cache_compression",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.REMOTE,
+      effectTags = {OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS},
+      help =
+          "If set to true, blobs are stored compressed in the --disk_cache directory. Compressed "
+              + "blobs are kept apart from uncompressed ones, so toggling this flag does not "
+              + "reuse the entries written with the other setting.")
+  public boolean diskCacheCompression;
+
+  @Option(
+      name = "experimental_remote_cache_compression",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.REMOTE,
+      effectTags = {OptionEffectTag.EXECUTION},
+      help =
+          "If set to true, blobs are uploaded to and downloaded from the remote cache compressed, "
+              + "provided the server supports a compressor that Bazel supports. Otherwise blobs "
+              + "are transferred uncompressed.")
+  public boolean cacheCompression;
+
+  @Option(
+      name = "experimental_remote_merkle_tree_cache",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.REMOTE,
+      effectTags = {OptionEffectTag.EXECUTION},
+      help =
+          "If set to true, the Merkle trees of spawn inputs are built from cached trees of the "
+              + "nested sets they are made of, so that inputs shared by many actions are only "
+              + "hashed once per build. Spawns with runfiles or filesets, and builds with "
+              + "--experimental_sibling_repository_layout, always build their trees from "
+              + "scratch.")
+  public boolean remoteMerkleTreeCache;
+
+  @Option(
+      name = "experimental_remote_merkle_tree_cache_size",
+      defaultValue = "1000",
+      documentationCategory = OptionDocumentationCategory.REMOTE,
+      effectTags = {OptionEffectTag.EXECUTION},
+      help =
+          "The maximum number of nested set Merkle trees kept by "
+              + "--experimental_remote_merkle_tree_cache.")
+  public long remoteMerkleTreeCacheSize;
+
   @Option(
       name = "experimental_guard_against_concurrent_changes",
       defaultValue = "false",
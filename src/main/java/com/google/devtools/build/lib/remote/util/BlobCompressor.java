@@ -0,0 +1,143 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.remote.util;
+
+import build.bazel.remote.execution.v2.Compressor;
+import com.google.common.base.Ascii;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterOutputStream;
+import javax.annotation.Nullable;
+
+/**
+ * The compression formats the client supports for the {@code compressed-blobs} resources of the
+ * remote execution API.
+ *
+ * <p>Compression must be deterministic, as an interrupted upload is resumed by compressing the
+ * blob again and skipping the bytes the server already committed.
+ */
+public enum BlobCompressor {
+  /** RFC 1951 deflate, without zlib or gzip headers. */
+  DEFLATE(Compressor.Value.DEFLATE) {
+    @Override
+    public InputStream compress(InputStream in) {
+      Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, /* nowrap= */ true);
+      return new DeflaterInputStream(in, deflater) {
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            deflater.end();
+          }
+        }
+      };
+    }
+
+    @Override
+    public OutputStream decompress(OutputStream out) {
+      Inflater inflater = new Inflater(/* nowrap= */ true);
+      return new InflaterOutputStream(new NonClosingOutputStream(out), inflater) {
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+            if (!inflater.finished()) {
+              throw new IOException("Compressed blob is truncated");
+            }
+          } finally {
+            inflater.end();
+          }
+        }
+      };
+    }
+  };
+
+  private final Compressor.Value value;
+
+  BlobCompressor(Compressor.Value value) {
+    this.value = value;
+  }
+
+  /** Returns the remote execution API value of this compressor. */
+  public Compressor.Value getValue() {
+    return value;
+  }
+
+  /** Returns the name of this compressor in {@code compressed-blobs} resource names. */
+  public String getName() {
+    return Ascii.toLowerCase(value.name());
+  }
+
+  /**
+   * Returns a stream of the compressed contents of {@code in}. Closing the returned stream closes
+   * {@code in}.
+   */
+  public abstract InputStream compress(InputStream in);
+
+  /**
+   * Returns a stream that writes the decompressed contents of the data written to it to {@code
+   * out}. Closing the returned stream flushes, but does not close {@code out}, and fails if the
+   * compressed data was incomplete.
+   */
+  public abstract OutputStream decompress(OutputStream out);
+
+  /** Returns the compressor with the given resource name, or null if it isn't supported. */
+  @Nullable
+  public static BlobCompressor forName(String name) {
+    for (BlobCompressor compressor : values()) {
+      if (compressor.getName().equals(name)) {
+        return compressor;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the first compressor supported by the client that is also in {@code supported}, or
+   * null if there is none.
+   */
+  @Nullable
+  public static BlobCompressor negotiate(Collection<Compressor.Value> supported) {
+    for (BlobCompressor compressor : values()) {
+      if (supported.contains(compressor.value)) {
+        return compressor;
+      }
+    }
+    return null;
+  }
+
+  private static final class NonClosingOutputStream extends FilterOutputStream {
+    NonClosingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+}
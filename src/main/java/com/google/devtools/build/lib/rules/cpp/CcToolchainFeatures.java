@@ -35,6 +35,7 @@ import com.google.devtools.build.lib.rules.cpp.CcToolchainVariables.Expandable;
 import com.google.devtools.build.lib.rules.cpp.CcToolchainVariables.SingleVariables;
 import com.google.devtools.build.lib.rules.cpp.CcToolchainVariables.StringChunk;
 import com.google.devtools.build.lib.rules.cpp.CcToolchainVariables.StringValueParser;
+import com.google.devtools.build.lib.rules.cpp.CcToolchainVariables.VariableChunk;
 import com.google.devtools.build.lib.skyframe.serialization.autocodec.AutoCodec;
 import com.google.devtools.build.lib.skyframe.serialization.autocodec.AutoCodec.VisibleForSerialization;
 import com.google.devtools.build.lib.util.Pair;
@@ -298,6 +299,8 @@ public class CcToolchainFeatures {
     private final String expandIfTrue;
     private final String expandIfFalse;
     private final VariableWithValue expandIfEqual;
+    // The variables read when expanding this group, or null if they are not known.
+    @Nullable private final ImmutableSet<String> usedVariables;
 
     private FlagGroup(CToolchain.FlagGroup flagGroup) throws EvalException {
       ImmutableList.Builder<Expandable> expandables = ImmutableList.builder();
@@ -332,6 +335,7 @@ public class CcToolchainFeatures {
       } else {
         this.expandIfEqual = null;
       }
+      this.usedVariables = computeUsedVariables();
     }
 
     FlagGroup(
@@ -349,6 +353,66 @@ public class CcToolchainFeatures {
       this.expandIfTrue = expandIfTrue;
       this.expandIfFalse = expandIfFalse;
       this.expandIfEqual = expandIfEqual;
+      this.usedVariables = computeUsedVariables();
+    }
+
+    @Nullable
+    private ImmutableSet<String> computeUsedVariables() {
+      ImmutableSet.Builder<String> names = ImmutableSet.builder();
+      return addUsedVariables(names) ? names.build() : null;
+    }
+
+    /**
+     * Adds the names of the variables read when expanding this group to {@code names}, and returns
+     * whether they are all known.
+     */
+    private boolean addUsedVariables(ImmutableSet.Builder<String> names) {
+      addUsedVariable(iterateOverVariable, names);
+      for (String variable : expandIfAllAvailable) {
+        addUsedVariable(variable, names);
+      }
+      for (String variable : expandIfNoneAvailable) {
+        addUsedVariable(variable, names);
+      }
+      addUsedVariable(expandIfTrue, names);
+      addUsedVariable(expandIfFalse, names);
+      if (expandIfEqual != null) {
+        addUsedVariable(expandIfEqual.variable, names);
+      }
+      for (Expandable expandable : expandables) {
+        if (expandable instanceof FlagGroup) {
+          if (!((FlagGroup) expandable).addUsedVariables(names)) {
+            return false;
+          }
+        } else if (expandable instanceof Flag) {
+          for (StringChunk chunk : ((Flag) expandable).chunks) {
+            addUsedVariable(chunk, names);
+          }
+        } else if (expandable instanceof Flag.SingleChunkFlag) {
+          addUsedVariable(((Flag.SingleChunkFlag) expandable).chunk, names);
+        } else {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static void addUsedVariable(StringChunk chunk, ImmutableSet.Builder<String> names) {
+      if (chunk instanceof VariableChunk) {
+        addUsedVariable(((VariableChunk) chunk).getVariableName(), names);
+      }
+    }
+
+    private static void addUsedVariable(
+        @Nullable String variable, ImmutableSet.Builder<String> names) {
+      if (variable == null) {
+        return;
+      }
+      // A field access like "a.b.c" looks up the variables "a.b.c", "a.b" and "a".
+      for (int end = variable.indexOf('.'); end != -1; end = variable.indexOf('.', end + 1)) {
+        names.add(variable.substring(0, end));
+      }
+      names.add(variable);
     }
 
     @Override
@@ -430,7 +494,12 @@ public class CcToolchainFeatures {
         @Nullable ArtifactExpander expander,
         final List<String> commandLine)
         throws ExpansionException {
-      expand(variables, expander, commandLine);
+      if (expander == null && usedVariables != null) {
+        // Groups that only read toolchain variables are expanded once for all actions.
+        variables.expandShared(this, usedVariables, commandLine);
+      } else {
+        expand(variables, expander, commandLine);
+      }
     }
 
     @Override
@@ -20,6 +20,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Interner;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.MapMaker;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Sets.SetView;
@@ -34,6 +35,7 @@ import com.google.devtools.build.lib.skyframe.serialization.autocodec.AutoCodec.
 import com.google.devtools.build.lib.starlarkbuildapi.cpp.CcToolchainVariablesApi;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -150,6 +152,10 @@ public abstract class CcToolchainVariables implements CcToolchainVariablesApi {
     public String getString() {
       return "%{" + variableName + "}";
     }
+
+    String getVariableName() {
+      return variableName;
+    }
   }
 
   /**
@@ -298,6 +304,10 @@ public abstract class CcToolchainVariables implements CcToolchainVariablesApi {
   // Values in this cache are either VariableValue, String error message, or NULL_MARKER.
   private Map<String, Object> structuredVariableCache;
 
+  // Expansions against these variables that are shared by all the variables inheriting from them,
+  // see expandShared(). Only used for variables without a parent. Keys are compared by identity.
+  private Map<Expandable, ImmutableList<String>> sharedExpansionCache;
+
   /**
    * Retrieves a {@link StringSequence} variable named {@code variableName} from {@code variables}
    * and converts it into a list of plain strings.
@@ -455,6 +465,47 @@ public abstract class CcToolchainVariables implements CcToolchainVariablesApi {
     }
   }
 
+  /**
+   * Expands {@code expandable}, which only reads the variables named in {@code usedVariables},
+   * without an {@link ArtifactExpander}, adding the flags to {@code commandLine}.
+   *
+   * <p>If none of these variables is set anywhere but in the root of these variables, typically the
+   * variables of the toolchain, the expansion is the same for all the variables that share the
+   * root. It is then computed once and cached in the root, so that the toolchain flags of every
+   * compile action are not expanded over and over again.
+   */
+  void expandShared(Expandable expandable, Set<String> usedVariables, List<String> commandLine)
+      throws ExpansionException {
+    CcToolchainVariables root = this;
+    for (CcToolchainVariables parent = getParent(); parent != null; parent = root.getParent()) {
+      if (!Collections.disjoint(root.getVariableKeys(), usedVariables)) {
+        expandable.expand(this, /* expander= */ null, commandLine);
+        return;
+      }
+      root = parent;
+    }
+    if (root == this) {
+      // Variables without a parent may well be specific to a single action.
+      expandable.expand(this, /* expander= */ null, commandLine);
+      return;
+    }
+
+    if (root.sharedExpansionCache == null) {
+      root.sharedExpansionCache = new MapMaker().weakKeys().makeMap();
+    }
+    ImmutableList<String> flags = root.sharedExpansionCache.get(expandable);
+    if (flags == null) {
+      List<String> expanded = new ArrayList<>();
+      expandable.expand(root, /* expander= */ null, expanded);
+      flags = ImmutableList.copyOf(expanded);
+      root.sharedExpansionCache.put(expandable, flags);
+    }
+    commandLine.addAll(flags);
+  }
+
+  @Nullable
+  abstract CcToolchainVariables getParent();
+
   abstract Set<String> getVariableKeys();
 
   abstract void addVariablesToMap(Map<String, Object> variablesMap);
@@ -1371,6 +1422,12 @@ public abstract class CcToolchainVariables implements CcToolchainVariablesApi {
       return true; // immutable and Starlark-hashable
     }
 
+    @Nullable
+    @Override
+    CcToolchainVariables getParent() {
+      return parent;
+    }
+
     @Override
     Set<String> getVariableKeys() {
       return keyToIndex.keySet();
@@ -1455,6 +1512,12 @@ public abstract class CcToolchainVariables implements CcToolchainVariablesApi {
       this.variableValue = variableValue;
     }
 
+    @Nullable
+    @Override
+    CcToolchainVariables getParent() {
+      return parent;
+    }
+
     @Override
     Set<String> getVariableKeys() {
       return ImmutableSet.of(name);
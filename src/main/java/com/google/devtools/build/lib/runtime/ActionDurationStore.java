@@ -0,0 +1,152 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.runtime;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.flogger.GoogleLogger;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Remembers, across builds and server restarts, how long it took from the start of each action to
+ * the end of the build, as computed by {@link CriticalPathComputer#getRemainingTimes}.
+ *
+ * <p>Actions are identified by the exec path of their primary output, which, unlike the action
+ * key, is stable across edits of their inputs. Times are smoothed over builds, and actions that
+ * have not been executed in {@link #MAX_AGE} builds are forgotten.
+ */
+@ThreadSafe
+public final class ActionDurationStore {
+
+  private static final GoogleLogger logger = GoogleLogger.forEnclosingClass();
+
+  private static final int MAGIC = 0x61637464;
+  private static final int VERSION = 1;
+
+  /** Number of builds after which an action that was not executed again is forgotten. */
+  @VisibleForTesting static final int MAX_AGE = 100;
+
+  /** Weight of the most recent build in the moving average, as a power of two. */
+  private static final int DECAY_SHIFT = 1;
+
+  private static final class Entry {
+    final long remainingMillis;
+    final int lastBuild;
+
+    Entry(long remainingMillis, int lastBuild) {
+      this.remainingMillis = remainingMillis;
+      this.lastBuild = lastBuild;
+    }
+  }
+
+  private final Path file;
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+  private volatile int build;
+
+  private ActionDurationStore(Path file) {
+    this.file = file;
+  }
+
+  /**
+   * Loads the store from {@code file}. Starts from scratch if the file does not exist or can't be
+   * read.
+   */
+  public static ActionDurationStore load(Path file) {
+    ActionDurationStore store = new ActionDurationStore(file);
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(file.getInputStream()))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        logger.atInfo().log("Ignoring action durations in unknown format at %s", file);
+        return store;
+      }
+      store.build = in.readInt();
+      int size = in.readInt();
+      for (int i = 0; i < size; i++) {
+        String key = in.readUTF();
+        store.entries.put(key, new Entry(in.readLong(), in.readInt()));
+      }
+    } catch (FileNotFoundException e) {
+      // First build.
+    } catch (EOFException e) {
+      logger.atWarning().log("Ignoring truncated action durations at %s", file);
+      store.entries.clear();
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Failed to read action durations at %s", file);
+      store.entries.clear();
+    }
+    return store;
+  }
+
+  /**
+   * Returns the expected time from the start of the action with the given primary output to the
+   * end of the build, or -1 if it is unknown.
+   */
+  public long getRemainingMillis(String primaryOutputExecPath) {
+    Entry entry = entries.get(primaryOutputExecPath);
+    return entry == null ? -1 : entry.remainingMillis;
+  }
+
+  /** Records the remaining times, keyed by primary output exec path, of the actions of a build. */
+  public void recordBuild(Map<String, Duration> remainingTimes) {
+    int current = ++build;
+    remainingTimes.forEach(
+        (key, remaining) -> {
+          long millis = remaining.toMillis();
+          entries.merge(
+              key,
+              new Entry(millis, current),
+              (old, latest) ->
+                  new Entry(
+                      old.remainingMillis + ((millis - old.remainingMillis) >> DECAY_SHIFT),
+                      current));
+        });
+    entries.values().removeIf(entry -> current - entry.lastBuild >= MAX_AGE);
+  }
+
+  /** Writes the store to its file. */
+  public void save() throws IOException {
+    Path tmpFile = file.getParentDirectory().getChild(file.getBaseName() + ".tmp");
+    file.getParentDirectory().createDirectoryAndParents();
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(tmpFile.getOutputStream()))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(build);
+      ImmutableMap<String, Entry> snapshot = ImmutableMap.copyOf(entries);
+      out.writeInt(snapshot.size());
+      for (Map.Entry<String, Entry> entry : snapshot.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeLong(entry.getValue().remainingMillis);
+        out.writeInt(entry.getValue().lastBuild);
+      }
+    }
+    tmpFile.renameTo(file);
+  }
+
+  @VisibleForTesting
+  int size() {
+    return entries.size();
+  }
+}
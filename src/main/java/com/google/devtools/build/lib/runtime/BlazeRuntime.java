@@ -323,7 +323,9 @@ public final class BlazeRuntime implements BugReport.BlazeRuntimeInterface {
     UploadContext streamingContext = null;
     try {
       if (tracerEnabled) {
-        if (options.enableTracerCompression == TriState.YES
+        if (options.binaryProfile) {
+          format = Format.BINARY_TRACE_FILE_FORMAT;
+        } else if (options.enableTracerCompression == TriState.YES
             || (options.enableTracerCompression == TriState.AUTO
                 && (options.profilePath == null
                     || options.profilePath.toString().endsWith(".gz")))) {
@@ -338,6 +340,8 @@ public final class BlazeRuntime implements BugReport.BlazeRuntimeInterface {
           profileName = "command.profile";
           if (format == Format.JSON_TRACE_FILE_COMPRESSED_FORMAT) {
             profileName = "command.profile.gz";
+          } else if (format == Format.BINARY_TRACE_FILE_FORMAT) {
+            profileName = "command.profile.bin";
           }
           if (bepOptions != null && bepOptions.streamingLogFileUploads) {
             BuildEventArtifactUploader buildEventArtifactUploader =
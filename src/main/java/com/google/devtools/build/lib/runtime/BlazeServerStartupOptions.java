@@ -100,7 +100,10 @@ public class BlazeServerStartupOptions extends OptionsBase {
       name = "install_md5",
       defaultValue = "", // NOTE: only for documentation, value is always passed by the client.
       documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
-      effectTags = {OptionEffectTag.LOSES_INCREMENTAL_STATE, OptionEffectTag.BAZEL_MONITORING},
+      effectTags = {
+        OptionEffectTag.LOSES_INCREMENTAL_STATE,
+        OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS
+      },
       metadataTags = {OptionMetadataTag.HIDDEN},
       help = "This launcher option is intended for use only by tests.")
   public String installMD5;
@@ -316,6 +319,20 @@ public class BlazeServerStartupOptions extends OptionsBase {
               + "changes instead of scanning every file for a change.")
   public boolean watchFS;
 
+  @Option(
+      name = "experimental_compact_skyframe_graph",
+      defaultValue = "false", // NOTE: only for documentation, value is always passed by the client.
+      documentationCategory = OptionDocumentationCategory.BAZEL_CLIENT_OPTIONS,
+      effectTags = {
+        OptionEffectTag.LOSES_INCREMENTAL_STATE,
+        OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS
+      },
+      help =
+          "If true, the Skyframe graph stores the edges of done nodes as packed arrays of interned "
+              + "integer key ids instead of object lists, reducing the heap needed to keep "
+              + "incremental state.")
+  public boolean compactSkyframeGraph;
+
   // This option is only passed in --batch mode. The value is otherwise passed as part of the
   // server request.
   @Option(
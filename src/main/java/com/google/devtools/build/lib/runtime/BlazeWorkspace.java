@@ -64,7 +64,11 @@ public final class BlazeWorkspace {
   private final BlazeDirectories directories;
   private final SkyframeExecutor skyframeExecutor;
   /** The action cache is loaded lazily on the first build command. */
-  private ActionCache actionCache;
+  private CompactPersistentActionCache actionCache;
+  /** Whether {@link #actionCache} keeps its entries in memory-mapped files. */
+  private boolean actionCacheMemoryMapped;
+  /** Loaded lazily on the first build command that schedules by critical path. */
+  private ActionDurationStore actionDurationStore;
   /** The execution time range of the previous build command in this server, if any. */
   @Nullable private Range<Long> lastExecutionRange = null;
 
@@ -228,8 +232,10 @@ public final class BlazeWorkspace {
   public void clearCaches() throws IOException {
     if (actionCache != null) {
       actionCache.clear();
+      actionCache.close();
     }
     actionCache = null;
+    actionDurationStore = null;
     getCacheDirectory().deleteTree();
   }
 
@@ -238,11 +244,24 @@ public final class BlazeWorkspace {
    * method may recreate instance between different build requests, so return value should not be
    * cached.
    */
-  ActionCache getPersistentActionCache(Reporter reporter) throws IOException {
+  ActionCache getPersistentActionCache(Reporter reporter, boolean memoryMapped)
+      throws IOException {
+    if (actionCache != null && actionCacheMemoryMapped != memoryMapped) {
+      // The two formats are stored in different files, so the other one has to be loaded.
+      try {
+        actionCache.save();
+      } finally {
+        actionCache.close();
+        actionCache = null;
+      }
+    }
     if (actionCache == null) {
+      actionCacheMemoryMapped = memoryMapped;
       try (AutoProfiler p = profiledAndLogged("Loading action cache", ProfilerTask.INFO)) {
         try {
-          actionCache = new CompactPersistentActionCache(getCacheDirectory(), runtime.getClock());
+          actionCache =
+              new CompactPersistentActionCache(
+                  getCacheDirectory(), runtime.getClock(), memoryMapped);
         } catch (IOException e) {
           logger.atWarning().withCause(e).log("Failed to load action cache");
           LoggingUtil.logToRemote(
@@ -255,13 +274,26 @@ public final class BlazeWorkspace {
                       + getCacheDirectory()
                       + "/*.bad'. "
                       + "Bazel will now reset action cache data, causing a full rebuild"));
-          actionCache = new CompactPersistentActionCache(getCacheDirectory(), runtime.getClock());
+          actionCache =
+              new CompactPersistentActionCache(
+                  getCacheDirectory(), runtime.getClock(), memoryMapped);
         }
       }
     }
     return actionCache;
   }
 
+  /** Returns the lazily loaded durations of the actions of previous builds. */
+  synchronized ActionDurationStore getActionDurationStore() {
+    if (actionDurationStore == null) {
+      try (AutoProfiler p = profiledAndLogged("Loading action durations", ProfilerTask.INFO)) {
+        actionDurationStore =
+            ActionDurationStore.load(getCacheDirectory().getChild("action_durations_v1.blaze"));
+      }
+    }
+    return actionDurationStore;
+  }
+
   /**
    * Generates a README file in the output base directory. This README file
    * contains the name of the workspace directory, so that users can figure out
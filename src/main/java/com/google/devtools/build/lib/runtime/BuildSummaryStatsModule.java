@@ -13,6 +13,7 @@
 // limitations under the License.
 package com.google.devtools.build.lib.runtime;
 
+import com.google.common.base.Ascii;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.eventbus.AllowConcurrentEvents;
@@ -40,6 +41,7 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import javax.annotation.Nullable;
 
 /**
  * Blaze module for the build summary message that reports various stats to the user.
@@ -53,6 +55,9 @@ public class BuildSummaryStatsModule extends BlazeModule {
   private EventBus eventBus;
   private Reporter reporter;
   private boolean enabled;
+  private ExecutionOptions.LocalResourcePriority localResourcePriority;
+  /** Where the remaining times of the actions are recorded, or null if they aren't. */
+  @Nullable private ActionDurationStore actionDurationStore;
 
   private boolean statsSummary;
   private long commandStartMillis;
@@ -77,12 +82,19 @@ public class BuildSummaryStatsModule extends BlazeModule {
     this.eventBus = null;
     this.reporter = null;
     this.spawnStats = null;
+    this.actionDurationStore = null;
   }
 
   @Override
   public void executorInit(CommandEnvironment env, BuildRequest request, ExecutorBuilder builder) {
     enabled = env.getOptions().getOptions(ExecutionOptions.class).enableCriticalPathProfiling;
     statsSummary = env.getOptions().getOptions(ExecutionOptions.class).statsSummary;
+    localResourcePriority =
+        env.getOptions().getOptions(ExecutionOptions.class).localResourcePriority;
+    actionDurationStore =
+        localResourcePriority == ExecutionOptions.LocalResourcePriority.CRITICAL_PATH
+            ? env.getActionDurationStore()
+            : null;
   }
 
   @Subscribe
@@ -117,6 +129,15 @@ public class BuildSummaryStatsModule extends BlazeModule {
     spawnStats.incrementActionCount();
   }
 
+  private void recordActionDurations() {
+    try (SilentCloseable c = Profiler.instance().profile("Recording action durations")) {
+      actionDurationStore.recordBuild(criticalPathComputer.getRemainingTimes());
+      actionDurationStore.save();
+    } catch (IOException e) {
+      reporter.handle(Event.warn("Failed to save action durations: " + e.getMessage()));
+    }
+  }
+
   @Subscribe
   public void buildComplete(BuildCompleteEvent event) {
     try {
@@ -153,6 +174,9 @@ public class BuildSummaryStatsModule extends BlazeModule {
                     ProfilerTask.CRITICAL_PATH_COMPONENT,
                     stat.prettyPrintAction());
           }
+          if (actionDurationStore != null) {
+            recordActionDurations();
+          }
         }
       }
       if (profilePath != null) {
@@ -191,6 +215,13 @@ public class BuildSummaryStatsModule extends BlazeModule {
                     (now - commandStartMillis) / 1000.0,
                     overheadTime / 1000.0,
                     executionTime / 1000.0)));
+        if (localResourcePriority != ExecutionOptions.LocalResourcePriority.FIFO) {
+          reporter.handle(
+              Event.info(
+                  "Local resources were handed out in "
+                      + Ascii.toLowerCase(localResourcePriority.name())
+                      + " order"));
+        }
       } else {
         reporter.handle(Event.info(Joiner.on(", ").join(items)));
         reporter.handle(Event.info(spawnSummaryString));
@@ -21,6 +21,10 @@ import com.google.devtools.build.lib.buildtool.BuildRequest;
 import com.google.devtools.build.lib.exec.ExecutionOptions;
 import com.google.devtools.build.lib.exec.ExecutorBuilder;
 import com.google.devtools.build.lib.vfs.DigestUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PersistentDigestCache;
+import java.io.IOException;
+import javax.annotation.Nullable;
 
 /** Enables the caching of file digests in {@link DigestUtils}. */
 public class CacheFileDigestsModule extends BlazeModule {
@@ -36,6 +40,12 @@ public class CacheFileDigestsModule extends BlazeModule {
    */
   private Long lastKnownCacheSize;
 
+  /** On-disk digest cache, kept open across commands. null if disabled. */
+  @Nullable private PersistentDigestCache persistentCache;
+
+  /** Location of {@link #persistentCache}. */
+  @Nullable private Path persistentCachePath;
+
   public CacheFileDigestsModule() {}
 
   /**
@@ -61,6 +71,8 @@ public class CacheFileDigestsModule extends BlazeModule {
       lastKnownCacheSize = options.cacheSizeForComputedFileDigests;
     }
 
+    configurePersistentCache(env, options);
+
     if (options.cacheSizeForComputedFileDigests == 0) {
       stats = null;
       logger.atInfo().log("Disabled cache");
@@ -70,8 +82,51 @@ public class CacheFileDigestsModule extends BlazeModule {
     }
   }
 
+  private void configurePersistentCache(CommandEnvironment env, ExecutionOptions options) {
+    Path path = env.getOutputBase().getRelative("file_digest_cache");
+    if (!options.persistComputedFileDigests
+        || options.cacheSizeForComputedFileDigests == 0
+        || !path.equals(persistentCachePath)) {
+      closePersistentCache();
+    }
+    if (options.persistComputedFileDigests
+        && options.cacheSizeForComputedFileDigests != 0
+        && persistentCache == null) {
+      logger.atInfo().log("Enabling persistent digest cache at %s", path);
+      persistentCache =
+          new PersistentDigestCache(path, env.getRuntime().getFileSystem().getDigestFunction());
+      persistentCachePath = path;
+      DigestUtils.configurePersistentCache(persistentCache);
+    }
+  }
+
+  private void closePersistentCache() {
+    if (persistentCache != null) {
+      DigestUtils.configurePersistentCache(null);
+      try {
+        persistentCache.close();
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Failed to write persistent digest cache");
+      }
+      persistentCache = null;
+      persistentCachePath = null;
+    }
+  }
+
+  @Override
+  public void blazeShutdown() {
+    closePersistentCache();
+  }
+
   @Override
   public void commandComplete() {
+    if (persistentCache != null) {
+      try {
+        persistentCache.flush();
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Failed to write persistent digest cache");
+      }
+    }
     if (stats != null) {
       CacheStats newStats = DigestUtils.getCacheStats();
       Preconditions.checkNotNull(newStats, "The cache is enabled so we must get some stats back");
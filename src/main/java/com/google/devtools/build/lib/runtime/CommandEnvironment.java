@@ -29,6 +29,7 @@ import com.google.devtools.build.lib.analysis.config.CoreOptions;
 import com.google.devtools.build.lib.clock.Clock;
 import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.events.Reporter;
+import com.google.devtools.build.lib.exec.ExecutionOptions;
 import com.google.devtools.build.lib.exec.SingleBuildFileCache;
 import com.google.devtools.build.lib.packages.semantics.BuildLanguageOptions;
 import com.google.devtools.build.lib.pkgcache.PackageManager;
@@ -602,7 +603,14 @@ public class CommandEnvironment {
   }
 
   public ActionCache getPersistentActionCache() throws IOException {
-    return workspace.getPersistentActionCache(reporter);
+    ExecutionOptions executionOptions = options.getOptions(ExecutionOptions.class);
+    return workspace.getPersistentActionCache(
+        reporter, executionOptions != null && executionOptions.memoryMappedActionCache);
+  }
+
+  /** Returns the durations of the actions of previous builds in this output base. */
+  public ActionDurationStore getActionDurationStore() {
+    return workspace.getActionDurationStore();
   }
 
   /** Returns the top-down action cache to use, or null. */
@@ -239,6 +239,18 @@ public class CommonCommandOptions extends OptionsBase {
               + "--profile.")
   public TriState enableTracerCompression;
 
+  @Option(
+      name = "experimental_binary_profile",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.LOGGING,
+      effectTags = {OptionEffectTag.AFFECTS_OUTPUTS, OptionEffectTag.BAZEL_MONITORING},
+      help =
+          "If enabled, Bazel writes the profile in a compact binary format instead of JSON."
+              + " Binary profiles are much smaller and can be analyzed with bazel analyze-profile"
+              + " in constant memory, but cannot be loaded into chrome://tracing. Implies"
+              + " --nojson_trace_compression.")
+  public boolean binaryProfile;
+
   @Option(
       name = "experimental_profile_cpu_usage",
       defaultValue = "true",
@@ -271,6 +271,10 @@ public class CriticalPathComponent {
     return startNanos;
   }
 
+  long getFinishTimeNanos() {
+    return finishNanos;
+  }
+
   public long getStartTimeMillisSinceEpoch(NanosToEpochConverter converter) {
     return converter.toEpoch(startNanos);
   }
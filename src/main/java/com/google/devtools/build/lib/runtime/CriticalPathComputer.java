@@ -40,12 +40,14 @@ import com.google.devtools.build.lib.actions.SpawnResult;
 import com.google.devtools.build.lib.clock.Clock;
 import java.time.Duration;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BinaryOperator;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.annotation.concurrent.ThreadSafe;
 
@@ -136,6 +138,41 @@ public class CriticalPathComputer {
         criticalPath.getAggregatedElapsedTime(), metricsBuilder.build(), components.build());
   }
 
+  /**
+   * Returns, for every action that executed at least one spawn, the time from its start to the end
+   * of the chain of actions that transitively depend on it, keyed by the exec path of its primary
+   * output.
+   *
+   * <p>Only the dependency that determined the critical path of each action is known, so the
+   * result is a lower bound, but it is exact for the actions on the critical path of the build.
+   */
+  public Map<String, Duration> getRemainingTimes() {
+    // Every action finishes after the dependency on its critical path, so visiting the actions in
+    // reverse order of completion visits them before that dependency.
+    List<CriticalPathComponent> components =
+        uniqueActions()
+            .filter(c -> !c.isRunning())
+            .sorted(
+                Comparator.comparingLong(CriticalPathComponent::getFinishTimeNanos).reversed())
+            .collect(Collectors.toList());
+    Map<CriticalPathComponent, Long> remainingNanos = new IdentityHashMap<>();
+    Map<String, Duration> result = Maps.newHashMapWithExpectedSize(components.size());
+    for (CriticalPathComponent component : components) {
+      long remaining =
+          remainingNanos.getOrDefault(component, 0L) + component.getElapsedTimeNanos();
+      CriticalPathComponent child = component.getChild();
+      if (child != null) {
+        remainingNanos.merge(child, remaining, Math::max);
+      }
+      if (component.getLongestPhaseSpawnRunnerName() != null) {
+        result.put(
+            component.getAction().getPrimaryOutput().getExecPathString(),
+            Duration.ofNanos(remaining));
+      }
+    }
+    return result;
+  }
+
   public Map<Artifact, CriticalPathComponent> getCriticalPathComponentsMap() {
     return outputArtifactToComponent;
   }
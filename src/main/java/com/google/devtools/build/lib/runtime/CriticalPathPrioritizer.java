@@ -0,0 +1,56 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.runtime;
+
+import com.google.devtools.build.lib.actions.ActionExecutionMetadata;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.LongestFirstPrioritizer;
+import com.google.devtools.build.lib.actions.ResourcePrioritizer;
+import com.google.devtools.build.lib.actions.ResourceSet;
+
+/**
+ * A {@link ResourcePrioritizer} that prefers the actions with the longest expected time to the end
+ * of the build, as recorded by the {@link ActionDurationStore} in previous builds, so that the
+ * actions on the critical path are not delayed by actions that have plenty of slack.
+ *
+ * <p>Actions without history fall back to the expected duration of their mnemonic, which is a lower
+ * bound of their remaining time.
+ */
+public final class CriticalPathPrioritizer implements ResourcePrioritizer {
+
+  private final ActionDurationStore store;
+  private final LongestFirstPrioritizer fallback;
+
+  public CriticalPathPrioritizer(ActionDurationStore store, LongestFirstPrioritizer fallback) {
+    this.store = store;
+    this.fallback = fallback;
+  }
+
+  @Override
+  public long getPriority(ActionExecutionMetadata owner, ResourceSet resources) {
+    Artifact primaryOutput = owner.getPrimaryOutput();
+    if (primaryOutput != null) {
+      long remainingMillis = store.getRemainingMillis(primaryOutput.getExecPathString());
+      if (remainingMillis >= 0) {
+        return remainingMillis;
+      }
+    }
+    return fallback.getPriority(owner, resources);
+  }
+
+  @Override
+  public void actionCompleted(ActionExecutionMetadata owner, long durationNanos) {
+    fallback.actionCompleted(owner, durationNanos);
+  }
+}
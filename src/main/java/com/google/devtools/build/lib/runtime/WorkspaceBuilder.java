@@ -67,8 +67,12 @@ public final class WorkspaceBuilder {
       SubscriberExceptionHandler eventBusExceptionHandler) throws AbruptExitException {
     // Set default values if none are set.
     if (skyframeExecutorFactory == null) {
+      BlazeServerStartupOptions startupOptions =
+          runtime.getStartupOptionsProvider().getOptions(BlazeServerStartupOptions.class);
       skyframeExecutorFactory =
-          new SequencedSkyframeExecutorFactory(runtime.getDefaultBuildOptions());
+          new SequencedSkyframeExecutorFactory(
+              runtime.getDefaultBuildOptions(),
+              startupOptions != null && startupOptions.compactSkyframeGraph);
     }
 
     SkyframeExecutor skyframeExecutor =
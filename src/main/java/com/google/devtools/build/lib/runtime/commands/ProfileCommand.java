@@ -15,9 +15,11 @@ package com.google.devtools.build.lib.runtime.commands;
 
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.Reporter;
+import com.google.devtools.build.lib.profiler.BinaryProfile;
 import com.google.devtools.build.lib.profiler.JsonProfile;
 import com.google.devtools.build.lib.profiler.output.PhaseText;
 import com.google.devtools.build.lib.profiler.statistics.CriticalPathStatistics;
+import com.google.devtools.build.lib.profiler.statistics.PhaseSummaryStatistics;
 import com.google.devtools.build.lib.runtime.BlazeCommand;
 import com.google.devtools.build.lib.runtime.BlazeCommandResult;
 import com.google.devtools.build.lib.runtime.Command;
@@ -120,9 +122,23 @@ public final class ProfileCommand implements BlazeCommand {
                   Event.warn(
                       "--dump has not been implemented yet for the JSON profile, ignoring."));
             }
-            JsonProfile jsonProfile = new JsonProfile(profileFile.getPathFile());
+            // Both readers compute the statistics while streaming through the events,
+            // so that large profiles need not fit in memory.
+            JsonProfile.BuildMetadata buildMetadata;
+            PhaseSummaryStatistics phaseSummaryStatistics;
+            CriticalPathStatistics criticalPathStatistics;
+            if (BinaryProfile.isBinaryProfile(profileFile.getPathFile())) {
+              BinaryProfile binaryProfile = new BinaryProfile(profileFile.getPathFile());
+              buildMetadata = binaryProfile.getBuildMetadata();
+              phaseSummaryStatistics = binaryProfile.getPhaseSummaryStatistics();
+              criticalPathStatistics = binaryProfile.getCriticalPathStatistics();
+            } else {
+              JsonProfile jsonProfile = JsonProfile.summarize(profileFile.getPathFile());
+              buildMetadata = jsonProfile.getBuildMetadata();
+              phaseSummaryStatistics = jsonProfile.getPhaseSummaryStatistics();
+              criticalPathStatistics = jsonProfile.getCriticalPathStatistics();
+            }
 
-            JsonProfile.BuildMetadata buildMetadata = jsonProfile.getBuildMetadata();
             if (buildMetadata != null) {
               reporter.handle(
                   Event.info(
@@ -134,11 +150,7 @@ public final class ProfileCommand implements BlazeCommand {
                           + buildMetadata.outputBase()));
             }
 
-            new PhaseText(
-                    out,
-                    jsonProfile.getPhaseSummaryStatistics(),
-                    new CriticalPathStatistics(jsonProfile.getTraceEvents()))
-                .print();
+            new PhaseText(out, phaseSummaryStatistics, criticalPathStatistics).print();
           } catch (IOException e) {
             String message = "Failed to analyze profile file(s): " + e.getMessage();
             reporter.handle(Event.error(message));
@@ -32,6 +32,8 @@ import com.google.devtools.build.lib.exec.BinTools;
 import com.google.devtools.build.lib.exec.ExecutionOptions;
 import com.google.devtools.build.lib.exec.SpawnRunner;
 import com.google.devtools.build.lib.exec.TreeDeleter;
+import com.google.devtools.build.lib.metrics.LatencyHistogram;
+import com.google.devtools.build.lib.metrics.MetricRegistry;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.SilentCloseable;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
@@ -65,6 +67,8 @@ abstract class AbstractSandboxSpawnRunner implements SpawnRunner {
   protected final BinTools binTools;
   private final Path execRoot;
   private final ResourceManager resourceManager;
+  // Looked up on first use, as getName() is implemented by subclasses.
+  private volatile LatencyHistogram setupLatency;
 
   public AbstractSandboxSpawnRunner(CommandEnvironment cmdEnv) {
     this.sandboxOptions = cmdEnv.getOptions().getOptions(SandboxOptions.class);
@@ -84,8 +88,9 @@ abstract class AbstractSandboxSpawnRunner implements SpawnRunner {
     try (ResourceHandle ignored =
         resourceManager.acquireResources(owner, spawn.getLocalResources())) {
       context.report(ProgressStatus.EXECUTING, getName());
+      long setupStartNanos = System.nanoTime();
       SandboxedSpawn sandbox = prepareSpawn(spawn, context);
-      return runSpawn(spawn, sandbox, context);
+      return runSpawn(spawn, sandbox, context, setupStartNanos);
     } catch (IOException e) {
       FailureDetail failureDetail =
           createFailureDetail(
@@ -108,12 +113,16 @@ abstract class AbstractSandboxSpawnRunner implements SpawnRunner {
       throws IOException, ExecException, InterruptedException;
 
   private SpawnResult runSpawn(
-      Spawn originalSpawn, SandboxedSpawn sandbox, SpawnExecutionContext context)
+      Spawn originalSpawn,
+      SandboxedSpawn sandbox,
+      SpawnExecutionContext context,
+      long setupStartNanos)
       throws IOException, InterruptedException {
     try {
       try (SilentCloseable c = Profiler.instance().profile("sandbox.createFileSystem")) {
         sandbox.createFileSystem();
       }
+      getSetupLatency().recordNanos(System.nanoTime() - setupStartNanos);
       FileOutErr outErr = context.getFileOutErr();
       try (SilentCloseable c = Profiler.instance().profile("context.prefetchInputs")) {
         context.prefetchInputs();
@@ -141,6 +150,21 @@ abstract class AbstractSandboxSpawnRunner implements SpawnRunner {
     }
   }
 
+  private LatencyHistogram getSetupLatency() {
+    LatencyHistogram histogram = setupLatency;
+    if (histogram == null) {
+      histogram =
+          MetricRegistry.instance()
+              .histogram(
+                  "bazel_sandbox_setup_seconds",
+                  "Time taken to prepare a sandbox and create its file system.",
+                  "sandbox",
+                  getName());
+      setupLatency = histogram;
+    }
+    return histogram;
+  }
+
   private String makeFailureMessage(Spawn originalSpawn, SandboxedSpawn sandbox) {
     if (sandboxOptions.sandboxDebug) {
       return CommandFailureUtils.describeCommandFailure(
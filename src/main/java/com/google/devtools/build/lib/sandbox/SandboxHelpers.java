@@ -14,6 +14,9 @@
 
 package com.google.devtools.build.lib.sandbox;
 
+import static com.google.devtools.build.lib.vfs.Dirent.Type.DIRECTORY;
+import static com.google.devtools.build.lib.vfs.Dirent.Type.SYMLINK;
+
 import com.google.auto.value.AutoValue;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
@@ -25,21 +28,27 @@ import com.google.devtools.build.lib.actions.Spawn;
 import com.google.devtools.build.lib.actions.cache.VirtualActionInput;
 import com.google.devtools.build.lib.actions.cache.VirtualActionInput.EmptyActionInput;
 import com.google.devtools.build.lib.analysis.test.TestConfiguration;
+import com.google.devtools.build.lib.cmdline.LabelConstants;
+import com.google.devtools.build.lib.vfs.Dirent;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.FileSystemUtils.MoveResult;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
 import com.google.devtools.common.options.OptionsParsingResult;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
 
 /**
  * Helper methods that are shared by the different sandboxing strategies.
@@ -150,6 +159,143 @@ public final class SandboxHelpers {
     }
   }
 
+  /**
+   * Populates the provided sets with the inputs and directories that need to be created in a
+   * directory that should contain exactly {@code workerFiles}, {@code inputs} and the parents of
+   * {@code outputs}. This is based only on the arguments and does no I/O.
+   */
+  public static void populateInputsAndDirsToCreate(
+      Set<PathFragment> workerFiles,
+      SandboxInputs inputs,
+      SandboxOutputs outputs,
+      Set<PathFragment> inputsToCreate,
+      LinkedHashSet<PathFragment> dirsToCreate) {
+    // Add all worker files, input files, and the ancestor directories.
+    for (PathFragment input :
+        Iterables.concat(workerFiles, inputs.getFiles().keySet(), inputs.getSymlinks().keySet())) {
+      inputsToCreate.add(input);
+      addDirectoryAndParents(input.getParentDirectory(), dirsToCreate);
+    }
+
+    // And all ancestor directories of output files. Note that we don't add the files themselves --
+    // any pre-existing files that have the same path as an output should get deleted.
+    for (PathFragment file : outputs.files()) {
+      addDirectoryAndParents(file.getParentDirectory(), dirsToCreate);
+    }
+
+    // Add all ouput directories and ancestors.
+    for (PathFragment dir : outputs.dirs()) {
+      addDirectoryAndParents(dir, dirsToCreate);
+    }
+  }
+
+  /**
+   * Adds {@code dir} and its ancestors to {@code dirsToCreate}, parents first, so that the
+   * directories can be created in iteration order.
+   */
+  public static void addDirectoryAndParents(
+      @Nullable PathFragment dir, LinkedHashSet<PathFragment> dirsToCreate) {
+    if (dir == null || dirsToCreate.contains(dir)) {
+      return;
+    }
+    // Add parents first so that directories are created in the proper order. We collect all parent
+    // directories as opposed to just calling createDirectoryAndParents to support the optimization
+    // in #cleanExisting where an existing directory is kept if we still need it.
+    addDirectoryAndParents(dir.getParentDirectory(), dirsToCreate);
+    dirsToCreate.add(dir);
+  }
+
+  /**
+   * Deletes unnecessary files/directories under {@code root} and updates the sets if something on
+   * disk is already correct and doesn't need any changes.
+   *
+   * @param root the directory to clean, either {@code workDir} or one of its ancestors
+   * @param workDir the directory that the paths in {@code inputsToCreate} and {@code dirsToCreate}
+   *     are relative to
+   */
+  public static void cleanExisting(
+      Path root,
+      SandboxInputs inputs,
+      Set<PathFragment> inputsToCreate,
+      Set<PathFragment> dirsToCreate,
+      Path workDir)
+      throws IOException {
+    Path execroot = workDir.getParentDirectory();
+    for (Dirent dirent : root.readdir(Symlinks.NOFOLLOW)) {
+      Path absPath = root.getChild(dirent.getName());
+      PathFragment pathRelativeToWorkDir;
+      if (absPath.startsWith(workDir)) {
+        // path is under workDir, i.e. execroot/<workspace name>. Simply get the relative path.
+        pathRelativeToWorkDir = absPath.relativeTo(workDir);
+      } else {
+        // path is not under workDir, which means it belongs to one of external repositories
+        // symlinked directly under execroot. Get the relative path based on there and prepend it
+        // with the designated prefix, '../', so that it's still a valid relative path to workDir.
+        pathRelativeToWorkDir =
+            LabelConstants.EXPERIMENTAL_EXTERNAL_PATH_PREFIX.getRelative(
+                absPath.relativeTo(execroot));
+      }
+      Optional<PathFragment> destination =
+          getExpectedSymlinkDestination(pathRelativeToWorkDir, inputs);
+      if (destination.isPresent()) {
+        if (SYMLINK.equals(dirent.getType())
+            && absPath.readSymbolicLink().equals(destination.get())) {
+          inputsToCreate.remove(pathRelativeToWorkDir);
+        } else {
+          absPath.delete();
+        }
+      } else if (DIRECTORY.equals(dirent.getType())) {
+        if (dirsToCreate.contains(pathRelativeToWorkDir)) {
+          cleanExisting(absPath, inputs, inputsToCreate, dirsToCreate, workDir);
+          dirsToCreate.remove(pathRelativeToWorkDir);
+        } else {
+          absPath.deleteTree();
+        }
+      } else if (!inputsToCreate.contains(pathRelativeToWorkDir)) {
+        absPath.delete();
+      }
+    }
+  }
+
+  private static Optional<PathFragment> getExpectedSymlinkDestination(
+      PathFragment fragment, SandboxInputs inputs) {
+    Path file = inputs.getFiles().get(fragment);
+    if (file != null) {
+      return Optional.of(file.asFragment());
+    }
+    return Optional.ofNullable(inputs.getSymlinks().get(fragment));
+  }
+
+  /** Creates {@code dirsToCreate}, which must be ordered parents first, under {@code workDir}. */
+  public static void createDirectories(Iterable<PathFragment> dirsToCreate, Path workDir)
+      throws IOException {
+    for (PathFragment fragment : dirsToCreate) {
+      workDir.getRelative(fragment).createDirectory();
+    }
+  }
+
+  /** Creates the {@code inputsToCreate} under {@code workDir} as described by {@code inputs}. */
+  public static void createInputs(
+      Iterable<PathFragment> inputsToCreate, SandboxInputs inputs, Path workDir)
+      throws IOException {
+    for (PathFragment fragment : inputsToCreate) {
+      Path key = workDir.getRelative(fragment);
+      if (inputs.getFiles().containsKey(fragment)) {
+        Path fileDest = inputs.getFiles().get(fragment);
+        if (fileDest != null) {
+          key.createSymbolicLink(fileDest);
+        } else {
+          FileSystemUtils.createEmptyFile(key);
+        }
+      } else if (inputs.getSymlinks().containsKey(fragment)) {
+        PathFragment symlinkDest = inputs.getSymlinks().get(fragment);
+        if (symlinkDest != null) {
+          key.createSymbolicLink(symlinkDest);
+        }
+      }
+    }
+  }
+
   /** Wrapper class for the inputs of a sandbox. */
   public static final class SandboxInputs {
 
@@ -99,6 +99,9 @@ public final class SandboxModule extends BlazeModule {
    */
   @Nullable private TreeDeleter treeDeleter;
 
+  /** Execroots of finished sandboxed spawns kept for reuse, if enabled. */
+  @Nullable private SandboxStash sandboxStash;
+
   /**
    * Whether to remove the sandbox worker directories after a build or not. Useful for debugging to
    * inspect the state of files on failures.
@@ -242,6 +245,19 @@ public final class SandboxModule extends BlazeModule {
 
     PathFragment sandboxfsPath = PathFragment.create(options.sandboxfsPath);
     sandboxBase.createDirectoryAndParents();
+
+    if (sandboxStash != null
+        && (!options.reuseSandboxDirectories
+            || !sandboxStash.getStashBase().getParentDirectory().equals(sandboxBase))) {
+      sandboxStash.clear(treeDeleter);
+      sandboxStash = null;
+    }
+    if (options.reuseSandboxDirectories) {
+      if (sandboxStash == null) {
+        sandboxStash = new SandboxStash(sandboxBase);
+      }
+      sandboxStash.resetStatistics();
+    }
     if (options.useSandboxfs != TriState.NO) {
       mountPoint.createDirectory();
       Path logFile = sandboxBase.getRelative("sandboxfs.log");
@@ -294,7 +310,8 @@ public final class SandboxModule extends BlazeModule {
                   sandboxBase,
                   sandboxfsProcess,
                   options.sandboxfsMapSymlinkTargets,
-                  treeDeleter));
+                  treeDeleter,
+                  sandboxStash));
       spawnRunners.add(spawnRunner);
       builder.registerStrategy(
           new ProcessWrapperSandboxedStrategy(cmdEnv.getExecRoot(), spawnRunner, verboseFailures),
@@ -348,7 +365,8 @@ public final class SandboxModule extends BlazeModule {
                   timeoutKillDelay,
                   sandboxfsProcess,
                   options.sandboxfsMapSymlinkTargets,
-                  treeDeleter));
+                  treeDeleter,
+                  sandboxStash));
       spawnRunners.add(spawnRunner);
       builder.registerStrategy(
           new LinuxSandboxedStrategy(cmdEnv.getExecRoot(), spawnRunner, verboseFailures),
@@ -551,16 +569,23 @@ public final class SandboxModule extends BlazeModule {
    * <p>When this gets called, the individual trees of each spawn should have been cleaned up but we
    * may be left with the top-level subdirectories used by each sandboxed spawn runner (e.g. {@code
    * darwin-sandbox}) and the sandbox base itself. Try to delete those so that a Bazel server
-   * restart doesn't print a spurious {@code Deleting stale sandbox base} message.
+   * restart doesn't print a spurious {@code Deleting stale sandbox base} message. If {@code
+   * keepStash} is true, the stashed sandboxes and thus the sandbox base are kept for the next
+   * build.
    */
-  private static void cleanupSandboxBaseTop(Path sandboxBase) {
+  private static void cleanupSandboxBaseTop(Path sandboxBase, boolean keepStash) {
     try {
       // This might be called twice for a given sandbox base, so don't bother recording error
       // messages if any of the files we try to delete don't exist.
       for (Path leftover : sandboxBase.getDirectoryEntries()) {
+        if (keepStash && leftover.getBaseName().equals(SandboxStash.SANDBOX_STASH_BASE)) {
+          continue;
+        }
         leftover.delete();
       }
-      sandboxBase.delete();
+      if (!keepStash) {
+        sandboxBase.delete();
+      }
     } catch (IOException e) {
       logger.atWarning().withCause(e).log("Failed to clean up sandbox base %s", sandboxBase);
     }
@@ -598,12 +623,20 @@ public final class SandboxModule extends BlazeModule {
           "sandboxfs instance should have been shut down at this "
               + "point; were the buildComplete/buildInterrupted events sent?");
 
-      cleanupSandboxBaseTop(sandboxBase);
+      cleanupSandboxBaseTop(sandboxBase, /*keepStash=*/ sandboxStash != null);
       // We intentionally keep sandboxBase around, without resetting it to null, in case we have
       // asynchronous deletions going on. In that case, we'd still want to retry this during
       // shutdown.
     }
 
+    if (sandboxStash != null) {
+      logger.atInfo().log(
+          "Reused %d stashed sandboxes; created %d and reused %d input symlinks",
+          sandboxStash.getSandboxesReused(),
+          sandboxStash.getSymlinksCreated(),
+          sandboxStash.getSymlinksReused());
+    }
+
     spawnRunners.clear();
 
     env.getEventBus().unregister(this);
@@ -616,6 +649,15 @@ public final class SandboxModule extends BlazeModule {
     // Try to clean up as much garbage as possible, if there happens to be any. This will delay
     // server termination but it's the nice thing to do. If the user gets impatient, they can always
     // kill us again.
+    if (sandboxStash != null) {
+      try {
+        sandboxStash.clear(new SynchronousTreeDeleter());
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Failed to delete stashed sandboxes");
+      }
+      sandboxStash = null;
+    }
+
     if (treeDeleter != null) {
       try {
         treeDeleter.shutdown();
@@ -625,7 +667,7 @@ public final class SandboxModule extends BlazeModule {
     }
 
     if (sandboxBase != null) {
-      cleanupSandboxBaseTop(sandboxBase);
+      cleanupSandboxBaseTop(sandboxBase, /*keepStash=*/ false);
     }
   }
 
@@ -348,6 +348,17 @@ public class SandboxOptions extends OptionsBase {
               + "scheduler. This flag exists purely to support rolling this bug fix out.")
   public boolean delayVirtualInputMaterialization;
 
+  @Option(
+      name = "experimental_reuse_sandbox_directories",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.EXECUTION_STRATEGY,
+      effectTags = {OptionEffectTag.EXECUTION},
+      help =
+          "If set to true, the execroots of finished symlinked sandboxes are kept and reused by "
+              + "later actions with the same mnemonic, which only add and remove the input "
+              + "symlinks that differ instead of creating all of them.")
+  public boolean reuseSandboxDirectories;
+
   @Option(
       name = "incompatible_legacy_local_fallback",
       defaultValue = "true",
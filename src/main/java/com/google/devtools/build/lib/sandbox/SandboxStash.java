@@ -0,0 +1,137 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.sandbox;
+
+import com.google.common.flogger.GoogleLogger;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.exec.TreeDeleter;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the execroots of finished sandboxed spawns around so that later spawns with the same
+ * mnemonic can reuse them, only fixing up the inputs that differ instead of creating all of them
+ * from scratch.
+ *
+ * <p>Stashed execroots live in {@code <sandbox base>/sandbox_stash/<mnemonic>/<id>} and are moved
+ * in and out of the per-spawn sandbox directories with renames. A stashed execroot is only ever
+ * handed to one spawn at a time, so there are at most as many stashed execroots for a mnemonic as
+ * there were spawns with that mnemonic running at the same time.
+ */
+@ThreadSafe
+final class SandboxStash {
+  private static final GoogleLogger logger = GoogleLogger.forEnclosingClass();
+
+  static final String SANDBOX_STASH_BASE = "sandbox_stash";
+
+  private final Path stashBase;
+  private final ConcurrentMap<String, Queue<Path>> stashes = new ConcurrentHashMap<>();
+  private final AtomicInteger stashIds = new AtomicInteger();
+
+  private final AtomicLong sandboxesReused = new AtomicLong();
+  private final AtomicLong symlinksCreated = new AtomicLong();
+  private final AtomicLong symlinksReused = new AtomicLong();
+
+  SandboxStash(Path sandboxBase) {
+    this.stashBase = sandboxBase.getChild(SANDBOX_STASH_BASE);
+  }
+
+  Path getStashBase() {
+    return stashBase;
+  }
+
+  /**
+   * Moves a stashed execroot for {@code mnemonic} to {@code target}, replacing the empty directory
+   * tree that may be there.
+   *
+   * @return whether a stashed execroot was moved to {@code target}; if not, {@code target} is left
+   *     as it was
+   */
+  boolean takeStashedSandbox(Path target, String mnemonic) throws IOException {
+    Queue<Path> stash = stashes.get(mnemonic);
+    Path stashed = stash == null ? null : stash.poll();
+    if (stashed == null) {
+      return false;
+    }
+    try {
+      target.deleteTree();
+      stashed.renameTo(target);
+    } catch (IOException e) {
+      // The target is recreated by the caller as if there had been nothing to reuse.
+      logger.atWarning().withCause(e).log("Failed to reuse stashed sandbox %s", stashed);
+      stashed.deleteTree();
+      target.createDirectoryAndParents();
+      return false;
+    }
+    sandboxesReused.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Moves the execroot at {@code source} to the stash for {@code mnemonic}. If that fails, the
+   * execroot is left in place to be deleted with the rest of its sandbox.
+   */
+  void stashSandbox(Path source, String mnemonic) {
+    Path target =
+        stashBase.getChild(mnemonic).getChild(Integer.toString(stashIds.incrementAndGet()));
+    try {
+      target.getParentDirectory().createDirectoryAndParents();
+      source.renameTo(target);
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Failed to stash sandbox %s", source);
+      return;
+    }
+    stashes.computeIfAbsent(mnemonic, m -> new ConcurrentLinkedQueue<>()).add(target);
+  }
+
+  /** Records how many inputs of a spawn were created and how many were reused from a stash. */
+  void recordInputs(int created, int reused) {
+    symlinksCreated.addAndGet(created);
+    symlinksReused.addAndGet(reused);
+  }
+
+  long getSandboxesReused() {
+    return sandboxesReused.get();
+  }
+
+  long getSymlinksCreated() {
+    return symlinksCreated.get();
+  }
+
+  long getSymlinksReused() {
+    return symlinksReused.get();
+  }
+
+  /** Resets the counters returned by the getters, at the start of a command. */
+  void resetStatistics() {
+    sandboxesReused.set(0);
+    symlinksCreated.set(0);
+    symlinksReused.set(0);
+  }
+
+  /** Forgets all stashed execroots and deletes them. */
+  void clear(TreeDeleter treeDeleter) throws IOException {
+    stashes.clear();
+    if (stashBase.exists()) {
+      treeDeleter.deleteTree(stashBase);
+    }
+  }
+}
@@ -14,11 +14,14 @@
 
 package com.google.devtools.build.lib.sandbox;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.devtools.build.lib.exec.TreeDeleter;
 import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxInputs;
 import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxOutputs;
 import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
 import java.io.IOException;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -27,9 +30,20 @@ import javax.annotation.Nullable;
 /**
  * Creates an execRoot for a Spawn that contains input files as symlinks to their original
  * destination.
+ *
+ * <p>If given a {@link SandboxStash}, the execRoot is taken from the stash of an earlier spawn with
+ * the same mnemonic if possible, and only the inputs that differ are updated. The execRoot is
+ * returned to the stash when the spawn is deleted.
  */
 public class SymlinkedSandboxedSpawn extends AbstractContainerizingSandboxedSpawn {
 
+  private final Path sandboxExecRoot;
+  private final SandboxInputs inputs;
+  private final SandboxOutputs outputs;
+  private final Set<Path> writableDirs;
+  @Nullable private final SandboxStash sandboxStash;
+  private final String mnemonic;
+
   public SymlinkedSandboxedSpawn(
       Path sandboxPath,
       Path sandboxExecRoot,
@@ -40,6 +54,32 @@ public class SymlinkedSandboxedSpawn extends AbstractContainerizingSandboxedSpaw
       Set<Path> writableDirs,
       TreeDeleter treeDeleter,
       @Nullable Path statisticsPath) {
+    this(
+        sandboxPath,
+        sandboxExecRoot,
+        arguments,
+        environment,
+        inputs,
+        outputs,
+        writableDirs,
+        treeDeleter,
+        statisticsPath,
+        /* sandboxStash= */ null,
+        /* mnemonic= */ "");
+  }
+
+  SymlinkedSandboxedSpawn(
+      Path sandboxPath,
+      Path sandboxExecRoot,
+      List<String> arguments,
+      Map<String, String> environment,
+      SandboxInputs inputs,
+      SandboxOutputs outputs,
+      Set<Path> writableDirs,
+      TreeDeleter treeDeleter,
+      @Nullable Path statisticsPath,
+      @Nullable SandboxStash sandboxStash,
+      String mnemonic) {
     super(
         sandboxPath,
         sandboxExecRoot,
@@ -50,10 +90,57 @@ public class SymlinkedSandboxedSpawn extends AbstractContainerizingSandboxedSpaw
         writableDirs,
         treeDeleter,
         statisticsPath);
+    this.sandboxExecRoot = sandboxExecRoot;
+    this.inputs = inputs;
+    this.outputs = outputs;
+    this.writableDirs = writableDirs;
+    this.sandboxStash = sandboxStash;
+    this.mnemonic = mnemonic;
+  }
+
+  @Override
+  public void createFileSystem() throws IOException {
+    if (sandboxStash == null) {
+      super.createFileSystem();
+      return;
+    }
+    // The stashed unit is the parent of the execroot, so that external repositories laid out as
+    // siblings of the main repository are reused, too.
+    Path root = sandboxExecRoot.getParentDirectory();
+    sandboxStash.takeStashedSandbox(root, mnemonic);
+    sandboxExecRoot.createDirectoryAndParents();
+
+    Set<PathFragment> inputsToCreate = new LinkedHashSet<>();
+    LinkedHashSet<PathFragment> dirsToCreate = new LinkedHashSet<>();
+    // Keep the execroot itself even if there are no inputs directly below it.
+    dirsToCreate.add(PathFragment.EMPTY_FRAGMENT);
+    SandboxHelpers.populateInputsAndDirsToCreate(
+        ImmutableSet.of(), inputs, outputs, inputsToCreate, dirsToCreate);
+    for (Path dir : writableDirs) {
+      if (dir.startsWith(sandboxExecRoot)) {
+        SandboxHelpers.addDirectoryAndParents(dir.relativeTo(sandboxExecRoot), dirsToCreate);
+      }
+    }
+    int numInputs = inputsToCreate.size();
+
+    SandboxHelpers.cleanExisting(root, inputs, inputsToCreate, dirsToCreate, sandboxExecRoot);
+    SandboxHelpers.createDirectories(dirsToCreate, sandboxExecRoot);
+    SandboxHelpers.createInputs(inputsToCreate, inputs, sandboxExecRoot);
+    inputs.materializeVirtualInputs(sandboxExecRoot);
+
+    sandboxStash.recordInputs(inputsToCreate.size(), numInputs - inputsToCreate.size());
   }
 
   @Override
   protected void copyFile(Path source, Path target) throws IOException {
     target.createSymbolicLink(source);
   }
+
+  @Override
+  public void delete() {
+    if (sandboxStash != null) {
+      sandboxStash.stashSandbox(sandboxExecRoot.getParentDirectory(), mnemonic);
+    }
+    super.delete();
+  }
 }
@@ -111,6 +111,11 @@ public class JavaSubprocessFactory implements SubprocessFactory {
       return process.getInputStream();
     }
 
+    @Override
+    public long getProcessId() {
+      return process.pid();
+    }
+
     @Override
     public void close() {
       // java.lang.Process doesn't give us a way to clean things up other than #destroy(), which was
@@ -70,6 +70,11 @@ public interface Subprocess extends Closeable {
    */
   InputStream getErrorStream();
 
+  /** Returns the operating system process id of the process, or -1 if it isn't known. */
+  default long getProcessId() {
+    return -1;
+  }
+
   /*
    * Terminates the process as thoroughly as the underlying implementation allows and releases
    * native data structures associated with the process.
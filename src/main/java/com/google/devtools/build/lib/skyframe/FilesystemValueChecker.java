@@ -297,19 +297,23 @@ public class FilesystemValueChecker {
               actionValue.getAllTreeArtifactValues().entrySet()) {
             Artifact treeArtifact = entry.getKey();
             TreeArtifactValue tree = entry.getValue();
-            for (TreeFileArtifact child : tree.getChildren()) {
-              if (shouldCheckFile(knownModifiedOutputFiles, child)) {
-                fileToKeyAndValue.put(child, keyAndValue);
+            // As in actionValueIsDirtyWithDirectSystemCalls, the files of a tree that only exists
+            // remotely are not expected on disk.
+            if (!tree.isEntirelyRemote()) {
+              for (TreeFileArtifact child : tree.getChildren()) {
+                if (shouldCheckFile(knownModifiedOutputFiles, child)) {
+                  fileToKeyAndValue.put(child, keyAndValue);
+                }
               }
+              tree.getArchivedRepresentation()
+                  .map(ArchivedRepresentation::archivedTreeFileArtifact)
+                  .filter(
+                      archivedTreeArtifact ->
+                          shouldCheckFile(knownModifiedOutputFiles, archivedTreeArtifact))
+                  .ifPresent(
+                      archivedTreeArtifact ->
+                          fileToKeyAndValue.put(archivedTreeArtifact, keyAndValue));
             }
-            tree.getArchivedRepresentation()
-                .map(ArchivedRepresentation::archivedTreeFileArtifact)
-                .filter(
-                    archivedTreeArtifact ->
-                        shouldCheckFile(knownModifiedOutputFiles, archivedTreeArtifact))
-                .ifPresent(
-                    archivedTreeArtifact ->
-                        fileToKeyAndValue.put(archivedTreeArtifact, keyAndValue));
             if (shouldCheckTreeArtifact(sortedKnownModifiedOutputFiles.get(), treeArtifact)) {
               treeArtifactsToKeyAndValue.put(treeArtifact, keyAndValue);
             }
@@ -358,7 +362,12 @@ public class FilesystemValueChecker {
         try {
           FileArtifactValue newData =
               ActionMetadataHandler.fileArtifactValueFromArtifact(artifact, stat, tsgm);
-          if (newData.couldBeModifiedSince(lastKnownData)) {
+          boolean trustRemoteValue =
+              newData.getType() == FileStateType.NONEXISTENT
+                  && lastKnownData != null
+                  && lastKnownData.isRemote()
+                  && trustRemoteArtifacts;
+          if (!trustRemoteValue && newData.couldBeModifiedSince(lastKnownData)) {
             updateIntraBuildModifiedCounter(stat != null ? stat.getLastChangeTime() : -1);
             modifiedOutputFilesCounter.getAndIncrement();
             dirtyKeys.add(key);
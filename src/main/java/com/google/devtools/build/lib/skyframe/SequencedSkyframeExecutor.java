@@ -88,6 +88,7 @@ import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
 import com.google.devtools.build.lib.vfs.BatchStat;
 import com.google.devtools.build.lib.vfs.FileSystem;
 import com.google.devtools.build.lib.vfs.ModifiedFileSet;
+import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.Root;
 import com.google.devtools.build.lib.vfs.RootedPath;
 import com.google.devtools.build.skyframe.BuildDriver;
@@ -729,6 +730,7 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor {
   public void detectModifiedOutputFiles(
       ModifiedFileSet modifiedOutputFiles,
       @Nullable Range<Long> lastExecutionTimeRange,
+      Path execRoot,
       boolean trustRemoteArtifacts,
       int fsvcThreads)
       throws InterruptedException {
@@ -737,6 +739,9 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor {
         new FilesystemValueChecker(
             Preconditions.checkNotNull(tsgm.get()), lastExecutionTimeRange, fsvcThreads);
     BatchStat batchStatter = outputService == null ? null : outputService.getBatchStatter();
+    if (batchStatter == null) {
+      batchStatter = execRoot.getFileSystem().getBatchStatter(execRoot.asFragment());
+    }
     recordingDiffer.invalidate(
         fsvc.getDirtyActionValues(
             memoizingEvaluator.getValues(),
@@ -1054,6 +1059,7 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor {
     private Consumer<SkyframeExecutor> skyframeExecutorConsumerOnInit = skyframeExecutor -> {};
     private SkyFunction ignoredPackagePrefixesFunction;
     private BugReporter bugReporter = BugReporter.defaultInstance();
+    private EvaluatorSupplier evaluatorSupplier = InMemoryMemoizingEvaluator.SUPPLIER;
 
     private Builder() {}
 
@@ -1073,7 +1079,7 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor {
       SequencedSkyframeExecutor skyframeExecutor =
           new SequencedSkyframeExecutor(
               skyframeExecutorConsumerOnInit,
-              InMemoryMemoizingEvaluator.SUPPLIER,
+              evaluatorSupplier,
               pkgFactory,
               fileSystem,
               directories,
@@ -1129,6 +1135,11 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor {
       return this;
     }
 
+    public Builder setEvaluatorSupplier(EvaluatorSupplier evaluatorSupplier) {
+      this.evaluatorSupplier = evaluatorSupplier;
+      return this;
+    }
+
     public Builder setExtraSkyFunctions(
         ImmutableMap<SkyFunctionName, SkyFunction> extraSkyFunctions) {
       this.extraSkyFunctions = extraSkyFunctions;
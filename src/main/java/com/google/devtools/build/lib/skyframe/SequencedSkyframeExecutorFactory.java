@@ -21,6 +21,7 @@ import com.google.devtools.build.lib.analysis.config.BuildOptions;
 import com.google.devtools.build.lib.bugreport.BugReporter;
 import com.google.devtools.build.lib.packages.PackageFactory;
 import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.skyframe.InMemoryMemoizingEvaluator;
 import com.google.devtools.build.skyframe.SkyFunction;
 import com.google.devtools.build.skyframe.SkyFunctionName;
 import javax.annotation.Nullable;
@@ -31,9 +32,19 @@ import javax.annotation.Nullable;
 public class SequencedSkyframeExecutorFactory implements SkyframeExecutorFactory {
 
   private final BuildOptions defaultBuildOptions;
+  private final boolean compactGraph;
 
   public SequencedSkyframeExecutorFactory(BuildOptions defaultBuildOptions) {
+    this(defaultBuildOptions, /*compactGraph=*/ false);
+  }
+
+  /**
+   * @param compactGraph whether the Skyframe graph stores its edges with {@link
+   *     com.google.devtools.build.skyframe.CompactInMemoryGraph}
+   */
+  public SequencedSkyframeExecutorFactory(BuildOptions defaultBuildOptions, boolean compactGraph) {
     this.defaultBuildOptions = defaultBuildOptions;
+    this.compactGraph = compactGraph;
   }
 
   @Override
@@ -60,6 +71,10 @@ public class SequencedSkyframeExecutorFactory implements SkyframeExecutorFactory
         .setCustomDirtinessCheckers(customDirtinessCheckers)
         .setManagedDirectoriesKnowledge(managedDirectoriesKnowledge)
         .setBugReporter(bugReporter)
+        .setEvaluatorSupplier(
+            compactGraph
+                ? InMemoryMemoizingEvaluator.COMPACT_SUPPLIER
+                : InMemoryMemoizingEvaluator.SUPPLIER)
         .build();
   }
 }
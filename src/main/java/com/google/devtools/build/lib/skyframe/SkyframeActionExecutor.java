@@ -77,6 +77,7 @@ import com.google.devtools.build.lib.analysis.config.CoreOptions;
 import com.google.devtools.build.lib.bugreport.BugReport;
 import com.google.devtools.build.lib.buildeventstream.BuildEventProtocolOptions;
 import com.google.devtools.build.lib.buildtool.BuildRequestOptions;
+import com.google.devtools.build.lib.clock.BlazeClock;
 import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.collect.nestedset.NestedSet;
 import com.google.devtools.build.lib.collect.nestedset.NestedSetExpander;
@@ -85,6 +86,8 @@ import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.events.ExtendedEventHandler;
 import com.google.devtools.build.lib.events.Reporter;
 import com.google.devtools.build.lib.exec.ExecutionOptions;
+import com.google.devtools.build.lib.metrics.LatencyHistogram;
+import com.google.devtools.build.lib.metrics.MetricRegistry;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.profiler.SilentCloseable;
@@ -139,6 +142,12 @@ public final class SkyframeActionExecutor {
   // more detail.
   private static final Striped<Lock> outputDirectoryDeletionLock = Striped.lock(64);
 
+  private static final LatencyHistogram actionLatency =
+      MetricRegistry.instance()
+          .histogram(
+              "bazel_action_latency_seconds",
+              "Time from the start of an action's execution until its completion.");
+
   private static final MetadataInjector THROWING_METADATA_INJECTOR_FOR_ACTIONFS =
       new MetadataInjector() {
         @Override
@@ -1061,6 +1070,7 @@ public final class SkyframeActionExecutor {
     private void notifyActionCompletion(
         ExtendedEventHandler eventHandler, boolean postActionCompletionEvent) {
       statusReporter.remove(action);
+      actionLatency.recordNanos(BlazeClock.nanoTime() - actionStartTime);
       if (postActionCompletionEvent) {
         eventHandler.post(new ActionCompletionEvent(actionStartTime, action, actionLookupData));
       }
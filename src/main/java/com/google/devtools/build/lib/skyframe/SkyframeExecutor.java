@@ -2894,6 +2894,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory, Configur
   public abstract void detectModifiedOutputFiles(
       ModifiedFileSet modifiedOutputFiles,
       @Nullable Range<Long> lastExecutionTimeRange,
+      Path execRoot,
       boolean trustRemoteArtifacts,
       int fsvcThreads)
       throws AbruptExitException, InterruptedException;
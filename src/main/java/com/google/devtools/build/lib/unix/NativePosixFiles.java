@@ -128,6 +128,45 @@ public final class NativePosixFiles {
    */
   public static native ErrnoFileStatus errnoLstat(String path);
 
+  /**
+   * Native wrapper around a batch of POSIX stat(2) or lstat(2) syscalls, which crosses the JNI
+   * boundary once for all the files and fills the result arrays rather than allocating an object
+   * per file. Each result array must be at least as long as {@code paths}.
+   *
+   * @param paths the files to stat.
+   * @param followSymlinks whether to call stat(2) rather than lstat(2).
+   * @param errnos receives the errno of each call, or 0 if it succeeded. If it failed, the other
+   *     values for the file are undefined.
+   * @param modes receives the st_mode of each file.
+   * @param sizes receives the st_size of each file.
+   * @param mtimes receives the last modification time of each file, in milliseconds.
+   * @param ctimes receives the last status change time of each file, in milliseconds.
+   * @param inodes receives the st_ino of each file.
+   */
+  public static native void batchStat(
+      String[] paths,
+      boolean followSymlinks,
+      int[] errnos,
+      int[] modes,
+      long[] sizes,
+      long[] mtimes,
+      long[] ctimes,
+      long[] inodes);
+
+  /**
+   * Copies the contents of a regular file without moving them through user space: with a reflink
+   * (ioctl FICLONE) on file systems that support it, or else with copy_file_range(2) or
+   * sendfile(2). The target is created with mode 0666, minus the umask, if it does not exist, and
+   * truncated otherwise. A target created by this call is removed again if the copy fails.
+   *
+   * @param source the file to copy.
+   * @param target the file to copy to.
+   * @return false if the source is not a regular file or the platform or file systems do not
+   *     support an efficient copy, in which case the caller must copy the contents itself.
+   * @throws IOException if the copy failed.
+   */
+  public static native boolean copyFile(String source, String target) throws IOException;
+
   /**
    * Native wrapper around POSIX utime(2) syscall.
    *
@@ -0,0 +1,183 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.unix;
+
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
+import com.google.devtools.build.lib.vfs.BatchStat;
+import com.google.devtools.build.lib.vfs.FileStatusWithDigest;
+import com.google.devtools.build.lib.vfs.FileStatusWithDigestAdapter;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link BatchStat} for a {@link UnixFileSystem}, which stats many files with a single call to
+ * {@link NativePosixFiles#batchStat} instead of crossing the JNI boundary and allocating a status
+ * object per file.
+ */
+final class UnixBatchStat implements BatchStat {
+
+  /** The number of files stat-ed per native call, which bounds the size of the result arrays. */
+  private static final int BATCH_SIZE = 1024;
+
+  private final UnixFileSystem fileSystem;
+  private final PathFragment execRoot;
+
+  UnixBatchStat(UnixFileSystem fileSystem, PathFragment execRoot) {
+    this.fileSystem = fileSystem;
+    this.execRoot = execRoot;
+  }
+
+  @Override
+  public List<FileStatusWithDigest> batchStat(
+      boolean includeDigest, boolean includeLinks, Iterable<PathFragment> paths)
+      throws IOException, InterruptedException {
+    List<PathFragment> absolutePaths = new ArrayList<>();
+    for (PathFragment path : paths) {
+      absolutePaths.add(execRoot.getRelative(path));
+    }
+    List<FileStatusWithDigest> result = new ArrayList<>(absolutePaths.size());
+    for (int start = 0; start < absolutePaths.size(); start += BATCH_SIZE) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      List<PathFragment> batch =
+          absolutePaths.subList(start, Math.min(start + BATCH_SIZE, absolutePaths.size()));
+      statBatch(batch, /*followSymlinks=*/ !includeLinks, includeDigest, result);
+    }
+    return result;
+  }
+
+  private void statBatch(
+      List<PathFragment> batch,
+      boolean followSymlinks,
+      boolean includeDigest,
+      List<FileStatusWithDigest> result)
+      throws IOException {
+    int count = batch.size();
+    String[] names = new String[count];
+    for (int i = 0; i < count; i++) {
+      names[i] = batch.get(i).getPathString();
+    }
+    int[] errnos = new int[count];
+    int[] modes = new int[count];
+    long[] sizes = new long[count];
+    long[] mtimes = new long[count];
+    long[] ctimes = new long[count];
+    long[] inodes = new long[count];
+    long startTime = Profiler.nanoTimeMaybe();
+    try {
+      NativePosixFiles.batchStat(
+          names, followSymlinks, errnos, modes, sizes, mtimes, ctimes, inodes);
+    } finally {
+      Profiler.instance()
+          .logSimpleTask(startTime, ProfilerTask.VFS_STAT, "batch stat of " + count + " files");
+    }
+    for (int i = 0; i < count; i++) {
+      PathFragment path = batch.get(i);
+      int errno = errnos[i];
+      if (errno == ErrnoFileStatus.ENOENT || errno == ErrnoFileStatus.ENOTDIR) {
+        result.add(null);
+        continue;
+      }
+      if (errno != 0) {
+        // Stat the file again to throw the proper exception, as in UnixFileSystem#statIfFound. The
+        // error may have been transient, in which case this returns the status.
+        result.add(FileStatusWithDigestAdapter.adapt(fileSystem.stat(path, followSymlinks)));
+        continue;
+      }
+      byte[] digest =
+          includeDigest && (modes[i] & FileStatus.S_IFMT) == FileStatus.S_IFREG
+              ? fileSystem.getFastDigest(path)
+              : null;
+      result.add(new Status(modes[i], sizes[i], mtimes[i], ctimes[i], inodes[i], digest));
+    }
+  }
+
+  /** The status of a file filled in by {@link NativePosixFiles#batchStat}. */
+  private static final class Status implements FileStatusWithDigest {
+    private final int mode;
+    private final long size;
+    private final long mtime;
+    private final long ctime;
+    private final long inode;
+    @Nullable private final byte[] digest;
+
+    Status(int mode, long size, long mtime, long ctime, long inode, @Nullable byte[] digest) {
+      this.mode = mode;
+      this.size = size;
+      this.mtime = mtime;
+      this.ctime = ctime;
+      this.inode = inode;
+      this.digest = digest;
+    }
+
+    // Like UnixFileSystem.UnixFileStatus, a special file is a file in the sense of the VFS.
+
+    @Override
+    public boolean isFile() {
+      return !isDirectory() && !isSymbolicLink();
+    }
+
+    @Override
+    public boolean isDirectory() {
+      return FileStatus.isDirectory(mode);
+    }
+
+    @Override
+    public boolean isSymbolicLink() {
+      return FileStatus.isSymbolicLink(mode);
+    }
+
+    @Override
+    public boolean isSpecialFile() {
+      return isFile() && (mode & FileStatus.S_IFMT) != FileStatus.S_IFREG;
+    }
+
+    @Override
+    public long getSize() {
+      return size;
+    }
+
+    @Override
+    public long getLastModifiedTime() {
+      return mtime;
+    }
+
+    @Override
+    public long getLastChangeTime() {
+      return ctime;
+    }
+
+    @Override
+    public long getNodeId() {
+      return inode;
+    }
+
+    @Nullable
+    @Override
+    public byte[] getDigest() {
+      return digest;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("FileStatus(mode=0%06o,size=%d,mtime=%d)", mode, size, mtime);
+    }
+  }
+}
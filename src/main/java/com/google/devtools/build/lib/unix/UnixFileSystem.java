@@ -22,6 +22,7 @@ import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.unix.NativePosixFiles.Dirents;
 import com.google.devtools.build.lib.unix.NativePosixFiles.ReadTypes;
 import com.google.devtools.build.lib.vfs.AbstractFileSystemWithCustomStat;
+import com.google.devtools.build.lib.vfs.BatchStat;
 import com.google.devtools.build.lib.vfs.DigestHashFunction;
 import com.google.devtools.build.lib.vfs.Dirent;
 import com.google.devtools.build.lib.vfs.FileStatus;
@@ -407,6 +408,23 @@ public class UnixFileSystem extends AbstractFileSystemWithCustomStat {
     }
   }
 
+  @Override
+  public BatchStat getBatchStatter(PathFragment execRoot) {
+    return new UnixBatchStat(this, execRoot);
+  }
+
+  @Override
+  public boolean copyFileEfficiently(PathFragment source, PathFragment target)
+      throws IOException {
+    String name = target.toString();
+    long startTime = Profiler.nanoTimeMaybe();
+    try {
+      return NativePosixFiles.copyFile(source.toString(), name);
+    } finally {
+      profiler.logSimpleTask(startTime, ProfilerTask.VFS_WRITE, name);
+    }
+  }
+
   @Override
   protected byte[] getFastDigest(PathFragment path) throws IOException {
     // Attempt to obtain the digest from an extended attribute attached to the file. This is much
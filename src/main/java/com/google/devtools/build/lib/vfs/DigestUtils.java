@@ -23,6 +23,7 @@ import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import java.io.IOException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
 
 /**
  * Utility class for getting digests of files.
@@ -68,18 +69,21 @@ public class DigestUtils {
    * <p>The cache keys are derived from many properties of the file metadata in an attempt to be
    * able to detect most file changes.
    */
-  private static class CacheKey {
+  static class CacheKey {
     /** Path to the file. */
-    private final PathFragment path;
+    final PathFragment path;
 
     /** File system identifier of the file (typically the inode number). */
-    private final long nodeId;
+    final long nodeId;
 
     /** Last modification time of the file. */
-    private final long modifiedTime;
+    final long modifiedTime;
+
+    /** Last change time of the file. */
+    final long changeTime;
 
     /** Size of the file. */
-    private final long size;
+    final long size;
 
     /**
      * Constructs a new cache key.
@@ -92,6 +96,7 @@ public class DigestUtils {
       this.path = path.asFragment();
       this.nodeId = status.getNodeId();
       this.modifiedTime = status.getLastModifiedTime();
+      this.changeTime = status.getLastChangeTime();
       this.size = status.getSize();
     }
 
@@ -106,6 +111,7 @@ public class DigestUtils {
         return path.equals(key.path)
             && nodeId == key.nodeId
             && modifiedTime == key.modifiedTime
+            && changeTime == key.changeTime
             && size == key.size;
       }
     }
@@ -116,6 +122,7 @@ public class DigestUtils {
       result = 31 * result + path.hashCode();
       result = 31 * result + Longs.hashCode(nodeId);
       result = 31 * result + Longs.hashCode(modifiedTime);
+      result = 31 * result + Longs.hashCode(changeTime);
       result = 31 * result + Longs.hashCode(size);
       return result;
     }
@@ -132,6 +139,14 @@ public class DigestUtils {
    */
   private static Cache<CacheKey, byte[]> globalCache = null;
 
+  /**
+   * Global on-disk cache of files to their digests, consulted on misses in {@link #globalCache}.
+   *
+   * <p>This is null when the persistent cache is disabled. It is only used if {@link
+   * #globalCache} is enabled too.
+   */
+  @Nullable private static PersistentDigestCache persistentCache = null;
+
   /** Private constructor to prevent instantiation of utility class. */
   private DigestUtils() {}
 
@@ -182,6 +197,15 @@ public class DigestUtils {
     }
   }
 
+  /**
+   * Sets the on-disk cache of file digests that survives server restarts, or disables it if
+   * {@code cache} is null. Has no effect unless the in-memory cache is enabled via {@link
+   * #configureCache(long)}.
+   */
+  public static void configurePersistentCache(@Nullable PersistentDigestCache cache) {
+    persistentCache = cache;
+  }
+
   /**
    * Obtains cache statistics.
    *
@@ -254,6 +278,14 @@ public class DigestUtils {
         return digest;
       }
     }
+    PersistentDigestCache diskCache = cache != null ? persistentCache : null;
+    if (diskCache != null) {
+      digest = diskCache.get(key);
+      if (digest != null) {
+        cache.put(key, digest);
+        return digest;
+      }
+    }
 
     // Compute digest from the file contents.
     if (fileSize > MULTI_THREADED_DIGEST_MAX_FILE_SIZE && !MULTI_THREADED_DIGEST.get()) {
@@ -270,6 +302,9 @@ public class DigestUtils {
     if (cache != null) {
       cache.put(key, digest);
     }
+    if (diskCache != null) {
+      diskCache.put(key, digest);
+    }
     return digest;
   }
 
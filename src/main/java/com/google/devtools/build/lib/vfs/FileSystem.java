@@ -32,6 +32,7 @@ import java.nio.file.FileAlreadyExistsException;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import javax.annotation.Nullable;
 
 /** This interface models a file system. */
 @ThreadSafe
@@ -300,6 +301,32 @@ public abstract class FileSystem {
     return null;
   }
 
+  /**
+   * Returns a {@link BatchStat} for the paths under the given exec root, or null if this file
+   * system cannot stat many files more cheaply than one at a time.
+   */
+  @Nullable
+  public BatchStat getBatchStatter(PathFragment execRoot) {
+    return null;
+  }
+
+  /**
+   * Copies the contents of the regular file "source" to "target" without reading them into memory,
+   * e.g. by sharing the data blocks on file systems with copy-on-write support, and returns whether
+   * it did. The target is created as by {@link #getOutputStream} if it does not exist, and
+   * truncated otherwise. Attributes of the source, such as its mode or modification time, are not
+   * copied.
+   *
+   * <p>Returns false if this file system cannot copy the file more cheaply than through streams,
+   * in which case the caller must copy the contents itself. The target is then left as it was.
+   *
+   * @throws IOException if the copy failed for any other reason.
+   */
+  public boolean copyFileEfficiently(PathFragment source, PathFragment target)
+      throws IOException {
+    return false;
+  }
+
   /**
    * Gets a fast digest for the given path, or {@code null} if there isn't one available or the
    * filesystem doesn't support them. This digest should be suitable for detecting changes to the
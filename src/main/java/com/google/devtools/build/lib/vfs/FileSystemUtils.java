@@ -386,9 +386,11 @@ public class FileSystemUtils {
       throw new IOException("error copying file: "
           + "couldn't delete destination: " + e.getMessage());
     }
-    try (InputStream in = from.getInputStream();
-        OutputStream out = to.getOutputStream()) {
-      ByteStreams.copy(in, out);
+    if (!copyFileEfficiently(from, to)) {
+      try (InputStream in = from.getInputStream();
+          OutputStream out = to.getOutputStream()) {
+        ByteStreams.copy(in, out);
+      }
     }
     to.setLastModifiedTime(from.getLastModifiedTime()); // Preserve mtime.
     if (!from.isWritable()) {
@@ -406,6 +408,17 @@ public class FileSystemUtils {
     FILE_COPIED,
   }
 
+  /**
+   * Copies the contents of "from" to "to" with {@link FileSystem#copyFileEfficiently} if both are
+   * on the same file system, returning whether it did. Unlike {@link #copyFile}, this preserves
+   * neither the modification time nor the writable and executable bits.
+   */
+  public static boolean copyFileEfficiently(Path from, Path to) throws IOException {
+    FileSystem fileSystem = from.getFileSystem();
+    return fileSystem == to.getFileSystem()
+        && fileSystem.copyFileEfficiently(from.asFragment(), to.asFragment());
+  }
+
   /**
    * copyLargeBuffer is a replacement for ByteStreams.copy which uses a larger buffer. Increasing
    * the buffer size is a performance improvement when copying from/to FUSE file systems, where
@@ -454,9 +467,13 @@ public class FileSystemUtils {
       // Fallback to a copy.
       FileStatus stat = from.stat(Symlinks.NOFOLLOW);
       if (stat.isFile()) {
-        try (InputStream in = from.getInputStream();
-            OutputStream out = to.getOutputStream()) {
-          copyLargeBuffer(in, out);
+        try {
+          if (!copyFileEfficiently(from, to)) {
+            try (InputStream in = from.getInputStream();
+                OutputStream out = to.getOutputStream()) {
+              copyLargeBuffer(in, out);
+            }
+          }
         } catch (FileAccessException e1) {
           // Rules can accidentally make output non-readable, let's fix that (b/150963503)
           if (!from.isReadable()) {
@@ -0,0 +1,412 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.vfs;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * An on-disk index of file digests that survives server restarts, used by {@link DigestUtils} as a
+ * second level behind its in-memory cache.
+ *
+ * <p>Entries are keyed by the same file metadata as the in-memory cache (path, node id,
+ * modification time, change time and size) and appended to a single file, so writes are cheap and
+ * crash-safe: a partially written trailing record is dropped the next time the file is read.
+ *
+ * <p>The file is not read when the cache is created. On first use it is memory-mapped and scanned
+ * once to build a compact open-addressing table from path hash to record offset; the records
+ * themselves stay in the mapping and are only paged in when looked up. Entries added during the
+ * lifetime of this instance are appended to the file but not added to the table, as they are
+ * expected to be served by the in-memory cache until the next server restart. If more than half
+ * of the records in the file are superseded by later ones, the file is compacted when it is
+ * loaded. Appending stops before the file outgrows the size that can be mapped, so that the next
+ * load can compact it instead of discarding it.
+ *
+ * <p>Files written with a different format version or digest function are discarded. Since this
+ * is only a cache, I/O errors are not propagated: a file that can't be read is treated as empty
+ * and a failed write disables further writes.
+ */
+public final class PersistentDigestCache {
+
+  private static final int MAGIC = 0x44494743; // "DIGC"
+  private static final int VERSION = 1;
+
+  /** Files larger than this are discarded rather than mapped. */
+  private static final long MAX_FILE_SIZE = Integer.MAX_VALUE;
+
+  /** Files smaller than this are never compacted. */
+  private static final long MIN_COMPACTION_SIZE = 1 << 20;
+
+  private final File file;
+  private final String digestFunctionName;
+  private final int digestLength;
+
+  /** Lazily loaded state; null until the file has been read. */
+  private volatile Index index;
+
+  @GuardedBy("this")
+  private DataOutputStream out;
+
+  /** The size of the file when {@link #out} was opened. */
+  @GuardedBy("this")
+  private long outStart;
+
+  @GuardedBy("this")
+  private boolean closed;
+
+  /** The contents of the file at the time it was loaded. */
+  private static final class Index {
+    private static final Index EMPTY = new Index(ByteBuffer.allocate(0), new int[1], new int[1]);
+
+    private final ByteBuffer records;
+    /** Record offsets by slot, or 0 for empty slots. */
+    private final int[] offsets;
+    /** Path hashes by slot, to avoid comparing paths on collisions. */
+    private final int[] hashes;
+
+    private Index(ByteBuffer records, int[] offsets, int[] hashes) {
+      this.records = records;
+      this.offsets = offsets;
+      this.hashes = hashes;
+    }
+  }
+
+  /**
+   * Creates a cache backed by {@code path}, which must be on the local file system. The file is
+   * created on the first write if it does not exist.
+   */
+  public PersistentDigestCache(Path path, DigestHashFunction digestFunction) {
+    this.file = path.getPathFile();
+    this.digestFunctionName = digestFunction.toString();
+    this.digestLength = digestFunction.getHashFunction().bits() / 8;
+  }
+
+  /**
+   * Returns the persisted digest for the file described by {@code key}, or null if there is none
+   * or the file metadata changed since it was persisted.
+   */
+  @Nullable
+  byte[] get(DigestUtils.CacheKey key) {
+    Index index = getIndex();
+    byte[] path = key.path.getPathString().getBytes(StandardCharsets.ISO_8859_1);
+    int slot = findSlot(index.records, index.offsets, index.hashes, path, hash(path));
+    int offset = index.offsets[slot];
+    if (offset == 0) {
+      return null;
+    }
+    ByteBuffer records = index.records;
+    int pos = offset + Integer.BYTES + path.length;
+    if (records.getLong(pos) != key.nodeId
+        || records.getLong(pos + 8) != key.modifiedTime
+        || records.getLong(pos + 16) != key.changeTime
+        || records.getLong(pos + 24) != key.size) {
+      return null;
+    }
+    byte[] digest = new byte[digestLength];
+    for (int i = 0; i < digestLength; i++) {
+      digest[i] = records.get(pos + 32 + i);
+    }
+    return digest;
+  }
+
+  /** Appends an entry. It is written out no later than the next call to {@link #flush}. */
+  void put(DigestUtils.CacheKey key, byte[] digest) {
+    Preconditions.checkArgument(digest.length == digestLength, "Unexpected digest length");
+    // The file must have been validated and truncated to its last complete record first.
+    getIndex();
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      try {
+        if (out == null) {
+          outStart = file.length();
+          out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+          if (outStart == 0) {
+            writeHeader(out);
+          }
+        }
+        byte[] path = key.path.getPathString().getBytes(StandardCharsets.ISO_8859_1);
+        long recordSize = Integer.BYTES + path.length + 4 * Long.BYTES + digestLength;
+        if (outStart + out.size() + recordSize > MAX_FILE_SIZE) {
+          closed = true;
+          out.close();
+          out = null;
+          return;
+        }
+        writeRecord(out, path, key, digest);
+      } catch (IOException e) {
+        closed = true;
+        closeQuietly();
+      }
+    }
+  }
+
+  /** Closes {@link #out} after a failed write, ignoring further errors. */
+  @GuardedBy("this")
+  private void closeQuietly() {
+    if (out != null) {
+      try {
+        out.close();
+      } catch (IOException e) {
+        // The stream is dropped either way.
+      }
+      out = null;
+    }
+  }
+
+  /** Writes out all pending entries. */
+  public synchronized void flush() throws IOException {
+    if (out != null) {
+      out.flush();
+    }
+  }
+
+  /** Writes out all pending entries and stops accepting new ones. */
+  public synchronized void close() throws IOException {
+    closed = true;
+    if (out != null) {
+      out.close();
+      out = null;
+    }
+  }
+
+  private Index getIndex() {
+    Index result = index;
+    if (result == null) {
+      synchronized (this) {
+        result = index;
+        if (result == null) {
+          try {
+            result = load();
+          } catch (IOException e) {
+            result = Index.EMPTY;
+            // Don't append to a file in an unknown state.
+            closed = true;
+          }
+          index = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  @GuardedBy("this")
+  private Index load() throws IOException {
+    if (!file.exists() || file.length() == 0) {
+      return Index.EMPTY;
+    }
+    if (file.length() > MAX_FILE_SIZE) {
+      truncate(0);
+      return Index.EMPTY;
+    }
+    MappedByteBuffer records;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      records = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+    }
+    int pos = readHeader(records);
+    if (pos < 0) {
+      truncate(0);
+      return Index.EMPTY;
+    }
+
+    int[] offsets = new int[1024];
+    int[] hashes = new int[1024];
+    int live = 0;
+    int total = 0;
+    int recordLength = 4 * Long.BYTES + digestLength;
+    while (true) {
+      int start = pos;
+      byte[] path;
+      try {
+        int pathLength = records.getInt(pos);
+        if (pathLength < 0 || pathLength > records.limit() - pos - Integer.BYTES - recordLength) {
+          break;
+        }
+        path = new byte[pathLength];
+        for (int i = 0; i < pathLength; i++) {
+          path[i] = records.get(pos + Integer.BYTES + i);
+        }
+        pos += Integer.BYTES + pathLength + recordLength;
+      } catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+        break;
+      }
+      if (2 * (live + 1) > offsets.length) {
+        int[] newOffsets = new int[offsets.length * 2];
+        int[] newHashes = new int[hashes.length * 2];
+        rehash(offsets, hashes, newOffsets, newHashes);
+        offsets = newOffsets;
+        hashes = newHashes;
+      }
+      int hash = hash(path);
+      int slot = findSlot(records, offsets, hashes, path, hash);
+      if (offsets[slot] == 0) {
+        live++;
+      }
+      offsets[slot] = start;
+      hashes[slot] = hash;
+      total++;
+    }
+    if (pos < records.limit()) {
+      // Drop a partially written trailing record so that appended records are readable.
+      truncate(pos);
+    }
+
+    Index result = new Index(records, offsets, hashes);
+    if (records.limit() >= MIN_COMPACTION_SIZE && 2 * live < total) {
+      result = compact(result);
+    }
+    return result;
+  }
+
+  private static void rehash(int[] offsets, int[] hashes, int[] newOffsets, int[] newHashes) {
+    int mask = newOffsets.length - 1;
+    for (int i = 0; i < offsets.length; i++) {
+      if (offsets[i] != 0) {
+        int slot = hashes[i] & mask;
+        while (newOffsets[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        newOffsets[slot] = offsets[i];
+        newHashes[slot] = hashes[i];
+      }
+    }
+  }
+
+  /**
+   * Returns the slot holding the record for {@code path}, or the empty slot where it would be
+   * inserted.
+   */
+  private static int findSlot(
+      ByteBuffer records, int[] offsets, int[] hashes, byte[] path, int hash) {
+    int mask = offsets.length - 1;
+    int slot = hash & mask;
+    while (offsets[slot] != 0) {
+      if (hashes[slot] == hash && pathEquals(records, offsets[slot], path)) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private static boolean pathEquals(ByteBuffer records, int offset, byte[] path) {
+    int pos = offset;
+    if (records.getInt(pos) != path.length) {
+      return false;
+    }
+    pos += Integer.BYTES;
+    for (int i = 0; i < path.length; i++) {
+      if (records.get(pos + i) != path[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int hash(byte[] path) {
+    int h = Arrays.hashCode(path);
+    // Spread the bits, since the table size is a power of two.
+    return h ^ (h >>> 16);
+  }
+
+  /** Returns the position of the first record, or -1 if the header doesn't match. */
+  private int readHeader(ByteBuffer records) {
+    try {
+      if (records.getInt(0) != MAGIC || records.getInt(4) != VERSION) {
+        return -1;
+      }
+      int nameLength = records.getShort(8);
+      byte[] name = new byte[nameLength];
+      for (int i = 0; i < nameLength; i++) {
+        name[i] = records.get(10 + i);
+      }
+      if (!digestFunctionName.equals(new String(name, StandardCharsets.UTF_8))) {
+        return -1;
+      }
+      return 10 + nameLength;
+    } catch (IndexOutOfBoundsException e) {
+      return -1;
+    }
+  }
+
+  private void writeHeader(DataOutputStream out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeUTF(digestFunctionName);
+  }
+
+  private static void writeRecord(
+      DataOutputStream out, byte[] path, DigestUtils.CacheKey key, byte[] digest)
+      throws IOException {
+    out.writeInt(path.length);
+    out.write(path);
+    out.writeLong(key.nodeId);
+    out.writeLong(key.modifiedTime);
+    out.writeLong(key.changeTime);
+    out.writeLong(key.size);
+    out.write(digest);
+  }
+
+  private void truncate(long size) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(size);
+    }
+  }
+
+  /** Rewrites the file with only the live records of {@code index} and maps it again. */
+  @GuardedBy("this")
+  private Index compact(Index index) throws IOException {
+    File tmp = new File(file.getPath() + ".tmp");
+    int recordLength = 4 * Long.BYTES + digestLength;
+    try (DataOutputStream tmpOut =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+      writeHeader(tmpOut);
+      for (int pos : index.offsets) {
+        if (pos == 0) {
+          continue;
+        }
+        int length = Integer.BYTES + index.records.getInt(pos) + recordLength;
+        byte[] record = new byte[length];
+        for (int i = 0; i < length; i++) {
+          record[i] = index.records.get(pos + i);
+        }
+        tmpOut.write(record);
+      }
+    }
+    if (!tmp.renameTo(file)) {
+      throw new IOException("Failed to replace " + file + " with compacted " + tmp);
+    }
+    return load();
+  }
+
+  @VisibleForTesting
+  File getFile() {
+    return file;
+  }
+}
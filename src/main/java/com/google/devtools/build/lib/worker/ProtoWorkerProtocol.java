@@ -15,27 +15,59 @@ package com.google.devtools.build.lib.worker;
 
 import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
 import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
-/** An implementation of a Bazel worker using Proto to communicate with the worker process. */
+/**
+ * An implementation of a Bazel worker using Proto to communicate with the worker process.
+ *
+ * <p>The coded streams, and thus their buffers, are kept for the lifetime of the worker instead of
+ * being created for every message. The input stream may read ahead of the current response, so
+ * nothing else may read from the worker's stdout.
+ */
 final class ProtoWorkerProtocol implements WorkerProtocolImpl {
 
+  private static final int BUFFER_SIZE = 32 * 1024;
+
   /** The worker process's stdin, which we send requests to. */
   private final OutputStream workersStdin;
 
+  private final CodedOutputStream codedStdin;
+
   /** The worker process's stdout, which we read responses from. */
-  private final InputStream workersStdout;
+  private final CodedInputStream codedStdout;
 
   public ProtoWorkerProtocol(OutputStream workersStdin, InputStream workersStdout) {
     this.workersStdin = workersStdin;
-    this.workersStdout = workersStdout;
+    this.codedStdin = CodedOutputStream.newInstance(workersStdin, BUFFER_SIZE);
+    this.codedStdout = CodedInputStream.newInstance(workersStdout, BUFFER_SIZE);
+    this.codedStdout.setSizeLimit(Integer.MAX_VALUE);
   }
 
   @Override
   public void putRequest(WorkRequest request) throws IOException {
-    request.writeDelimitedTo(workersStdin);
+    writeRequest(request);
+    flush();
+  }
+
+  @Override
+  public void putRequests(Iterable<WorkRequest> requests) throws IOException {
+    for (WorkRequest request : requests) {
+      writeRequest(request);
+    }
+    flush();
+  }
+
+  private void writeRequest(WorkRequest request) throws IOException {
+    codedStdin.writeUInt32NoTag(request.getSerializedSize());
+    request.writeTo(codedStdin);
+  }
+
+  private void flush() throws IOException {
+    codedStdin.flush();
     workersStdin.flush();
   }
 
@@ -43,7 +75,15 @@ final class ProtoWorkerProtocol implements WorkerProtocolImpl {
   public WorkResponse getResponse() throws IOException {
     boolean interrupted = Thread.interrupted();
     try {
-      return WorkResponse.parseDelimitedFrom(workersStdout);
+      if (codedStdout.isAtEnd()) {
+        return null;
+      }
+      int size = codedStdout.readRawVarint32();
+      int oldLimit = codedStdout.pushLimit(size);
+      WorkResponse response = WorkResponse.parseFrom(codedStdout);
+      codedStdout.popLimit(oldLimit);
+      codedStdout.resetSizeCounter();
+      return response;
     } finally {
       if (interrupted) {
         Thread.currentThread().interrupt();
@@ -166,6 +166,11 @@ class SingleplexWorker extends Worker {
         : Optional.empty();
   }
 
+  @Override
+  long getProcessId() {
+    return process != null ? process.getProcessId() : -1;
+  }
+
   @Override
   String getRecordingStreamMessage() {
     recordingInputStream.readRemaining();
@@ -115,6 +115,12 @@ public abstract class Worker {
   /** Returns the exit value of this worker's process, if it has exited. */
   public abstract Optional<Integer> getExitValue();
 
+  /**
+   * Returns the process id of this worker's process, or -1 if it has not been started or the id is
+   * not known. Multiplex workers return the id of the process they share.
+   */
+  abstract long getProcessId();
+
   /**
    * Returns the last message received on the InputStream, if an unparseable message has been
    * received.
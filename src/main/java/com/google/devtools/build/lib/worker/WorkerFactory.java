@@ -38,6 +38,7 @@ class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker> {
   private WorkerOptions workerOptions;
   private final Path workerBaseDir;
   private Reporter reporter;
+  private WorkerPoolSizer poolSizer;
 
   public WorkerFactory(WorkerOptions workerOptions, Path workerBaseDir) {
     this.workerOptions = workerOptions;
@@ -52,6 +53,11 @@ class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker> {
     this.workerOptions = workerOptions;
   }
 
+  /** Sets the sizer that is told about the workers this factory creates and destroys. */
+  void setPoolSizer(WorkerPoolSizer poolSizer) {
+    this.poolSizer = poolSizer;
+  }
+
   @Override
   public Worker create(WorkerKey key) {
     int workerId = pidCounter.getAndIncrement();
@@ -81,6 +87,9 @@ class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker> {
                   workerId,
                   worker.getLogFile())));
     }
+    if (poolSizer != null) {
+      poolSizer.workerCreated(worker);
+    }
     return worker;
   }
 
@@ -113,15 +122,29 @@ class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker> {
                   key.getMnemonic(), key.getWorkerTypeName(), workerId)));
     }
     p.getObject().destroy();
+    if (poolSizer != null) {
+      poolSizer.workerDestroyed(p.getObject());
+    }
   }
 
   /**
    * Returns true if this worker is still valid. The worker is considered to be valid as long as its
-   * process has not exited and its files have not changed on disk.
+   * process has not exited, its files have not changed on disk, and the pool sizer has not retired
+   * it for using too much memory.
    */
   @Override
   public boolean validateObject(WorkerKey key, PooledObject<Worker> p) {
     Worker worker = p.getObject();
+    if (poolSizer != null && poolSizer.isRetired(worker)) {
+      if (workerOptions.workerVerbose && reporter != null) {
+        reporter.handle(
+            Event.info(
+                String.format(
+                    "%s %s (id %d) uses too much memory and will be destroyed.",
+                    key.getMnemonic(), key.getWorkerTypeName(), worker.getWorkerId())));
+      }
+      return false;
+    }
     Optional<Integer> exitValue = worker.getExitValue();
     if (exitValue.isPresent()) {
       if (workerOptions.workerVerbose && worker.diedUnexpectedly()) {
@@ -21,6 +21,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.eventbus.Subscribe;
 import com.google.devtools.build.lib.buildtool.buildevent.BuildCompleteEvent;
 import com.google.devtools.build.lib.buildtool.buildevent.BuildStartingEvent;
+import com.google.devtools.build.lib.buildtool.buildevent.ExecutionPhaseCompleteEvent;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.exec.ExecutionOptions;
 import com.google.devtools.build.lib.exec.RunfilesTreeUpdater;
@@ -36,6 +37,7 @@ import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.worker.WorkerOptions.MultiResourceConverter;
 import com.google.devtools.common.options.OptionsBase;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -50,6 +52,7 @@ public class WorkerModule extends BlazeModule {
   private WorkerOptions options;
   private ImmutableMap<String, Integer> workerPoolConfig;
   private ImmutableMap<String, Integer> multiplexPoolConfig;
+  private Duration maxIdleTime;
 
   @Override
   public Iterable<Class<? extends OptionsBase>> getCommandOptions(Command command) {
@@ -114,7 +117,8 @@ public class WorkerModule extends BlazeModule {
 
     // If the config changed compared to the last run, we have to create a new pool.
     if ((workerPoolConfig != null && !workerPoolConfig.equals(newConfig))
-        || (multiplexPoolConfig != null && !multiplexPoolConfig.equals(newMultiplexConfig))) {
+        || (multiplexPoolConfig != null && !multiplexPoolConfig.equals(newMultiplexConfig))
+        || (maxIdleTime != null && !maxIdleTime.equals(options.workerMaxIdleTime))) {
       shutdownPool(
           "Worker configuration has changed, restarting worker pool...", /* alwaysLog= */ true);
     }
@@ -122,10 +126,17 @@ public class WorkerModule extends BlazeModule {
     if (workerPool == null) {
       workerPoolConfig = newConfig;
       multiplexPoolConfig = newMultiplexConfig;
+      maxIdleTime = options.workerMaxIdleTime;
       workerPool =
           new WorkerPool(
-              workerFactory, workerPoolConfig, multiplexPoolConfig, options.highPriorityWorkers);
+              workerFactory,
+              workerPoolConfig,
+              multiplexPoolConfig,
+              options.highPriorityWorkers,
+              maxIdleTime);
     }
+    workerPool.setAdaptiveSizing(
+        options.workerAdaptivePool, options.workerMemoryLimitMb * 1024L);
   }
 
   /**
@@ -176,6 +187,13 @@ public class WorkerModule extends BlazeModule {
         "worker");
   }
 
+  @Subscribe
+  public void executionPhaseComplete(ExecutionPhaseCompleteEvent event) {
+    if (workerPool != null) {
+      env.getEventBus().post(new WorkerPoolMetricsEvent(workerPool.collectMetrics()));
+    }
+  }
+
   @Subscribe
   public void buildComplete(BuildCompleteEvent event) {
     if (options != null && options.workerQuitAfterBuild) {
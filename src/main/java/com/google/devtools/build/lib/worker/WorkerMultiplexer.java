@@ -17,6 +17,8 @@ package com.google.devtools.build.lib.worker;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.shell.Subprocess;
@@ -34,8 +36,8 @@ import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.Semaphore;
 import javax.annotation.Nullable;
 
 /**
@@ -54,18 +56,18 @@ public class WorkerMultiplexer {
    */
   private final BlockingQueue<WorkRequest> pendingRequests = new LinkedBlockingQueue<>();
   /**
-   * A map of {@code WorkResponse}s received from the worker process. They are stored in this map
-   * keyed by the request id until the corresponding {@code WorkerProxy} picks them up.
+   * The maximum number of requests that the requestSender subthread writes to the worker before
+   * flushing its {@code stdin}.
    */
-  private final ConcurrentMap<Integer, WorkResponse> workerProcessResponse =
-      new ConcurrentHashMap<>();
+  private static final int MAX_REQUEST_BATCH_SIZE = 64;
   /**
-   * A map of semaphores corresponding to {@code WorkRequest}s. After sending the {@code
-   * WorkRequest}, {@code WorkerProxy} will wait on a semaphore to be released. {@code
-   * WorkerMultiplexer} is responsible for releasing the corresponding semaphore in order to signal
-   * {@code WorkerProxy} that the {@code WorkerResponse} has been received.
+   * A map of futures for the {@code WorkResponse}s of the {@code WorkRequest}s that were sent.
+   * After sending the {@code WorkRequest}, {@code WorkerProxy} waits for the future, which {@code
+   * WorkerMultiplexer} completes with the {@code WorkResponse} received from the worker process,
+   * or with null if the worker process died.
    */
-  private final ConcurrentMap<Integer, Semaphore> responseChecker = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Integer, SettableFuture<WorkResponse>> responseFutures =
+      new ConcurrentHashMap<>();
   /**
    * The worker process that this WorkerMultiplexer should be talking to. This should only be set
    * once, when creating a new process. If the process dies or its stdio streams get corrupted, the
@@ -185,6 +187,11 @@ public class WorkerMultiplexer {
     return logFile;
   }
 
+  /** Returns the process id of the worker process, or -1 if it has not been started yet. */
+  long getProcessId() {
+    return process != null ? process.getProcessId() : -1;
+  }
+
   /**
    * Signals this object to destroy itself, including the worker process. The object might not be
    * fully destroyed at the end of this call, but will terminate soon. This is considered a
@@ -222,8 +229,8 @@ public class WorkerMultiplexer {
         this.responseReceiver.interrupt();
       }
       // Might as well release any waiting workers
-      for (Semaphore semaphore : responseChecker.values()) {
-        semaphore.release();
+      for (SettableFuture<WorkResponse> future : responseFutures.values()) {
+        future.set(null);
       }
       // Read this for detailed explanation: http://www.ibm.com/developerworks/library/j-jtp05236/
       if (wasInterrupted) {
@@ -241,65 +248,69 @@ public class WorkerMultiplexer {
       throw new IOException(
           "Attempting to send request " + request.getRequestId() + " to dead process");
     }
-    responseChecker.put(request.getRequestId(), new Semaphore(0));
+    responseFutures.put(request.getRequestId(), SettableFuture.create());
     pendingRequests.add(request);
   }
 
   /**
-   * Waits on a semaphore for the {@code WorkResponse} returned from worker process. This method is
-   * called on the thread of a {@code WorkerProxy}, and so is subject to interrupts by dynamic
-   * execution.
+   * Waits for the {@code WorkResponse} returned from worker process. This method is called on the
+   * thread of a {@code WorkerProxy}, and so is subject to interrupts by dynamic execution.
    */
   public WorkResponse getResponse(Integer requestId) throws InterruptedException {
     try {
+      SettableFuture<WorkResponse> response = responseFutures.get(requestId);
+
+      if (response == null) {
+        report("Null response future for " + requestId);
+        // If there is no future for this request, it probably failed to send, or the response was
+        // already returned.
+        return null;
+      }
+
       if (!process.isAlive()) {
         // If the process has died, all we can do is return what may already have been returned.
-        return workerProcessResponse.get(requestId);
+        return response.isDone() ? Futures.getUnchecked(response) : null;
       }
 
-      Semaphore waitForResponse = responseChecker.get(requestId);
-
-      if (waitForResponse == null) {
-        report("Null response semaphore for " + requestId);
-        // If there is no semaphore for this request, it probably failed to send, so we just return
-        // what we got, probably nothing.
-        return workerProcessResponse.get(requestId);
+      // Wait for the multiplexer to get our response and complete this future. The future is
+      // completed with null when the multiplexer is terminated.
+      try {
+        return response.get();
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Response futures are never failed", e);
       }
-
-      // Wait for the multiplexer to get our response and release this semaphore. The semaphore will
-      // throw {@code InterruptedException} when the multiplexer is terminated.
-      waitForResponse.acquire();
-
-      return workerProcessResponse.get(requestId);
     } finally {
-      responseChecker.remove(requestId);
-      workerProcessResponse.remove(requestId);
+      responseFutures.remove(requestId);
     }
   }
 
   /**
-   * Sends a single pending request, if there are any. Blocks until a request is available.
+   * Sends all pending requests, if there are any, and flushes them to the worker process at once.
+   * Blocks until a request is available.
    *
    * <p>This is only called by the {@code requestSender} thread and so cannot be interrupted by
    * dynamic execution cancellation, but only by a call to {@link #destroyProcess()}.
    */
   private boolean sendRequest() {
-    WorkRequest request;
+    List<WorkRequest> requests = new ArrayList<>();
     try {
-      request = pendingRequests.take();
+      requests.add(pendingRequests.take());
     } catch (InterruptedException e) {
       return false;
     }
+    pendingRequests.drainTo(requests, MAX_REQUEST_BATCH_SIZE - 1);
     try {
-      workerProtocol.putRequest(request);
+      workerProtocol.putRequests(requests);
     } catch (IOException e) {
-      // We can't know how much of the request was sent, so we have to assume the worker's input
-      // now contains garbage, and this request is lost.
+      // We can't know how much of the requests was sent, so we have to assume the worker's input
+      // now contains garbage, and these requests are lost.
       // TODO(b/177637516): Signal that this action failed for presumably transient reasons.
-      report("Failed to send request " + request.getRequestId());
-      Semaphore s = responseChecker.remove(request.getRequestId());
-      if (s != null) {
-        s.release();
+      for (WorkRequest request : requests) {
+        report("Failed to send request " + request.getRequestId());
+        SettableFuture<WorkResponse> future = responseFutures.remove(request.getRequestId());
+        if (future != null) {
+          future.set(null);
+        }
       }
       // TODO(b/177637516): Leave process in a moribound state so pending responses can be returned.
       destroyProcess();
@@ -309,8 +320,8 @@ public class WorkerMultiplexer {
   }
 
   /**
-   * Reads a {@code WorkResponse} from worker process, puts that {@code WorkResponse} in {@code
-   * workerProcessResponse}, and releases the semaphore for the {@code WorkerProxy}.
+   * Reads a {@code WorkResponse} from worker process, and completes the future that the {@code
+   * WorkerProxy} waits for with it.
    *
    * <p>This is only called on the readResponses subthread and so cannot be interrupted by dynamic
    * execution cancellation, but only by a call to {@link #destroyProcess()}.
@@ -345,17 +356,15 @@ public class WorkerMultiplexer {
     }
 
     int requestId = parsedResponse.getRequestId();
-    workerProcessResponse.put(requestId, parsedResponse);
 
-    // TODO(b/151767359): When allowing cancellation, just remove responses that have no matching
-    // entry in responseChecker.
-    Semaphore semaphore = responseChecker.get(requestId);
-    if (semaphore != null) {
+    // TODO(b/151767359): When allowing cancellation, just drop responses that have no matching
+    // entry in responseFutures.
+    SettableFuture<WorkResponse> future = responseFutures.get(requestId);
+    if (future != null) {
       // This wakes up the WorkerProxy that should receive this response.
-      semaphore.release();
+      future.set(parsedResponse);
     } else {
-      report(String.format("Multiplexer for %s found no semaphore", workerKey.getMnemonic()));
-      workerProcessResponse.remove(requestId);
+      report(String.format("Multiplexer for %s found no response future", workerKey.getMnemonic()));
     }
     return true;
   }
@@ -381,7 +390,7 @@ public class WorkerMultiplexer {
   /** For testing only, to verify that maps are cleared after responses are reaped. */
   @VisibleForTesting
   boolean noOutstandingRequests() {
-    return responseChecker.isEmpty() && workerProcessResponse.isEmpty();
+    return responseFutures.isEmpty();
   }
 
   @VisibleForTesting
@@ -23,6 +23,7 @@ import com.google.devtools.common.options.OptionEffectTag;
 import com.google.devtools.common.options.Options;
 import com.google.devtools.common.options.OptionsBase;
 import com.google.devtools.common.options.OptionsParsingException;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -122,6 +123,42 @@ public class WorkerOptions extends OptionsBase {
       allowMultiple = true)
   public List<Map.Entry<String, Integer>> workerMaxMultiplexInstances;
 
+  @Option(
+      name = "experimental_worker_adaptive_pool",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+      effectTags = {OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS},
+      help =
+          "If enabled, the number of workers that may be used in parallel per worker key starts at"
+              + " one and grows while actions wait for a worker, as long as the latency of their"
+              + " requests does not degrade. --worker_max_instances and"
+              + " --experimental_worker_max_multiplex_instances remain the upper bounds.")
+  public boolean workerAdaptivePool;
+
+  @Option(
+      name = "experimental_worker_memory_limit_mb",
+      defaultValue = "0",
+      documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+      effectTags = {OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS},
+      help =
+          "If positive and --experimental_worker_adaptive_pool is enabled, the worker pool stops"
+              + " growing when the resident memory of all worker processes exceeds this many MB,"
+              + " and shrinks the pool whose workers use the most memory, destroying its largest"
+              + " worker once it becomes idle. Memory use is read from /proc, so this has no"
+              + " effect on systems that lack it.")
+  public int workerMemoryLimitMb;
+
+  @Option(
+      name = "experimental_worker_max_idle_time",
+      converter = Converters.DurationConverter.class,
+      defaultValue = "0",
+      documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+      effectTags = {OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS},
+      help =
+          "If positive, workers that have been idle for longer than this are destroyed, also"
+              + " between builds. Takes a duration like '5m'; 0 keeps idle workers around.")
+  public Duration workerMaxIdleTime;
+
   @Option(
       name = "high_priority_workers",
       defaultValue = "null",
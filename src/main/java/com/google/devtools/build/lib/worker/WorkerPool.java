@@ -16,7 +16,10 @@ package com.google.devtools.build.lib.worker;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildMetrics.WorkerPoolMetrics;
+import com.google.devtools.build.lib.clock.BlazeClock;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.concurrent.ThreadSafe;
@@ -49,6 +52,8 @@ final class WorkerPool {
   private final ImmutableMap<String, SimpleWorkerPool> workerPools;
   /** Map of multiplex worker pools, one per mnemonic. */
   private final ImmutableMap<String, SimpleWorkerPool> multiplexPools;
+  /** Limits how many workers of each WorkerKey may be used, and collects their statistics. */
+  private final WorkerPoolSizer sizer;
 
   /**
    * @param factory worker factory
@@ -56,30 +61,49 @@ final class WorkerPool {
    *     empty string key specifies the default maximum
    * @param multiplexConfig like {@code config}, but for multiplex workers
    * @param highPriorityWorkers mnemonics of high priority workers
+   * @param maxIdleTime how long a worker may be idle before it is destroyed, or zero to keep idle
+   *     workers
    */
   public WorkerPool(
       WorkerFactory factory,
       Map<String, Integer> config,
       Map<String, Integer> multiplexConfig,
-      Iterable<String> highPriorityWorkers) {
+      Iterable<String> highPriorityWorkers,
+      Duration maxIdleTime) {
     highPriorityWorkerMnemonics = ImmutableSet.copyOf(highPriorityWorkers);
-    workerPools = createWorkerPools(factory, config, DEFAULT_MAX_WORKERS);
-    multiplexPools = createWorkerPools(factory, multiplexConfig, DEFAULT_MAX_MULTIPLEX_WORKERS);
+    sizer = new WorkerPoolSizer(BlazeClock.instance());
+    factory.setPoolSizer(sizer);
+    workerPools = createWorkerPools(factory, config, DEFAULT_MAX_WORKERS, maxIdleTime);
+    multiplexPools =
+        createWorkerPools(factory, multiplexConfig, DEFAULT_MAX_MULTIPLEX_WORKERS, maxIdleTime);
+  }
+
+  public WorkerPool(
+      WorkerFactory factory,
+      Map<String, Integer> config,
+      Map<String, Integer> multiplexConfig,
+      Iterable<String> highPriorityWorkers) {
+    this(factory, config, multiplexConfig, highPriorityWorkers, Duration.ZERO);
   }
 
   private static ImmutableMap<String, SimpleWorkerPool> createWorkerPools(
-      WorkerFactory factory, Map<String, Integer> config, int defaultMaxWorkers) {
+      WorkerFactory factory,
+      Map<String, Integer> config,
+      int defaultMaxWorkers,
+      Duration maxIdleTime) {
     ImmutableMap.Builder<String, SimpleWorkerPool> workerPoolsBuilder = ImmutableMap.builder();
     config.forEach(
         (key, value) ->
-            workerPoolsBuilder.put(key, new SimpleWorkerPool(factory, makeConfig(value))));
+            workerPoolsBuilder.put(
+                key, new SimpleWorkerPool(factory, makeConfig(value, maxIdleTime))));
     if (!config.containsKey("")) {
-      workerPoolsBuilder.put("", new SimpleWorkerPool(factory, makeConfig(defaultMaxWorkers)));
+      workerPoolsBuilder.put(
+          "", new SimpleWorkerPool(factory, makeConfig(defaultMaxWorkers, maxIdleTime)));
     }
     return workerPoolsBuilder.build();
   }
 
-  private static WorkerPoolConfig makeConfig(int max) {
+  private static WorkerPoolConfig makeConfig(int max, Duration maxIdleTime) {
     WorkerPoolConfig config = new WorkerPoolConfig();
 
     // It's better to re-use a worker as often as possible and keep it hot, in order to profit
@@ -103,8 +127,17 @@ final class WorkerPool {
     config.setTestOnCreate(true);
     config.setTestOnReturn(true);
 
-    // No eviction of idle workers.
-    config.setTimeBetweenEvictionRunsMillis(-1);
+    if (maxIdleTime.isZero()) {
+      // No eviction of idle workers.
+      config.setTimeBetweenEvictionRunsMillis(-1);
+    } else {
+      // Destroy workers that have been idle for too long, without starting new ones in their place.
+      // All idle workers are examined a few times per idle period.
+      config.setMinIdlePerKey(0);
+      config.setMinEvictableIdleTimeMillis(maxIdleTime.toMillis());
+      config.setTimeBetweenEvictionRunsMillis(Math.max(1000, maxIdleTime.toMillis() / 4));
+      config.setNumTestsPerEvictionRun(-1);
+    }
 
     return config;
   }
@@ -125,13 +158,17 @@ final class WorkerPool {
    * @return a worker
    */
   public Worker borrowObject(WorkerKey key) throws IOException, InterruptedException {
+    SimpleWorkerPool pool = getPool(key);
+    sizer.acquire(key, pool.getMaxTotalPerKey());
     Worker result;
     try {
-      result = getPool(key).borrowObject(key);
+      result = pool.borrowObject(key);
     } catch (Throwable t) {
+      sizer.release(key, null);
       Throwables.propagateIfPossible(t, IOException.class, InterruptedException.class);
       throw new RuntimeException("unexpected", t);
     }
+    sizer.borrowed(key, result);
 
     if (highPriorityWorkerMnemonics.contains(key.getMnemonic())) {
       highPriorityWorkersInUse.incrementAndGet();
@@ -151,6 +188,7 @@ final class WorkerPool {
     if (highPriorityWorkerMnemonics.contains(key.getMnemonic())) {
       decrementHighPriorityWorkerCount();
     }
+    sizer.release(key, obj);
     getPool(key).returnObject(key, obj);
   }
 
@@ -158,6 +196,7 @@ final class WorkerPool {
     if (highPriorityWorkerMnemonics.contains(key.getMnemonic())) {
       decrementHighPriorityWorkerCount();
     }
+    sizer.release(key, obj);
     try {
       getPool(key).invalidateObject(key, obj);
     } catch (Throwable t) {
@@ -189,6 +228,20 @@ final class WorkerPool {
     }
   }
 
+  /**
+   * Enables or disables adaptive sizing of the pools.
+   *
+   * @param memoryLimitKb the resident memory all workers together may use, or zero for no limit
+   */
+  public void setAdaptiveSizing(boolean adaptive, long memoryLimitKb) {
+    sizer.setAdaptive(adaptive, memoryLimitKb);
+  }
+
+  /** Returns the statistics of the pools since the last call. */
+  public WorkerPoolMetrics collectMetrics() {
+    return sizer.collectMetrics();
+  }
+
   /**
    * Closes all the worker pools, destroying the workers in the process. This waits for any
    * currently-ongoing work to finish.
@@ -0,0 +1,391 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.CharMatcher;
+import com.google.common.io.Files;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildMetrics.WorkerPoolMetrics;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildMetrics.WorkerPoolMetrics.WorkerPoolStats;
+import com.google.devtools.build.lib.clock.Clock;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongUnaryOperator;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Tracks the load and the memory use of the workers of each {@link WorkerKey} and, if adaptive
+ * sizing is enabled, limits how many of them may be used in parallel.
+ *
+ * <p>The limit of a key starts at one. While requests wait for a worker, it is raised by up to the
+ * number of waiting requests, as long as the mean latency of requests has not grown by more than
+ * half since the last time it was raised; otherwise adding workers has only made them compete for
+ * the machine, and the limit is lowered by one instead. If the workers of all keys together use
+ * more resident memory than allowed, no limit is raised, and the key whose workers use the most
+ * memory is limited to one worker less than it is using, and its largest singleplex worker is
+ * retired: it is destroyed instead of being returned to the pool. Workers above the limit of their
+ * key stay idle until the pool evicts them.
+ */
+@ThreadSafe
+final class WorkerPoolSizer {
+
+  /** How often the limits are adjusted at most. */
+  private static final long ADJUST_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+  /** By how much the mean request latency may grow before more workers are considered harmful. */
+  private static final double MAX_LATENCY_GROWTH = 1.5;
+
+  private final Clock clock;
+  /** Returns the resident memory of the process with the given id in KB, or -1 if unknown. */
+  private final LongUnaryOperator rssKbReader;
+
+  private final ConcurrentMap<WorkerKey, KeyState> states = new ConcurrentHashMap<>();
+
+  private volatile boolean adaptive;
+  private volatile long memoryLimitKb;
+
+  @GuardedBy("this")
+  private long lastAdjustNanos;
+
+  WorkerPoolSizer(Clock clock) {
+    this(clock, WorkerPoolSizer::readRssKb);
+  }
+
+  @VisibleForTesting
+  WorkerPoolSizer(Clock clock, LongUnaryOperator rssKbReader) {
+    this.clock = clock;
+    this.rssKbReader = rssKbReader;
+    this.lastAdjustNanos = clock.nanoTime();
+  }
+
+  /**
+   * Enables or disables adaptive sizing. A {@code memoryLimitKb} of zero does not limit the memory
+   * of the workers.
+   */
+  void setAdaptive(boolean adaptive, long memoryLimitKb) {
+    this.adaptive = adaptive;
+    this.memoryLimitKb = memoryLimitKb;
+    for (KeyState state : states.values()) {
+      synchronized (state) {
+        if (!adaptive) {
+          state.limit = state.max;
+        }
+        state.notifyAll();
+      }
+    }
+  }
+
+  private KeyState getState(WorkerKey key, int max) {
+    return states.computeIfAbsent(key, k -> new KeyState(k, max));
+  }
+
+  /**
+   * Waits until another worker of {@code key} may be used. Every call must be followed by a call
+   * of {@link #release}.
+   *
+   * @param max the most workers of {@code key} that the pool allows
+   */
+  void acquire(WorkerKey key, int max) throws InterruptedException {
+    KeyState state = getState(key, max);
+    long startNanos = clock.nanoTime();
+    synchronized (state) {
+      state.waiting++;
+      try {
+        while (state.inUse >= (adaptive ? state.limit : state.max)) {
+          state.wait();
+        }
+      } finally {
+        state.waiting--;
+      }
+      state.inUse++;
+      long waitNanos = clock.nanoTime() - startNanos;
+      state.requestCount++;
+      state.waitNanos += waitNanos;
+      state.maxWaitNanos = Math.max(state.maxWaitNanos, waitNanos);
+      state.peakLimit = Math.max(state.peakLimit, adaptive ? state.limit : state.max);
+    }
+  }
+
+  /** Records that {@code worker} was borrowed after a call of {@link #acquire}. */
+  void borrowed(WorkerKey key, Worker worker) {
+    KeyState state = states.get(key);
+    state.borrowedNanos.put(worker, clock.nanoTime());
+  }
+
+  /**
+   * Makes the worker acquired for {@code key} available again.
+   *
+   * @param worker the borrowed worker, or null if borrowing one failed
+   */
+  void release(WorkerKey key, @Nullable Worker worker) {
+    KeyState state = states.get(key);
+    Long borrowedNanos = worker != null ? state.borrowedNanos.remove(worker) : null;
+    synchronized (state) {
+      state.inUse--;
+      if (borrowedNanos != null) {
+        state.latencyNanos += clock.nanoTime() - borrowedNanos;
+        state.latencyCount++;
+      }
+      state.notify();
+    }
+    if (adaptive) {
+      maybeAdjust();
+    }
+  }
+
+  /** Returns whether {@code worker} should be destroyed instead of being used again. */
+  boolean isRetired(Worker worker) {
+    KeyState state = states.get(worker.workerKey);
+    return state != null && state.retired.contains(worker);
+  }
+
+  /** Called by the {@link WorkerFactory} when it creates a worker. */
+  void workerCreated(Worker worker) {
+    KeyState state = states.get(worker.workerKey);
+    if (state != null) {
+      state.workers.add(worker);
+      synchronized (state) {
+        state.createdCount++;
+      }
+    }
+  }
+
+  /** Called by the {@link WorkerFactory} when it destroys a worker. */
+  void workerDestroyed(Worker worker) {
+    KeyState state = states.get(worker.workerKey);
+    if (state != null && state.workers.remove(worker)) {
+      boolean retired = state.retired.remove(worker);
+      synchronized (state) {
+        state.destroyedCount++;
+        if (retired) {
+          state.retiredCount++;
+        }
+      }
+    }
+  }
+
+  private void maybeAdjust() {
+    long nowNanos = clock.nanoTime();
+    synchronized (this) {
+      if (nowNanos - lastAdjustNanos < ADJUST_INTERVAL_NANOS) {
+        return;
+      }
+      lastAdjustNanos = nowNanos;
+      adjust();
+    }
+  }
+
+  @GuardedBy("this")
+  private void adjust() {
+    long totalRssKb = measureRss();
+    long limitKb = memoryLimitKb;
+    boolean overMemoryLimit = limitKb > 0 && totalRssKb > limitKb;
+    KeyState largest = null;
+    for (KeyState state : states.values()) {
+      synchronized (state) {
+        if (largest == null || state.rssKb > largest.rssKb) {
+          largest = state;
+        }
+        double latency =
+            state.latencyCount > 0 ? (double) state.latencyNanos / state.latencyCount : Double.NaN;
+        state.latencyNanos = 0;
+        state.latencyCount = 0;
+        if (overMemoryLimit || state.waiting == 0 || state.limit >= state.max) {
+          continue;
+        }
+        if (latency > state.baselineLatency * MAX_LATENCY_GROWTH) {
+          state.limit = Math.max(1, state.limit - 1);
+          state.baselineLatency = latency;
+          continue;
+        }
+        long rssPerWorkerKb = state.workers.isEmpty() ? 0 : state.rssKb / state.workers.size();
+        if (limitKb > 0 && totalRssKb + rssPerWorkerKb > limitKb) {
+          continue;
+        }
+        if (!Double.isNaN(latency)) {
+          state.baselineLatency = latency;
+        }
+        state.limit = Math.min(state.max, state.limit + Math.min(state.waiting, state.limit));
+        state.notifyAll();
+      }
+    }
+    if (overMemoryLimit && largest != null) {
+      synchronized (largest) {
+        largest.limit = Math.max(1, Math.min(largest.limit, largest.inUse) - 1);
+      }
+      if (largest.largestWorker != null && !largest.key.isMultiplex()) {
+        largest.retired.add(largest.largestWorker);
+      }
+    }
+  }
+
+  /**
+   * Samples the resident memory of the workers of each key and returns the total. Multiplex workers
+   * sharing a process are counted once.
+   */
+  @GuardedBy("this")
+  private long measureRss() {
+    Set<Long> seenPids = new HashSet<>();
+    long totalRssKb = 0;
+    for (KeyState state : states.values()) {
+      long keyRssKb = 0;
+      long largestRssKb = -1;
+      Worker largestWorker = null;
+      for (Worker worker : state.workers) {
+        long pid = worker.getProcessId();
+        if (pid <= 0 || !seenPids.add(pid)) {
+          continue;
+        }
+        long rssKb = rssKbReader.applyAsLong(pid);
+        if (rssKb < 0) {
+          continue;
+        }
+        keyRssKb += rssKb;
+        if (rssKb > largestRssKb) {
+          largestRssKb = rssKb;
+          largestWorker = worker;
+        }
+      }
+      state.largestWorker = largestWorker;
+      synchronized (state) {
+        state.rssKb = keyRssKb;
+        state.peakRssKb = Math.max(state.peakRssKb, keyRssKb);
+      }
+      totalRssKb += keyRssKb;
+    }
+    return totalRssKb;
+  }
+
+  /**
+   * Returns the statistics of the workers per mnemonic and kind of worker since the last call, and
+   * starts collecting new ones.
+   */
+  synchronized WorkerPoolMetrics collectMetrics() {
+    measureRss();
+    Map<String, WorkerPoolStats.Builder> statsByMnemonic = new TreeMap<>();
+    for (KeyState state : states.values()) {
+      String name = (state.key.isMultiplex() ? "multiplex:" : "") + state.key.getMnemonic();
+      WorkerPoolStats.Builder stats =
+          statsByMnemonic.computeIfAbsent(
+              name,
+              n ->
+                  WorkerPoolStats.newBuilder()
+                      .setMnemonic(state.key.getMnemonic())
+                      .setIsMultiplex(state.key.isMultiplex()));
+      synchronized (state) {
+        stats
+            .setCreatedCount(stats.getCreatedCount() + state.createdCount)
+            .setDestroyedCount(stats.getDestroyedCount() + state.destroyedCount)
+            .setRetiredCount(stats.getRetiredCount() + state.retiredCount)
+            .setRequestCount(stats.getRequestCount() + state.requestCount)
+            .setWaitTimeInMs(
+                stats.getWaitTimeInMs() + TimeUnit.NANOSECONDS.toMillis(state.waitNanos))
+            .setMaxWaitTimeInMs(
+                Math.max(
+                    stats.getMaxWaitTimeInMs(), TimeUnit.NANOSECONDS.toMillis(state.maxWaitNanos)))
+            .setPeakLimit(stats.getPeakLimit() + state.peakLimit)
+            .setPeakRssInKb(stats.getPeakRssInKb() + state.peakRssKb);
+        state.resetStats(adaptive);
+      }
+    }
+    WorkerPoolMetrics.Builder metrics = WorkerPoolMetrics.newBuilder();
+    statsByMnemonic.values().forEach(metrics::addWorkerPoolStats);
+    return metrics.build();
+  }
+
+  /** Returns the current limit of {@code key}, for testing. */
+  @VisibleForTesting
+  int getLimit(WorkerKey key) {
+    KeyState state = states.get(key);
+    synchronized (state) {
+      return adaptive ? state.limit : state.max;
+    }
+  }
+
+  /** Returns the resident memory of the process {@code pid} in KB, or -1 if it can't be read. */
+  private static long readRssKb(long pid) {
+    File status = new File("/proc/" + pid + "/status");
+    try {
+      for (String line : Files.readLines(status, US_ASCII)) {
+        if (line.startsWith("VmRSS:")) {
+          return Long.parseLong(CharMatcher.inRange('0', '9').retainFrom(line));
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      // The process has exited, or there is no /proc.
+    }
+    return -1;
+  }
+
+  /** The workers and statistics of a {@link WorkerKey}. */
+  private static final class KeyState {
+    final WorkerKey key;
+    final int max;
+
+    /** The live workers of the key. */
+    final Set<Worker> workers = ConcurrentHashMap.newKeySet();
+    /** Workers to destroy when they are next returned or borrowed. */
+    final Set<Worker> retired = ConcurrentHashMap.newKeySet();
+    /** When each borrowed worker was borrowed. */
+    final Map<Worker, Long> borrowedNanos = new ConcurrentHashMap<>();
+
+    /** Written when sampling memory, which is synchronized on the sizer. */
+    @Nullable Worker largestWorker;
+
+    // The fields below are guarded by the monitor of this object.
+    int limit = 1;
+    int inUse;
+    int waiting;
+    long latencyNanos;
+    int latencyCount;
+    double baselineLatency = Double.NaN;
+    long rssKb;
+
+    int createdCount;
+    int destroyedCount;
+    int retiredCount;
+    long requestCount;
+    long waitNanos;
+    long maxWaitNanos;
+    int peakLimit;
+    long peakRssKb;
+
+    KeyState(WorkerKey key, int max) {
+      this.key = key;
+      this.max = max;
+    }
+
+    void resetStats(boolean adaptive) {
+      createdCount = 0;
+      destroyedCount = 0;
+      retiredCount = 0;
+      requestCount = 0;
+      waitNanos = 0;
+      maxWaitNanos = 0;
+      peakLimit = adaptive ? limit : max;
+      peakRssKb = rssKb;
+    }
+  }
+}
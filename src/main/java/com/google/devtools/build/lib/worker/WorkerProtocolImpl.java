@@ -23,6 +23,16 @@ interface WorkerProtocolImpl extends Closeable {
   /** Writes the provided work request to the worker. */
   void putRequest(WorkRequest request) throws IOException;
 
+  /**
+   * Writes the provided work requests to the worker. Implementations may buffer them and flush
+   * once at the end.
+   */
+  default void putRequests(Iterable<WorkRequest> requests) throws IOException {
+    for (WorkRequest request : requests) {
+      putRequest(request);
+    }
+  }
+
   /** Reads a response from the worker. */
   WorkResponse getResponse() throws IOException;
 }
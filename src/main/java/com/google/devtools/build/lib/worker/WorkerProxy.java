@@ -106,6 +106,11 @@ final class WorkerProxy extends Worker {
     return workerMultiplexer.getExitValue();
   }
 
+  @Override
+  long getProcessId() {
+    return workerMultiplexer.getProcessId();
+  }
+
   @Override
   String getRecordingStreamMessage() {
     return workerMultiplexer.getRecordingStreamMessage();
@@ -43,6 +43,8 @@ import com.google.devtools.build.lib.exec.BinTools;
 import com.google.devtools.build.lib.exec.RunfilesTreeUpdater;
 import com.google.devtools.build.lib.exec.SpawnRunner;
 import com.google.devtools.build.lib.exec.local.LocalEnvProvider;
+import com.google.devtools.build.lib.metrics.LatencyHistogram;
+import com.google.devtools.build.lib.metrics.MetricRegistry;
 import com.google.devtools.build.lib.sandbox.SandboxHelpers;
 import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxInputs;
 import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxOutputs;
@@ -64,6 +66,7 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
@@ -81,6 +84,10 @@ final class WorkerSpawnRunner implements SpawnRunner {
   /** Pattern for @flagfile.txt and --flagfile=flagfile.txt */
   private static final Pattern FLAG_FILE_PATTERN = Pattern.compile("(?:@|--?flagfile=)(.+)");
 
+  /** Worker execution latencies, by mnemonic. */
+  private static final ConcurrentHashMap<String, LatencyHistogram> executionLatencies =
+      new ConcurrentHashMap<>();
+
   private final SandboxHelpers helpers;
   private final Path execRoot;
   private final WorkerPool workers;
@@ -476,7 +483,9 @@ final class WorkerSpawnRunner implements SpawnRunner {
             throw createUnparsableResponseException(recordingStreamMessage, worker.getLogFile(), e);
           }
         }
-        spawnMetrics.setExecutionWallTime(executionStopwatch.elapsed());
+        Duration executionWallTime = executionStopwatch.elapsed();
+        spawnMetrics.setExecutionWallTime(executionWallTime);
+        executionLatency(key.getMnemonic()).record(executionWallTime);
       }
 
       if (response == null) {
@@ -572,6 +581,18 @@ final class WorkerSpawnRunner implements SpawnRunner {
     reaper.start();
   }
 
+  private static LatencyHistogram executionLatency(String mnemonic) {
+    return executionLatencies.computeIfAbsent(
+        mnemonic,
+        m ->
+            MetricRegistry.instance()
+                .histogram(
+                    "bazel_worker_execution_seconds",
+                    "Time from sending a work request to a persistent worker until its response.",
+                    "mnemonic",
+                    m));
+  }
+
   private static void restoreInterrupt(IOException e) {
     if (e instanceof InterruptedIOException) {
       Thread.currentThread().interrupt();
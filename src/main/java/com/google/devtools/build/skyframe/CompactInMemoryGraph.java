@@ -0,0 +1,80 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.BitSet;
+
+/**
+ * An {@link InMemoryGraphImpl} that keeps edges and stores them compactly, using {@link
+ * CompactInMemoryNodeEntry} nodes whose keys are interned in a {@link SkyKeyIdTable}.
+ *
+ * <p>The ids of removed nodes are reclaimed by {@link #maybeReclaimKeyIds}, which has to be called
+ * while the graph is not being modified.
+ */
+public class CompactInMemoryGraph extends InMemoryGraphImpl {
+  /** The fewest removals worth scanning all edges of the graph for. */
+  private static final int MIN_IDS_TO_RECLAIM = 1024;
+
+  private final SkyKeyIdTable keyIds = new SkyKeyIdTable(nodeMap);
+  private int numReleasedAfterLastReclaim;
+
+  public CompactInMemoryGraph() {
+    super(/*keepEdges=*/ true);
+  }
+
+  @Override
+  protected NodeEntry newNodeEntry(SkyKey key) {
+    return new CompactInMemoryNodeEntry(keyIds, keyIds.register(key));
+  }
+
+  @Override
+  public void remove(SkyKey skyKey) {
+    NodeEntry entry = nodeMap.remove(skyKey);
+    if (entry != null) {
+      keyIds.release(((CompactInMemoryNodeEntry) entry).getKeyId());
+    }
+  }
+
+  /**
+   * Reclaims the ids of removed nodes once enough of them accumulated for scanning the edges of all
+   * nodes to be worth it. Called after nodes are deleted, when no evaluation is running.
+   */
+  public void maybeReclaimKeyIds() {
+    int newlyReleased = keyIds.numReleased() - numReleasedAfterLastReclaim;
+    if (newlyReleased >= Math.max(MIN_IDS_TO_RECLAIM, keyIds.size() / 4)) {
+      reclaimKeyIds();
+    }
+  }
+
+  /**
+   * Reclaims the ids of removed nodes that no edge refers to anymore. Removed nodes are no longer
+   * the direct dep of a done node, but may still be in the reverse deps of their deps until the
+   * pending removal is consolidated, so their ids are kept until a later call.
+   */
+  @VisibleForTesting
+  void reclaimKeyIds() {
+    BitSet referencedIds = new BitSet(keyIds.maxId());
+    for (NodeEntry entry : nodeMap.values()) {
+      ((CompactInMemoryNodeEntry) entry).markReferencedKeyIds(referencedIds);
+    }
+    keyIds.reclaim(referencedIds);
+    numReleasedAfterLastReclaim = keyIds.numReleased();
+  }
+
+  @VisibleForTesting
+  SkyKeyIdTable getKeyIdTable() {
+    return keyIds;
+  }
+}
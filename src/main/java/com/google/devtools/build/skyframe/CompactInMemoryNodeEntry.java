@@ -0,0 +1,169 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.util.GroupedList;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An {@link InMemoryNodeEntry} that stores its edges as ids from a {@link SkyKeyIdTable}.
+ *
+ * <p>Once done, a node with more than one direct dep keeps them in a single {@code int[]} instead
+ * of an {@code Object[]} plus one list per group of more than one dep, and reverse deps are kept in
+ * a growable {@code int[]} instead of an {@link java.util.ArrayList}. Deps are decoded back to the
+ * compressed {@link GroupedList} form when requested, which mostly happens when the node is
+ * dirtied.
+ */
+public class CompactInMemoryNodeEntry extends InMemoryNodeEntry {
+  private final SkyKeyIdTable keyIds;
+  private final int keyId;
+
+  CompactInMemoryNodeEntry(SkyKeyIdTable keyIds, int keyId) {
+    this.keyIds = keyIds;
+    this.keyId = keyId;
+  }
+
+  int getKeyId() {
+    return keyId;
+  }
+
+  @Override
+  protected void postProcessAfterDone() {
+    if (directDeps instanceof Object[]) {
+      int[] packed = keyIds.packGroups((Object[]) directDeps);
+      if (packed != null) {
+        directDeps = packed;
+      }
+    }
+  }
+
+  @Override
+  protected @GroupedList.Compressed Object getCompressedDirectDeps(Object storedDirectDeps) {
+    return storedDirectDeps instanceof int[]
+        ? keyIds.unpackGroups((int[]) storedDirectDeps)
+        : super.getCompressedDirectDeps(storedDirectDeps);
+  }
+
+  @Override
+  synchronized void setReverseDepsForReverseDepsUtil(List<SkyKey> reverseDeps) {
+    if (reverseDeps.size() > 1 && !(reverseDeps instanceof PackedKeyList)) {
+      int[] ids = new int[reverseDeps.size()];
+      for (int i = 0; i < ids.length; i++) {
+        ids[i] = keyIds.idOf(reverseDeps.get(i));
+        if (ids[i] == SkyKeyIdTable.NO_ID) {
+          super.setReverseDepsForReverseDepsUtil(reverseDeps);
+          return;
+        }
+      }
+      reverseDeps = new PackedKeyList(keyIds, ids);
+    }
+    super.setReverseDepsForReverseDepsUtil(reverseDeps);
+  }
+
+  /** Sets the ids of the keys that the edges of this node refer to in {@code ids}. */
+  synchronized void markReferencedKeyIds(BitSet ids) {
+    if (directDeps instanceof int[]) {
+      for (int id : (int[]) directDeps) {
+        ids.set(id < 0 ? ~id : id);
+      }
+    }
+    Object reverseDeps = getReverseDepsRawForReverseDepsUtil();
+    if (reverseDeps instanceof PackedKeyList) {
+      ((PackedKeyList) reverseDeps).markIds(ids);
+    }
+  }
+
+  @Override
+  protected synchronized InMemoryNodeEntry cloneNodeEntry(InMemoryNodeEntry newEntry) {
+    super.cloneNodeEntry(newEntry);
+    if (!(newEntry instanceof CompactInMemoryNodeEntry)) {
+      newEntry.directDeps = getCompressedDirectDepsForDoneEntry();
+    }
+    return newEntry;
+  }
+
+  @Override
+  public synchronized InMemoryNodeEntry cloneNodeEntry() {
+    return cloneNodeEntry(new CompactInMemoryNodeEntry(keyIds, keyId));
+  }
+
+  /** A mutable list of keys, stored as their ids. */
+  private static final class PackedKeyList extends AbstractList<SkyKey> implements RandomAccess {
+    private final SkyKeyIdTable keyIds;
+    private int[] ids;
+    private int size;
+
+    PackedKeyList(SkyKeyIdTable keyIds, int[] ids) {
+      this.keyIds = keyIds;
+      this.ids = ids;
+      this.size = ids.length;
+    }
+
+    private int idOf(SkyKey key) {
+      int id = keyIds.idOf(key);
+      Preconditions.checkState(id != SkyKeyIdTable.NO_ID, "Reverse dep not in graph: %s", key);
+      return id;
+    }
+
+    void markIds(BitSet marked) {
+      for (int i = 0; i < size; i++) {
+        marked.set(ids[i]);
+      }
+    }
+
+    @Override
+    public SkyKey get(int index) {
+      Preconditions.checkElementIndex(index, size);
+      return keyIds.key(ids[index]);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public SkyKey set(int index, SkyKey key) {
+      SkyKey previous = get(index);
+      ids[index] = idOf(key);
+      return previous;
+    }
+
+    @Override
+    public void add(int index, SkyKey key) {
+      Preconditions.checkPositionIndex(index, size);
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size + (size >> 1) + 1);
+      }
+      System.arraycopy(ids, index, ids, index + 1, size - index);
+      ids[index] = idOf(key);
+      size++;
+      modCount++;
+    }
+
+    @Override
+    public SkyKey remove(int index) {
+      SkyKey previous = get(index);
+      System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+      size--;
+      modCount++;
+      return previous;
+    }
+  }
+}
@@ -13,8 +13,11 @@
 // limitations under the License.
 package com.google.devtools.build.skyframe;
 
+import com.google.common.base.Ascii;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
+import com.google.devtools.build.lib.metrics.Counter;
+import com.google.devtools.build.lib.metrics.MetricRegistry;
 import java.util.Set;
 import java.util.function.Supplier;
 import javax.annotation.Nullable;
@@ -25,6 +28,9 @@ import javax.annotation.Nullable;
  */
 public class DirtyTrackingProgressReceiver implements EvaluationProgressReceiver {
 
+  private static final Counter builtNodes = evaluatedNodes(EvaluationState.BUILT);
+  private static final Counter cleanNodes = evaluatedNodes(EvaluationState.CLEAN);
+
   @Nullable protected final EvaluationProgressReceiver progressReceiver;
   private final Set<SkyKey> dirtyKeys = Sets.newConcurrentHashSet();
   private Set<SkyKey> inflightKeys = Sets.newConcurrentHashSet();
@@ -33,6 +39,15 @@ public class DirtyTrackingProgressReceiver implements EvaluationProgressReceiver
     this.progressReceiver = progressReceiver;
   }
 
+  private static Counter evaluatedNodes(EvaluationState state) {
+    return MetricRegistry.instance()
+        .counter(
+            "bazel_skyframe_evaluated_nodes",
+            "Skyframe nodes that were built or found to be clean.",
+            "state",
+            Ascii.toLowerCase(state.name()));
+  }
+
   /** Called when a node is injected into the graph, and not evaluated. */
   protected void injected(SkyKey skyKey) {
     // This node was never evaluated, but is now clean and need not be re-evaluated
@@ -115,6 +130,7 @@ public class DirtyTrackingProgressReceiver implements EvaluationProgressReceiver
     if (progressReceiver != null) {
       progressReceiver.evaluated(skyKey, newValue, newError, evaluationSuccessState, state);
     }
+    (state == EvaluationState.BUILT ? builtNodes : cleanNodes).inc();
 
     // This key was either built or marked clean, so we can remove it from both the dirty and
     // inflight nodes.
@@ -105,12 +105,32 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
       EventFilter eventFilter,
       EmittedEventState emittedEventState,
       boolean keepEdges) {
+    this(
+        skyFunctions,
+        differencer,
+        progressReceiver,
+        graphInconsistencyReceiver,
+        eventFilter,
+        emittedEventState,
+        keepEdges,
+        new InMemoryGraphImpl(keepEdges));
+  }
+
+  private InMemoryMemoizingEvaluator(
+      Map<SkyFunctionName, SkyFunction> skyFunctions,
+      Differencer differencer,
+      @Nullable EvaluationProgressReceiver progressReceiver,
+      GraphInconsistencyReceiver graphInconsistencyReceiver,
+      EventFilter eventFilter,
+      EmittedEventState emittedEventState,
+      boolean keepEdges,
+      InMemoryGraph graph) {
     this.skyFunctions = ImmutableMap.copyOf(skyFunctions);
     this.differencer = Preconditions.checkNotNull(differencer);
     this.progressReceiver = new DirtyTrackingProgressReceiver(progressReceiver);
     this.graphInconsistencyReceiver = Preconditions.checkNotNull(graphInconsistencyReceiver);
     this.eventFilter = eventFilter;
-    this.graph = new InMemoryGraphImpl(keepEdges);
+    this.graph = graph;
     this.emittedEventState = emittedEventState;
     this.keepEdges = keepEdges;
   }
@@ -271,6 +291,9 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
 
   private void performInvalidation() throws InterruptedException {
     EagerInvalidator.delete(graph, valuesToDelete, progressReceiver, deleterState, keepEdges);
+    if (graph instanceof CompactInMemoryGraph) {
+      ((CompactInMemoryGraph) graph).maybeReclaimKeyIds();
+    }
     // Note that clearing the valuesToDelete would not do an internal resizing. Therefore, if any
     // build has a large set of dirty values, subsequent operations (even clearing) will be slower.
     // Instead, just start afresh with a new LinkedHashSet.
@@ -414,4 +437,26 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
       };
 
   public static final EvaluatorSupplier SUPPLIER = InMemoryMemoizingEvaluator::new;
+
+  /**
+   * Like {@link #SUPPLIER}, but evaluators that keep edges store them in a {@link
+   * CompactInMemoryGraph}.
+   */
+  public static final EvaluatorSupplier COMPACT_SUPPLIER =
+      (skyFunctions,
+          differencer,
+          progressReceiver,
+          graphInconsistencyReceiver,
+          eventFilter,
+          emittedEventState,
+          keepEdges) ->
+          new InMemoryMemoizingEvaluator(
+              skyFunctions,
+              differencer,
+              progressReceiver,
+              graphInconsistencyReceiver,
+              eventFilter,
+              emittedEventState,
+              keepEdges,
+              keepEdges ? new CompactInMemoryGraph() : new InMemoryGraphImpl(keepEdges));
 }
@@ -221,7 +221,17 @@ public class InMemoryNodeEntry implements NodeEntry {
     assertKeepDeps();
     Preconditions.checkState(isDone(), "no deps until done. NodeEntry: %s", this);
     Preconditions.checkNotNull(directDeps, "deps can't be null: %s", this);
-    return GroupedList.castAsCompressed(directDeps);
+    return getCompressedDirectDeps(directDeps);
+  }
+
+  /**
+   * Returns the compressed {@link GroupedList} of direct deps given the form in which {@link
+   * #directDeps} stores them for a done node. Subclasses that change that form in {@link
+   * #postProcessAfterDone} must override this.
+   */
+  @ForOverride
+  protected @GroupedList.Compressed Object getCompressedDirectDeps(Object storedDirectDeps) {
+    return GroupedList.castAsCompressed(storedDirectDeps);
   }
 
   public int getNumDirectDeps() {
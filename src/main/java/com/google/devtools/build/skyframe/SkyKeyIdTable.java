@@ -0,0 +1,236 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.GroupedList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * Interns the {@link SkyKey}s of a {@link CompactInMemoryGraph} as dense integer ids, so that the
+ * edges of its node entries can be stored as primitive {@code int} arrays.
+ *
+ * <p>A key's id is assigned when its node entry is created and is stored in that entry, so looking
+ * up the id of a key in the graph costs a single {@code nodeMap} lookup. When the node is removed
+ * from the graph, its id is only {@linkplain #release released}: packed edges of other nodes may
+ * still refer to it, e.g. a reverse dep whose removal is still pending consolidation, so the key
+ * stays in the table until {@link #reclaim} finds that no edge refers to it anymore. Reclaimed ids
+ * are handed out again to new keys.
+ */
+@ThreadSafe
+final class SkyKeyIdTable {
+  private static final int CHUNK_BITS = 14;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  /** Returned by {@link #idOf} for keys without a node in the graph. */
+  static final int NO_ID = -1;
+
+  private final Map<SkyKey, ? extends NodeEntry> nodeMap;
+  private final AtomicInteger nextId = new AtomicInteger();
+
+  /** Ids of removed nodes whose key may still be referenced. Guarded by {@code this}. */
+  private int[] releasedIds = new int[16];
+
+  private int numReleased;
+
+  /** Reclaimed ids, ready to be handed out again. Guarded by {@code this} for writes. */
+  private int[] freeIds = new int[16];
+
+  private volatile int numFree;
+
+  /**
+   * The keys, indexed by id. Chunks are allocated under the lock of this table and never moved, so
+   * a reader that learned an id from the thread that registered it always finds the key.
+   */
+  private volatile SkyKey[][] chunks = new SkyKey[16][];
+
+  SkyKeyIdTable(Map<SkyKey, ? extends NodeEntry> nodeMap) {
+    this.nodeMap = nodeMap;
+  }
+
+  /** Assigns an id to {@code key}, reusing a reclaimed one if there is any. */
+  int register(SkyKey key) {
+    int id = numFree > 0 ? pollFreeId() : NO_ID;
+    if (id == NO_ID) {
+      id = nextId.getAndIncrement();
+      Preconditions.checkState(id >= 0, "Too many keys: %s", key);
+    }
+    chunkFor(id)[id & CHUNK_MASK] = key;
+    return id;
+  }
+
+  private synchronized int pollFreeId() {
+    if (numFree == 0) {
+      return NO_ID;
+    }
+    int id = freeIds[numFree - 1];
+    numFree--;
+    return id;
+  }
+
+  /**
+   * Marks the id of a node that was removed from the graph as reclaimable. The key is still
+   * returned by {@link #key} for that id until it is reclaimed.
+   */
+  synchronized void release(int id) {
+    if (numReleased == releasedIds.length) {
+      releasedIds = Arrays.copyOf(releasedIds, numReleased * 2);
+    }
+    releasedIds[numReleased++] = id;
+  }
+
+  /** Returns the number of released ids that are not reclaimed yet. */
+  synchronized int numReleased() {
+    return numReleased;
+  }
+
+  /**
+   * Reclaims the released ids that are not in {@code referencedIds}, dropping their keys from the
+   * table and making the ids available to {@link #register}. Must only be called while the graph
+   * is not being modified, with the ids referenced by the edges of all nodes in the graph.
+   */
+  synchronized void reclaim(BitSet referencedIds) {
+    int kept = 0;
+    for (int i = 0; i < numReleased; i++) {
+      int id = releasedIds[i];
+      if (referencedIds.get(id)) {
+        releasedIds[kept++] = id;
+        continue;
+      }
+      chunks[id >>> CHUNK_BITS][id & CHUNK_MASK] = null;
+      if (numFree == freeIds.length) {
+        freeIds = Arrays.copyOf(freeIds, numFree * 2);
+      }
+      freeIds[numFree] = id;
+      numFree++;
+    }
+    numReleased = kept;
+  }
+
+  /** Returns the key with the given id. */
+  SkyKey key(int id) {
+    return chunks[id >>> CHUNK_BITS][id & CHUNK_MASK];
+  }
+
+  /**
+   * Returns the id of {@code key}, or {@link #NO_ID} if its node is not in the graph, which should
+   * not happen for edges. Such edges are left unpacked rather than given an id that would never be
+   * released.
+   */
+  int idOf(SkyKey key) {
+    NodeEntry entry = nodeMap.get(key);
+    return entry instanceof CompactInMemoryNodeEntry
+        ? ((CompactInMemoryNodeEntry) entry).getKeyId()
+        : NO_ID;
+  }
+
+  /** Returns the number of keys in the table, including those of released ids. */
+  int size() {
+    return nextId.get() - numFree;
+  }
+
+  /** Returns one more than the largest id handed out so far. */
+  int maxId() {
+    return nextId.get();
+  }
+
+  /**
+   * Packs a compressed {@link GroupedList} of more than one element into an array of ids. The last
+   * id of each group is stored complemented, which makes it negative. Returns null if one of the
+   * keys is not in the graph.
+   */
+  @Nullable
+  int[] packGroups(Object[] compressed) {
+    int size = 0;
+    for (Object group : compressed) {
+      size += group instanceof List ? ((List<?>) group).size() : 1;
+    }
+    int[] packed = new int[size];
+    int i = 0;
+    for (Object group : compressed) {
+      int start = i;
+      if (group instanceof List) {
+        for (Object key : (List<?>) group) {
+          packed[i++] = idOf((SkyKey) key);
+        }
+      } else {
+        packed[i++] = idOf((SkyKey) group);
+      }
+      for (int j = start; j < i; j++) {
+        if (packed[j] == NO_ID) {
+          return null;
+        }
+      }
+      packed[i - 1] = ~packed[i - 1];
+    }
+    return packed;
+  }
+
+  /** Inverse of {@link #packGroups}. */
+  @GroupedList.Compressed
+  Object unpackGroups(int[] packed) {
+    int numGroups = 0;
+    for (int id : packed) {
+      if (id < 0) {
+        numGroups++;
+      }
+    }
+    Object[] compressed = new Object[numGroups];
+    int group = 0;
+    int start = 0;
+    for (int i = 0; i < packed.length; i++) {
+      if (packed[i] >= 0) {
+        continue;
+      }
+      if (i == start) {
+        compressed[group++] = key(~packed[i]);
+      } else {
+        ImmutableList.Builder<SkyKey> keys = ImmutableList.builderWithExpectedSize(i - start + 1);
+        for (int j = start; j < i; j++) {
+          keys.add(key(packed[j]));
+        }
+        compressed[group++] = keys.add(key(~packed[i])).build();
+      }
+      start = i + 1;
+    }
+    return GroupedList.castAsCompressed(compressed);
+  }
+
+  private SkyKey[] chunkFor(int id) {
+    int index = id >>> CHUNK_BITS;
+    SkyKey[][] current = chunks;
+    if (index < current.length && current[index] != null) {
+      return current[index];
+    }
+    synchronized (this) {
+      current = chunks;
+      if (index >= current.length) {
+        current = Arrays.copyOf(current, Math.max(index + 1, current.length * 2));
+      }
+      if (current[index] == null) {
+        current[index] = new SkyKey[CHUNK_SIZE];
+      }
+      chunks = current;
+      return current[index];
+    }
+  }
+}
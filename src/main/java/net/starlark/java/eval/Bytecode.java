@@ -0,0 +1,675 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.starlark.java.eval;
+
+import com.google.common.collect.Iterables;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import javax.annotation.Nullable;
+import net.starlark.java.syntax.Identifier;
+import net.starlark.java.syntax.Location;
+import net.starlark.java.syntax.Resolver;
+import net.starlark.java.syntax.TokenKind;
+
+/**
+ * The compiled form of the body of a Starlark function, and the interpreter that executes it.
+ *
+ * <p>The code is a sequence of instructions for a stack machine, each an opcode followed by its
+ * integer operands, which refer to constants, local variable indices, or jump targets. It is
+ * produced by {@link BytecodeCompiler} from the resolved syntax tree, so that variable scopes,
+ * literal values and argument shapes are decided once rather than on every evaluation.
+ *
+ * <p>Instructions that may fail are associated with the location that the syntax tree evaluator
+ * ({@link Eval}) would report for the same failure, so that error messages and stack traces are
+ * the same whichever evaluator is used.
+ *
+ * <p>Each attribute lookup ({@code x.f}) has an {@link InlineCache}, as in the syntax tree
+ * evaluator.
+ */
+final class Bytecode {
+
+  // ---- opcodes ----
+  // Operands follow the opcode. The stack effect is given as [before -> after], top rightmost.
+
+  static final int CONST = 0; // k [-> consts[k]]
+  static final int LOAD_LOCAL = 1; // index id [-> x]
+  static final int LOAD_CELL = 2; // index id [-> x]
+  static final int LOAD_FREE = 3; // index id [-> x]
+  static final int LOAD_GLOBAL = 4; // index id [-> x]
+  static final int LOAD_PREDECLARED = 5; // id [-> x]
+  static final int LOAD_UNIVERSAL = 6; // id [-> x]
+  static final int STORE_LOCAL = 7; // index [x ->]
+  static final int STORE_CELL = 8; // index [x ->]
+  static final int STORE_GLOBAL = 9; // index [x ->]
+  static final int POP = 10; // [x ->]
+  static final int DUP = 11; // [x -> x x]
+  static final int DUP2 = 12; // [x y -> x y x y]
+  static final int SWAP = 13; // [x y -> y x]
+  static final int ROT3 = 14; // [x y z -> z x y]
+  static final int JUMP = 15; // target
+  static final int JUMP_IF_FALSE = 16; // target [cond ->]
+  static final int JUMP_IF_TRUE = 17; // target [cond ->]
+  static final int AND = 18; // target [x -> x] if x is false and jumps, else [x ->]
+  static final int OR = 19; // target [x -> x] if x is true and jumps, else [x ->]
+  static final int BINARY = 20; // op [x y -> z]
+  static final int INPLACE_BINARY = 21; // op [x y -> z]
+  static final int UNARY = 22; // op [x -> y]
+  static final int NOT = 23; // [x -> bool]
+  static final int INDEX = 24; // [x key -> y]
+  static final int SLICE = 25; // [x start stop step -> y]
+  static final int DOT = 26; // name cache [x -> y]
+  static final int SET_INDEX = 27; // [value x key ->]
+  static final int SET_FIELD = 28; // name [value x ->]
+  static final int UNPACK = 29; // n [x -> x[n-1] ... x[0]]
+  static final int LIST = 30; // n [x0 ... xn-1 -> list]
+  static final int TUPLE = 31; // n [x0 ... xn-1 -> tuple]
+  static final int DICT = 32; // [-> dict]
+  static final int DICT_INSERT = 33; // [dict k v -> dict], rejecting duplicate keys
+  static final int DICT_PUT = 34; // [dict k v -> dict]
+  static final int CHECK_HASHABLE = 35; // [x -> x]
+  static final int LIST_APPEND = 36; // [list x -> list]
+  static final int FOR_INIT = 37; // [x ->], pushes an iterator over x
+  static final int FOR_NEXT = 38; // target [-> elem], or pops the iterator and jumps when done
+  static final int FOR_BREAK = 39; // pops the iterator
+  static final int CALL = 40; // site npos nnamed [fn args... [*args] [**kwargs] -> result]
+  static final int MAKE_FUNCTION = 41; // template [defaults... -> fn]
+  static final int RETURN = 42; // [x ->]
+
+  private static final TokenKind[] TOKENS = TokenKind.values();
+
+  /** Describes the shape of a call, for {@link #CALL}. */
+  static final class CallSite {
+    final Location lparenLocation;
+    final String[] names; // names of the keyword arguments
+    @Nullable final Location starLocation; // location of *args, if any
+    @Nullable final Location starStarLocation; // location of **kwargs, if any
+
+    CallSite(
+        Location lparenLocation,
+        String[] names,
+        @Nullable Location starLocation,
+        @Nullable Location starStarLocation) {
+      this.lparenLocation = lparenLocation;
+      this.names = names;
+      this.starLocation = starLocation;
+      this.starStarLocation = starStarLocation;
+    }
+  }
+
+  /** Describes a nested function to create, for {@link #MAKE_FUNCTION}. */
+  static final class FunctionTemplate {
+    final Resolver.Function rfn;
+    final Bytecode bytecode;
+    // Whether the ith parameter of the defaults tuple is MANDATORY (otherwise it is on the stack).
+    final boolean[] mandatory;
+
+    FunctionTemplate(Resolver.Function rfn, Bytecode bytecode, boolean[] mandatory) {
+      this.rfn = rfn;
+      this.bytecode = bytecode;
+      this.mandatory = mandatory;
+    }
+  }
+
+  private final int[] code;
+  private final Location[] locations; // location of the instruction at each pc, if it may fail
+  private final Object[] consts;
+  private final int maxStack;
+  private final int maxIterators;
+
+  // Inline caches of DOT instructions, created on first use. Updated racily.
+  private final InlineCache[] attrCaches;
+
+  Bytecode(
+      int[] code,
+      Location[] locations,
+      Object[] consts,
+      int maxStack,
+      int maxIterators,
+      int attrCaches) {
+    this.code = code;
+    this.locations = locations;
+    this.consts = consts;
+    this.maxStack = maxStack;
+    this.maxIterators = maxIterators;
+    this.attrCaches = new InlineCache[attrCaches];
+  }
+
+  /** Executes the function body in the given frame, whose locals are initialized. */
+  Object exec(StarlarkThread.Frame fr) throws EvalException, InterruptedException {
+    fr.thread.checkInterrupt();
+
+    StarlarkThread thread = fr.thread;
+    StarlarkFunction fn = (StarlarkFunction) fr.fn;
+    Object[] locals = fr.locals;
+    int[] code = this.code;
+    Object[] consts = this.consts;
+
+    Object[] stack = new Object[maxStack];
+    int sp = 0;
+    // The iterables of the enclosing loops, and their iterators.
+    Object[] iterables = maxIterators == 0 ? EMPTY : new Object[maxIterators];
+    Iterator<?>[] iterators = maxIterators == 0 ? NO_ITERATORS : new Iterator<?>[maxIterators];
+    int depth = 0;
+
+    int pc = 0;
+    int start = 0; // pc of the current instruction
+    try {
+      while (true) {
+        start = pc;
+        if (++thread.steps >= thread.stepLimit) {
+          throw new EvalException("Starlark computation cancelled: too many steps");
+        }
+
+        switch (code[pc++]) {
+          case CONST:
+            stack[sp++] = consts[code[pc++]];
+            break;
+
+          case LOAD_LOCAL:
+            {
+              Object x = locals[code[pc++]];
+              if (x == null) {
+                throw unbound((Identifier) consts[code[pc]]);
+              }
+              pc++;
+              stack[sp++] = x;
+              break;
+            }
+
+          case LOAD_CELL:
+            {
+              Object x = ((StarlarkFunction.Cell) locals[code[pc++]]).x;
+              if (x == null) {
+                throw unbound((Identifier) consts[code[pc]]);
+              }
+              pc++;
+              stack[sp++] = x;
+              break;
+            }
+
+          case LOAD_FREE:
+            {
+              Object x = fn.getFreeVar(code[pc++]).x;
+              if (x == null) {
+                throw unbound((Identifier) consts[code[pc]]);
+              }
+              pc++;
+              stack[sp++] = x;
+              break;
+            }
+
+          case LOAD_GLOBAL:
+            {
+              Object x = fn.getGlobal(code[pc++]);
+              if (x == null) {
+                throw unbound((Identifier) consts[code[pc]]);
+              }
+              pc++;
+              stack[sp++] = x;
+              break;
+            }
+
+          case LOAD_PREDECLARED:
+            {
+              Identifier id = (Identifier) consts[code[pc++]];
+              Object x = fn.getModule().getPredeclared(id.getName());
+              if (x == null) {
+                throw unbound(id);
+              }
+              stack[sp++] = x;
+              break;
+            }
+
+          case LOAD_UNIVERSAL:
+            {
+              Identifier id = (Identifier) consts[code[pc++]];
+              Object x = Starlark.UNIVERSE.get(id.getName());
+              if (x == null) {
+                throw unbound(id);
+              }
+              stack[sp++] = x;
+              break;
+            }
+
+          case STORE_LOCAL:
+            locals[code[pc++]] = stack[--sp];
+            break;
+
+          case STORE_CELL:
+            ((StarlarkFunction.Cell) locals[code[pc++]]).x = stack[--sp];
+            break;
+
+          case STORE_GLOBAL:
+            fn.setGlobal(code[pc++], stack[--sp]);
+            break;
+
+          case POP:
+            sp--;
+            break;
+
+          case DUP:
+            stack[sp] = stack[sp - 1];
+            sp++;
+            break;
+
+          case DUP2:
+            stack[sp] = stack[sp - 2];
+            stack[sp + 1] = stack[sp - 1];
+            sp += 2;
+            break;
+
+          case SWAP:
+            {
+              Object x = stack[sp - 1];
+              stack[sp - 1] = stack[sp - 2];
+              stack[sp - 2] = x;
+              break;
+            }
+
+          case ROT3:
+            {
+              Object z = stack[sp - 1];
+              stack[sp - 1] = stack[sp - 2];
+              stack[sp - 2] = stack[sp - 3];
+              stack[sp - 3] = z;
+              break;
+            }
+
+          case JUMP:
+            pc = code[pc];
+            break;
+
+          case JUMP_IF_FALSE:
+            pc = Starlark.truth(stack[--sp]) ? pc + 1 : code[pc];
+            break;
+
+          case JUMP_IF_TRUE:
+            pc = Starlark.truth(stack[--sp]) ? code[pc] : pc + 1;
+            break;
+
+          case AND:
+            if (Starlark.truth(stack[sp - 1])) {
+              sp--;
+              pc++;
+            } else {
+              pc = code[pc];
+            }
+            break;
+
+          case OR:
+            if (Starlark.truth(stack[sp - 1])) {
+              pc = code[pc];
+            } else {
+              sp--;
+              pc++;
+            }
+            break;
+
+          case BINARY:
+            {
+              Object y = stack[--sp];
+              Object x = stack[sp - 1];
+              stack[sp - 1] = EvalUtils.binaryOp(TOKENS[code[pc++]], x, y, thread);
+              break;
+            }
+
+          case INPLACE_BINARY:
+            {
+              Object y = stack[--sp];
+              Object x = stack[sp - 1];
+              stack[sp - 1] = inplaceBinaryOp(thread, TOKENS[code[pc++]], x, y);
+              break;
+            }
+
+          case UNARY:
+            stack[sp - 1] = EvalUtils.unaryOp(TOKENS[code[pc++]], stack[sp - 1]);
+            break;
+
+          case NOT:
+            stack[sp - 1] = !Starlark.truth(stack[sp - 1]);
+            break;
+
+          case INDEX:
+            {
+              Object key = stack[--sp];
+              stack[sp - 1] = EvalUtils.index(thread, stack[sp - 1], key);
+              break;
+            }
+
+          case SLICE:
+            {
+              sp -= 3;
+              stack[sp - 1] =
+                  Starlark.slice(
+                      thread.mutability(), stack[sp - 1], stack[sp], stack[sp + 1], stack[sp + 2]);
+              break;
+            }
+
+          case DOT:
+            {
+              String name = (String) consts[code[pc++]];
+              stack[sp - 1] = getattr(thread, stack[sp - 1], name, code[pc++]);
+              break;
+            }
+
+          case SET_INDEX:
+            sp -= 3;
+            EvalUtils.setIndex(stack[sp + 1], stack[sp + 2], stack[sp]);
+            break;
+
+          case SET_FIELD:
+            sp -= 2;
+            EvalUtils.setField(stack[sp + 1], (String) consts[code[pc++]], stack[sp]);
+            break;
+
+          case UNPACK:
+            {
+              int n = code[pc++];
+              Object x = stack[--sp];
+              unpack(x, n, stack, sp);
+              sp += n;
+              break;
+            }
+
+          case LIST:
+            {
+              int n = code[pc++];
+              Object[] array = Arrays.copyOfRange(stack, sp - n, sp);
+              sp -= n;
+              stack[sp++] = StarlarkList.wrap(thread.mutability(), array);
+              break;
+            }
+
+          case TUPLE:
+            {
+              int n = code[pc++];
+              Object[] array = n == 0 ? EMPTY : Arrays.copyOfRange(stack, sp - n, sp);
+              sp -= n;
+              stack[sp++] = Tuple.wrap(array);
+              break;
+            }
+
+          case DICT:
+            stack[sp++] = Dict.of(thread.mutability());
+            break;
+
+          case DICT_INSERT:
+            {
+              Object v = stack[--sp];
+              Object k = stack[--sp];
+              @SuppressWarnings("unchecked")
+              Dict<Object, Object> dict = (Dict<Object, Object>) stack[sp - 1];
+              int before = dict.size();
+              dict.putEntry(k, v);
+              if (dict.size() == before) {
+                throw Starlark.errorf(
+                    "dictionary expression has duplicate key: %s", Starlark.repr(k));
+              }
+              break;
+            }
+
+          case DICT_PUT:
+            {
+              Object v = stack[--sp];
+              Object k = stack[--sp];
+              @SuppressWarnings("unchecked")
+              Dict<Object, Object> dict = (Dict<Object, Object>) stack[sp - 1];
+              dict.putEntry(k, v);
+              break;
+            }
+
+          case CHECK_HASHABLE:
+            Starlark.checkHashable(stack[sp - 1]);
+            break;
+
+          case LIST_APPEND:
+            {
+              Object x = stack[--sp];
+              @SuppressWarnings("unchecked")
+              StarlarkList<Object> list = (StarlarkList<Object>) stack[sp - 1];
+              list.addElement(x);
+              break;
+            }
+
+          case FOR_INIT:
+            {
+              Object x = stack[--sp];
+              Iterable<?> seq = Starlark.toIterable(x);
+              EvalUtils.addIterator(x);
+              iterables[depth] = x;
+              iterators[depth++] = seq.iterator();
+              break;
+            }
+
+          case FOR_NEXT:
+            {
+              thread.checkInterrupt();
+              Iterator<?> it = iterators[depth - 1];
+              if (it.hasNext()) {
+                stack[sp++] = it.next();
+                pc++;
+              } else {
+                depth--;
+                EvalUtils.removeIterator(iterables[depth]);
+                iterables[depth] = null;
+                iterators[depth] = null;
+                pc = code[pc];
+              }
+              break;
+            }
+
+          case FOR_BREAK:
+            depth--;
+            EvalUtils.removeIterator(iterables[depth]);
+            iterables[depth] = null;
+            iterators[depth] = null;
+            break;
+
+          case CALL:
+            {
+              CallSite site = (CallSite) consts[code[pc++]];
+              int npos = code[pc++];
+              int nnamed = code[pc++];
+              Object starStar = site.starStarLocation != null ? stack[--sp] : null;
+              Object star = site.starLocation != null ? stack[--sp] : null;
+              sp -= npos + nnamed;
+              Object[] positional =
+                  npos == 0 ? EMPTY : Arrays.copyOfRange(stack, sp, sp + npos);
+              Object[] named = nnamed == 0 ? EMPTY : new Object[2 * nnamed];
+              for (int i = 0; i < nnamed; i++) {
+                named[2 * i] = site.names[i];
+                named[2 * i + 1] = stack[sp + npos + i];
+              }
+              if (star != null) {
+                positional = addStarArgs(fr, site, positional, star);
+              }
+              if (starStar != null) {
+                named = addStarStarArgs(fr, site, named, starStar);
+              }
+              Object f = stack[sp - 1];
+              Arrays.fill(stack, sp, sp + npos + nnamed, null);
+
+              thread.checkInterrupt();
+              fr.setLocation(site.lparenLocation);
+              stack[sp - 1] = Starlark.fastcall(thread, f, positional, named);
+              break;
+            }
+
+          case MAKE_FUNCTION:
+            {
+              FunctionTemplate template = (FunctionTemplate) consts[code[pc++]];
+              int n = 0;
+              for (boolean mandatory : template.mandatory) {
+                if (!mandatory) {
+                  n++;
+                }
+              }
+              sp -= n;
+              StarlarkFunction f = newFunction(fn, locals, template, stack, sp);
+              stack[sp++] = f;
+              break;
+            }
+
+          case RETURN:
+            return stack[--sp];
+
+          default:
+            throw new IllegalStateException("unexpected opcode " + code[start] + " at " + start);
+        }
+      }
+
+    } catch (EvalException ex) {
+      Location loc = locations[start];
+      if (loc != null) {
+        fr.setErrorLocation(loc);
+      }
+      throw ex;
+
+    } finally {
+      // Loops left by return statements or errors.
+      while (depth > 0) {
+        EvalUtils.removeIterator(iterables[--depth]);
+      }
+    }
+  }
+
+  private static EvalException unbound(Identifier id) {
+    return Starlark.errorf(
+        "%s variable '%s' is referenced before assignment.",
+        id.getBinding().getScope(), id.getName());
+  }
+
+  private static Object inplaceBinaryOp(StarlarkThread thread, TokenKind op, Object x, Object y)
+      throws EvalException {
+    // list += iterable  behaves like  list.extend(iterable)
+    // (See Eval.inplaceBinaryOp.)
+    if (op == TokenKind.PLUS && x instanceof StarlarkList && y instanceof StarlarkList) {
+      StarlarkList<?> list = (StarlarkList) x;
+      list.extend(y);
+      return list;
+    }
+    return EvalUtils.binaryOp(op, x, y, thread);
+  }
+
+  private Object getattr(StarlarkThread thread, Object x, String name, int cacheIndex)
+      throws EvalException, InterruptedException {
+    InlineCache cache = attrCaches[cacheIndex];
+    if (cache == null) {
+      cache = new InlineCache(name);
+      attrCaches[cacheIndex] = cache;
+    }
+    StarlarkSemantics semantics = thread.getSemantics();
+    return Starlark.getattr(
+        thread.mutability(),
+        semantics,
+        x,
+        name,
+        /*defaultValue=*/ null,
+        cache.lookup(semantics, x.getClass()));
+  }
+
+  // Pushes the n elements of x onto the stack at sp, last element first,
+  // so that they are popped in order by the assignments to the targets.
+  private static void unpack(Object x, int n, Object[] stack, int sp) throws EvalException {
+    // (See Eval.assignSequence.)
+    int nrhs = Starlark.len(x);
+    if (nrhs < 0 || x instanceof String) { // strings are not iterable
+      throw Starlark.errorf(
+          "got '%s' in sequence assignment (want %d-element sequence)", Starlark.type(x), n);
+    }
+    if (n != nrhs) {
+      throw Starlark.errorf(
+          "too %s values to unpack (got %d, want %d)", nrhs < n ? "few" : "many", nrhs, n);
+    }
+    int i = sp + n;
+    for (Object item : Starlark.toIterable(x)) {
+      stack[--i] = item;
+    }
+  }
+
+  private static Object[] addStarArgs(
+      StarlarkThread.Frame fr, CallSite site, Object[] positional, Object value)
+      throws EvalException {
+    if (!(value instanceof StarlarkIterable)) {
+      fr.setErrorLocation(site.starLocation);
+      throw Starlark.errorf("argument after * must be an iterable, not %s", Starlark.type(value));
+    }
+    ArrayList<Object> list = new ArrayList<>();
+    Collections.addAll(list, positional);
+    Iterables.addAll(list, ((Iterable<?>) value));
+    return list.toArray();
+  }
+
+  private static Object[] addStarStarArgs(
+      StarlarkThread.Frame fr, CallSite site, Object[] named, Object value) throws EvalException {
+    if (!(value instanceof Dict)) {
+      fr.setErrorLocation(site.starStarLocation);
+      throw Starlark.errorf("argument after ** must be a dict, not %s", Starlark.type(value));
+    }
+    Dict<?, ?> kwargs = (Dict<?, ?>) value;
+    int j = named.length;
+    named = Arrays.copyOf(named, j + 2 * kwargs.size());
+    for (Map.Entry<?, ?> e : kwargs.entrySet()) {
+      if (!(e.getKey() instanceof String)) {
+        fr.setErrorLocation(site.starStarLocation);
+        throw Starlark.errorf("keywords must be strings, not %s", Starlark.type(e.getKey()));
+      }
+      named[j++] = e.getKey();
+      named[j++] = e.getValue();
+    }
+    return named;
+  }
+
+  // Creates a nested function, taking the values of its optional parameters from stack[sp:].
+  private static StarlarkFunction newFunction(
+      StarlarkFunction fn, Object[] locals, FunctionTemplate template, Object[] stack, int sp) {
+    // (See Eval.newFunction.)
+    Object[] defaults = EMPTY;
+    if (template.mandatory.length > 0) {
+      defaults = new Object[template.mandatory.length];
+      for (int i = 0; i < defaults.length; i++) {
+        defaults[i] = template.mandatory[i] ? StarlarkFunction.MANDATORY : stack[sp++];
+      }
+    }
+
+    Resolver.Function rfn = template.rfn;
+    Object[] freevars = new Object[rfn.getFreeVars().size()];
+    int i = 0;
+    for (Resolver.Binding bind : rfn.getFreeVars()) {
+      switch (bind.getScope()) {
+        case FREE:
+          freevars[i++] = fn.getFreeVar(bind.getIndex());
+          break;
+        case CELL:
+          freevars[i++] = locals[bind.getIndex()];
+          break;
+        default:
+          throw new IllegalStateException("unexpected: " + bind);
+      }
+    }
+
+    StarlarkFunction result =
+        new StarlarkFunction(
+            rfn, fn.getModule(), fn.globalIndex, Tuple.wrap(defaults), Tuple.wrap(freevars));
+    result.setBytecode(template.bytecode);
+    return result;
+  }
+
+  private static final Object[] EMPTY = {};
+  private static final Iterator<?>[] NO_ITERATORS = {};
+}
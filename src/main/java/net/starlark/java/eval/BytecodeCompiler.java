@@ -0,0 +1,695 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.starlark.java.eval;
+
+import static net.starlark.java.eval.Bytecode.AND;
+import static net.starlark.java.eval.Bytecode.BINARY;
+import static net.starlark.java.eval.Bytecode.CALL;
+import static net.starlark.java.eval.Bytecode.CHECK_HASHABLE;
+import static net.starlark.java.eval.Bytecode.CONST;
+import static net.starlark.java.eval.Bytecode.DICT;
+import static net.starlark.java.eval.Bytecode.DICT_INSERT;
+import static net.starlark.java.eval.Bytecode.DICT_PUT;
+import static net.starlark.java.eval.Bytecode.DOT;
+import static net.starlark.java.eval.Bytecode.DUP;
+import static net.starlark.java.eval.Bytecode.DUP2;
+import static net.starlark.java.eval.Bytecode.FOR_BREAK;
+import static net.starlark.java.eval.Bytecode.FOR_INIT;
+import static net.starlark.java.eval.Bytecode.FOR_NEXT;
+import static net.starlark.java.eval.Bytecode.INDEX;
+import static net.starlark.java.eval.Bytecode.INPLACE_BINARY;
+import static net.starlark.java.eval.Bytecode.JUMP;
+import static net.starlark.java.eval.Bytecode.JUMP_IF_FALSE;
+import static net.starlark.java.eval.Bytecode.JUMP_IF_TRUE;
+import static net.starlark.java.eval.Bytecode.LIST;
+import static net.starlark.java.eval.Bytecode.LIST_APPEND;
+import static net.starlark.java.eval.Bytecode.LOAD_CELL;
+import static net.starlark.java.eval.Bytecode.LOAD_FREE;
+import static net.starlark.java.eval.Bytecode.LOAD_GLOBAL;
+import static net.starlark.java.eval.Bytecode.LOAD_LOCAL;
+import static net.starlark.java.eval.Bytecode.LOAD_PREDECLARED;
+import static net.starlark.java.eval.Bytecode.LOAD_UNIVERSAL;
+import static net.starlark.java.eval.Bytecode.MAKE_FUNCTION;
+import static net.starlark.java.eval.Bytecode.NOT;
+import static net.starlark.java.eval.Bytecode.OR;
+import static net.starlark.java.eval.Bytecode.POP;
+import static net.starlark.java.eval.Bytecode.RETURN;
+import static net.starlark.java.eval.Bytecode.ROT3;
+import static net.starlark.java.eval.Bytecode.SET_FIELD;
+import static net.starlark.java.eval.Bytecode.SET_INDEX;
+import static net.starlark.java.eval.Bytecode.SLICE;
+import static net.starlark.java.eval.Bytecode.STORE_CELL;
+import static net.starlark.java.eval.Bytecode.STORE_GLOBAL;
+import static net.starlark.java.eval.Bytecode.STORE_LOCAL;
+import static net.starlark.java.eval.Bytecode.SWAP;
+import static net.starlark.java.eval.Bytecode.TUPLE;
+import static net.starlark.java.eval.Bytecode.UNARY;
+import static net.starlark.java.eval.Bytecode.UNPACK;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import javax.annotation.Nullable;
+import net.starlark.java.syntax.Argument;
+import net.starlark.java.syntax.AssignmentStatement;
+import net.starlark.java.syntax.BinaryOperatorExpression;
+import net.starlark.java.syntax.CallExpression;
+import net.starlark.java.syntax.Comprehension;
+import net.starlark.java.syntax.ConditionalExpression;
+import net.starlark.java.syntax.DefStatement;
+import net.starlark.java.syntax.DictExpression;
+import net.starlark.java.syntax.DotExpression;
+import net.starlark.java.syntax.Expression;
+import net.starlark.java.syntax.ExpressionStatement;
+import net.starlark.java.syntax.FloatLiteral;
+import net.starlark.java.syntax.FlowStatement;
+import net.starlark.java.syntax.ForStatement;
+import net.starlark.java.syntax.Identifier;
+import net.starlark.java.syntax.IfStatement;
+import net.starlark.java.syntax.IndexExpression;
+import net.starlark.java.syntax.IntLiteral;
+import net.starlark.java.syntax.LambdaExpression;
+import net.starlark.java.syntax.ListExpression;
+import net.starlark.java.syntax.Location;
+import net.starlark.java.syntax.Resolver;
+import net.starlark.java.syntax.ReturnStatement;
+import net.starlark.java.syntax.SliceExpression;
+import net.starlark.java.syntax.Statement;
+import net.starlark.java.syntax.StringLiteral;
+import net.starlark.java.syntax.TokenKind;
+import net.starlark.java.syntax.UnaryOperatorExpression;
+
+/**
+ * Compiles the body of a resolved Starlark function to {@link Bytecode}.
+ *
+ * <p>The compiler handles the body of any function other than the toplevel function of a file,
+ * whose load statements and assignment hook remain the business of {@link Eval}. Nested functions
+ * are compiled along with their enclosing function.
+ */
+final class BytecodeCompiler {
+
+  private int[] code = new int[64];
+  private Location[] locations = new Location[64];
+  private int pc = 0;
+
+  private final List<Object> consts = new ArrayList<>();
+  private final HashMap<String, Integer> stringConsts = new HashMap<>();
+
+  private int sp = 0; // the stack depth at pc
+  private int maxStack = 0;
+  private int depth = 0; // the number of enclosing loops at pc
+  private int maxDepth = 0;
+  private int attrCaches = 0;
+
+  /** The enclosing for statements, innermost last. */
+  private final List<Loop> loops = new ArrayList<>();
+
+  private static final class Loop {
+    final int head; // pc of the FOR_NEXT instruction
+    final List<Integer> breaks = new ArrayList<>(); // pcs of the operands of break jumps
+
+    Loop(int head) {
+      this.head = head;
+    }
+  }
+
+  private BytecodeCompiler() {}
+
+  /** Compiles the body of the given function, which must not be a toplevel function. */
+  static Bytecode compile(Resolver.Function rfn) {
+    Preconditions.checkArgument(!rfn.isToplevel(), "cannot compile toplevel function");
+    BytecodeCompiler c = new BytecodeCompiler();
+    c.statements(rfn.getBody());
+    c.constant(Starlark.NONE);
+    c.emit(RETURN, -1);
+    return new Bytecode(
+        Arrays.copyOf(c.code, c.pc),
+        Arrays.copyOf(c.locations, c.pc),
+        c.consts.toArray(),
+        c.maxStack,
+        c.maxDepth,
+        c.attrCaches);
+  }
+
+  // ---- emitting instructions ----
+
+  // Emits an instruction with the given operands and effect on the stack depth.
+  // Returns the pc of the instruction.
+  private int emit(int op, int stackEffect, int... operands) {
+    int start = pc;
+    if (pc + 1 + operands.length > code.length) {
+      code = Arrays.copyOf(code, 2 * code.length + operands.length);
+      locations = Arrays.copyOf(locations, code.length);
+    }
+    code[pc++] = op;
+    for (int operand : operands) {
+      code[pc++] = operand;
+    }
+    sp += stackEffect;
+    maxStack = Math.max(maxStack, sp);
+    return start;
+  }
+
+  // Emits an instruction that may fail, reporting the given location.
+  private int emitAt(Location loc, int op, int stackEffect, int... operands) {
+    int start = emit(op, stackEffect, operands);
+    locations[start] = loc;
+    return start;
+  }
+
+  // Sets the target of the jump instruction whose target operand is at the given pc to the
+  // current pc.
+  private void patch(int operand) {
+    code[operand] = pc;
+  }
+
+  private int addConst(Object x) {
+    consts.add(x);
+    return consts.size() - 1;
+  }
+
+  private int stringConst(String s) {
+    Integer k = stringConsts.get(s);
+    if (k == null) {
+      k = addConst(s);
+      stringConsts.put(s, k);
+    }
+    return k;
+  }
+
+  private void constant(Object x) {
+    emit(CONST, +1, x instanceof String ? stringConst((String) x) : addConst(x));
+  }
+
+  // ---- statements ----
+
+  private void statements(List<Statement> statements) {
+    for (Statement st : statements) {
+      statement(st);
+    }
+  }
+
+  private void statement(Statement st) {
+    switch (st.kind()) {
+      case ASSIGNMENT:
+        assignment((AssignmentStatement) st);
+        return;
+      case EXPRESSION:
+        expr(((ExpressionStatement) st).getExpression());
+        emit(POP, -1);
+        return;
+      case FLOW:
+        flow((FlowStatement) st);
+        return;
+      case FOR:
+        forStatement((ForStatement) st);
+        return;
+      case DEF:
+        DefStatement def = (DefStatement) st;
+        function(def.getResolvedFunction());
+        assign(def.getIdentifier(), /*loc=*/ null);
+        return;
+      case IF:
+        ifStatement((IfStatement) st);
+        return;
+      case RETURN:
+        Expression result = ((ReturnStatement) st).getResult();
+        if (result != null) {
+          expr(result);
+        } else {
+          constant(Starlark.NONE);
+        }
+        emit(RETURN, -1);
+        return;
+      case LOAD:
+        // The parser rejects load statements within functions.
+        break;
+    }
+    throw new IllegalArgumentException("unexpected statement: " + st.kind());
+  }
+
+  private void flow(FlowStatement st) {
+    switch (st.getKind()) {
+      case PASS:
+        return;
+      case BREAK:
+        {
+          Loop loop = loops.get(loops.size() - 1);
+          emit(FOR_BREAK, 0);
+          loop.breaks.add(emit(JUMP, 0, -1) + 1);
+          return;
+        }
+      case CONTINUE:
+        emit(JUMP, 0, loops.get(loops.size() - 1).head);
+        return;
+      default:
+        throw new IllegalArgumentException("unexpected flow statement: " + st.getKind());
+    }
+  }
+
+  private void ifStatement(IfStatement st) {
+    int toElse = conditionalJump(st.getCondition(), /*ifTrue=*/ false);
+    statements(st.getThenBlock());
+    if (st.getElseBlock() == null) {
+      patch(toElse);
+      return;
+    }
+    int toEnd = emit(JUMP, 0, -1) + 1;
+    patch(toElse);
+    statements(st.getElseBlock());
+    patch(toEnd);
+  }
+
+  // Emits a jump taken if the condition is ifTrue, and returns the pc of its target operand.
+  private int conditionalJump(Expression cond, boolean ifTrue) {
+    // Avoid materializing the negation of 'not x'.
+    while (cond instanceof UnaryOperatorExpression
+        && ((UnaryOperatorExpression) cond).getOperator() == TokenKind.NOT) {
+      cond = ((UnaryOperatorExpression) cond).getX();
+      ifTrue = !ifTrue;
+    }
+    expr(cond);
+    return emit(ifTrue ? JUMP_IF_TRUE : JUMP_IF_FALSE, -1, -1) + 1;
+  }
+
+  private void forStatement(ForStatement st) {
+    Location loc = st.getStartLocation();
+    expr(st.getCollection());
+    Loop loop = beginLoop(loc);
+    assign(st.getVars(), loc);
+    statements(st.getBody());
+    endLoop(loop);
+  }
+
+  // Emits the head of a loop over the iterable on the stack. The loop body must leave the stack
+  // depth unchanged. The element is on the stack at the start of the body.
+  private Loop beginLoop(Location loc) {
+    emitAt(loc, FOR_INIT, -1);
+    depth++;
+    maxDepth = Math.max(maxDepth, depth);
+    Loop loop = new Loop(pc);
+    loop.breaks.add(emit(FOR_NEXT, +1, -1) + 1);
+    loops.add(loop);
+    return loop;
+  }
+
+  private void endLoop(Loop loop) {
+    emit(JUMP, 0, loop.head);
+    for (int operand : loop.breaks) {
+      patch(operand);
+    }
+    loops.remove(loops.size() - 1);
+    depth--;
+  }
+
+  private void assignment(AssignmentStatement st) {
+    Location loc = st.getOperatorLocation();
+    if (!st.isAugmented()) {
+      expr(st.getRHS());
+      assign(st.getLHS(), loc);
+      return;
+    }
+
+    Expression lhs = st.getLHS();
+    int op = st.getOperator().ordinal();
+    if (lhs instanceof Identifier) {
+      // x op= y
+      expr(lhs);
+      expr(st.getRHS());
+      emitAt(loc, INPLACE_BINARY, -1, op);
+      assign(lhs, loc);
+
+    } else if (lhs instanceof IndexExpression) {
+      // object[key] op= y
+      IndexExpression index = (IndexExpression) lhs;
+      expr(index.getObject());
+      expr(index.getKey());
+      emit(DUP2, +2);
+      emitAt(loc, INDEX, -1);
+      expr(st.getRHS());
+      emitAt(loc, INPLACE_BINARY, -1, op);
+      emit(ROT3, 0);
+      emitAt(loc, SET_INDEX, -3);
+
+    } else if (lhs instanceof DotExpression) {
+      // object.field op= y
+      DotExpression dot = (DotExpression) lhs;
+      Location dotLoc = dot.getDotLocation();
+      int name = stringConst(dot.getField().getName());
+      expr(dot.getObject());
+      emit(DUP, +1);
+      emitAt(dotLoc, DOT, 0, name, attrCaches++);
+      expr(st.getRHS());
+      emitAt(loc, INPLACE_BINARY, -1, op);
+      emit(SWAP, 0);
+      emitAt(dotLoc, SET_FIELD, -2, name);
+
+    } else {
+      // Not possible for resolved ASTs.
+      throw new IllegalArgumentException("cannot perform augmented assignment on " + lhs);
+    }
+  }
+
+  // Emits the assignment of the value on the stack to the target lhs,
+  // reporting failures at loc (except those of the target's subexpressions).
+  private void assign(Expression lhs, @Nullable Location loc) {
+    if (lhs instanceof Identifier) {
+      Resolver.Binding bind = ((Identifier) lhs).getBinding();
+      switch (bind.getScope()) {
+        case LOCAL:
+          emit(STORE_LOCAL, -1, bind.getIndex());
+          return;
+        case CELL:
+          emit(STORE_CELL, -1, bind.getIndex());
+          return;
+        case GLOBAL:
+          emit(STORE_GLOBAL, -1, bind.getIndex());
+          return;
+        default:
+          throw new IllegalStateException(bind.getScope().toString());
+      }
+
+    } else if (lhs instanceof IndexExpression) {
+      IndexExpression index = (IndexExpression) lhs;
+      expr(index.getObject());
+      expr(index.getKey());
+      emitAt(loc, SET_INDEX, -3);
+
+    } else if (lhs instanceof ListExpression) {
+      List<Expression> elems = ((ListExpression) lhs).getElements();
+      emitAt(loc, UNPACK, elems.size() - 1, elems.size());
+      for (Expression elem : elems) {
+        assign(elem, loc);
+      }
+
+    } else if (lhs instanceof DotExpression) {
+      DotExpression dot = (DotExpression) lhs;
+      expr(dot.getObject());
+      emitAt(dot.getDotLocation(), SET_FIELD, -2, stringConst(dot.getField().getName()));
+
+    } else {
+      // Not possible for resolved ASTs.
+      throw new IllegalArgumentException("cannot assign to " + lhs);
+    }
+  }
+
+  // Emits the creation of a nested function, evaluating the defaults of its optional parameters.
+  private void function(Resolver.Function rfn) {
+    // (See Eval.newFunction.)
+    int nparams =
+        rfn.getParameters().size() - (rfn.hasKwargs() ? 1 : 0) - (rfn.hasVarargs() ? 1 : 0);
+    int first = 0; // index of the first optional parameter
+    while (first < nparams && rfn.getParameters().get(first).getDefaultValue() == null) {
+      first++;
+    }
+    boolean[] mandatory = new boolean[nparams - first];
+    int n = 0;
+    for (int i = first; i < nparams; i++) {
+      Expression expr = rfn.getParameters().get(i).getDefaultValue();
+      if (expr == null) {
+        mandatory[i - first] = true;
+      } else {
+        expr(expr);
+        n++;
+      }
+    }
+    Bytecode.FunctionTemplate template =
+        new Bytecode.FunctionTemplate(rfn, compile(rfn), mandatory);
+    emit(MAKE_FUNCTION, 1 - n, addConst(template));
+  }
+
+  // ---- expressions ----
+
+  private void expr(Expression expr) {
+    switch (expr.kind()) {
+      case BINARY_OPERATOR:
+        binaryOperator((BinaryOperatorExpression) expr);
+        return;
+      case COMPREHENSION:
+        comprehension((Comprehension) expr);
+        return;
+      case CONDITIONAL:
+        {
+          ConditionalExpression cond = (ConditionalExpression) expr;
+          int toElse = conditionalJump(cond.getCondition(), /*ifTrue=*/ false);
+          expr(cond.getThenCase());
+          int toEnd = emit(JUMP, 0, -1) + 1;
+          sp--; // only one of the cases is evaluated
+          patch(toElse);
+          expr(cond.getElseCase());
+          patch(toEnd);
+          return;
+        }
+      case DICT_EXPR:
+        emit(DICT, +1);
+        for (DictExpression.Entry entry : ((DictExpression) expr).getEntries()) {
+          expr(entry.getKey());
+          expr(entry.getValue());
+          emitAt(entry.getColonLocation(), DICT_INSERT, -2);
+        }
+        return;
+      case DOT:
+        {
+          DotExpression dot = (DotExpression) expr;
+          expr(dot.getObject());
+          emitAt(
+              dot.getDotLocation(),
+              DOT,
+              0,
+              stringConst(dot.getField().getName()),
+              attrCaches++);
+          return;
+        }
+      case CALL:
+        call((CallExpression) expr);
+        return;
+      case IDENTIFIER:
+        identifier((Identifier) expr);
+        return;
+      case INDEX:
+        {
+          IndexExpression index = (IndexExpression) expr;
+          expr(index.getObject());
+          expr(index.getKey());
+          emitAt(index.getLbracketLocation(), INDEX, -1);
+          return;
+        }
+      case INT_LITERAL:
+        {
+          Number n = ((IntLiteral) expr).getValue();
+          if (n instanceof Integer) {
+            constant(StarlarkInt.of((Integer) n));
+          } else if (n instanceof Long) {
+            constant(StarlarkInt.of((Long) n));
+          } else {
+            constant(StarlarkInt.of((BigInteger) n));
+          }
+          return;
+        }
+      case FLOAT_LITERAL:
+        constant(StarlarkFloat.of(((FloatLiteral) expr).getValue()));
+        return;
+      case LAMBDA:
+        function(((LambdaExpression) expr).getResolvedFunction());
+        return;
+      case LIST_EXPR:
+        {
+          ListExpression list = (ListExpression) expr;
+          for (Expression elem : list.getElements()) {
+            expr(elem);
+          }
+          int n = list.getElements().size();
+          emit(list.isTuple() ? TUPLE : LIST, 1 - n, n);
+          return;
+        }
+      case SLICE:
+        {
+          SliceExpression slice = (SliceExpression) expr;
+          expr(slice.getObject());
+          optionalExpr(slice.getStart());
+          optionalExpr(slice.getStop());
+          optionalExpr(slice.getStep());
+          emitAt(slice.getLbracketLocation(), SLICE, -3);
+          return;
+        }
+      case STRING_LITERAL:
+        constant(((StringLiteral) expr).getValue());
+        return;
+      case UNARY_OPERATOR:
+        {
+          UnaryOperatorExpression unop = (UnaryOperatorExpression) expr;
+          expr(unop.getX());
+          if (unop.getOperator() == TokenKind.NOT) {
+            emit(NOT, 0);
+          } else {
+            emitAt(unop.getStartLocation(), UNARY, 0, unop.getOperator().ordinal());
+          }
+          return;
+        }
+    }
+    throw new IllegalArgumentException("unexpected expression: " + expr.kind());
+  }
+
+  private void optionalExpr(@Nullable Expression expr) {
+    if (expr != null) {
+      expr(expr);
+    } else {
+      constant(Starlark.NONE);
+    }
+  }
+
+  private void binaryOperator(BinaryOperatorExpression binop) {
+    expr(binop.getX());
+    switch (binop.getOperator()) {
+      case AND:
+      case OR:
+        {
+          // Short-circuit evaluation: y is evaluated (replacing x) only if needed.
+          int toEnd = emit(binop.getOperator() == TokenKind.AND ? AND : OR, -1, -1) + 1;
+          expr(binop.getY());
+          patch(toEnd);
+          return;
+        }
+      default:
+        expr(binop.getY());
+        emitAt(binop.getOperatorLocation(), BINARY, -1, binop.getOperator().ordinal());
+    }
+  }
+
+  private void identifier(Identifier id) {
+    Resolver.Binding bind = id.getBinding();
+    Location loc = id.getStartLocation();
+    switch (bind.getScope()) {
+      case LOCAL:
+        emitAt(loc, LOAD_LOCAL, +1, bind.getIndex(), addConst(id));
+        return;
+      case CELL:
+        emitAt(loc, LOAD_CELL, +1, bind.getIndex(), addConst(id));
+        return;
+      case FREE:
+        emitAt(loc, LOAD_FREE, +1, bind.getIndex(), addConst(id));
+        return;
+      case GLOBAL:
+        emitAt(loc, LOAD_GLOBAL, +1, bind.getIndex(), addConst(id));
+        return;
+      case PREDECLARED:
+        emitAt(loc, LOAD_PREDECLARED, +1, addConst(id));
+        return;
+      case UNIVERSAL:
+        // The universe is immutable.
+        Object x = Starlark.UNIVERSE.get(id.getName());
+        if (x != null) {
+          constant(x);
+        } else {
+          emitAt(loc, LOAD_UNIVERSAL, +1, addConst(id));
+        }
+        return;
+    }
+    throw new IllegalStateException(bind.toString());
+  }
+
+  private void call(CallExpression call) {
+    expr(call.getFunction());
+
+    // Starlark arguments are ordered: positionals < keywords < *args < **kwargs.
+    // (See Eval.evalCall.)
+    ImmutableList<Argument> arguments = call.getArguments();
+    int n = arguments.size();
+    Argument.StarStar starStar = null;
+    if (n > 0 && arguments.get(n - 1) instanceof Argument.StarStar) {
+      starStar = (Argument.StarStar) arguments.get(n - 1);
+      n--;
+    }
+    Argument.Star star = null;
+    if (n > 0 && arguments.get(n - 1) instanceof Argument.Star) {
+      star = (Argument.Star) arguments.get(n - 1);
+      n--;
+    }
+    int npos = call.getNumPositionalArguments();
+    String[] names = new String[n - npos];
+    for (int i = 0; i < n; i++) {
+      Argument arg = arguments.get(i);
+      expr(arg.getValue());
+      if (i >= npos) {
+        names[i - npos] = ((Argument.Keyword) arg).getName();
+      }
+    }
+    if (star != null) {
+      expr(star.getValue());
+    }
+    if (starStar != null) {
+      expr(starStar.getValue());
+    }
+
+    Location lparen = call.getLparenLocation();
+    Bytecode.CallSite site =
+        new Bytecode.CallSite(
+            lparen,
+            names,
+            star != null ? star.getStartLocation() : null,
+            starStar != null ? starStar.getStartLocation() : null);
+    int nargs = n + (star != null ? 1 : 0) + (starStar != null ? 1 : 0);
+    emitAt(lparen, CALL, -nargs, addConst(site), npos, n - npos);
+  }
+
+  private void comprehension(Comprehension comp) {
+    // (See Eval.evalComprehension.)
+    if (comp.isDict()) {
+      emit(DICT, +1);
+    } else {
+      emit(LIST, +1, 0);
+    }
+    clauses(comp, 0);
+  }
+
+  // Emits the clauses of a comprehension starting at index, and finally the body that adds an
+  // element to the result.
+  private void clauses(Comprehension comp, int index) {
+    if (index < comp.getClauses().size()) {
+      Comprehension.Clause clause = comp.getClauses().get(index);
+      if (clause instanceof Comprehension.For) {
+        Comprehension.For forClause = (Comprehension.For) clause;
+        Location loc = forClause.getStartLocation();
+        expr(forClause.getIterable());
+        Loop loop = beginLoop(loc);
+        assign(forClause.getVars(), loc);
+        clauses(comp, index + 1);
+        endLoop(loop);
+      } else {
+        Comprehension.If ifClause = (Comprehension.If) clause;
+        int toEnd = conditionalJump(ifClause.getCondition(), /*ifTrue=*/ false);
+        clauses(comp, index + 1);
+        patch(toEnd);
+      }
+      return;
+    }
+
+    if (comp.isDict()) {
+      DictExpression.Entry body = (DictExpression.Entry) comp.getBody();
+      Location loc = body.getColonLocation();
+      expr(body.getKey());
+      emitAt(loc, CHECK_HASHABLE, 0);
+      expr(body.getValue());
+      emitAt(loc, DICT_PUT, -2);
+    } else {
+      expr((Expression) comp.getBody());
+      emit(LIST_APPEND, -1);
+    }
+  }
+}
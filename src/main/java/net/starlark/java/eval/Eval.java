@@ -423,13 +423,7 @@ final class Eval {
       Object object = eval(fr, dot.getObject());
       String field = dot.getField().getName();
       try {
-        Object x =
-            Starlark.getattr(
-                fr.thread.mutability(),
-                fr.thread.getSemantics(),
-                object,
-                field,
-                /*defaultValue=*/ null);
+        Object x = getattr(fr, dot, object);
         Object y = eval(fr, rhs);
         Object z;
         try {
@@ -570,16 +564,32 @@ final class Eval {
   private static Object evalDot(StarlarkThread.Frame fr, DotExpression dot)
       throws EvalException, InterruptedException {
     Object object = eval(fr, dot.getObject());
-    String name = dot.getField().getName();
     try {
-      return Starlark.getattr(
-          fr.thread.mutability(), fr.thread.getSemantics(), object, name, /*defaultValue=*/ null);
+      return getattr(fr, dot, object);
     } catch (EvalException ex) {
       fr.setErrorLocation(dot.getDotLocation());
       throw ex;
     }
   }
 
+  // Returns x.f, using the inline cache of the dot expression to find the annotated method.
+  private static Object getattr(StarlarkThread.Frame fr, DotExpression dot, Object x)
+      throws EvalException, InterruptedException {
+    InlineCache cache = (InlineCache) dot.getEvalCache();
+    if (cache == null) {
+      cache = new InlineCache(dot.getField().getName());
+      dot.setEvalCache(cache);
+    }
+    StarlarkSemantics semantics = fr.thread.getSemantics();
+    return Starlark.getattr(
+        fr.thread.mutability(),
+        semantics,
+        x,
+        dot.getField().getName(),
+        /*defaultValue=*/ null,
+        cache.lookup(semantics, x.getClass()));
+  }
+
   private static Object evalCall(StarlarkThread.Frame fr, CallExpression call)
       throws EvalException, InterruptedException {
     fr.thread.checkInterrupt();
@@ -0,0 +1,82 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.starlark.java.eval;
+
+import javax.annotation.Nullable;
+
+/**
+ * An InlineCache remembers, for a single attribute expression {@code x.f} in the program, the
+ * {@code StarlarkMethod}-annotated method named {@code f} (if any) of each of the last few
+ * receiver classes, sparing repeated lookups in the tables of {@link CallUtils}.
+ *
+ * <p>Most attribute expressions only ever see values of one class (for example, {@code
+ * ctx.actions}), so the cache is usually monomorphic. A cache holds at most {@link #MAX_ENTRIES}
+ * classes; lookups of other classes go to {@link CallUtils} every time.
+ *
+ * <p>An InlineCache may be shared by threads without synchronization. Each entry is immutable, so
+ * a racing update can at worst lose an entry, which will be recomputed later.
+ */
+final class InlineCache {
+
+  private static final int MAX_ENTRIES = 4;
+
+  private static final class Entry {
+    final Class<?> cls;
+    final StarlarkSemantics semantics;
+    @Nullable final MethodDescriptor method;
+    @Nullable final Entry next;
+    final int size;
+
+    Entry(
+        Class<?> cls,
+        StarlarkSemantics semantics,
+        @Nullable MethodDescriptor method,
+        @Nullable Entry next) {
+      this.cls = cls;
+      this.semantics = semantics;
+      this.method = method;
+      this.next = next;
+      this.size = next == null ? 1 : next.size + 1;
+    }
+  }
+
+  private final String name;
+  @Nullable private Entry entries; // (racy)
+
+  InlineCache(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Returns the annotated method or field of the specified name for values of class {@code cls}
+   * under the given semantics, or null if there is none.
+   */
+  @Nullable
+  MethodDescriptor lookup(StarlarkSemantics semantics, Class<?> cls) {
+    Entry entries = this.entries;
+    // Semantics are compared by identity: a thread's semantics rarely change,
+    // and an equal but distinct value merely costs another entry.
+    for (Entry e = entries; e != null; e = e.next) {
+      if (e.cls == cls && e.semantics == semantics) {
+        return e.method;
+      }
+    }
+    MethodDescriptor method = CallUtils.getAnnotatedMethods(semantics, cls).get(name);
+    if (entries == null || entries.size < MAX_ENTRIES) {
+      this.entries = new Entry(cls, semantics, method, entries);
+    }
+    return method;
+  }
+}
@@ -687,8 +687,28 @@ public final class Starlark {
       String name,
       @Nullable Object defaultValue)
       throws EvalException, InterruptedException {
+    return getattr(
+        mu,
+        semantics,
+        x,
+        name,
+        defaultValue,
+        CallUtils.getAnnotatedMethods(semantics, x.getClass()).get(name));
+  }
+
+  /**
+   * Like {@link #getattr(Mutability, StarlarkSemantics, Object, String, Object)}, for a caller that
+   * has already looked up the {@link StarlarkMethod}-annotated method of that name, if any.
+   */
+  static Object getattr(
+      Mutability mu,
+      StarlarkSemantics semantics,
+      Object x,
+      String name,
+      @Nullable Object defaultValue,
+      @Nullable MethodDescriptor method)
+      throws EvalException, InterruptedException {
     // StarlarkMethod-annotated field or method?
-    MethodDescriptor method = CallUtils.getAnnotatedMethods(semantics, x.getClass()).get(name);
     if (method != null) {
       if (method.isStructField()) {
         return method.callField(x, semantics, mu);
@@ -52,6 +52,11 @@ public final class StarlarkFunction implements StarlarkCallable {
   // Indexed by Resolver.Binding(FREE).index values.
   private final Tuple freevars;
 
+  // The compiled form of the function body, if the function has been called by a thread that uses
+  // bytecode, or if it was created by compiled code. Racy initialization is benign, as Bytecode is
+  // safely published by its final fields.
+  @Nullable private Bytecode bytecode;
+
   StarlarkFunction(
       Resolver.Function rfn,
       Module module,
@@ -188,9 +193,23 @@ public final class StarlarkFunction implements StarlarkCallable {
       fr.locals[index] = new Cell(fr.locals[index]);
     }
 
+    // The debugger, if any, needs the syntax tree evaluator's statement-level hooks.
+    if (thread.useBytecode() && fr.dbg == null && !rfn.isToplevel()) {
+      Bytecode bytecode = this.bytecode;
+      if (bytecode == null) {
+        this.bytecode = bytecode = BytecodeCompiler.compile(rfn);
+      }
+      return bytecode.exec(fr);
+    }
+
     return Eval.execFunctionBody(fr, rfn.getBody());
   }
 
+  // Sets the compiled form of a function created by compiled code.
+  void setBytecode(Bytecode bytecode) {
+    this.bytecode = bytecode;
+  }
+
   Cell getFreeVar(int index) {
     return (Cell) freevars.get(index);
   }
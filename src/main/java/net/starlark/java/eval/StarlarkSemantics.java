@@ -232,4 +232,11 @@ public final class StarlarkSemantics {
    * unconditionally prohibits recursion.
    */
   public static final String ALLOW_RECURSION = "-allow_recursion";
+
+  /**
+   * Whether the bodies of Starlark functions are compiled to bytecode on first call and executed
+   * by the bytecode interpreter instead of the syntax tree evaluator. The two are observably
+   * equivalent except for the number of computation steps reported for a computation.
+   */
+  public static final String EXPERIMENTAL_STARLARK_BYTECODE = "-experimental_starlark_bytecode";
 }
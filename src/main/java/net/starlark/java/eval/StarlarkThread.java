@@ -208,6 +208,9 @@ public final class StarlarkThread {
   /** Whether recursive calls are allowed (cached from semantics). */
   private final boolean allowRecursion;
 
+  /** Whether Starlark functions are executed from bytecode (cached from semantics). */
+  private final boolean useBytecode;
+
   /** PrintHandler for Starlark print statements. */
   private PrintHandler printHandler = StarlarkThread::defaultPrintHandler;
 
@@ -385,6 +388,7 @@ public final class StarlarkThread {
     this.mutability = mu;
     this.semantics = semantics;
     this.allowRecursion = semantics.getBool(StarlarkSemantics.ALLOW_RECURSION);
+    this.useBytecode = semantics.getBool(StarlarkSemantics.EXPERIMENTAL_STARLARK_BYTECODE);
   }
 
   /**
@@ -413,6 +417,11 @@ public final class StarlarkThread {
     return allowRecursion;
   }
 
+  /** Reports whether Starlark functions called by this thread are executed from bytecode. */
+  boolean useBytecode() {
+    return useBytecode;
+  }
+
   // Implementation of Debug.getCallStack.
   // Intentionally obscured to steer most users to the simpler getCallStack.
   ImmutableList<Debug.Frame> getDebugCallStack() {
@@ -13,6 +13,8 @@
 // limitations under the License.
 package net.starlark.java.syntax;
 
+import javax.annotation.Nullable;
+
 /** Syntax node for a dot expression. e.g. obj.field, but not obj.method() */
 public final class DotExpression extends Expression {
 
@@ -20,6 +22,10 @@ public final class DotExpression extends Expression {
   private final int dotOffset;
   private final Identifier field;
 
+  // An opaque cache owned by the evaluator, used to speed up repeated
+  // evaluation of this expression. The evaluator tolerates racy updates.
+  @Nullable private Object evalCache;
+
   DotExpression(FileLocations locs, Expression object, int dotOffset, Identifier field) {
     super(locs);
     this.object = object;
@@ -49,6 +55,20 @@ public final class DotExpression extends Expression {
     return locs.getLocation(dotOffset);
   }
 
+  /**
+   * Returns the evaluator's cache for this expression, or null if none has been set. For use by
+   * the Starlark evaluator only.
+   */
+  @Nullable
+  public Object getEvalCache() {
+    return evalCache;
+  }
+
+  /** Sets the evaluator's cache for this expression. For use by the Starlark evaluator only. */
+  public void setEvalCache(Object evalCache) {
+    this.evalCache = evalCache;
+  }
+
   @Override
   public void accept(NodeVisitor visitor) {
     visitor.visit(this);
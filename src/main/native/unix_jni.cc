@@ -382,6 +382,128 @@ Java_com_google_devtools_build_lib_unix_NativePosixFiles_errnoLstat(JNIEnv *env,
   return StatCommon(env, path, portable_lstat, false);
 }
 
+static jlong StatMillis(const portable_stat_struct &statbuf, StatTimes t) {
+  return static_cast<jlong>(StatSeconds(statbuf, t)) * 1000 +
+         StatNanoSeconds(statbuf, t) / 1000000;
+}
+
+/*
+ * Class:     com.google.devtools.build.lib.unix.NativePosixFiles
+ * Method:    batchStat
+ * Signature: ([Ljava/lang/String;Z[I[I[J[J[J[J)V
+ */
+extern "C" JNIEXPORT void JNICALL
+Java_com_google_devtools_build_lib_unix_NativePosixFiles_batchStat(
+    JNIEnv *env, jclass clazz, jobjectArray paths, jboolean follow_symlinks,
+    jintArray errnos, jintArray modes, jlongArray sizes, jlongArray mtimes,
+    jlongArray ctimes, jlongArray inodes) {
+  int (*stat_function)(const char *, portable_stat_struct *) =
+      follow_symlinks ? portable_stat : portable_lstat;
+  jsize count = env->GetArrayLength(paths);
+  std::vector<jint> errno_values(count);
+  std::vector<jint> mode_values(count);
+  std::vector<jlong> size_values(count);
+  std::vector<jlong> mtime_values(count);
+  std::vector<jlong> ctime_values(count);
+  std::vector<jlong> inode_values(count);
+  for (jsize i = 0; i < count; i++) {
+    jstring path = static_cast<jstring>(env->GetObjectArrayElement(paths, i));
+    const char *path_chars = GetStringLatin1Chars(env, path);
+    portable_stat_struct statbuf;
+    int r;
+    while ((r = stat_function(path_chars, &statbuf)) == -1 && errno == EINTR) {
+    }
+    if (r == -1) {
+      errno_values[i] = errno;
+    } else {
+      mode_values[i] = statbuf.st_mode;
+      size_values[i] = static_cast<jlong>(statbuf.st_size);
+      mtime_values[i] = StatMillis(statbuf, STAT_MTIME);
+      ctime_values[i] = StatMillis(statbuf, STAT_CTIME);
+      inode_values[i] = static_cast<jlong>(statbuf.st_ino);
+    }
+    ReleaseStringLatin1Chars(path_chars);
+    // Local references are only freed on return, so release them eagerly for
+    // large batches.
+    env->DeleteLocalRef(path);
+  }
+  env->SetIntArrayRegion(errnos, 0, count, errno_values.data());
+  env->SetIntArrayRegion(modes, 0, count, mode_values.data());
+  env->SetLongArrayRegion(sizes, 0, count, size_values.data());
+  env->SetLongArrayRegion(mtimes, 0, count, mtime_values.data());
+  env->SetLongArrayRegion(ctimes, 0, count, ctime_values.data());
+  env->SetLongArrayRegion(inodes, 0, count, inode_values.data());
+}
+
+/*
+ * Class:     com.google.devtools.build.lib.unix.NativePosixFiles
+ * Method:    copyFile
+ * Signature: (Ljava/lang/String;Ljava/lang/String;)Z
+ * Throws:    java.io.IOException
+ */
+extern "C" JNIEXPORT jboolean JNICALL
+Java_com_google_devtools_build_lib_unix_NativePosixFiles_copyFile(
+    JNIEnv *env, jclass clazz, jstring source, jstring target) {
+  const char *source_chars = GetStringLatin1Chars(env, source);
+  const char *target_chars = GetStringLatin1Chars(env, target);
+  jboolean copied = false;
+  int in_fd;
+  while ((in_fd = open(source_chars, O_RDONLY)) == -1 && errno == EINTR) {
+  }
+  if (in_fd == -1) {
+    PostException(env, errno, source_chars);
+  } else {
+    struct stat statbuf;
+    if (fstat(in_fd, &statbuf) == -1) {
+      PostException(env, errno, source_chars);
+    } else if (!S_ISREG(statbuf.st_mode)) {
+      // Leave special files to the caller.
+    } else {
+      // The target gets the same permissions as when it is written by the
+      // caller, rather than those of the source, which may be read-only. If
+      // the copy fails, a target created here is removed again, so that the
+      // caller can fall back to copying the contents itself.
+      bool created = true;
+      int out_fd;
+      while ((out_fd = open(target_chars, O_WRONLY | O_CREAT | O_EXCL,
+                            0666)) == -1 &&
+             errno == EINTR) {
+      }
+      if (out_fd == -1 && errno == EEXIST) {
+        created = false;
+        while ((out_fd = open(target_chars, O_WRONLY | O_CREAT | O_TRUNC,
+                              0666)) == -1 &&
+               errno == EINTR) {
+        }
+      }
+      if (out_fd == -1) {
+        PostException(env, errno, target_chars);
+      } else {
+        int result = portable_copy_file(in_fd, out_fd, statbuf.st_size);
+        int error = errno;
+        if (close(out_fd) == -1 && result == 0) {
+          result = -1;
+          error = errno;
+        }
+        if (result == 0) {
+          copied = true;
+        } else {
+          if (created) {
+            unlink(target_chars);
+          }
+          if (error != ENOTSUP) {
+            PostException(env, error, target_chars);
+          }
+        }
+      }
+    }
+    close(in_fd);
+  }
+  ReleaseStringLatin1Chars(source_chars);
+  ReleaseStringLatin1Chars(target_chars);
+  return copied;
+}
+
 /*
  * Class:     com.google.devtools.build.lib.unix.NativePosixFiles
  * Method:    utime
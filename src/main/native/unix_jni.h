@@ -95,6 +95,17 @@ ssize_t portable_lgetxattr(const char *path, const char *name, void *value,
 // Run sysctlbyname(3), only available on darwin
 int portable_sysctlbyname(const char *name_chars, long *mibp, size_t *sizep);
 
+// Copies the contents of the regular file open as in_fd into out_fd, which
+// must be empty, without moving the bytes through user space: by sharing the
+// data extents (a reflink) where the file system supports it, or else with an
+// in-kernel copy.
+// Returns 0 on success.
+// Returns -1 and sets errno on failure. errno is ENOTSUP if the platform or
+// file systems do not support an efficient copy, or if fewer than size bytes
+// could be copied, in which case the caller must copy the contents itself;
+// out_fd may hold part of them already.
+int portable_copy_file(int in_fd, int out_fd, off_t size);
+
 // Used to surround an region that we want sleep disabled for.
 // push_disable_sleep to start the area.
 // pop_disable_sleep to end the area.
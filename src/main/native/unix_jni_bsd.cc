@@ -118,6 +118,12 @@ int portable_sysctlbyname(const char *name_chars, long *mibp, size_t *sizep) {
 #endif
 }
 
+int portable_copy_file(int in_fd, int out_fd, off_t size) {
+  // Currently not implemented.
+  errno = ENOTSUP;
+  return -1;
+}
+
 int portable_push_disable_sleep() {
   // Currently not supported.
   // https://wiki.freebsd.org/SuspendResume
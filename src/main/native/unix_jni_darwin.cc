@@ -184,6 +184,12 @@ static int g_sleep_state_stack = 0;
 // Our assertion for disabling sleep.
 static IOPMAssertionID g_sleep_state_assertion = kIOPMNullAssertionID;
 
+int portable_copy_file(int in_fd, int out_fd, off_t size) {
+  // Currently not implemented.
+  errno = ENOTSUP;
+  return -1;
+}
+
 int portable_push_disable_sleep() {
   std::lock_guard<std::mutex> lock(*g_sleep_state_mutex);
   assert(g_sleep_state_stack >= 0);
@@ -15,10 +15,15 @@
 #include "src/main/native/unix_jni.h"
 
 #include <errno.h>
+#include <linux/fs.h>
 #include <stdlib.h>
 #include <string.h>
+#include <sys/ioctl.h>
+#include <sys/sendfile.h>
 #include <sys/stat.h>
+#include <sys/syscall.h>
 #include <sys/xattr.h>
+#include <unistd.h>
 
 #include <string>
 
@@ -94,6 +99,64 @@ int portable_sysctlbyname(const char *name_chars, long *mibp, size_t *sizep) {
   return -1;
 }
 
+// Returns whether a failure of the first copy_file_range(2) or sendfile(2)
+// call means that the file systems do not support it, rather than that the
+// copy failed.
+static bool IsCopyUnsupported(int error_number) {
+  return error_number == ENOSYS || error_number == EXDEV ||
+         error_number == EINVAL || error_number == EOPNOTSUPP ||
+         error_number == ENOTSUP;
+}
+
+int portable_copy_file(int in_fd, int out_fd, off_t size) {
+#ifdef FICLONE
+  // Share the data extents on file systems with reflink support (btrfs, XFS).
+  if (ioctl(out_fd, FICLONE, in_fd) == 0) {
+    return 0;
+  }
+#endif
+  bool use_sendfile = false;
+#ifndef __NR_copy_file_range
+  use_sendfile = true;
+#endif
+  off_t copied = 0;
+  while (copied < size) {
+    ssize_t result = -1;
+    if (!use_sendfile) {
+#ifdef __NR_copy_file_range
+      // Called through syscall(2) because glibc only wraps it as of 2.27.
+      result = syscall(__NR_copy_file_range, in_fd, nullptr, out_fd, nullptr,
+                       size - copied, 0);
+#endif
+      if (result == -1 && copied == 0 && IsCopyUnsupported(errno)) {
+        // Older kernels do not support copies across file systems.
+        use_sendfile = true;
+        continue;
+      }
+    } else {
+      result = sendfile(out_fd, in_fd, nullptr, size - copied);
+      if (result == -1 && copied == 0 && IsCopyUnsupported(errno)) {
+        errno = ENOTSUP;
+        return -1;
+      }
+    }
+    if (result == -1) {
+      if (errno == EINTR) {
+        continue;
+      }
+      return -1;
+    }
+    if (result == 0) {
+      // The source got shorter while being copied, or its file system can't
+      // copy it this way. Leave the copy to the caller.
+      errno = ENOTSUP;
+      return -1;
+    }
+    copied += result;
+  }
+  return 0;
+}
+
 int portable_push_disable_sleep() {
   // Currently not supported.
   return -1;
@@ -0,0 +1,174 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.android;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.android.ParsedAndroidDataBuilder.file;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.jimfs.Jimfs;
+import com.google.devtools.build.android.DependencyInfo.DependencyType;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ParsedAndroidDataCache}. */
+@RunWith(JUnit4.class)
+public class ParsedAndroidDataCacheTest {
+
+  private FileSystem fs;
+  private Path source;
+  private Path manifest;
+  private CountingDeserializer deserializer;
+  private ParsedAndroidDataCache cache;
+
+  @Before
+  public void createCleanEnvironment() throws Exception {
+    fs = Jimfs.newFileSystem();
+    source = Files.createDirectory(fs.getPath("source"));
+    manifest = Files.createFile(source.resolve("AndroidManifest.xml"));
+    deserializer = new CountingDeserializer();
+    cache = new ParsedAndroidDataCache(1 << 20);
+  }
+
+  @Test
+  public void loadsOnceWhileUnchanged() throws Exception {
+    ParsedAndroidData expected = serialize("hunting/of/the/boojum", "symbols.bin");
+    SerializedAndroidData dependency = dependency("//foo:lib", "symbols.bin");
+
+    ParsedAndroidData first = cache.load(DependencyType.DIRECT, deserializer, dependency);
+    ParsedAndroidData second = cache.load(DependencyType.DIRECT, deserializer, dependency);
+
+    assertThat(first.getAssets()).isEqualTo(expected.getAssets());
+    assertThat(second.getAssets()).isEqualTo(expected.getAssets());
+    assertThat(deserializer.reads.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void reloadsChangedContents() throws Exception {
+    serialize("hunting/of/the/boojum", "symbols.bin");
+    SerializedAndroidData dependency = dependency("//foo:lib", "symbols.bin");
+    cache.load(DependencyType.DIRECT, deserializer, dependency);
+
+    ParsedAndroidData expected = serialize("hunting/of/the/snark", "symbols.bin");
+    ParsedAndroidData reloaded = cache.load(DependencyType.DIRECT, deserializer, dependency);
+
+    assertThat(reloaded.getAssets()).isEqualTo(expected.getAssets());
+    assertThat(deserializer.reads.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void separatesIdenticalContentsAtOtherPathsOrOfOtherDependencies() throws Exception {
+    serialize("hunting/of/the/boojum", "a.bin");
+    serialize("hunting/of/the/boojum", "b.bin");
+
+    cache.load(DependencyType.DIRECT, deserializer, dependency("//foo:lib", "a.bin"));
+    cache.load(DependencyType.DIRECT, deserializer, dependency("//foo:lib", "b.bin"));
+    cache.load(DependencyType.DIRECT, deserializer, dependency("//foo:lib", "b.bin"));
+    cache.load(DependencyType.TRANSITIVE, deserializer, dependency("//foo:lib", "b.bin"));
+    cache.load(DependencyType.DIRECT, deserializer, dependency("//foo:other", "b.bin"));
+
+    assertThat(deserializer.reads.get()).isEqualTo(4);
+    assertThat(cache.size()).isEqualTo(4);
+  }
+
+  @Test
+  public void returnsCopiesOfCachedData() throws Exception {
+    serialize("hunting/of/the/boojum", "symbols.bin");
+    SerializedAndroidData dependency = dependency("//foo:lib", "symbols.bin");
+
+    ParsedAndroidData first = cache.load(DependencyType.DIRECT, deserializer, dependency);
+    ParsedAndroidData second = cache.load(DependencyType.DIRECT, deserializer, dependency);
+
+    assertThat(second).isNotSameInstanceAs(first);
+    assertThat(second.getAssets()).isNotSameInstanceAs(first.getAssets());
+    assertThat(second.getAssets()).isEqualTo(first.getAssets());
+    assertThat(deserializer.reads.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void trustsInputDigests() throws Exception {
+    serialize("hunting/of/the/boojum", "symbols.bin");
+    SerializedAndroidData dependency = dependency("//foo:lib", "symbols.bin");
+    cache.setInputDigests(
+        ImmutableMap.of(fs.getPath("symbols.bin"), HashCode.fromString("0123456789abcdef")));
+    ParsedAndroidData first = cache.load(DependencyType.DIRECT, deserializer, dependency);
+
+    serialize("hunting/of/the/snark", "symbols.bin");
+
+    assertThat(cache.load(DependencyType.DIRECT, deserializer, dependency).getAssets())
+        .isEqualTo(first.getAssets());
+    assertThat(deserializer.reads.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void skipsUncacheableData() throws Exception {
+    serialize("hunting/of/the/boojum", "symbols.bin");
+
+    assertThat(
+            cache.load(
+                DependencyType.DIRECT,
+                AndroidParsedDataDeserializer.withFilteredResources(
+                    ImmutableList.of("the/boojum")),
+                dependency("//foo:lib", "symbols.bin")))
+        .isNull();
+    assertThat(
+            cache.load(
+                DependencyType.DIRECT,
+                deserializer,
+                new SerializedAndroidData(
+                    ImmutableList.of(source), ImmutableList.of(), "//foo:legacy", null)))
+        .isNull();
+    assertThat(cache.size()).isEqualTo(0);
+  }
+
+  private ParsedAndroidData serialize(String asset, String path) throws Exception {
+    ParsedAndroidData data =
+        ParsedAndroidDataBuilder.buildOn(source).assets(file().source(asset)).build();
+    AndroidDataSerializer serializer = AndroidDataSerializer.create();
+    UnwrittenMergedAndroidData.of(manifest, data, ParsedAndroidDataBuilder.empty())
+        .serializeTo(serializer);
+    serializer.flushTo(fs.getPath(path));
+    return data;
+  }
+
+  private SerializedAndroidData dependency(String label, String path) {
+    return new SerializedAndroidData(
+        ImmutableList.of(), ImmutableList.of(), label, fs.getPath(path));
+  }
+
+  /** A cacheable deserializer that counts the files it reads. */
+  private static final class CountingDeserializer implements AndroidDataDeserializer {
+    private final AndroidDataDeserializer delegate = AndroidParsedDataDeserializer.create();
+    final AtomicInteger reads = new AtomicInteger();
+
+    @Override
+    public void read(DependencyInfo dependencyInfo, Path inPath, KeyValueConsumers consumers) {
+      reads.incrementAndGet();
+      delegate.read(dependencyInfo, inPath, consumers);
+    }
+
+    @Override
+    public boolean isCacheable() {
+      return true;
+    }
+  }
+}
@@ -17,11 +17,13 @@ import static com.google.common.truth.Truth.assertThat;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Multimap;
+import com.google.common.io.ByteStreams;
 import com.google.devtools.build.android.ZipFilterAction.HashMismatchCheckMode;
 import com.google.devtools.build.singlejar.ZipEntryFilter.CustomMergeStrategy;
 import com.google.devtools.build.singlejar.ZipEntryFilter.StrategyCallback;
@@ -263,6 +265,33 @@ public class ZipFilterActionTest {
         .containsExactly("foo.java", "baz.class", "2.class", "Read.class");
   }
 
+  @Test public void testFullIntegration_compressesWithThreads() throws IOException {
+    List<String> names = new ArrayList<>();
+    Entry[] entries = new Entry[50];
+    for (int i = 0; i < entries.length; i++) {
+      names.add("dir/" + i + ".class");
+      entries[i] = new Entry(names.get(i), Strings.repeat("contents of " + i, 100));
+    }
+    Path input = createZip(entries);
+    File output = tmp.newFile();
+    output.delete();
+    ImmutableList<String> args = ImmutableList.of(
+        "--inputZip", input.toFile().getPath(),
+        "--outputZip", output.getPath(),
+        "--outputMode", "FORCE_DEFLATE",
+        "--threads", "4");
+
+    assertThat(outputEntriesWithArgs(args, output)).containsExactlyElementsIn(names).inOrder();
+    try (ZipFile zip = new ZipFile(output)) {
+      for (Entry entry : entries) {
+        ZipEntry zipEntry = zip.getEntry(entry.getName());
+        assertThat(zipEntry.getMethod()).isEqualTo(ZipEntry.DEFLATED);
+        assertThat(new String(ByteStreams.toByteArray(zip.getInputStream(zipEntry)), UTF_8))
+            .isEqualTo(entry.getContents());
+      }
+    }
+  }
+
   @Test public void testFullIntegrationErrorsOnHash() throws IOException {
     Path input = createZip("foo.java", "bar.class", "baz.class");
     File output = tmp.newFile();
@@ -85,6 +85,16 @@ public class DexLimitTrackerTest {
     assertThat(tracker.track(dex)).isFalse();
   }
 
+  @Test
+  public void testPrecomputedReferences() throws IOException {
+    DexLimitTracker tracker =
+        new DexLimitTracker(Math.max(dex.methodIds().size(), dex.fieldIds().size()));
+    assertThat(tracker.track(DexLimitTracker.References.of(dex))).isFalse();
+    assertThat(tracker.track(dex)).isFalse();
+    Dex other = DexFiles.toDex(convertClass(DexLimitTracker.class));
+    assertThat(tracker.track(DexLimitTracker.References.of(other))).isTrue();
+  }
+
   private static DexFile convertClass(Class<?> clazz) throws IOException {
     String path = clazz.getName().replace('.', '/') + ".class";
     try (InputStream in =
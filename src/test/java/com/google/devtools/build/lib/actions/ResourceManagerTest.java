@@ -389,6 +389,45 @@ public class ResourceManagerTest {
     assertThat(rm.inUse()).isFalse();
   }
 
+  @Test
+  public void testHigherPriorityRequestAcquiresFirst() throws Exception {
+    rm.setPrioritizer((owner, resources) -> (long) resources.getMemoryMb());
+    try {
+      acquire(100, 1, 0);
+
+      TestThread lowPriority =
+          new TestThread(
+              () -> {
+                acquire(100, 1, 0);
+                validate(2);
+                release(100, 1, 0);
+              });
+      lowPriority.start();
+      while (rm.getWaitCount() < 1) {
+        Thread.yield();
+      }
+      TestThread highPriority =
+          new TestThread(
+              () -> {
+                acquire(200, 1, 0);
+                validate(1);
+                release(200, 1, 0);
+              });
+      highPriority.start();
+      while (rm.getWaitCount() < 2) {
+        Thread.yield();
+      }
+
+      // Only one of the waiting requests fits into the released CPU.
+      release(100, 1, 0);
+      highPriority.joinAndAssertState(TestUtils.WAIT_TIMEOUT_MILLISECONDS);
+      lowPriority.joinAndAssertState(TestUtils.WAIT_TIMEOUT_MILLISECONDS);
+      assertThat(rm.inUse()).isFalse();
+    } finally {
+      rm.setPrioritizer(ResourcePrioritizer.FIFO);
+    }
+  }
+
   private static class ResourceOwnerStub implements ActionExecutionMetadata {
 
     @Override
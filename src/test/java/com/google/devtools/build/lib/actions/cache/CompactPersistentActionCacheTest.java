@@ -20,6 +20,9 @@ import com.google.common.collect.ImmutableMap;
 import com.google.devtools.build.lib.actions.FileArtifactValue;
 import com.google.devtools.build.lib.testutil.ManualClock;
 import com.google.devtools.build.lib.testutil.Scratch;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.JavaIoFileSystem;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import java.io.IOException;
@@ -170,6 +173,26 @@ public class CompactPersistentActionCacheTest {
     assertToStringIsntTooBig(3000);
   }
 
+  @Test
+  public void testMemoryMappedSaveAndReload() throws Exception {
+    Path mappedRoot =
+        TestUtils.createUniqueTmpDir(new JavaIoFileSystem(DigestHashFunction.SHA256))
+            .getChild("cache");
+    CompactPersistentActionCache mappedCache =
+        new CompactPersistentActionCache(mappedRoot, clock, /* memoryMapped= */ true);
+    putKey("key", mappedCache, true);
+    putKey("other", mappedCache, false);
+    mappedCache.remove("other");
+    mappedCache.save();
+    assertThat(CompactPersistentActionCache.mappedDataFile(mappedRoot).exists()).isTrue();
+    assertThat(CompactPersistentActionCache.cacheFile(mappedRoot).exists()).isFalse();
+
+    CompactPersistentActionCache newcache =
+        new CompactPersistentActionCache(mappedRoot, clock, /* memoryMapped= */ true);
+    assertKeyEquals(mappedCache, newcache, "key");
+    assertThat(newcache.get("other")).isNull();
+  }
+
   private static void assertKeyEquals(ActionCache cache1, ActionCache cache2, String key) {
     Object entry = cache1.get(key);
     assertThat(entry).isNotNull();
@@ -0,0 +1,174 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.JavaIoFileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link MappedActionMap}. */
+@RunWith(JUnit4.class)
+public class MappedActionMapTest {
+
+  private Path dataFile;
+  private Path indexFile;
+
+  @Before
+  public final void setUp() throws IOException {
+    Path tmpDir = TestUtils.createUniqueTmpDir(new JavaIoFileSystem(DigestHashFunction.SHA256));
+    dataFile = tmpDir.getChild("data");
+    indexFile = tmpDir.getChild("index");
+  }
+
+  private MappedActionMap open() throws IOException {
+    return new MappedActionMap(dataFile, indexFile);
+  }
+
+  private static byte[] value(String s) {
+    return s.getBytes(UTF_8);
+  }
+
+  @Test
+  public void putGetAndRemove() throws IOException {
+    MappedActionMap map = open();
+    assertThat(map.put(1, value("one"))).isNull();
+    assertThat(map.put(-10, value("validation"))).isNull();
+    assertThat(map.put(1, value("uno"))).isEqualTo(value("one"));
+    assertThat(map.remove(-10)).isEqualTo(value("validation"));
+
+    assertThat(map.get(1)).isEqualTo(value("uno"));
+    assertThat(map.get(-10)).isNull();
+    assertThat(map.get(2)).isNull();
+    assertThat(map).hasSize(1);
+  }
+
+  @Test
+  public void entriesSurviveReopening() throws IOException {
+    MappedActionMap map = open();
+    for (int i = 0; i < 5000; i++) {
+      map.put(i, value("value" + i));
+    }
+    map.remove(42);
+    map.save();
+
+    map = open();
+    assertThat(map).hasSize(4999);
+    assertThat(map.get(4999)).isEqualTo(value("value4999"));
+    assertThat(map.get(42)).isNull();
+  }
+
+  @Test
+  public void unsavedIndexIsRebuilt() throws IOException {
+    MappedActionMap map = open();
+    map.put(1, value("one"));
+    map.save();
+    map.put(1, value("uno"));
+    map.put(2, value("two"));
+    map.remove(2);
+    // Simulate a crash by not saving.
+
+    map = open();
+    assertThat(map.get(1)).isEqualTo(value("uno"));
+    assertThat(map.get(2)).isNull();
+    assertThat(map).hasSize(1);
+  }
+
+  @Test
+  public void truncatedRecordIsDropped() throws IOException {
+    MappedActionMap map = open();
+    map.put(1, value("one"));
+    map.put(2, value("two"));
+    long end = map.getDataSize();
+    // Leave the index dirty, and drop the last byte of the last record.
+    try (RandomAccessFile raf = new RandomAccessFile(dataFile.getPathFile(), "rw")) {
+      raf.setLength(end - 1);
+    }
+
+    map = open();
+    assertThat(map.get(1)).isEqualTo(value("one"));
+    assertThat(map.get(2)).isNull();
+  }
+
+  @Test
+  public void supersededRecordsAreCompacted() throws IOException {
+    MappedActionMap map = open();
+    byte[] large = new byte[1 << 16];
+    large[0] = 1;
+    for (int i = 0; i < 2 * MappedActionMap.SEGMENT_SIZE / large.length; i++) {
+      map.put(i % 10, large);
+    }
+    assertThat(map.getDataSize()).isGreaterThan((long) MappedActionMap.SEGMENT_SIZE);
+
+    map.save();
+
+    assertThat(map.getDataSize()).isLessThan(11L * large.length);
+    map = open();
+    assertThat(map).hasSize(10);
+    assertThat(map.get(9)).isEqualTo(large);
+  }
+
+  @Test
+  public void entrySetContainsLiveEntries() throws IOException {
+    MappedActionMap map = open();
+    map.put(1, value("one"));
+    map.put(2, value("two"));
+    map.put(3, value("three"));
+    map.remove(2);
+
+    Map<Integer, String> entries = new HashMap<>();
+    for (Map.Entry<Integer, byte[]> entry : map.entrySet()) {
+      entries.put(entry.getKey(), new String(entry.getValue(), UTF_8));
+    }
+    assertThat(entries).containsExactly(1, "one", 3, "three");
+  }
+
+  @Test
+  public void clearRemovesAllEntries() throws IOException {
+    MappedActionMap map = open();
+    map.put(1, value("one"));
+    map.save();
+    map.clear();
+    assertThat(map.get(1)).isNull();
+    map.put(2, value("two"));
+    map.save();
+
+    map = open();
+    assertThat(map.get(1)).isNull();
+    assertThat(map.get(2)).isEqualTo(value("two"));
+  }
+
+  @Test
+  public void closeKeepsSavedEntries() throws IOException {
+    MappedActionMap map = open();
+    map.put(1, value("one"));
+    map.save();
+    map.close();
+
+    map = open();
+    assertThat(map.get(1)).isEqualTo(value("one"));
+    map.close();
+  }
+}
@@ -0,0 +1,120 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.bazel.repository;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ParallelFileWriter}. */
+@RunWith(JUnit4.class)
+public class ParallelFileWriterTest {
+  private final FileSystem fs = new InMemoryFileSystem(DigestHashFunction.SHA256);
+  private Path dir;
+
+  @Before
+  public void createDirectory() throws Exception {
+    dir = fs.getPath("/out");
+    dir.createDirectoryAndParents();
+  }
+
+  @Test
+  public void writesAllFiles() throws Exception {
+    try (ParallelFileWriter writer = new ParallelFileWriter(1024)) {
+      for (int i = 0; i < 100; i++) {
+        Path path = dir.getRelative("file" + i);
+        byte[] contents = ("contents" + i).getBytes(UTF_8);
+        writer.submit(
+            path, contents.length, () -> FileSystemUtils.writeContent(path, contents));
+      }
+      writer.awaitAll();
+    }
+    for (int i = 0; i < 100; i++) {
+      assertThat(FileSystemUtils.readContent(dir.getRelative("file" + i), UTF_8))
+          .isEqualTo("contents" + i);
+    }
+  }
+
+  @Test
+  public void appliesWritesOfTheSamePathInOrder() throws Exception {
+    Path path = dir.getRelative("file");
+    CountDownLatch firstStarted = new CountDownLatch(1);
+    try (ParallelFileWriter writer = new ParallelFileWriter(1024)) {
+      writer.submit(
+          path,
+          0,
+          () -> {
+            firstStarted.countDown();
+            Thread.sleep(100);
+            FileSystemUtils.writeContent(path, "first".getBytes(UTF_8));
+          });
+      firstStarted.await();
+      writer.submit(path, 0, () -> FileSystemUtils.writeContent(path, "second".getBytes(UTF_8)));
+      writer.awaitAll();
+    }
+    assertThat(FileSystemUtils.readContent(path, UTF_8)).isEqualTo("second");
+  }
+
+  @Test
+  public void awaitPathWaitsForThePendingWrite() throws Exception {
+    Path path = dir.getRelative("file");
+    try (ParallelFileWriter writer = new ParallelFileWriter(1024)) {
+      writer.submit(
+          path,
+          0,
+          () -> {
+            Thread.sleep(100);
+            FileSystemUtils.writeContent(path, "contents".getBytes(UTF_8));
+          });
+      writer.awaitPath(path);
+      assertThat(FileSystemUtils.readContent(path, UTF_8)).isEqualTo("contents");
+    }
+  }
+
+  @Test
+  public void propagatesFailures() throws Exception {
+    try (ParallelFileWriter writer = new ParallelFileWriter(1024)) {
+      writer.submit(
+          dir.getRelative("file"),
+          0,
+          () -> {
+            throw new IOException("disk full");
+          });
+      IOException e = assertThrows(IOException.class, writer::awaitAll);
+      assertThat(e).hasMessageThat().isEqualTo("disk full");
+    }
+  }
+
+  @Test
+  public void buffersOnlySmallEntries() {
+    ParallelFileWriter writer = new ParallelFileWriter(1024);
+    assertThat(writer.canBuffer(0)).isTrue();
+    assertThat(writer.canBuffer(256)).isTrue();
+    assertThat(writer.canBuffer(257)).isFalse();
+    assertThat(writer.canBuffer(-1)).isFalse();
+  }
+}
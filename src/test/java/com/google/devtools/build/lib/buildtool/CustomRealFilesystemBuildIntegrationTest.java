@@ -32,6 +32,7 @@ import com.google.devtools.build.lib.testutil.TestUtils;
 import com.google.devtools.build.lib.unix.UnixFileSystem;
 import com.google.devtools.build.lib.util.ExitCode;
 import com.google.devtools.build.lib.util.io.RecordingOutErr;
+import com.google.devtools.build.lib.vfs.BatchStat;
 import com.google.devtools.build.lib.vfs.DigestHashFunction;
 import com.google.devtools.build.lib.vfs.Dirent;
 import com.google.devtools.build.lib.vfs.FileStatus;
@@ -646,6 +647,18 @@ public class CustomRealFilesystemBuildIntegrationTest extends GoogleBuildIntegra
       return super.statInternal(path, followSymlinks);
     }
 
+    @Override
+    public BatchStat getBatchStatter(PathFragment execRoot) {
+      // Stat outputs one at a time, through the overrides that inject errors.
+      return null;
+    }
+
+    @Override
+    public boolean copyFileEfficiently(PathFragment source, PathFragment target) {
+      // Copy files through streams, which go through the overrides that inject errors.
+      return false;
+    }
+
     @Override
     protected Collection<Dirent> readdir(PathFragment path, boolean followSymlinks)
         throws IOException {
@@ -0,0 +1,125 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.includescanning;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import com.google.devtools.build.lib.includescanning.IncludeParser.Inclusion;
+import com.google.devtools.build.lib.includescanning.IncludeParser.Inclusion.Kind;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link IncludeParser#extractInclusions(byte[])}. */
+@RunWith(JUnit4.class)
+public class IncludeParserTest {
+
+  private static List<Inclusion> extract(IncludeParser parser, String... lines) {
+    return parser.extractInclusions(String.join("\n", lines).getBytes(ISO_8859_1));
+  }
+
+  private static List<Inclusion> extract(String... lines) {
+    return extract(new IncludeParser(/* hints= */ null), lines);
+  }
+
+  @Test
+  public void quoteAndAngleIncludes() {
+    assertThat(extract("#include \"a.h\"", "#include <b.h>", "#include_next <c.h>", ""))
+        .containsExactly(
+            Inclusion.create("a.h", Kind.QUOTE),
+            Inclusion.create("b.h", Kind.ANGLE),
+            Inclusion.create("c.h", Kind.NEXT_ANGLE))
+        .inOrder();
+  }
+
+  @Test
+  public void fileEndingInBackslash() {
+    assertThat(extract("#include \"a.h\"", "\\"))
+        .containsExactly(Inclusion.create("a.h", Kind.QUOTE));
+    assertThat(extract("#include \"a.h\"\\"))
+        .containsExactly(Inclusion.create("a.h", Kind.QUOTE));
+    assertThat(extract("\\")).isEmpty();
+    assertThat(extract("#\\")).isEmpty();
+  }
+
+  @Test
+  public void fileWithoutTrailingNewline() {
+    assertThat(extract("int x;", "#include <a.h>"))
+        .containsExactly(Inclusion.create("a.h", Kind.ANGLE));
+  }
+
+  @Test
+  public void includeAfterLeadingWhitespace() {
+    assertThat(extract("  \t#  include <a.h>", "   # import \"b.h\"", ""))
+        .containsExactly(Inclusion.create("a.h", Kind.ANGLE), Inclusion.create("b.h", Kind.QUOTE))
+        .inOrder();
+  }
+
+  @Test
+  public void includeAfterContinuedLine() {
+    assertThat(extract("#define X \\", "    1", "#include \"a.h\"", ""))
+        .containsExactly(Inclusion.create("a.h", Kind.QUOTE));
+  }
+
+  @Test
+  public void continuedInclude() {
+    assertThat(extract("#include \\", "    \"a.h\"", "#\\", "include <b.h>", ""))
+        .containsExactly(Inclusion.create("a.h", Kind.QUOTE), Inclusion.create("b.h", Kind.ANGLE))
+        .inOrder();
+  }
+
+  @Test
+  public void continuationDoesNotHideNextLine() {
+    // The continued line holds no '#', but the one it is joined with does.
+    assertThat(extract("int x = \\", "#include \"a.h\"", "#include \"b.h\"", ""))
+        .containsExactly(Inclusion.create("b.h", Kind.QUOTE));
+  }
+
+  @Test
+  public void hashInTheMiddleOfALine() {
+    assertThat(
+            extract(
+                "int x = 1;  // #include \"a.h\"",
+                "const char* s = \"#include <b.h>\";",
+                "#define STR(x) #x",
+                ""))
+        .isEmpty();
+  }
+
+  @Test
+  public void swigIncludeAndImport() {
+    assertThat(
+            extract(
+                new SwigIncludeParser(),
+                "%include \"a.i\"",
+                "  %import <b.i>",
+                "%import(module=\"m\") \"c.i\"",
+                "#include \"d.h\"",
+                "int x = a % b;",
+                ""))
+        .containsExactly(
+            Inclusion.create("a.i", Kind.QUOTE),
+            Inclusion.create("b.i", Kind.ANGLE),
+            Inclusion.create("c.i", Kind.QUOTE))
+        .inOrder();
+  }
+
+  @Test
+  public void swigFileEndingInBackslash() {
+    assertThat(extract(new SwigIncludeParser(), "%include \"a.i\"", "\\"))
+        .containsExactly(Inclusion.create("a.i", Kind.QUOTE));
+  }
+}
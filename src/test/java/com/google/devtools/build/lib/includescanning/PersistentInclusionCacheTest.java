@@ -0,0 +1,189 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.includescanning;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.BaseEncoding;
+import com.google.devtools.build.lib.actions.ActionExecutionContext;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.ArtifactRoot;
+import com.google.devtools.build.lib.actions.FileArtifactValue;
+import com.google.devtools.build.lib.actions.MetadataProvider;
+import com.google.devtools.build.lib.actions.util.ActionsTestUtil;
+import com.google.devtools.build.lib.includescanning.IncludeParser.GrepIncludesFileType;
+import com.google.devtools.build.lib.includescanning.IncludeParser.Inclusion;
+import com.google.devtools.build.lib.includescanning.IncludeParser.Inclusion.Kind;
+import com.google.devtools.build.lib.testutil.ManualClock;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.Root;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.util.Collection;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link PersistentInclusionCache}. */
+@RunWith(JUnit4.class)
+public class PersistentInclusionCacheTest {
+  private static final byte[] DIGEST = {0x12, 0x34, 0x56, 0x78};
+  private static final byte[] OTHER_DIGEST = {0x12, 0x34, 0x56, 0x79};
+
+  private static final ImmutableList<Inclusion> INCLUSIONS =
+      ImmutableList.of(
+          Inclusion.create("foo/quote.h", Kind.QUOTE),
+          Inclusion.create("angle.h", Kind.ANGLE),
+          Inclusion.create("next_quote.h", Kind.NEXT_QUOTE),
+          Inclusion.create("bar/next_angle.h", Kind.NEXT_ANGLE));
+
+  private final ManualClock clock = new ManualClock();
+  private final InMemoryFileSystem fs = new InMemoryFileSystem(clock, DigestHashFunction.SHA256);
+  private Path directory;
+
+  @Before
+  public void setUp() {
+    directory = fs.getPath("/output_base/include_scanning_cache");
+  }
+
+  private Path entryPath(GrepIncludesFileType fileType, byte[] digest) {
+    String hex = BaseEncoding.base16().lowerCase().encode(digest);
+    return directory
+        .getChild(fileType.getFileType())
+        .getChild(hex.substring(0, 2))
+        .getChild(hex);
+  }
+
+  @Test
+  public void formatIncludes_roundTripsAllKinds() throws Exception {
+    Path file = fs.getPath("/includes");
+    FileSystemUtils.writeContent(file, IncludeParser.formatIncludes(INCLUSIONS));
+
+    assertThat(IncludeParser.processIncludes(file)).containsExactlyElementsIn(INCLUSIONS).inOrder();
+  }
+
+  @Test
+  public void get_missingEntry_returnsNull() {
+    PersistentInclusionCache cache = new PersistentInclusionCache(directory);
+
+    assertThat(cache.get(GrepIncludesFileType.CPP, DIGEST)).isNull();
+  }
+
+  @Test
+  public void get_afterPut_returnsInclusionsInAnotherInstance() {
+    new PersistentInclusionCache(directory).put(GrepIncludesFileType.CPP, DIGEST, INCLUSIONS);
+    PersistentInclusionCache cache = new PersistentInclusionCache(directory);
+
+    assertThat(cache.get(GrepIncludesFileType.CPP, DIGEST))
+        .containsExactlyElementsIn(INCLUSIONS)
+        .inOrder();
+    assertThat(cache.get(GrepIncludesFileType.CPP, OTHER_DIGEST)).isNull();
+    assertThat(cache.get(GrepIncludesFileType.SWIG, DIGEST)).isNull();
+  }
+
+  @Test
+  public void get_corruptEntry_isDropped() throws Exception {
+    PersistentInclusionCache cache = new PersistentInclusionCache(directory);
+    cache.put(GrepIncludesFileType.CPP, DIGEST, INCLUSIONS);
+    Path entry = entryPath(GrepIncludesFileType.CPP, DIGEST);
+    assertThat(entry.exists()).isTrue();
+    FileSystemUtils.writeContent(entry, "xnot_an_inclusion.h\n".getBytes(ISO_8859_1));
+
+    assertThat(cache.get(GrepIncludesFileType.CPP, DIGEST)).isNull();
+    assertThat(entry.exists()).isFalse();
+  }
+
+  @Test
+  public void trim_deletesLeastRecentlyUsedEntries() throws Exception {
+    PersistentInclusionCache cache = new PersistentInclusionCache(directory);
+    cache.put(GrepIncludesFileType.CPP, DIGEST, INCLUSIONS);
+    clock.advanceMillis(1000);
+    cache.put(GrepIncludesFileType.CPP, OTHER_DIGEST, INCLUSIONS);
+    clock.advanceMillis(1000);
+    // Reading the older entry makes it the most recently used one.
+    assertThat(cache.get(GrepIncludesFileType.CPP, DIGEST)).isNotNull();
+
+    cache.trim(1);
+
+    assertThat(entryPath(GrepIncludesFileType.CPP, DIGEST).exists()).isTrue();
+    assertThat(entryPath(GrepIncludesFileType.CPP, OTHER_DIGEST).exists()).isFalse();
+  }
+
+  @Test
+  public void trim_missingDirectory_doesNothing() throws Exception {
+    new PersistentInclusionCache(directory).trim(0);
+
+    assertThat(directory.exists()).isFalse();
+  }
+
+  @Test
+  public void extractInclusions_doesNotCacheHintedInclusions() throws Exception {
+    Path execRoot = fs.getPath("/execroot");
+    Path hintsFile = fs.getPath("/INCLUDE_HINTS");
+    FileSystemUtils.writeContent(
+        hintsFile, "include_quote third_party/foo\\.h hinted.h\n".getBytes(ISO_8859_1));
+    IncludeParser.Hints hints =
+        new IncludeParser.Hints(
+            IncludeParser.Hints.getRules(hintsFile), /*artifactFactory=*/ null);
+    Artifact header =
+        ActionsTestUtil.createArtifact(
+            ArtifactRoot.asSourceRoot(Root.fromPath(execRoot)), "third_party/foo.h");
+    header.getPath().getParentDirectory().createDirectoryAndParents();
+    FileSystemUtils.writeContent(header.getPath(), "#include \"bar.h\"\n".getBytes(ISO_8859_1));
+    ActionExecutionContext context = mock(ActionExecutionContext.class);
+    MetadataProvider metadataProvider = mock(MetadataProvider.class);
+    when(context.getMetadataProvider()).thenReturn(metadataProvider);
+    when(context.getInputPath(header)).thenReturn(header.getPath());
+    when(metadataProvider.getMetadata(header))
+        .thenReturn(
+            FileArtifactValue.createForNormalFile(
+                DIGEST, /*proxy=*/ null, /*size=*/ 17, /*isShareable=*/ true));
+    PersistentInclusionCache cache = new PersistentInclusionCache(directory);
+
+    Collection<Inclusion> inclusions =
+        new IncludeParser(hints, cache)
+            .extractInclusions(
+                header,
+                /*actionExecutionMetadata=*/ null,
+                context,
+                /*grepIncludes=*/ null,
+                /*remoteIncludeScanner=*/ null,
+                /*isOutputFile=*/ false);
+
+    assertThat(inclusions)
+        .containsExactly(
+            Inclusion.create("bar.h", Kind.QUOTE), Inclusion.create("hinted.h", Kind.QUOTE));
+    assertThat(cache.get(GrepIncludesFileType.CPP, DIGEST))
+        .containsExactly(Inclusion.create("bar.h", Kind.QUOTE));
+
+    // Later lookups only rely on the digest, but still get the hinted inclusions.
+    FileSystemUtils.writeContent(header.getPath(), new byte[0]);
+    assertThat(
+            new IncludeParser(hints, new PersistentInclusionCache(directory))
+                .extractInclusions(
+                    header,
+                    /*actionExecutionMetadata=*/ null,
+                    context,
+                    /*grepIncludes=*/ null,
+                    /*remoteIncludeScanner=*/ null,
+                    /*isOutputFile=*/ false))
+        .containsExactlyElementsIn(inclusions);
+  }
+}
@@ -0,0 +1,158 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.metrics;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.net.InetAddresses;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.time.Duration;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link MetricRegistry} and its OpenMetrics export. */
+@RunWith(JUnit4.class)
+public final class MetricRegistryTest {
+
+  private final MetricRegistry registry = MetricRegistry.createForTesting();
+
+  private String export() throws IOException {
+    StringBuilder buf = new StringBuilder();
+    registry.writeOpenMetrics(buf);
+    return buf.toString();
+  }
+
+  @Test
+  public void counters() throws Exception {
+    registry.counter("hits", "Cache hits.").inc();
+    registry.counter("hits", "Cache hits.").inc(2);
+    registry.counter("misses", "Cache misses.", "reason", "b").inc();
+    registry.counter("misses", "Cache misses.", "reason", "a");
+
+    assertThat(registry.counter("hits", "").get()).isEqualTo(3);
+    assertThat(export())
+        .isEqualTo(
+            "# TYPE hits counter\n"
+                + "# HELP hits Cache hits.\n"
+                + "hits_total 3\n"
+                + "# TYPE misses counter\n"
+                + "# HELP misses Cache misses.\n"
+                + "misses_total{reason=\"a\"} 0\n"
+                + "misses_total{reason=\"b\"} 1\n"
+                + "# EOF\n");
+  }
+
+  @Test
+  public void gauges() throws Exception {
+    long[] value = {7};
+    registry.gauge("size", "", () -> value[0], "cache", "digest");
+    value[0] = 42;
+
+    assertThat(export()).isEqualTo("# TYPE size gauge\nsize{cache=\"digest\"} 42\n# EOF\n");
+  }
+
+  @Test
+  public void labelValuesAreEscaped() throws Exception {
+    registry.counter("c", "", "path", "a\\b\"c\nd").inc();
+
+    assertThat(export()).contains("c_total{path=\"a\\\\b\\\"c\\nd\"} 1\n");
+  }
+
+  @Test
+  public void badRegistrations() {
+    registry.counter("c", "");
+    assertThrows(IllegalArgumentException.class, () -> registry.histogram("c", ""));
+    assertThrows(IllegalArgumentException.class, () -> registry.counter("c_total", ""));
+    assertThrows(IllegalArgumentException.class, () -> registry.counter("bad-name", ""));
+    assertThrows(IllegalArgumentException.class, () -> registry.counter("c", "", "odd"));
+    assertThrows(IllegalArgumentException.class, () -> registry.histogram("h", "", "le", "1"));
+  }
+
+  @Test
+  public void histogramBucketsAreCumulative() throws Exception {
+    LatencyHistogram histogram = registry.histogram("latency_seconds", "", "runner", "local");
+    histogram.recordNanos(1000); // 1us
+    histogram.record(Duration.ofMillis(2));
+    histogram.record(Duration.ofSeconds(3));
+    histogram.record(Duration.ofHours(1));
+
+    String out = export();
+    assertThat(out).startsWith("# TYPE latency_seconds histogram\n");
+    assertThat(out)
+        .contains(
+            "latency_seconds_bucket{runner=\"local\",le=\"0.001048576\"} 1\n"
+                + "latency_seconds_bucket{runner=\"local\",le=\"0.004194304\"} 2\n");
+    assertThat(out).contains("latency_seconds_bucket{runner=\"local\",le=\"4.294967296\"} 3\n");
+    assertThat(out).contains("latency_seconds_bucket{runner=\"local\",le=\"1099.511627776\"} 3\n");
+    assertThat(out)
+        .contains(
+            "latency_seconds_bucket{runner=\"local\",le=\"+Inf\"} 4\n"
+                + "latency_seconds_count{runner=\"local\"} 4\n"
+                + "latency_seconds_sum{runner=\"local\"} 3603.002001\n");
+  }
+
+  @Test
+  public void histogramPercentilesHaveBoundedError() {
+    LatencyHistogram histogram = registry.histogram("h", "");
+    assertThat(histogram.valueAtPercentile(50)).isEqualTo(0);
+    for (long i = 1; i <= 1000; i++) {
+      histogram.recordNanos(i * 1000);
+    }
+
+    assertThat(histogram.getCount()).isEqualTo(1000);
+    assertThat((double) histogram.valueAtPercentile(50)).isWithin(500_000 * 0.125).of(500_000);
+    assertThat((double) histogram.valueAtPercentile(99)).isWithin(990_000 * 0.125).of(990_000);
+    assertThat(histogram.valueAtPercentile(100)).isAtLeast(1_000_000);
+  }
+
+  @Test
+  public void histogramIndexIsMonotonic() {
+    int last = LatencyHistogram.index(0);
+    for (long v = 1; v > 0 && v < Long.MAX_VALUE / 3; v = v * 3 / 2 + 1) {
+      int index = LatencyHistogram.index(v);
+      assertThat(index).isAtLeast(last);
+      assertThat(LatencyHistogram.upperBound(index)).isGreaterThan(v);
+      last = index;
+    }
+    assertThat(LatencyHistogram.upperBound(LatencyHistogram.index(Long.MAX_VALUE)))
+        .isEqualTo(Long.MAX_VALUE);
+  }
+
+  @Test
+  public void httpServerServesMetrics() throws Exception {
+    registry.counter("requests", "Requests.").inc();
+    MetricsHttpServer server = MetricsHttpServer.start(0, registry);
+    try {
+      String host = InetAddresses.toUriString(InetAddress.getLoopbackAddress());
+      HttpURLConnection connection =
+          (HttpURLConnection)
+              new URL("http://" + host + ":" + server.getPort() + "/metrics").openConnection();
+      assertThat(connection.getResponseCode()).isEqualTo(200);
+      assertThat(connection.getContentType()).isEqualTo(MetricsHttpServer.CONTENT_TYPE);
+      try (InputStream in = connection.getInputStream()) {
+        assertThat(new String(ByteStreams.toByteArray(in), UTF_8)).isEqualTo(export());
+      }
+    } finally {
+      server.stop();
+    }
+  }
+}
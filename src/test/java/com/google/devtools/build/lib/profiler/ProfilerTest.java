@@ -14,6 +14,7 @@
 package com.google.devtools.build.lib.profiler;
 
 import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.lib.profiler.Profiler.Format.BINARY_TRACE_FILE_FORMAT;
 import static com.google.devtools.build.lib.profiler.Profiler.Format.JSON_TRACE_FILE_FORMAT;
 import static org.junit.Assert.assertThrows;
 
@@ -23,6 +24,7 @@ import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.clock.BlazeClock;
 import com.google.devtools.build.lib.clock.Clock;
 import com.google.devtools.build.lib.profiler.Profiler.SlowTask;
+import com.google.devtools.build.lib.profiler.statistics.PhaseSummaryStatistics;
 import com.google.devtools.build.lib.testutil.ManualClock;
 import com.google.devtools.build.lib.testutil.TestUtils;
 import java.io.ByteArrayInputStream;
@@ -31,6 +33,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -728,6 +731,74 @@ public class ProfilerTest {
         .hasSize(1);
   }
 
+  // Profiles the same sequence of tasks, with the same relative timings, in the given format.
+  private byte[] profileForFormatComparison(Profiler.Format format) throws Exception {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    profiler.start(
+        getAllProfilerTasks(),
+        buffer,
+        format,
+        "dummy_output_base",
+        UUID.randomUUID(),
+        true,
+        clock,
+        clock.nanoTime(),
+        /* enabledCpuUsageProfiling= */ false,
+        /* slimProfile= */ false,
+        /* includePrimaryOutput= */ true,
+        /* includeTargetLabel= */ true);
+    profiler.logEvent(ProfilerTask.PHASE, ProfilePhase.ANALYZE.description);
+    clock.advanceMillis(30);
+    profiler.logEvent(ProfilerTask.PHASE, ProfilePhase.EXECUTE.description);
+    for (int i = 0; i < 3; i++) {
+      long start = clock.nanoTime();
+      try (SilentCloseable c =
+          profiler.profileAction(ProfilerTask.ACTION, "action " + i, "out" + i, "//pkg:t" + i)) {
+        clock.advanceMillis(10 + i);
+      }
+      profiler.logSimpleTaskDuration(
+          start, Duration.ofMillis(10 + i), ProfilerTask.CRITICAL_PATH_COMPONENT, "action " + i);
+    }
+    profiler.stop();
+    return buffer.toByteArray();
+  }
+
+  @Test
+  public void testBinaryProfileHasSameEventsAsJsonProfile() throws Exception {
+    JsonProfile jsonProfile =
+        new JsonProfile(
+            new ByteArrayInputStream(profileForFormatComparison(JSON_TRACE_FILE_FORMAT)));
+    byte[] binary = profileForFormatComparison(BINARY_TRACE_FILE_FORMAT);
+    List<TraceEvent> binaryEvents = new ArrayList<>();
+    BinaryProfile binaryProfile =
+        new BinaryProfile(new ByteArrayInputStream(binary), binaryEvents::add);
+
+    assertThat(binaryEvents).containsExactlyElementsIn(jsonProfile.getTraceEvents()).inOrder();
+    assertThat(binaryProfile.getBuildMetadata().outputBase()).isEqualTo("dummy_output_base");
+
+    PhaseSummaryStatistics jsonPhases = jsonProfile.getPhaseSummaryStatistics();
+    PhaseSummaryStatistics binaryPhases = binaryProfile.getPhaseSummaryStatistics();
+    assertThat(binaryPhases).containsExactlyElementsIn(jsonPhases).inOrder();
+    assertThat(binaryPhases.getDurationNanos(ProfilePhase.ANALYZE))
+        .isEqualTo(Duration.ofMillis(30).toNanos());
+    assertThat(binaryPhases.getTotalDuration()).isEqualTo(jsonPhases.getTotalDuration());
+
+    assertThat(binaryProfile.getCriticalPathStatistics().getCriticalPathEntries())
+        .containsExactlyElementsIn(jsonProfile.getCriticalPathStatistics().getCriticalPathEntries())
+        .inOrder();
+    assertThat(binaryProfile.getCriticalPathStatistics().getTotalDuration())
+        .isEqualTo(Duration.ofMillis(33));
+  }
+
+  @Test
+  public void testBinaryProfileRejectsTruncatedInput() throws Exception {
+    byte[] binary = profileForFormatComparison(BINARY_TRACE_FILE_FORMAT);
+    byte[] truncated = Arrays.copyOf(binary, binary.length - 1);
+    assertThrows(
+        IOException.class,
+        () -> new BinaryProfile(new ByteArrayInputStream(truncated), traceEvent -> {}));
+  }
+
   private ByteArrayOutputStream getJsonProfileOutputStream(boolean slimProfile) throws IOException {
     ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
     profiler.start(
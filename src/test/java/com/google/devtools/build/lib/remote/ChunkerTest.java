@@ -17,11 +17,13 @@ import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertThrows;
 
 import com.google.devtools.build.lib.remote.Chunker.Chunk;
+import com.google.devtools.build.lib.remote.util.BlobCompressor;
 import com.google.protobuf.ByteString;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicReference;
@@ -173,6 +175,64 @@ public class ChunkerTest {
     assertThat(next.getData()).hasSize(8);
   }
 
+  @Test
+  public void compressedChunksDecompressToInput() throws IOException {
+    Random rand = new Random();
+    byte[] expectedData = new byte[1000];
+    rand.nextBytes(expectedData);
+
+    Chunker chunker =
+        Chunker.builder()
+            .setInput(expectedData)
+            .setChunkSize(100)
+            .setCompressor(BlobCompressor.DEFLATE)
+            .build();
+
+    ByteArrayOutputStream actualData = new ByteArrayOutputStream();
+    long expectedOffset = 0;
+    try (OutputStream out = BlobCompressor.DEFLATE.decompress(actualData)) {
+      while (chunker.hasNext()) {
+        Chunk next = chunker.next();
+        assertThat(next.getOffset()).isEqualTo(expectedOffset);
+        expectedOffset += next.getData().size();
+        next.getData().writeTo(out);
+      }
+    }
+
+    assertThat(chunker.getSize()).isEqualTo(1000);
+    assertThat(chunker.getOffset()).isEqualTo(expectedOffset);
+    assertThat(actualData.toByteArray()).isEqualTo(expectedData);
+  }
+
+  @Test
+  public void compressedSeekResumesInCompressedData() throws IOException {
+    byte[] data = new byte[1000];
+    Chunker chunker =
+        Chunker.builder()
+            .setInput(data)
+            .setChunkSize(1000)
+            .setCompressor(BlobCompressor.DEFLATE)
+            .build();
+    ByteString compressed = chunker.next().getData();
+    assertThat(chunker.hasNext()).isFalse();
+
+    chunker.seek(3);
+
+    Chunk next = chunker.next();
+    assertThat(next.getOffset()).isEqualTo(3);
+    assertThat(next.getData()).isEqualTo(compressed.substring(3));
+  }
+
+  @Test
+  public void emptyInputIsNotCompressed() throws IOException {
+    Chunker chunker =
+        Chunker.builder().setInput(new byte[0]).setCompressor(BlobCompressor.DEFLATE).build();
+
+    assertThat(chunker.getCompressor()).isNull();
+    assertNextEquals(chunker);
+    assertThat(chunker.hasNext()).isFalse();
+  }
+
   private void assertNextEquals(Chunker chunker, byte... data) throws IOException {
     assertThat(chunker.hasNext()).isTrue();
     ByteString next = chunker.next().getData();
@@ -47,6 +47,7 @@ import com.google.bytestream.ByteStreamProto.ReadRequest;
 import com.google.bytestream.ByteStreamProto.ReadResponse;
 import com.google.bytestream.ByteStreamProto.WriteRequest;
 import com.google.bytestream.ByteStreamProto.WriteResponse;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedMap;
@@ -62,6 +63,7 @@ import com.google.devtools.build.lib.authandtls.GoogleAuthUtils;
 import com.google.devtools.build.lib.clock.JavaClock;
 import com.google.devtools.build.lib.remote.RemoteRetrier.ExponentialBackoff;
 import com.google.devtools.build.lib.remote.Retrier.Backoff;
+import com.google.devtools.build.lib.remote.common.CacheNotFoundException;
 import com.google.devtools.build.lib.remote.common.RemoteActionExecutionContext;
 import com.google.devtools.build.lib.remote.common.RemoteCacheClient.ActionKey;
 import com.google.devtools.build.lib.remote.common.RemotePathResolver;
@@ -69,6 +71,7 @@ import com.google.devtools.build.lib.remote.common.RemotePathResolver.SiblingRep
 import com.google.devtools.build.lib.remote.grpc.ChannelConnectionFactory;
 import com.google.devtools.build.lib.remote.merkletree.MerkleTree;
 import com.google.devtools.build.lib.remote.options.RemoteOptions;
+import com.google.devtools.build.lib.remote.util.BlobCompressor;
 import com.google.devtools.build.lib.remote.util.DigestUtil;
 import com.google.devtools.build.lib.remote.util.TestUtils;
 import com.google.devtools.build.lib.remote.util.TracingMetadataUtils;
@@ -102,6 +105,7 @@ import io.grpc.inprocess.InProcessServerBuilder;
 import io.grpc.stub.StreamObserver;
 import io.grpc.util.MutableHandlerRegistry;
 import io.reactivex.rxjava3.core.Single;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -111,6 +115,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
+import javax.annotation.Nullable;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -202,6 +207,14 @@ public class GrpcCacheClientTest {
 
   private GrpcCacheClient newClient(RemoteOptions remoteOptions, Supplier<Backoff> backoffSupplier)
       throws IOException {
+    return newClient(remoteOptions, backoffSupplier, /* compressor= */ null);
+  }
+
+  private GrpcCacheClient newClient(
+      RemoteOptions remoteOptions,
+      Supplier<Backoff> backoffSupplier,
+      @Nullable BlobCompressor compressor)
+      throws IOException {
     AuthAndTLSOptions authTlsOptions = Options.getDefaults(AuthAndTLSOptions.class);
     authTlsOptions.useGoogleDefaultCredentials = true;
     authTlsOptions.googleCredentials = "/execroot/main/creds.json";
@@ -253,7 +266,13 @@ public class GrpcCacheClientTest {
             remoteOptions.remoteTimeout.getSeconds(),
             retrier);
     return new GrpcCacheClient(
-        channel.retain(), callCredentialsProvider, remoteOptions, retrier, DIGEST_UTIL, uploader);
+        channel.retain(),
+        callCredentialsProvider,
+        remoteOptions,
+        retrier,
+        DIGEST_UTIL,
+        uploader,
+        compressor);
   }
 
   private static byte[] downloadBlob(
@@ -374,6 +393,60 @@ public class GrpcCacheClientTest {
     assertThat(new String(downloadBlob(context, client, digest), UTF_8)).isEqualTo("abcdefg");
   }
 
+  @Test
+  public void testDownloadCompressedBlob() throws Exception {
+    RemoteOptions remoteOptions = Options.getDefaults(RemoteOptions.class);
+    remoteOptions.remoteVerifyDownloads = true;
+    GrpcCacheClient client =
+        newClient(
+            remoteOptions, () -> new ExponentialBackoff(remoteOptions), BlobCompressor.DEFLATE);
+    String contents = Strings.repeat("abcdefg", 1000);
+    Digest digest = DIGEST_UTIL.computeAsUtf8(contents);
+    ByteString compressed;
+    try (InputStream in =
+        BlobCompressor.DEFLATE.compress(new ByteArrayInputStream(contents.getBytes(UTF_8)))) {
+      compressed = ByteString.readFrom(in);
+    }
+    serviceRegistry.addService(
+        new ByteStreamImplBase() {
+          @Override
+          public void read(ReadRequest request, StreamObserver<ReadResponse> responseObserver) {
+            assertThat(request.getResourceName())
+                .isEqualTo("compressed-blobs/deflate/" + DigestUtil.toString(digest));
+            int half = compressed.size() / 2;
+            responseObserver.onNext(
+                ReadResponse.newBuilder().setData(compressed.substring(0, half)).build());
+            responseObserver.onNext(
+                ReadResponse.newBuilder().setData(compressed.substring(half)).build());
+            responseObserver.onCompleted();
+          }
+        });
+
+    assertThat(new String(downloadBlob(context, client, digest), UTF_8)).isEqualTo(contents);
+  }
+
+  @Test
+  public void testDownloadCompressedBlobNotFound() throws Exception {
+    RemoteOptions remoteOptions = Options.getDefaults(RemoteOptions.class);
+    GrpcCacheClient client =
+        newClient(
+            remoteOptions, () -> new ExponentialBackoff(remoteOptions), BlobCompressor.DEFLATE);
+    Digest digest = DIGEST_UTIL.computeAsUtf8("abcdefg");
+    serviceRegistry.addService(
+        new ByteStreamImplBase() {
+          @Override
+          public void read(ReadRequest request, StreamObserver<ReadResponse> responseObserver) {
+            responseObserver.onError(Status.NOT_FOUND.asException());
+          }
+        });
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertThrows(
+        CacheNotFoundException.class,
+        () -> getFromFuture(client.downloadBlob(context, digest, out)));
+    assertThat(out.size()).isEqualTo(0);
+  }
+
   @Test
   public void testDownloadAllResults() throws Exception {
     RemoteOptions remoteOptions = Options.getDefaults(RemoteOptions.class);
@@ -210,7 +210,8 @@ public class RemoteSpawnCacheTest {
         reporter,
         digestUtil,
         /* filesToDownload= */ ImmutableSet.of(),
-        RemotePathResolver.createDefault(execRoot));
+        RemotePathResolver.createDefault(execRoot),
+        /* merkleTreeCache= */ null);
   }
 
   @Before
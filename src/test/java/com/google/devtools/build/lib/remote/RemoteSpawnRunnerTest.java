@@ -1117,7 +1117,8 @@ public class RemoteSpawnRunnerTest {
             digestUtil,
             logDir,
             /* filesToDownload= */ ImmutableSet.of(),
-            RemotePathResolver.createDefault(execRoot));
+            RemotePathResolver.createDefault(execRoot),
+            /* merkleTreeCache= */ null);
 
     ExecuteResponse succeeded =
         ExecuteResponse.newBuilder()
@@ -1654,6 +1655,7 @@ public class RemoteSpawnRunnerTest {
         digestUtil,
         logDir,
         topLevelOutputs,
-        remotePathResolver);
+        remotePathResolver,
+        /* merkleTreeCache= */ null);
   }
 }
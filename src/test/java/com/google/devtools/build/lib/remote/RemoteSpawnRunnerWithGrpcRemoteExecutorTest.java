@@ -311,7 +311,8 @@ public class RemoteSpawnRunnerWithGrpcRemoteExecutorTest {
             DIGEST_UTIL,
             logDir,
             /* filesToDownload= */ ImmutableSet.of(),
-            RemotePathResolver.createDefault(execRoot));
+            RemotePathResolver.createDefault(execRoot),
+            /* merkleTreeCache= */ null);
 
     inputDigest =
         fakeFileCache.createScratchInput(simpleSpawn.getInputFiles().getSingleton(), "xyz");
@@ -0,0 +1,224 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote.disk;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorService;
+import static com.google.devtools.build.lib.remote.util.Utils.getFromFuture;
+
+import build.bazel.remote.execution.v2.ActionResult;
+import build.bazel.remote.execution.v2.Digest;
+import build.bazel.remote.execution.v2.OutputFile;
+import com.google.devtools.build.lib.remote.common.RemoteCacheClient.ActionKey;
+import com.google.devtools.build.lib.remote.util.DigestUtil;
+import com.google.devtools.build.lib.testutil.ManualClock;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link DiskCacheGarbageCollector}. */
+@RunWith(JUnit4.class)
+public class DiskCacheGarbageCollectorTest {
+
+  private final ManualClock clock = new ManualClock();
+  private Path root;
+
+  @Before
+  public final void setUp() throws IOException {
+    InMemoryFileSystem fs = new InMemoryFileSystem(clock, DigestHashFunction.SHA256);
+    root = fs.getPath("/disk_cache");
+    root.createDirectoryAndParents();
+  }
+
+  private DiskCacheGarbageCollector newCollector(long maxSizeBytes, long maxEntries) {
+    DiskCacheGarbageCollector gc =
+        new DiskCacheGarbageCollector(
+            root, maxSizeBytes, maxEntries, clock, newDirectExecutorService());
+    gc.startScan();
+    return gc;
+  }
+
+  private Path writeEntry(String dir, String key, int size) throws IOException {
+    Path path = root.getChild(dir).getChild(key.substring(0, 2)).getChild(key);
+    path.getParentDirectory().createDirectoryAndParents();
+    FileSystemUtils.writeContent(path, new byte[size]);
+    path.setLastModifiedTime(clock.currentTimeMillis());
+    clock.advanceMillis(1000);
+    return path;
+  }
+
+  @Test
+  public void scan_indexesExistingEntries() throws Exception {
+    writeEntry("cas", "aaaa", 10);
+    writeEntry("ac", "bbbb", 20);
+
+    DiskCacheGarbageCollector gc = newCollector(/* maxSizeBytes= */ 100, /* maxEntries= */ 0);
+
+    assertThat(gc.getEntryCount()).isEqualTo(2);
+    assertThat(gc.getTotalSizeBytes()).isEqualTo(30);
+  }
+
+  @Test
+  public void scan_evictsLeastRecentlyUsedEntriesOverBudget() throws Exception {
+    Path oldest = writeEntry("cas", "aaaa", 40);
+    Path middle = writeEntry("cas", "bbbb", 40);
+    Path newest = writeEntry("cas", "cccc", 40);
+
+    DiskCacheGarbageCollector gc = newCollector(/* maxSizeBytes= */ 100, /* maxEntries= */ 0);
+
+    assertThat(oldest.exists()).isFalse();
+    assertThat(middle.exists()).isTrue();
+    assertThat(newest.exists()).isTrue();
+    assertThat(gc.getTotalSizeBytes()).isEqualTo(80);
+    assertThat(gc.getEvictedEntries()).isEqualTo(1);
+    assertThat(gc.getEvictedBytes()).isEqualTo(40);
+  }
+
+  @Test
+  public void insertion_evictsDownToLowWatermark() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      writeEntry("cas", "aa" + i, 1);
+    }
+    DiskCacheGarbageCollector gc = newCollector(/* maxSizeBytes= */ 0, /* maxEntries= */ 10);
+    assertThat(gc.getEvictedEntries()).isEqualTo(0);
+
+    Path inserted = writeEntry("cas", "bbbb", 1);
+    gc.recordInsertion(inserted, 1);
+
+    assertThat(gc.getEntryCount())
+        .isAtMost((int) (10 * DiskCacheGarbageCollector.LOW_WATERMARK));
+    assertThat(inserted.exists()).isTrue();
+  }
+
+  @Test
+  public void hit_refreshesAccessTimeAndPinsEntry() throws Exception {
+    Path first = writeEntry("cas", "aaaa", 40);
+    Path second = writeEntry("cas", "bbbb", 40);
+    DiskCacheGarbageCollector gc = newCollector(/* maxSizeBytes= */ 100, /* maxEntries= */ 0);
+
+    gc.recordHit(first, 40);
+    Path third = writeEntry("cas", "cccc", 40);
+    gc.recordInsertion(third, 40);
+
+    assertThat(first.exists()).isTrue();
+    assertThat(second.exists()).isFalse();
+    assertThat(third.exists()).isTrue();
+    assertThat(gc.getHits()).isEqualTo(1);
+  }
+
+  @Test
+  public void pinnedEntries_areNeverEvicted() throws Exception {
+    DiskCacheGarbageCollector gc = newCollector(/* maxSizeBytes= */ 100, /* maxEntries= */ 0);
+
+    Path first = writeEntry("cas", "aaaa", 60);
+    gc.recordInsertion(first, 60);
+    Path second = writeEntry("cas", "bbbb", 60);
+    gc.recordInsertion(second, 60);
+
+    // Both entries are used by the current command, so the cache may temporarily exceed its budget.
+    assertThat(first.exists()).isTrue();
+    assertThat(second.exists()).isTrue();
+    assertThat(gc.getTotalSizeBytes()).isEqualTo(120);
+
+    gc.resetForCommand();
+    gc.maybeCollect();
+
+    assertThat(first.exists()).isFalse();
+    assertThat(second.exists()).isTrue();
+  }
+
+  @Test
+  public void pinnedEntries_areNotEvictedByScan() throws Exception {
+    Path oldest = writeEntry("cas", "aaaa", 40);
+    Path middle = writeEntry("cas", "bbbb", 40);
+    Path newest = writeEntry("cas", "cccc", 40);
+    DiskCacheGarbageCollector gc =
+        new DiskCacheGarbageCollector(
+            root, /* maxSizeBytes= */ 100, /* maxEntries= */ 0, clock, newDirectExecutorService());
+
+    gc.pin(oldest);
+    gc.startScan();
+
+    assertThat(oldest.exists()).isTrue();
+    assertThat(middle.exists()).isFalse();
+    assertThat(newest.exists()).isTrue();
+  }
+
+  @Test
+  public void actionCacheHit_pinsOutputs() throws Exception {
+    DiskCacheGarbageCollector gc = newCollector(/* maxSizeBytes= */ 1000, /* maxEntries= */ 0);
+    DigestUtil digestUtil = new DigestUtil(DigestHashFunction.SHA256);
+    DiskCacheClient client =
+        new DiskCacheClient(root, /* verifyDownloads= */ false, digestUtil, gc);
+    ByteString output = ByteString.copyFrom(new byte[600]);
+    Digest outputDigest = digestUtil.compute(output.toByteArray());
+    getFromFuture(client.uploadBlob(/* context= */ null, outputDigest, output));
+    ActionKey actionKey = digestUtil.asActionKey(digestUtil.computeAsUtf8("action"));
+    client.uploadActionResult(
+        /* context= */ null,
+        actionKey,
+        ActionResult.newBuilder()
+            .addOutputFiles(OutputFile.newBuilder().setPath("out").setDigest(outputDigest))
+            .build());
+    gc.resetForCommand();
+
+    assertThat(
+            getFromFuture(
+                client.downloadActionResult(
+                    /* context= */ null, actionKey, /* inlineOutErr= */ false)))
+        .isNotNull();
+    // Another output pushes the cache over its budget before the first one is downloaded.
+    ByteString other = ByteString.copyFrom(new byte[500]);
+    Digest otherDigest = digestUtil.compute(other.toByteArray());
+    getFromFuture(client.uploadBlob(/* context= */ null, otherDigest, other));
+
+    assertThat(client.contains(outputDigest)).isTrue();
+  }
+
+  @Test
+  public void failedEviction_keepsEntry() throws Exception {
+    Path undeletable = writeEntry("cas", "aaaa", 60);
+    Path deletable = writeEntry("cas", "bbbb", 60);
+    undeletable.getParentDirectory().setWritable(false);
+
+    DiskCacheGarbageCollector gc = newCollector(/* maxSizeBytes= */ 100, /* maxEntries= */ 0);
+
+    assertThat(undeletable.exists()).isTrue();
+    assertThat(deletable.exists()).isFalse();
+    assertThat(gc.getEntryCount()).isEqualTo(1);
+    assertThat(gc.getTotalSizeBytes()).isEqualTo(60);
+    assertThat(gc.getEvictedEntries()).isEqualTo(1);
+  }
+
+  @Test
+  public void resetForCommand_clearsCounters() throws Exception {
+    Path entry = writeEntry("ac", "aaaa", 1);
+    DiskCacheGarbageCollector gc = newCollector(/* maxSizeBytes= */ 100, /* maxEntries= */ 0);
+    gc.recordHit(entry, 1);
+    gc.recordMiss();
+
+    gc.resetForCommand();
+
+    assertThat(gc.getHits()).isEqualTo(0);
+    assertThat(gc.getMisses()).isEqualTo(0);
+    assertThat(gc.getEntryCount()).isEqualTo(1);
+  }
+}
@@ -0,0 +1,143 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote.merkletree;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.Artifact.ArtifactExpander;
+import com.google.devtools.build.lib.actions.ArtifactRoot;
+import com.google.devtools.build.lib.actions.ArtifactRoot.RootType;
+import com.google.devtools.build.lib.actions.FileArtifactValue;
+import com.google.devtools.build.lib.actions.util.ActionsTestUtil;
+import com.google.devtools.build.lib.clock.JavaClock;
+import com.google.devtools.build.lib.collect.nestedset.NestedSet;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
+import com.google.devtools.build.lib.remote.util.DigestUtil;
+import com.google.devtools.build.lib.remote.util.StaticMetadataProvider;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link MerkleTreeCache}. */
+@RunWith(JUnit4.class)
+public class MerkleTreeCacheTest {
+
+  private static final ArtifactExpander NO_EXPANSION = (artifact, output) -> {};
+
+  private Path execRoot;
+  private ArtifactRoot artifactRoot;
+  private DigestUtil digestUtil;
+  private final Map<ActionInput, FileArtifactValue> metadata = new HashMap<>();
+  private StaticMetadataProvider metadataProvider;
+
+  @Before
+  public void setup() {
+    FileSystem fs = new InMemoryFileSystem(new JavaClock(), DigestHashFunction.SHA256);
+    execRoot = fs.getPath("/exec");
+    artifactRoot = ArtifactRoot.asDerivedRoot(execRoot, RootType.Output, "srcs");
+    digestUtil = new DigestUtil(fs.getDigestFunction());
+    metadataProvider = new StaticMetadataProvider(metadata);
+  }
+
+  @Test
+  public void build_sameAsBuildingFromExpandedInputs() throws IOException {
+    NestedSet<ActionInput> shared =
+        NestedSetBuilder.<ActionInput>stableOrder()
+            .add(addFile("srcs/fizz/buzz.h", "buzz"))
+            .addTransitive(
+                NestedSetBuilder.<ActionInput>stableOrder()
+                    .add(addFile("srcs/fizz/fizzbuzz.h", "fizzbuzz"))
+                    .add(addFile("srcs/other/other.h", "other"))
+                    .build())
+            .build();
+    NestedSet<ActionInput> inputs =
+        NestedSetBuilder.<ActionInput>stableOrder()
+            .add(addFile("srcs/foo.cc", "foo"))
+            .add(addFile("srcs/fizz/fizz.cc", "fizz"))
+            .addTransitive(shared)
+            .build();
+
+    MerkleTree tree =
+        new MerkleTreeCache(100)
+            .build(inputs, NO_EXPANSION, metadataProvider, execRoot, digestUtil);
+
+    MerkleTree expected =
+        MerkleTree.build(toSortedMap(inputs), metadataProvider, execRoot, digestUtil);
+    assertThat(tree.getRootDigest()).isEqualTo(expected.getRootDigest());
+    assertThat(tree.getInputFiles()).isEqualTo(expected.getInputFiles());
+    assertThat(tree.getInputBytes()).isEqualTo(expected.getInputBytes());
+    assertThat(tree.getAllDigests()).containsExactlyElementsIn(expected.getAllDigests());
+  }
+
+  @Test
+  public void build_reusesTreesOfSharedNodes() throws IOException {
+    NestedSet<ActionInput> shared =
+        NestedSetBuilder.<ActionInput>stableOrder()
+            .add(addFile("srcs/a.h", "a"))
+            .add(addFile("srcs/b.h", "b"))
+            .build();
+    NestedSet<ActionInput> first =
+        NestedSetBuilder.<ActionInput>stableOrder()
+            .add(addFile("srcs/first.cc", "first"))
+            .addTransitive(shared)
+            .build();
+    NestedSet<ActionInput> second =
+        NestedSetBuilder.<ActionInput>stableOrder()
+            .add(addFile("srcs/second.cc", "second"))
+            .addTransitive(shared)
+            .build();
+    MerkleTreeCache cache = new MerkleTreeCache(100);
+
+    cache.build(first, NO_EXPANSION, metadataProvider, execRoot, digestUtil);
+    MerkleTree tree = cache.build(second, NO_EXPANSION, metadataProvider, execRoot, digestUtil);
+
+    assertThat(cache.getStats().hitCount()).isEqualTo(1);
+    assertThat(tree.getRootDigest())
+        .isEqualTo(
+            MerkleTree.build(toSortedMap(second), metadataProvider, execRoot, digestUtil)
+                .getRootDigest());
+  }
+
+  private Artifact addFile(String path, String content) throws IOException {
+    Path p = execRoot.getRelative(path);
+    Preconditions.checkNotNull(p.getParentDirectory()).createDirectoryAndParents();
+    FileSystemUtils.writeContentAsLatin1(p, content);
+    Artifact a = ActionsTestUtil.createArtifact(artifactRoot, p);
+    metadata.put(a, FileArtifactValue.createForTesting(a));
+    return a;
+  }
+
+  private static SortedMap<PathFragment, ActionInput> toSortedMap(NestedSet<ActionInput> inputs) {
+    SortedMap<PathFragment, ActionInput> sortedInputs = new TreeMap<>();
+    for (ActionInput input : inputs.toList()) {
+      sortedInputs.put(input.getExecPath(), input);
+    }
+    return sortedInputs;
+  }
+}
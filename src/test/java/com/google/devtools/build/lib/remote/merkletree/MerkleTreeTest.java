@@ -14,12 +14,14 @@
 package com.google.devtools.build.lib.remote.merkletree;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
 
 import build.bazel.remote.execution.v2.Digest;
 import build.bazel.remote.execution.v2.Directory;
 import build.bazel.remote.execution.v2.DirectoryNode;
 import build.bazel.remote.execution.v2.FileNode;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.actions.ActionInput;
 import com.google.devtools.build.lib.actions.Artifact;
@@ -138,6 +140,55 @@ public class MerkleTreeTest {
     assertThat(allDigests).asList().containsAtLeastElementsIn(inputDigests);
   }
 
+  @Test
+  public void mergeMerkleTrees_sameAsBuildingFromAllInputs() throws IOException {
+    SortedMap<PathFragment, ActionInput> allInputs = new TreeMap<>();
+    SortedMap<PathFragment, ActionInput> firstInputs = new TreeMap<>();
+    SortedMap<PathFragment, ActionInput> secondInputs = new TreeMap<>();
+    Map<ActionInput, FileArtifactValue> metadata = new HashMap<>();
+    addFile("srcs/foo.cc", "foo", firstInputs, metadata);
+    addFile("srcs/fizz/buzz.cc", "buzz", firstInputs, metadata);
+    addFile("srcs/bar.cc", "bar", secondInputs, metadata);
+    addFile("srcs/fizz/buzz.cc", "buzz", secondInputs, metadata);
+    addFile("srcs/fizz/fizzbuzz.cc", "fizzbuzz", secondInputs, metadata);
+    addFile("srcs/other/other.cc", "other", secondInputs, metadata);
+    allInputs.putAll(firstInputs);
+    allInputs.putAll(secondInputs);
+    StaticMetadataProvider metadataProvider = new StaticMetadataProvider(metadata);
+
+    MerkleTree expected = MerkleTree.build(allInputs, metadataProvider, execRoot, digestUtil);
+    MerkleTree merged =
+        MerkleTree.merge(
+            ImmutableList.of(
+                MerkleTree.build(firstInputs, metadataProvider, execRoot, digestUtil),
+                MerkleTree.build(secondInputs, metadataProvider, execRoot, digestUtil)),
+            digestUtil);
+
+    assertThat(merged.getRootDigest()).isEqualTo(expected.getRootDigest());
+    assertThat(merged.getInputFiles()).isEqualTo(expected.getInputFiles());
+    assertThat(merged.getInputBytes()).isEqualTo(expected.getInputBytes());
+    assertThat(merged.getAllDigests()).containsExactlyElementsIn(expected.getAllDigests());
+  }
+
+  @Test
+  public void mergeMerkleTrees_conflictingFiles() throws IOException {
+    SortedMap<PathFragment, ActionInput> inputs = new TreeMap<>();
+    Map<ActionInput, FileArtifactValue> firstMetadata = new HashMap<>();
+    Map<ActionInput, FileArtifactValue> secondMetadata = new HashMap<>();
+    addFile("srcs/foo.cc", "foo", inputs, firstMetadata);
+    addFile("srcs/foo.cc", "bar", inputs, secondMetadata);
+
+    MerkleTree first =
+        MerkleTree.build(
+            inputs, new StaticMetadataProvider(firstMetadata), execRoot, digestUtil);
+    MerkleTree second =
+        MerkleTree.build(
+            inputs, new StaticMetadataProvider(secondMetadata), execRoot, digestUtil);
+
+    assertThrows(
+        IOException.class, () -> MerkleTree.merge(ImmutableList.of(first, second), digestUtil));
+  }
+
   private Artifact addFile(
       String path,
       String content,
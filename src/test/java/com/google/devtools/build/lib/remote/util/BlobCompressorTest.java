@@ -0,0 +1,96 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote.util;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import build.bazel.remote.execution.v2.Compressor;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link BlobCompressor}. */
+@RunWith(JUnit4.class)
+public class BlobCompressorTest {
+
+  private static final byte[] DATA =
+      "The quick brown fox jumps over the lazy dog. The lazy dog sleeps."
+          .getBytes(StandardCharsets.UTF_8);
+
+  private static byte[] compress(BlobCompressor compressor, byte[] data) throws IOException {
+    try (InputStream in = compressor.compress(new ByteArrayInputStream(data))) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+
+  @Test
+  public void roundTrip() throws IOException {
+    for (BlobCompressor compressor : BlobCompressor.values()) {
+      byte[] compressed = compress(compressor, DATA);
+
+      ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+      try (OutputStream out = compressor.decompress(decompressed)) {
+        out.write(compressed);
+      }
+
+      assertThat(decompressed.toByteArray()).isEqualTo(DATA);
+    }
+  }
+
+  @Test
+  public void compressionIsDeterministic() throws IOException {
+    for (BlobCompressor compressor : BlobCompressor.values()) {
+      assertThat(compress(compressor, DATA)).isEqualTo(compress(compressor, DATA));
+    }
+  }
+
+  @Test
+  public void truncatedInputFails() throws IOException {
+    for (BlobCompressor compressor : BlobCompressor.values()) {
+      byte[] compressed = compress(compressor, DATA);
+
+      OutputStream out = compressor.decompress(new ByteArrayOutputStream());
+      out.write(Arrays.copyOf(compressed, compressed.length / 2));
+
+      assertThrows(IOException.class, out::close);
+    }
+  }
+
+  @Test
+  public void resourceNames() {
+    assertThat(BlobCompressor.DEFLATE.getName()).isEqualTo("deflate");
+    assertThat(BlobCompressor.forName("deflate")).isEqualTo(BlobCompressor.DEFLATE);
+    assertThat(BlobCompressor.forName("identity")).isNull();
+  }
+
+  @Test
+  public void negotiate() {
+    assertThat(
+            BlobCompressor.negotiate(
+                ImmutableList.of(Compressor.Value.ZSTD, Compressor.Value.DEFLATE)))
+        .isEqualTo(BlobCompressor.DEFLATE);
+    assertThat(BlobCompressor.negotiate(ImmutableList.of(Compressor.Value.ZSTD))).isNull();
+    assertThat(BlobCompressor.negotiate(ImmutableList.of())).isNull();
+  }
+}
@@ -364,6 +364,47 @@ public class CcToolchainFeaturesTest extends BuildViewTestCase {
     }
   }
 
+  @Test
+  public void testToolchainFlagsAreSharedBetweenChildVariables() throws Exception {
+    FeatureConfiguration configuration =
+        CcToolchainTestHelper.buildFeatures(
+                "feature {",
+                "  name: 'a'",
+                "  flag_set {",
+                "    action: 'c++-compile'",
+                "    flag_group { flag: '-t%{toolchain}' }",
+                "    flag_group { flag: '-f%{file}' }",
+                "  }",
+                "}")
+            .getFeatureConfiguration(ImmutableSet.of("a"));
+    CcToolchainVariables toolchainVariables = createVariables("toolchain", "a");
+
+    List<String> first =
+        configuration.getCommandLine(
+            CppActionNames.CPP_COMPILE,
+            CcToolchainVariables.builder(toolchainVariables)
+                .addStringVariable("file", "x")
+                .build());
+    List<String> second =
+        configuration.getCommandLine(
+            CppActionNames.CPP_COMPILE,
+            CcToolchainVariables.builder(toolchainVariables)
+                .addStringVariable("file", "y")
+                .build());
+    List<String> overridden =
+        configuration.getCommandLine(
+            CppActionNames.CPP_COMPILE,
+            CcToolchainVariables.builder(toolchainVariables)
+                .addStringVariable("toolchain", "b")
+                .addStringVariable("file", "z")
+                .build());
+
+    assertThat(first).containsExactly("-ta", "-fx").inOrder();
+    assertThat(second).containsExactly("-ta", "-fy").inOrder();
+    assertThat(second.get(0)).isSameInstanceAs(first.get(0));
+    assertThat(overridden).containsExactly("-tb", "-fz").inOrder();
+  }
+
   @Test
   public void testVariableExpansion() throws Exception {
     assertThat(getExpansionOfFlag("%%")).isEqualTo("%");
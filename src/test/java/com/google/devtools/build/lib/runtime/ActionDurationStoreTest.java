@@ -0,0 +1,80 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.runtime;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.time.Duration;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ActionDurationStore}. */
+@RunWith(JUnit4.class)
+public class ActionDurationStoreTest {
+
+  private final Path file =
+      new InMemoryFileSystem(DigestHashFunction.SHA256).getPath("/output_base/action_durations");
+
+  @Test
+  public void remainingTimesSurviveReloading() throws Exception {
+    ActionDurationStore store = ActionDurationStore.load(file);
+    assertThat(store.getRemainingMillis("bin/a.o")).isEqualTo(-1);
+
+    store.recordBuild(
+        ImmutableMap.of("bin/a.o", Duration.ofSeconds(10), "bin/b.o", Duration.ofMillis(20)));
+    store.save();
+
+    store = ActionDurationStore.load(file);
+    assertThat(store.getRemainingMillis("bin/a.o")).isEqualTo(10_000);
+    assertThat(store.getRemainingMillis("bin/b.o")).isEqualTo(20);
+    assertThat(store.getRemainingMillis("bin/c.o")).isEqualTo(-1);
+  }
+
+  @Test
+  public void remainingTimesAreSmoothed() {
+    ActionDurationStore store = ActionDurationStore.load(file);
+    store.recordBuild(ImmutableMap.of("bin/a.o", Duration.ofMillis(1000)));
+    store.recordBuild(ImmutableMap.of("bin/a.o", Duration.ofMillis(3000)));
+    assertThat(store.getRemainingMillis("bin/a.o")).isEqualTo(2000);
+  }
+
+  @Test
+  public void oldEntriesAreForgotten() {
+    ActionDurationStore store = ActionDurationStore.load(file);
+    store.recordBuild(ImmutableMap.of("bin/a.o", Duration.ofMillis(1000)));
+    for (int i = 0; i < ActionDurationStore.MAX_AGE; i++) {
+      store.recordBuild(ImmutableMap.of("bin/b.o", Duration.ofMillis(1000)));
+    }
+    assertThat(store.getRemainingMillis("bin/a.o")).isEqualTo(-1);
+    assertThat(store.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void corruptFileIsIgnored() throws Exception {
+    file.getParentDirectory().createDirectoryAndParents();
+    FileSystemUtils.writeContentAsLatin1(file, "garbage");
+    ActionDurationStore store = ActionDurationStore.load(file);
+    assertThat(store.size()).isEqualTo(0);
+
+    store.recordBuild(ImmutableMap.of("bin/a.o", Duration.ofMillis(1000)));
+    store.save();
+    assertThat(ActionDurationStore.load(file).getRemainingMillis("bin/a.o")).isEqualTo(1000);
+  }
+}
@@ -87,6 +87,68 @@ public class SymlinkedSandboxedSpawnTest {
     assertThat(execRoot.getRelative("wow/writable").isDirectory()).isTrue();
   }
 
+  @Test
+  public void reusesStashedSandbox() throws Exception {
+    Path a = workspaceDir.getRelative("a.txt");
+    Path b = workspaceDir.getRelative("b.txt");
+    Path c = workspaceDir.getRelative("c.txt");
+    FileSystemUtils.createEmptyFile(a);
+    FileSystemUtils.createEmptyFile(b);
+    FileSystemUtils.createEmptyFile(c);
+    SandboxStash stash = new SandboxStash(sandboxDir.getParentDirectory());
+
+    SymlinkedSandboxedSpawn first =
+        createStashedSpawn(
+            sandboxDir,
+            stash,
+            ImmutableMap.of(
+                PathFragment.create("in/a.txt"), a, PathFragment.create("in/b.txt"), b));
+    first.createFileSystem();
+    FileSystemUtils.createEmptyFile(execRoot.getRelative("in/output.txt"));
+    first.delete();
+
+    assertThat(sandboxDir.exists()).isFalse();
+    assertThat(stash.getSymlinksCreated()).isEqualTo(2);
+
+    Path otherSandboxDir = sandboxDir.getParentDirectory().getRelative("other");
+    otherSandboxDir.createDirectory();
+    Path otherExecRoot = otherSandboxDir.getRelative("execroot");
+    otherExecRoot.createDirectory();
+    SymlinkedSandboxedSpawn second =
+        createStashedSpawn(
+            otherSandboxDir,
+            stash,
+            ImmutableMap.of(
+                PathFragment.create("in/a.txt"), a, PathFragment.create("in/c.txt"), c));
+    second.createFileSystem();
+
+    assertThat(otherExecRoot.getRelative("in/a.txt").resolveSymbolicLinks()).isEqualTo(a);
+    assertThat(otherExecRoot.getRelative("in/c.txt").resolveSymbolicLinks()).isEqualTo(c);
+    assertThat(otherExecRoot.getRelative("in/b.txt").exists(Symlinks.NOFOLLOW)).isFalse();
+    assertThat(otherExecRoot.getRelative("in/output.txt").exists(Symlinks.NOFOLLOW)).isFalse();
+    assertThat(stash.getSandboxesReused()).isEqualTo(1);
+    assertThat(stash.getSymlinksCreated()).isEqualTo(3);
+    assertThat(stash.getSymlinksReused()).isEqualTo(1);
+  }
+
+  private static SymlinkedSandboxedSpawn createStashedSpawn(
+      Path sandboxPath, SandboxStash stash, ImmutableMap<PathFragment, Path> inputs) {
+    Path sandboxExecRoot = sandboxPath.getRelative("execroot");
+    return new SymlinkedSandboxedSpawn(
+        sandboxPath,
+        sandboxExecRoot,
+        ImmutableList.of("/bin/true"),
+        ImmutableMap.of(),
+        new SandboxInputs(inputs, ImmutableSet.of(), ImmutableMap.of()),
+        SandboxOutputs.create(
+            ImmutableSet.of(PathFragment.create("in/output.txt")), ImmutableSet.of()),
+        ImmutableSet.of(),
+        new SynchronousTreeDeleter(),
+        /* statisticsPath= */ null,
+        stash,
+        "Mnemonic");
+  }
+
   @Test
   public void copyOutputs() throws Exception {
     // These tests are very simple because we just rely on
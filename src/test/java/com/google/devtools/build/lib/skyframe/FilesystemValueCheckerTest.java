@@ -869,8 +869,35 @@ public final class FilesystemValueCheckerTest extends FilesystemValueCheckerTest
     return new RemoteFileArtifactValue(hash.asBytes(), data.length, -1, "action-id");
   }
 
+  /** A {@link BatchStat} that stats the files one by one, like {@code UnixBatchStat} does. */
+  private BatchStat statOneByOne() {
+    return new BatchStat() {
+      @Override
+      public List<FileStatusWithDigest> batchStat(
+          boolean useDigest, boolean includeLinks, Iterable<PathFragment> paths)
+          throws IOException {
+        List<FileStatusWithDigest> stats = new ArrayList<>();
+        for (PathFragment pathFrag : paths) {
+          stats.add(
+              FileStatusWithDigestAdapter.adapt(
+                  fs.getPath("/").getRelative(pathFrag).statIfFound(Symlinks.NOFOLLOW)));
+        }
+        return stats;
+      }
+    };
+  }
+
   @Test
   public void testRemoteAndLocalArtifacts() throws Exception {
+    checkRemoteAndLocalArtifacts(/* batchStatter= */ null);
+  }
+
+  @Test
+  public void testRemoteAndLocalArtifactsBatchStat() throws Exception {
+    checkRemoteAndLocalArtifacts(statOneByOne());
+  }
+
+  private void checkRemoteAndLocalArtifacts(@Nullable BatchStat batchStatter) throws Exception {
     // Test that injected remote artifacts are trusted by the FileSystemValueChecker
     // if it is configured to trust remote artifacts, and that local files always take precedence
     // over remote files.
@@ -902,7 +929,7 @@ public final class FilesystemValueCheckerTest extends FilesystemValueCheckerTest
                     /* tsgm= */ null, /* lastExecutionTimeRange= */ null, FSVC_THREADS_FOR_TEST)
                 .getDirtyActionValues(
                     evaluator.getValues(),
-                    /* batchStatter= */ null,
+                    batchStatter,
                     ModifiedFileSet.EVERYTHING_MODIFIED,
                     /* trustRemoteArtifacts= */ true))
         .isEmpty();
@@ -915,7 +942,7 @@ public final class FilesystemValueCheckerTest extends FilesystemValueCheckerTest
                     /* tsgm= */ null, /* lastExecutionTimeRange= */ null, FSVC_THREADS_FOR_TEST)
                 .getDirtyActionValues(
                     evaluator.getValues(),
-                    /* batchStatter= */ null,
+                    batchStatter,
                     ModifiedFileSet.EVERYTHING_MODIFIED,
                     /* trustRemoteArtifacts= */ true))
         .containsExactly(actionKey1);
@@ -923,6 +950,16 @@ public final class FilesystemValueCheckerTest extends FilesystemValueCheckerTest
 
   @Test
   public void testRemoteAndLocalTreeArtifacts() throws Exception {
+    checkRemoteAndLocalTreeArtifacts(/* batchStatter= */ null);
+  }
+
+  @Test
+  public void testRemoteAndLocalTreeArtifactsBatchStat() throws Exception {
+    checkRemoteAndLocalTreeArtifacts(statOneByOne());
+  }
+
+  private void checkRemoteAndLocalTreeArtifacts(@Nullable BatchStat batchStatter)
+      throws Exception {
     // Test that injected remote tree artifacts are trusted by the FileSystemValueChecker
     // and that local files always takes preference over remote files.
     SkyKey actionKey = ActionLookupData.create(ACTION_LOOKUP_KEY, 0);
@@ -954,7 +991,7 @@ public final class FilesystemValueCheckerTest extends FilesystemValueCheckerTest
                     /* tsgm= */ null, /* lastExecutionTimeRange= */ null, FSVC_THREADS_FOR_TEST)
                 .getDirtyActionValues(
                     evaluator.getValues(),
-                    /* batchStatter= */ null,
+                    batchStatter,
                     ModifiedFileSet.EVERYTHING_MODIFIED,
                     /* trustRemoteArtifacts= */ false))
         .isEmpty();
@@ -967,7 +1004,7 @@ public final class FilesystemValueCheckerTest extends FilesystemValueCheckerTest
                     /* tsgm= */ null, /* lastExecutionTimeRange= */ null, FSVC_THREADS_FOR_TEST)
                 .getDirtyActionValues(
                     evaluator.getValues(),
-                    /* batchStatter= */ null,
+                    batchStatter,
                     ModifiedFileSet.EVERYTHING_MODIFIED,
                     /* trustRemoteArtifacts= */ false))
         .containsExactly(actionKey);
@@ -14,15 +14,23 @@
 package com.google.devtools.build.lib.unix;
 
 import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
 import static org.junit.Assert.assertThrows;
 
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.util.OS;
 import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.FileStatusWithDigest;
 import com.google.devtools.build.lib.vfs.FileSystem;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.SymlinkAwareFileSystemTest;
 import com.google.devtools.build.lib.vfs.Symlinks;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.List;
 import org.junit.Test;
 
 /** Tests for the {@link com.google.devtools.build.lib.unix.UnixFileSystem} class. */
@@ -70,4 +78,122 @@ public class UnixFileSystemTest extends SymlinkAwareFileSystemTest {
     assertThat(fifo.stat().isFile()).isTrue();
     assertThat(fifo.stat().isSpecialFile()).isTrue();
   }
+
+  @Test
+  public void testBatchStatMatchesStat() throws Exception {
+    Path file = absolutize("file");
+    Path dir = absolutize("dir");
+    Path link = absolutize("link");
+    Path fifo = absolutize("fifo");
+    FileSystemUtils.writeContentAsLatin1(file, "contents");
+    dir.createDirectory();
+    link.createSymbolicLink(file);
+    NativePosixFiles.mkfifo(fifo.toString(), 0777);
+
+    List<FileStatusWithDigest> stats =
+        testFS
+            .getBatchStatter(workingDir.asFragment())
+            .batchStat(
+                /*includeDigest=*/ false,
+                /*includeLinks=*/ true,
+                ImmutableList.of(
+                    PathFragment.create("file"),
+                    PathFragment.create("dir"),
+                    PathFragment.create("link"),
+                    PathFragment.create("fifo"),
+                    PathFragment.create("missing"),
+                    PathFragment.create("file/missing")));
+
+    assertThat(stats).hasSize(6);
+    for (int i = 0; i < 4; i++) {
+      Path path = ImmutableList.of(file, dir, link, fifo).get(i);
+      FileStatus expected = path.stat(Symlinks.NOFOLLOW);
+      FileStatusWithDigest actual = stats.get(i);
+      assertThat(actual.isFile()).isEqualTo(expected.isFile());
+      assertThat(actual.isDirectory()).isEqualTo(expected.isDirectory());
+      assertThat(actual.isSymbolicLink()).isEqualTo(expected.isSymbolicLink());
+      assertThat(actual.isSpecialFile()).isEqualTo(expected.isSpecialFile());
+      assertThat(actual.getSize()).isEqualTo(expected.getSize());
+      assertThat(actual.getLastModifiedTime()).isEqualTo(expected.getLastModifiedTime());
+      assertThat(actual.getLastChangeTime()).isEqualTo(expected.getLastChangeTime());
+      assertThat(actual.getNodeId()).isEqualTo(expected.getNodeId());
+      assertThat(actual.getDigest()).isNull();
+    }
+    assertThat(stats.get(4)).isNull();
+    assertThat(stats.get(5)).isNull();
+  }
+
+  @Test
+  public void testBatchStatFollowsSymlinksUnlessIncludingLinks() throws Exception {
+    Path file = absolutize("file");
+    FileSystemUtils.writeContentAsLatin1(file, "contents");
+    absolutize("link").createSymbolicLink(file);
+
+    List<FileStatusWithDigest> stats =
+        testFS
+            .getBatchStatter(workingDir.asFragment())
+            .batchStat(
+                /*includeDigest=*/ false,
+                /*includeLinks=*/ false,
+                ImmutableList.of(PathFragment.create("link")));
+
+    assertThat(stats.get(0).isFile()).isTrue();
+    assertThat(stats.get(0).getSize()).isEqualTo(8);
+  }
+
+  @Test
+  public void testCopyFileEfficiently() throws Exception {
+    Path source = absolutize("source");
+    FileSystemUtils.writeContentAsLatin1(source, "contents");
+    Path target = absolutize("target");
+    FileSystemUtils.writeContentAsLatin1(target, "previous longer contents");
+
+    boolean copied = testFS.copyFileEfficiently(source.asFragment(), target.asFragment());
+
+    // sendfile(2) supports copies between regular files on all the kernels we run on.
+    if (OS.getCurrent() == OS.LINUX) {
+      assertThat(copied).isTrue();
+    }
+    // The copy may be unsupported, e.g. on macOS, in which case the target is left as it was.
+    assertThat(FileSystemUtils.readContent(target, ISO_8859_1))
+        .isEqualTo(copied ? "contents" : "previous longer contents");
+  }
+
+  @Test
+  public void testCopyFileEfficientlyDoesNotCreateTargetIfUnsupported() throws Exception {
+    Path source = absolutize("source");
+    FileSystemUtils.writeContentAsLatin1(source, "contents");
+    source.setWritable(false);
+    Path target = absolutize("target");
+
+    if (testFS.copyFileEfficiently(source.asFragment(), target.asFragment())) {
+      assertThat(FileSystemUtils.readContent(target, ISO_8859_1)).isEqualTo("contents");
+      assertThat(target.isWritable()).isTrue();
+    } else {
+      assertThat(target.exists()).isFalse();
+    }
+  }
+
+  @Test
+  public void testCopyReadOnlyFile() throws Exception {
+    Path source = absolutize("source");
+    FileSystemUtils.writeContentAsLatin1(source, "contents");
+    source.chmod(0555);
+    Path target = absolutize("target");
+
+    FileSystemUtils.copyFile(source, target);
+
+    assertThat(FileSystemUtils.readContent(target, ISO_8859_1)).isEqualTo("contents");
+    assertThat(target.isWritable()).isFalse();
+    assertThat(target.isExecutable()).isTrue();
+  }
+
+  @Test
+  public void testCopyFileEfficientlyFromMissingFile() {
+    assertThrows(
+        FileNotFoundException.class,
+        () ->
+            testFS.copyFileEfficiently(
+                absolutize("missing").asFragment(), absolutize("target").asFragment()));
+  }
 }
@@ -0,0 +1,172 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.vfs;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.build.lib.testutil.TestUtils;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link PersistentDigestCache}. */
+@RunWith(JUnit4.class)
+public class PersistentDigestCacheTest {
+
+  private final AtomicInteger digestCalls = new AtomicInteger();
+  private Path tmpDir;
+  private Path cacheFile;
+
+  @Before
+  public final void setUp() throws IOException {
+    FileSystem fs =
+        new JavaIoFileSystem(DigestHashFunction.SHA256) {
+          @Override
+          protected byte[] getDigest(PathFragment path) throws IOException {
+            digestCalls.incrementAndGet();
+            return super.getDigest(path);
+          }
+        };
+    tmpDir = TestUtils.createUniqueTmpDir(fs);
+    cacheFile = tmpDir.getChild("digest_cache");
+  }
+
+  @After
+  public final void tearDown() {
+    DigestUtils.configurePersistentCache(null);
+    DigestUtils.configureCache(0);
+  }
+
+  /** Simulates a server restart by dropping the in-memory cache and reopening the file. */
+  private PersistentDigestCache restart(DigestHashFunction hashFunction) {
+    DigestUtils.configureCache(100);
+    PersistentDigestCache cache = new PersistentDigestCache(cacheFile, hashFunction);
+    DigestUtils.configurePersistentCache(cache);
+    return cache;
+  }
+
+  private byte[] digest(Path file) throws IOException {
+    return DigestUtils.manuallyComputeDigest(file, file.getFileSize());
+  }
+
+  @Test
+  public void digestSurvivesRestart() throws Exception {
+    Path file = tmpDir.getChild("file");
+    FileSystemUtils.writeContentAsLatin1(file, "contents");
+
+    PersistentDigestCache cache = restart(DigestHashFunction.SHA256);
+    byte[] expected = digest(file);
+    cache.close();
+    assertThat(digestCalls.get()).isEqualTo(1);
+
+    restart(DigestHashFunction.SHA256);
+    assertThat(digest(file)).isEqualTo(expected);
+    assertThat(digestCalls.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void changedFileIsDigestedAgain() throws Exception {
+    Path file = tmpDir.getChild("file");
+    FileSystemUtils.writeContentAsLatin1(file, "contents");
+    PersistentDigestCache cache = restart(DigestHashFunction.SHA256);
+    digest(file);
+    cache.close();
+
+    FileSystemUtils.writeContentAsLatin1(file, "other contents");
+    restart(DigestHashFunction.SHA256);
+    digest(file);
+
+    assertThat(digestCalls.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void latestRecordForPathWins() throws Exception {
+    Path file = tmpDir.getChild("file");
+    FileSystemUtils.writeContentAsLatin1(file, "contents");
+    PersistentDigestCache cache = restart(DigestHashFunction.SHA256);
+    digest(file);
+    cache.close();
+
+    FileSystemUtils.writeContentAsLatin1(file, "other contents");
+    cache = restart(DigestHashFunction.SHA256);
+    byte[] expected = digest(file);
+    cache.close();
+
+    restart(DigestHashFunction.SHA256);
+    assertThat(digest(file)).isEqualTo(expected);
+    assertThat(digestCalls.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void differentDigestFunctionDiscardsFile() throws Exception {
+    Path file = tmpDir.getChild("file");
+    FileSystemUtils.writeContentAsLatin1(file, "contents");
+    PersistentDigestCache cache = restart(DigestHashFunction.SHA256);
+    digest(file);
+    cache.close();
+
+    cache = restart(DigestHashFunction.SHA1);
+    assertThat(cache.get(new DigestUtils.CacheKey(file, file.stat()))).isNull();
+  }
+
+  @Test
+  public void truncatedRecordIsIgnored() throws Exception {
+    Path first = tmpDir.getChild("first");
+    Path second = tmpDir.getChild("second");
+    FileSystemUtils.writeContentAsLatin1(first, "first");
+    FileSystemUtils.writeContentAsLatin1(second, "second");
+    PersistentDigestCache cache = restart(DigestHashFunction.SHA256);
+    byte[] expected = digest(first);
+    digest(second);
+    cache.close();
+    try (RandomAccessFile raf = new RandomAccessFile(cacheFile.getPathFile(), "rw")) {
+      raf.setLength(raf.length() - 3);
+    }
+
+    restart(DigestHashFunction.SHA256);
+    assertThat(digest(first)).isEqualTo(expected);
+    digest(second);
+
+    assertThat(digestCalls.get()).isEqualTo(3);
+  }
+
+  @Test
+  public void supersededRecordsAreCompacted() throws Exception {
+    Path file = tmpDir.getChild("file");
+    Path other = tmpDir.getChild("other");
+    FileSystemUtils.writeContentAsLatin1(file, "contents");
+    FileSystemUtils.writeContentAsLatin1(other, "other");
+    DigestUtils.CacheKey key = new DigestUtils.CacheKey(file, file.stat());
+    DigestUtils.CacheKey otherKey = new DigestUtils.CacheKey(other, other.stat());
+    PersistentDigestCache cache = restart(DigestHashFunction.SHA256);
+    byte[] expected = digest(file);
+    byte[] otherExpected = digest(other);
+    // Enough superseded records of the same file to be worth compacting.
+    for (int i = 0; i < 20000; i++) {
+      cache.put(otherKey, otherExpected);
+    }
+    cache.close();
+    assertThat(cacheFile.getFileSize()).isGreaterThan(1L << 20);
+
+    cache = restart(DigestHashFunction.SHA256);
+    assertThat(cache.get(key)).isEqualTo(expected);
+    assertThat(cache.get(otherKey)).isEqualTo(otherExpected);
+    assertThat(cacheFile.getFileSize()).isLessThan(1L << 10);
+  }
+}
@@ -95,17 +95,27 @@ class TestUtils {
    */
   static class FakeSubprocess implements Subprocess {
     private final InputStream inputStream;
-    private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    private final OutputStream outputStream;
     private final ByteArrayInputStream errStream = new ByteArrayInputStream(new byte[0]);
     private boolean wasDestroyed = false;
 
     /** Creates a fake Subprocess that writes {@code bytes} to its "stdout". */
     FakeSubprocess(byte[] bytes) throws IOException {
       inputStream = new ByteArrayInputStream(bytes);
+      outputStream = new ByteArrayOutputStream();
     }
 
     FakeSubprocess(InputStream responseStream) throws IOException {
+      this(responseStream, new ByteArrayOutputStream());
+    }
+
+    /**
+     * Creates a fake Subprocess that reads responses from {@code responseStream} and writes
+     * requests to {@code requestStream}.
+     */
+    FakeSubprocess(InputStream responseStream, OutputStream requestStream) {
       this.inputStream = responseStream;
+      this.outputStream = requestStream;
     }
 
     @Override
@@ -30,8 +30,11 @@ import java.io.OutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 import java.lang.Thread.State;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import org.junit.Before;
@@ -203,4 +206,66 @@ public class WorkerMultiplexerTest {
     assertThat(response2.get().getRequestId()).isEqualTo(42);
     assertThat(multiplexer.noOutstandingRequests()).isTrue();
   }
+
+  @Test
+  public void testGetResponse_manyConcurrentRequests() throws Exception {
+    WorkerKey workerKey = TestUtils.createWorkerKey(fileSystem, "test5", true, "fakeBinary");
+    WorkerMultiplexer multiplexer = WorkerMultiplexerManager.getInstance(workerKey, logPath);
+
+    PipedInputStream serverInputStream = new PipedInputStream();
+    OutputStream workerOutputStream = new PipedOutputStream(serverInputStream);
+    PipedInputStream workerInputStream = new PipedInputStream();
+    OutputStream serverOutputStream = new PipedOutputStream(workerInputStream);
+    multiplexer.setProcessFactory(
+        params -> new FakeSubprocess(serverInputStream, serverOutputStream));
+
+    // A worker that echoes the request id of each request.
+    Thread echoWorker =
+        new Thread(
+            () -> {
+              try {
+                WorkRequest request;
+                while ((request = WorkRequest.parseDelimitedFrom(workerInputStream)) != null) {
+                  WorkResponse.newBuilder()
+                      .setRequestId(request.getRequestId())
+                      .setOutput("echo " + request.getRequestId())
+                      .build()
+                      .writeDelimitedTo(workerOutputStream);
+                  workerOutputStream.flush();
+                }
+              } catch (IOException e) {
+                // The multiplexer was destroyed.
+              }
+            });
+    echoWorker.setDaemon(true);
+    echoWorker.start();
+
+    int threads = 8;
+    int requestsPerThread = 250;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<Void>> results = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      WorkerProxy worker = new WorkerProxy(workerKey, t, logPath, multiplexer);
+      worker.prepareExecution(null, null, null);
+      int firstRequestId = t * requestsPerThread;
+      results.add(
+          executor.submit(
+              () -> {
+                for (int id = firstRequestId; id < firstRequestId + requestsPerThread; id++) {
+                  worker.putRequest(WorkRequest.newBuilder().setRequestId(id).build());
+                  WorkResponse response = worker.getResponse(id);
+                  assertThat(response.getRequestId()).isEqualTo(id);
+                  assertThat(response.getOutput()).isEqualTo("echo " + id);
+                }
+                return null;
+              }));
+    }
+    for (Future<Void> result : results) {
+      result.get();
+    }
+    executor.shutdown();
+
+    assertThat(multiplexer.noOutstandingRequests()).isTrue();
+    multiplexer.destroyMultiplexer();
+  }
 }
@@ -0,0 +1,212 @@
+// Copyright 2020 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.lib.worker.TestUtils.createWorkerKey;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildMetrics.WorkerPoolMetrics.WorkerPoolStats;
+import com.google.devtools.build.lib.clock.BlazeClock;
+import com.google.devtools.build.lib.testutil.ManualClock;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.lang.Thread.State;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link WorkerPoolSizer}. */
+@RunWith(JUnit4.class)
+public class WorkerPoolSizerTest {
+
+  private final ManualClock clock = new ManualClock();
+  private final Map<Long, Long> rssKbByPid = new HashMap<>();
+  private final WorkerPoolSizer sizer =
+      new WorkerPoolSizer(clock, pid -> rssKbByPid.getOrDefault(pid, -1L));
+  private FileSystem fileSystem;
+  private WorkerKey key;
+
+  private class TestWorker extends SingleplexWorker {
+    private final long pid;
+
+    TestWorker(int workerId, long rssKb) {
+      super(key, workerId, fileSystem.getPath("/workDir"), fileSystem.getPath("/logDir"));
+      this.pid = 1000 + workerId;
+      rssKbByPid.put(pid, rssKb);
+    }
+
+    @Override
+    long getProcessId() {
+      return pid;
+    }
+  }
+
+  @Before
+  public void setUp() {
+    fileSystem = new InMemoryFileSystem(BlazeClock.instance(), DigestHashFunction.SHA256);
+    key = createWorkerKey(fileSystem, "mnem", /* proxied= */ false);
+  }
+
+  private Thread startAcquiring() throws InterruptedException {
+    return startAcquiring(4);
+  }
+
+  /** Starts a thread that acquires a worker of {@code key} and waits until it blocks or is done. */
+  private Thread startAcquiring(int max) throws InterruptedException {
+    Thread thread =
+        new Thread(
+            () -> {
+              try {
+                sizer.acquire(key, max);
+              } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+              }
+            });
+    thread.start();
+    while (thread.getState() != State.WAITING && thread.getState() != State.TERMINATED) {
+      Thread.sleep(1);
+    }
+    return thread;
+  }
+
+  private static ImmutableList<Thread> blocked(List<Thread> threads) {
+    return threads.stream().filter(Thread::isAlive).collect(toImmutableList());
+  }
+
+  @Test
+  public void notAdaptive_allowsConfiguredMaximum() throws Exception {
+    List<Thread> holders = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      holders.add(startAcquiring(3));
+    }
+    for (Thread holder : holders) {
+      holder.join();
+    }
+    assertThat(sizer.getLimit(key)).isEqualTo(3);
+
+    Thread waiter = startAcquiring(3);
+    assertThat(waiter.getState()).isEqualTo(State.WAITING);
+
+    sizer.release(key, null);
+    waiter.join();
+    assertThat(sizer.getLimit(key)).isEqualTo(3);
+  }
+
+  @Test
+  public void adaptive_growsWhileRequestsWait() throws Exception {
+    sizer.setAdaptive(true, 0);
+    Worker worker = new TestWorker(1, 1000);
+    sizer.acquire(key, 4);
+    sizer.workerCreated(worker);
+    sizer.borrowed(key, worker);
+    assertThat(sizer.getLimit(key)).isEqualTo(1);
+
+    Thread first = startAcquiring();
+    Thread second = startAcquiring();
+    clock.advanceMillis(1000);
+    sizer.release(key, worker);
+
+    first.join();
+    second.join();
+    assertThat(sizer.getLimit(key)).isEqualTo(2);
+  }
+
+  @Test
+  public void adaptive_doesNotGrowBeyondMaximum() throws Exception {
+    sizer.setAdaptive(true, 0);
+    Worker worker = new TestWorker(1, 1000);
+    sizer.acquire(key, 2);
+    sizer.workerCreated(worker);
+    sizer.borrowed(key, worker);
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      threads.add(startAcquiring(2));
+    }
+
+    // Three requests wait, but only two workers may be used.
+    clock.advanceMillis(1000);
+    sizer.release(key, worker);
+    while (blocked(threads).size() > 1) {
+      Thread.sleep(1);
+    }
+    Thread waiter = Iterables.getOnlyElement(blocked(threads));
+    assertThat(sizer.getLimit(key)).isEqualTo(2);
+
+    // The limit is not raised while the request still waits when the sizer adjusts again.
+    clock.advanceMillis(1000);
+    sizer.release(key, null);
+    waiter.join();
+    assertThat(sizer.getLimit(key)).isEqualTo(2);
+  }
+
+  @Test
+  public void adaptive_retiresLargestWorkerOverMemoryLimit() throws Exception {
+    Worker small = new TestWorker(1, 1000);
+    Worker large = new TestWorker(2, 2000);
+    sizer.acquire(key, 4);
+    sizer.acquire(key, 4);
+    sizer.workerCreated(small);
+    sizer.workerCreated(large);
+    sizer.borrowed(key, small);
+    sizer.borrowed(key, large);
+    sizer.setAdaptive(true, 1500);
+
+    clock.advanceMillis(1000);
+    sizer.release(key, small);
+
+    assertThat(sizer.isRetired(large)).isTrue();
+    assertThat(sizer.isRetired(small)).isFalse();
+    assertThat(sizer.getLimit(key)).isEqualTo(1);
+  }
+
+  @Test
+  public void collectMetrics_reportsAndResetsStatistics() throws Exception {
+    Worker small = new TestWorker(1, 1000);
+    Worker large = new TestWorker(2, 2000);
+    sizer.acquire(key, 4);
+    sizer.acquire(key, 4);
+    sizer.workerCreated(small);
+    sizer.workerCreated(large);
+    sizer.borrowed(key, small);
+    sizer.borrowed(key, large);
+    sizer.setAdaptive(true, 1500);
+    clock.advanceMillis(1000);
+    sizer.release(key, small);
+    sizer.release(key, large);
+    sizer.workerDestroyed(large);
+
+    WorkerPoolStats stats = sizer.collectMetrics().getWorkerPoolStats(0);
+    assertThat(stats.getMnemonic()).isEqualTo("mnem");
+    assertThat(stats.getIsMultiplex()).isFalse();
+    assertThat(stats.getCreatedCount()).isEqualTo(2);
+    assertThat(stats.getDestroyedCount()).isEqualTo(1);
+    assertThat(stats.getRetiredCount()).isEqualTo(1);
+    assertThat(stats.getRequestCount()).isEqualTo(2);
+    assertThat(stats.getPeakRssInKb()).isEqualTo(3000);
+
+    stats = sizer.collectMetrics().getWorkerPoolStats(0);
+    assertThat(stats.getCreatedCount()).isEqualTo(0);
+    assertThat(stats.getRequestCount()).isEqualTo(0);
+    assertThat(stats.getPeakRssInKb()).isEqualTo(1000);
+  }
+}
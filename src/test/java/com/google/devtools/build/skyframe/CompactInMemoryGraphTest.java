@@ -0,0 +1,208 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.util.GroupedList;
+import com.google.devtools.build.lib.util.GroupedList.GroupedListHelper;
+import com.google.devtools.build.skyframe.GraphTester.StringValue;
+import com.google.devtools.build.skyframe.QueryableGraph.Reason;
+import com.google.devtools.build.skyframe.ThinNodeEntry.DirtyType;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link CompactInMemoryGraph}. */
+@RunWith(JUnit4.class)
+public class CompactInMemoryGraphTest extends GraphTest {
+  private ProcessableGraph graph;
+
+  @Override
+  protected Version getStartingVersion() {
+    return IntVersion.of(0);
+  }
+
+  @Override
+  protected Version getNextVersion(Version v) {
+    Preconditions.checkState(v instanceof IntVersion);
+    return ((IntVersion) v).next();
+  }
+
+  @Override
+  protected void makeGraph() {
+    graph = new CompactInMemoryGraph();
+  }
+
+  @Override
+  protected ProcessableGraph getGraph(Version version) {
+    return graph;
+  }
+
+  private NodeEntry evaluate(SkyKey key, List<ImmutableList<SkyKey>> depGroups)
+      throws InterruptedException {
+    List<SkyKey> keys = ImmutableList.<SkyKey>builder().add(key).addAll(concat(depGroups)).build();
+    Map<SkyKey, ? extends NodeEntry> entries = graph.createIfAbsentBatch(null, Reason.OTHER, keys);
+    NodeEntry entry = entries.get(key);
+    entry.addReverseDepAndCheckIfDone(null);
+    entry.markRebuilding();
+    for (ImmutableList<SkyKey> group : depGroups) {
+      GroupedListHelper<SkyKey> helper = new GroupedListHelper<>();
+      helper.startGroup();
+      group.forEach(helper::add);
+      helper.endGroup();
+      entry.addTemporaryDirectDeps(helper);
+      for (SkyKey dep : group) {
+        entry.signalDep(getStartingVersion(), dep);
+      }
+    }
+    entry.setValue(new StringValue("value"), getStartingVersion());
+    return entry;
+  }
+
+  private static ImmutableList<SkyKey> concat(List<ImmutableList<SkyKey>> groups) {
+    ImmutableList.Builder<SkyKey> keys = ImmutableList.builder();
+    groups.forEach(keys::addAll);
+    return keys.build();
+  }
+
+  @Test
+  public void doneNodeKeepsDirectDepGroups() throws Exception {
+    ImmutableList<ImmutableList<SkyKey>> depGroups =
+        ImmutableList.of(
+            ImmutableList.of(key("a")),
+            ImmutableList.of(key("b1"), key("b2"), key("b3")),
+            ImmutableList.of(key("c")),
+            ImmutableList.of(key("d1"), key("d2")));
+    NodeEntry entry = evaluate(key("top"), depGroups);
+
+    assertThat(entry).isInstanceOf(CompactInMemoryNodeEntry.class);
+    GroupedList<SkyKey> directDeps =
+        GroupedList.create(((InMemoryNodeEntry) entry).getCompressedDirectDepsForDoneEntry());
+    assertThat(directDeps.listSize()).isEqualTo(4);
+    int i = 0;
+    for (List<SkyKey> group : directDeps) {
+      assertThat(group).containsExactlyElementsIn(depGroups.get(i++)).inOrder();
+    }
+    assertThat(entry.getDirectDeps()).containsExactlyElementsIn(concat(depGroups)).inOrder();
+    assertThat(((InMemoryNodeEntry) entry).getNumDirectDeps()).isEqualTo(7);
+  }
+
+  @Test
+  public void singleAndNoDirectDeps() throws Exception {
+    NodeEntry leaf = evaluate(key("leaf"), ImmutableList.of());
+    NodeEntry single = evaluate(key("single"), ImmutableList.of(ImmutableList.of(key("leaf"))));
+
+    assertThat(leaf.hasAtLeastOneDep()).isFalse();
+    assertThat(leaf.getDirectDeps()).isEmpty();
+    assertThat(single.getDirectDeps()).containsExactly(key("leaf"));
+  }
+
+  @Test
+  public void reverseDepsAreAddedAndRemoved() throws Exception {
+    NodeEntry entry = evaluate(key("dep"), ImmutableList.of());
+    for (int i = 0; i < 20; i++) {
+      SkyKey parent = key("parent" + i);
+      graph.createIfAbsentBatch(null, Reason.OTHER, ImmutableList.of(parent));
+      entry.addReverseDepAndCheckIfDone(parent);
+    }
+    entry.removeReverseDep(key("parent3"));
+    entry.removeReverseDep(key("parent17"));
+
+    assertThat(entry.getReverseDepsForDoneEntry()).hasSize(18);
+    assertThat(entry.getReverseDepsForDoneEntry()).containsNoneOf(key("parent3"), key("parent17"));
+    assertThat(entry.getReverseDepsForDoneEntry()).contains(key("parent19"));
+  }
+
+  @Test
+  public void dirtyNodeSeesPreviousDirectDeps() throws Exception {
+    ImmutableList<ImmutableList<SkyKey>> depGroups =
+        ImmutableList.of(ImmutableList.of(key("a1"), key("a2")), ImmutableList.of(key("b")));
+    NodeEntry entry = evaluate(key("top"), depGroups);
+
+    entry.markDirty(DirtyType.DIRTY);
+    entry.addReverseDepAndCheckIfDone(null);
+
+    assertThat(entry.getNextDirtyDirectDeps()).containsExactly(key("a1"), key("a2")).inOrder();
+    assertThat(entry.getAllDirectDepsForIncompleteNode())
+        .containsExactly(key("a1"), key("a2"), key("b"));
+  }
+
+  @Test
+  public void cloneDecodesDeps() throws Exception {
+    NodeEntry entry =
+        evaluate(key("top"), ImmutableList.of(ImmutableList.of(key("a"), key("b"))));
+
+    InMemoryNodeEntry compactClone = ((InMemoryNodeEntry) entry).cloneNodeEntry();
+    InMemoryNodeEntry plainClone =
+        ((InMemoryNodeEntry) entry).cloneNodeEntry(new InMemoryNodeEntry());
+
+    assertThat(compactClone.getDirectDeps()).containsExactly(key("a"), key("b")).inOrder();
+    assertThat(plainClone.getDirectDeps()).containsExactly(key("a"), key("b")).inOrder();
+  }
+
+  @Test
+  public void deletedNodesShrinkKeyIdTable() throws Exception {
+    SkyKeyIdTable keyIds = ((CompactInMemoryGraph) graph).getKeyIdTable();
+    NodeEntry dep = evaluate(key("dep"), ImmutableList.of());
+    for (int i = 0; i < 10; i++) {
+      SkyKey parent = key("parent" + i);
+      graph.createIfAbsentBatch(null, Reason.OTHER, ImmutableList.of(parent));
+      dep.addReverseDepAndCheckIfDone(parent);
+    }
+    assertThat(keyIds.size()).isEqualTo(11);
+
+    // Deletes some parents the way DeletingNodeVisitor does.
+    for (int i = 0; i < 4; i++) {
+      dep.removeReverseDep(key("parent" + i));
+      graph.remove(key("parent" + i));
+    }
+    // The removals are still pending in the reverse deps of dep, which refer to the parents' ids.
+    ((CompactInMemoryGraph) graph).reclaimKeyIds();
+    assertThat(keyIds.size()).isEqualTo(11);
+
+    assertThat(dep.getReverseDepsForDoneEntry()).hasSize(6);
+    ((CompactInMemoryGraph) graph).reclaimKeyIds();
+    assertThat(keyIds.size()).isEqualTo(7);
+    assertThat(dep.getReverseDepsForDoneEntry()).hasSize(6);
+
+    // The reclaimed ids are reused.
+    for (int i = 0; i < 4; i++) {
+      SkyKey newKey = key("new" + i);
+      CompactInMemoryNodeEntry entry =
+          (CompactInMemoryNodeEntry)
+              graph.createIfAbsentBatch(null, Reason.OTHER, ImmutableList.of(newKey)).get(newKey);
+      assertThat(entry.getKeyId()).isLessThan(11);
+      assertThat(keyIds.key(entry.getKeyId())).isEqualTo(newKey);
+    }
+    assertThat(keyIds.size()).isEqualTo(11);
+    assertThat(keyIds.maxId()).isEqualTo(11);
+  }
+
+  @Test
+  public void keysNotInGraphGetNoId() throws Exception {
+    SkyKeyIdTable keyIds = ((CompactInMemoryGraph) graph).getKeyIdTable();
+    evaluate(key("top"), ImmutableList.of(ImmutableList.of(key("a"), key("b"))));
+    graph.remove(key("b"));
+    int size = keyIds.size();
+
+    assertThat(keyIds.idOf(key("b"))).isEqualTo(SkyKeyIdTable.NO_ID);
+    assertThat(keyIds.packGroups(new Object[] {key("a"), key("b")})).isNull();
+    assertThat(keyIds.size()).isEqualTo(size);
+  }
+}
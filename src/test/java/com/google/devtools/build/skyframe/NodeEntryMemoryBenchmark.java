@@ -0,0 +1,136 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.devtools.build.lib.util.GroupedList.GroupedListHelper;
+import com.google.devtools.build.skyframe.GraphTester.StringValue;
+import com.google.devtools.build.skyframe.QueryableGraph.Reason;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Compares the heap retained by {@link InMemoryGraphImpl} and {@link CompactInMemoryGraph} for the
+ * same synthetic graph of done nodes.
+ *
+ * <p>Each node has a random number of direct deps on earlier nodes, requested in groups, so that
+ * the reverse deps follow the skewed distribution of a real build graph. Run with a fixed heap,
+ * for example {@code -Xms4g -Xmx4g}, to make the measurements comparable.
+ */
+public final class NodeEntryMemoryBenchmark {
+
+  private static final String HELP =
+      "Usage: NodeEntryMemoryBenchmark [--nodes count] [--deps count]\n"
+          + "Builds a graph with the given number of done nodes and average number of direct deps\n"
+          + "per node in each graph implementation, and reports the retained heap per node.\n";
+
+  private static final StringValue VALUE = new StringValue("value");
+
+  public static void main(String[] args) throws Exception {
+    int numNodes = 500_000;
+    int averageDeps = 8;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("--help")) {
+        System.out.print(HELP);
+        return;
+      } else if (args[i].equals("--nodes") && i + 1 < args.length) {
+        numNodes = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("--deps") && i + 1 < args.length) {
+        averageDeps = Integer.parseInt(args[++i]);
+      } else {
+        System.err.print(HELP);
+        System.exit(2);
+      }
+    }
+
+    List<SkyKey> keys = new ArrayList<>(numNodes);
+    for (int i = 0; i < numNodes; i++) {
+      keys.add(GraphTester.toSkyKey("node" + i));
+    }
+    long empty = usedHeap();
+    long plain = measure(InMemoryGraphImpl::new, keys, averageDeps, empty);
+    long compact = measure(CompactInMemoryGraph::new, keys, averageDeps, empty);
+    report("InMemoryGraphImpl", plain, keys);
+    report("CompactInMemoryGraph", compact, keys);
+    System.out.printf("Saved %.1f%%%n", 100.0 * (plain - compact) / plain);
+  }
+
+  private static long measure(
+      Supplier<InMemoryGraph> graphFactory, List<SkyKey> keys, int averageDeps, long empty)
+      throws InterruptedException {
+    InMemoryGraph graph = graphFactory.get();
+    Random random = new Random(0);
+    graph.createIfAbsentBatch(null, Reason.OTHER, keys);
+    for (int i = 0; i < keys.size(); i++) {
+      SkyKey key = keys.get(i);
+      NodeEntry entry = graph.get(null, Reason.OTHER, key);
+      entry.addReverseDepAndCheckIfDone(null);
+      entry.markRebuilding();
+      int numDeps = i == 0 ? 0 : Math.min(i, random.nextInt(2 * averageDeps + 1));
+      List<SkyKey> deps = new ArrayList<>(numDeps);
+      GroupedListHelper<SkyKey> helper = new GroupedListHelper<>();
+      helper.startGroup();
+      for (int j = 0; j < numDeps; j++) {
+        // Favor recent nodes, and a few popular ones.
+        int dep = random.nextInt(4) == 0 ? random.nextInt(Math.min(i, 100)) : i - 1 - j;
+        SkyKey depKey = keys.get(dep);
+        if (deps.contains(depKey)) {
+          continue;
+        }
+        if (!deps.isEmpty() && deps.size() % 3 == 0) {
+          helper.endGroup();
+          helper.startGroup();
+        }
+        helper.add(depKey);
+        deps.add(depKey);
+      }
+      helper.endGroup();
+      entry.addTemporaryDirectDeps(helper);
+      for (SkyKey dep : deps) {
+        graph.get(null, Reason.OTHER, dep).addReverseDepAndCheckIfDone(key);
+        entry.signalDep(IntVersion.of(0), dep);
+      }
+      entry.setValue(VALUE, IntVersion.of(0));
+    }
+    long used = usedHeap() - empty;
+    // Keep the graph reachable until it has been measured.
+    if (graph.getAllValues().size() != keys.size()) {
+      throw new IllegalStateException("unexpected graph size");
+    }
+    return used;
+  }
+
+  private static void report(String name, long bytes, List<SkyKey> keys) {
+    System.out.printf(
+        "%-24s %,14d bytes %,8.1f bytes/node%n", name, bytes, (double) bytes / keys.size());
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    long used = Long.MAX_VALUE;
+    // Collect until the measurement settles.
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      long current = runtime.totalMemory() - runtime.freeMemory();
+      if (current >= used) {
+        break;
+      }
+      used = current;
+    }
+    return used;
+  }
+
+  private NodeEntryMemoryBenchmark() {}
+}
@@ -15,6 +15,7 @@
 package net.starlark.java.eval;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.sun.management.ThreadMXBean;
 import java.io.File;
@@ -64,8 +65,11 @@ public final class Benchmarks {
 
   private static final String HELP =
       "Usage: Benchmarks [--help] [--filter regex] [--seconds float] [--iterations count]\n"
+          + "                  [--bytecode | --compare]\n"
           + "Runs Starlark benchmarks matching the filter for the specified approximate time or\n"
           + "specified number of iterations, and reports various performance measures.\n"
+          + "Functions are executed by the syntax tree evaluator, or with --bytecode by the\n"
+          + "bytecode interpreter; --compare runs each benchmark with both.\n"
           + "The optional filter is a regular expression applied to the string FILE:FUNC,\n"
           + "where FILE is the base name of the file and FUNC is the name of the function,\n"
           + "for example 'bench_int.star:bench_add32'.\n";
@@ -76,6 +80,7 @@ public final class Benchmarks {
     Pattern filter = null; // default: all
     long budgetNanos = -1;
     int iterations = -1;
+    ImmutableList<StarlarkSemantics> evaluators = ImmutableList.of(TREE);
 
     // parse flags
     int i;
@@ -124,6 +129,12 @@ public final class Benchmarks {
           fail("--iterations out of range");
         }
 
+      } else if (args[i].equals("--bytecode")) {
+        evaluators = ImmutableList.of(BYTECODE);
+
+      } else if (args[i].equals("--compare")) {
+        evaluators = ImmutableList.of(TREE, BYTECODE);
+
       } else {
         fail("unknown flag: %s", args[i]);
       }
@@ -158,9 +169,9 @@ public final class Benchmarks {
       ImmutableMap.Builder<String, Object> predeclared = ImmutableMap.builder();
       predeclared.put("json", Json.INSTANCE);
 
-      Module module = Module.withPredeclared(semantics, predeclared.build());
+      Module module = Module.withPredeclared(TREE, predeclared.build());
       try (Mutability mu = Mutability.create("test")) {
-        StarlarkThread thread = new StarlarkThread(mu, semantics);
+        StarlarkThread thread = new StarlarkThread(mu, TREE);
         Starlark.execFile(input, FileOptions.DEFAULT, module, thread);
 
       } catch (SyntaxError.Exception ex) {
@@ -205,24 +216,27 @@ public final class Benchmarks {
       // Run benchmarks.
       System.out.printf("File %s:\n", file);
       System.out.printf(
-          "%-20s %10s %10s %10s %10s %10s\n", //
-          "benchmark", "ops", "cpu/op", "wall/op", "steps/op", "alloc/op");
+          "%-20s %-8s %10s %10s %10s %10s %10s\n", //
+          "benchmark", "eval", "ops", "cpu/op", "wall/op", "steps/op", "alloc/op");
       for (Map.Entry<String, StarlarkFunction> e : benchmarks.entrySet()) {
         String name = e.getKey();
-        System.out.flush(); // help user identify a slow benchmark
-        Benchmark b = new Benchmark(name, e.getValue());
-        if (!run(b, budgetNanos, iterations)) {
-          ok = false;
-          continue;
+        for (StarlarkSemantics semantics : evaluators) {
+          System.out.flush(); // help user identify a slow benchmark
+          Benchmark b = new Benchmark(name, e.getValue());
+          if (!run(b, budgetNanos, iterations, semantics)) {
+            ok = false;
+            continue;
+          }
+          System.out.printf(
+              "%-20s %-8s %10d %10s %10s %10d %10s\n",
+              name,
+              semantics == BYTECODE ? "bytecode" : "tree",
+              b.count,
+              formatDuration(((double) b.time) / b.count),
+              formatDuration(((double) b.cpu) / b.count),
+              b.steps / b.count,
+              formatBytes(b.alloc / b.count));
         }
-        System.out.printf(
-            "%-20s %10d %10s %10s %10d %10s\n",
-            name,
-            b.count,
-            formatDuration(((double) b.time) / b.count),
-            formatDuration(((double) b.cpu) / b.count),
-            b.steps / b.count,
-            formatBytes(b.alloc / b.count));
       }
       System.out.println();
     }
@@ -239,8 +253,9 @@ public final class Benchmarks {
 
   // Runs benchmark function f for the specified time budget
   // (which we may exceed by a factor of two) or number of iterations,
-  // exactly one of which must be nonnegative. Reports success.
-  private static boolean run(Benchmark b, long budgetNanos, int iterations) {
+  // exactly one of which must be nonnegative, using the given semantics. Reports success.
+  private static boolean run(
+      Benchmark b, long budgetNanos, int iterations, StarlarkSemantics semantics) {
     // Exactly one of the parameters must be specified.
     Preconditions.checkState((budgetNanos >= 0) != (iterations >= 0));
 
@@ -405,7 +420,12 @@ public final class Benchmarks {
     }
   }
 
-  private static final StarlarkSemantics semantics = StarlarkSemantics.DEFAULT;
+  // The semantics that select the syntax tree evaluator or the bytecode interpreter.
+  private static final StarlarkSemantics TREE = StarlarkSemantics.DEFAULT;
+  private static final StarlarkSemantics BYTECODE =
+      StarlarkSemantics.builder()
+          .setBool(StarlarkSemantics.EXPERIMENTAL_STARLARK_BYTECODE, true)
+          .build();
 
   private Benchmarks() {}
 }
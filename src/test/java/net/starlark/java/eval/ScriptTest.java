@@ -22,6 +22,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.io.Files;
 import com.google.errorprone.annotations.FormatMethod;
 import java.io.File;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -174,6 +175,13 @@ public final class ScriptTest {
   private static boolean ok = true;
 
   public static void main(String[] args) throws Exception {
+    // With --bytecode, Starlark functions are executed by the bytecode interpreter.
+    boolean bytecode = Arrays.asList(args).contains("--bytecode");
+    StarlarkSemantics semantics =
+        StarlarkSemantics.builder()
+            .setBool(StarlarkSemantics.EXPERIMENTAL_STARLARK_BYTECODE, bytecode)
+            .build();
+
     File root = new File("third_party/bazel"); // blaze
     if (!root.exists()) {
       root = new File("."); // bazel
@@ -228,7 +236,6 @@ public final class ScriptTest {
         Starlark.addMethods(predeclared, new ScriptTest()); // e.g. assert_eq
         predeclared.put("json", Json.INSTANCE);
 
-        StarlarkSemantics semantics = StarlarkSemantics.DEFAULT;
         Module module = Module.withPredeclared(semantics, predeclared.build());
         try (Mutability mu = Mutability.createAllowingShallowFreeze("test")) {
           StarlarkThread thread = new StarlarkThread(mu, semantics);
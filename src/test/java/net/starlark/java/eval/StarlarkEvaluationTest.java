@@ -2100,4 +2100,160 @@ public final class StarlarkEvaluationTest {
             () -> Starlark.addMethods(ImmutableMap.builder(), new Mock()));
     assertThat(ex).hasMessageThat().contains("method struct_field has structField=true");
   }
+
+  // Receivers of the attribute v, for the tests of the inline caches of x.v. Each subclass of
+  // FieldV is a distinct receiver class.
+  private static class FieldV implements StarlarkValue {
+    private final int value;
+
+    FieldV(int value) {
+      this.value = value;
+    }
+
+    @StarlarkMethod(name = "v", documented = false, structField = true)
+    public StarlarkInt v() {
+      return StarlarkInt.of(value);
+    }
+  }
+
+  private static final class FieldV1 extends FieldV {
+    FieldV1() {
+      super(1);
+    }
+  }
+
+  private static final class FieldV2 extends FieldV {
+    FieldV2() {
+      super(2);
+    }
+  }
+
+  private static final class FieldV3 extends FieldV {
+    FieldV3() {
+      super(3);
+    }
+  }
+
+  private static final class FieldV4 extends FieldV {
+    FieldV4() {
+      super(4);
+    }
+  }
+
+  private static final class FieldV5 extends FieldV {
+    FieldV5() {
+      super(5);
+    }
+  }
+
+  private static final class MethodV implements StarlarkValue {
+    @StarlarkMethod(name = "v", documented = false)
+    public String v() {
+      return "method";
+    }
+  }
+
+  @StarlarkBuiltin(name = "NoV", doc = "")
+  private static final class NoV implements StarlarkValue {}
+
+  @StarlarkBuiltin(name = "GuardedV", doc = "")
+  private static final class GuardedV implements StarlarkValue {
+    @StarlarkMethod(
+        name = "v",
+        documented = false,
+        structField = true,
+        enableOnlyWithFlag = "-experimental_v")
+    public String v() {
+      return "guarded";
+    }
+  }
+
+  // Returns the function f defined by the given file.
+  private static StarlarkFunction defineF(String... lines) throws Exception {
+    Module module = Module.create();
+    try (Mutability mu = Mutability.create("test")) {
+      StarlarkThread thread = new StarlarkThread(mu, StarlarkSemantics.DEFAULT);
+      Starlark.execFile(ParserInput.fromLines(lines), FileOptions.DEFAULT, module, thread);
+    }
+    return (StarlarkFunction) module.getGlobal("f");
+  }
+
+  private static Object callF(StarlarkSemantics semantics, StarlarkFunction f, Object x)
+      throws Exception {
+    try (Mutability mu = Mutability.create("test")) {
+      StarlarkThread thread = new StarlarkThread(mu, semantics);
+      return Starlark.call(thread, f, ImmutableList.of(x), ImmutableMap.of());
+    }
+  }
+
+  // Returns the semantics of the tree-walking and the bytecode evaluator, with the given flags.
+  private static ImmutableList<StarlarkSemantics> bothEvaluators(StarlarkSemantics semantics) {
+    String flag = StarlarkSemantics.EXPERIMENTAL_STARLARK_BYTECODE;
+    return ImmutableList.of(
+        semantics.toBuilder().setBool(flag, false).build(),
+        semantics.toBuilder().setBool(flag, true).build());
+  }
+
+  @Test
+  public void testAttributeCacheFieldMethodAndMissing() throws Exception {
+    StarlarkFunction f = defineF("def f(x):", "  return x.v");
+    for (StarlarkSemantics semantics : bothEvaluators(StarlarkSemantics.DEFAULT)) {
+      // Each receiver class comes twice, so that the second lookup hits the cache.
+      for (int i = 0; i < 2; i++) {
+        assertThat(callF(semantics, f, new FieldV1())).isEqualTo(StarlarkInt.of(1));
+
+        Object method = callF(semantics, f, new MethodV());
+        assertThat(method).isInstanceOf(BuiltinFunction.class);
+        try (Mutability mu = Mutability.create("test")) {
+          StarlarkThread thread = new StarlarkThread(mu, semantics);
+          assertThat(Starlark.call(thread, method, ImmutableList.of(), ImmutableMap.of()))
+              .isEqualTo("method");
+        }
+
+        EvalException ex = assertThrows(EvalException.class, () -> callF(semantics, f, new NoV()));
+        assertThat(ex).hasMessageThat().isEqualTo("'NoV' value has no field or method 'v'");
+
+        SimpleStruct struct = new SimpleStruct(ImmutableMap.of("v", "struct"));
+        assertThat(callF(semantics, f, struct)).isEqualTo("struct");
+      }
+    }
+  }
+
+  @Test
+  public void testAttributeCacheMegamorphic() throws Exception {
+    StarlarkFunction f = defineF("def f(x):", "  return x.v");
+    // More receiver classes than an inline cache holds.
+    ImmutableList<FieldV> receivers =
+        ImmutableList.of(new FieldV1(), new FieldV2(), new FieldV3(), new FieldV4(), new FieldV5());
+    for (StarlarkSemantics semantics : bothEvaluators(StarlarkSemantics.DEFAULT)) {
+      for (int i = 0; i < 3; i++) {
+        for (FieldV x : receivers) {
+          assertThat(callF(semantics, f, x)).isEqualTo(StarlarkInt.of(x.value));
+        }
+        assertThat(callF(semantics, f, new MethodV())).isInstanceOf(BuiltinFunction.class);
+        EvalException ex = assertThrows(EvalException.class, () -> callF(semantics, f, new NoV()));
+        assertThat(ex).hasMessageThat().isEqualTo("'NoV' value has no field or method 'v'");
+      }
+    }
+  }
+
+  @Test
+  public void testAttributeCacheFlagGuardedField() throws Exception {
+    StarlarkFunction f = defineF("def f(x):", "  return x.v");
+    StarlarkSemantics enabled =
+        StarlarkSemantics.builder().setBool("-experimental_v", true).build();
+    StarlarkSemantics disabled =
+        StarlarkSemantics.builder().setBool("-experimental_v", false).build();
+    // Alternate the semantics at the same call site, in both evaluators.
+    for (int i = 0; i < 2; i++) {
+      for (StarlarkSemantics semantics : bothEvaluators(enabled)) {
+        assertThat(callF(semantics, f, new GuardedV())).isEqualTo("guarded");
+      }
+      for (StarlarkSemantics semantics : bothEvaluators(disabled)) {
+        EvalException ex =
+            assertThrows(EvalException.class, () -> callF(semantics, f, new GuardedV()));
+        assertThat(ex).hasMessageThat().isEqualTo("'GuardedV' value has no field or method 'v'");
+      }
+    }
+  }
 }
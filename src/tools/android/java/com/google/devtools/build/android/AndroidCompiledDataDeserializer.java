@@ -257,6 +257,23 @@ public class AndroidCompiledDataDeserializer implements AndroidDataDeserializer
     this.includeFileContentsForValidation = includeFileContentsForValidation;
   }
 
+  @Override
+  public boolean isCacheable() {
+    return true;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return obj instanceof AndroidCompiledDataDeserializer
+        && includeFileContentsForValidation
+            == ((AndroidCompiledDataDeserializer) obj).includeFileContentsForValidation;
+  }
+
+  @Override
+  public int hashCode() {
+    return Boolean.hashCode(includeFileContentsForValidation);
+  }
+
   private static void consumeResourceTable(
       DependencyInfo dependencyInfo,
       KeyValueConsumers consumers,
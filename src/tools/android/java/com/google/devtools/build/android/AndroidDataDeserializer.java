@@ -34,4 +34,13 @@ public interface AndroidDataDeserializer {
   default void read(Path inPath, KeyValueConsumers consumers) {
     read(DependencyInfo.UNKNOWN, inPath, consumers);
   }
+
+  /**
+   * Returns whether the data read from a file depends only on the contents of that file, the
+   * {@link DependencyInfo} it is read for, and this deserializer, as compared by {@link
+   * Object#equals}. Such data can be kept by a {@link ParsedAndroidDataCache}.
+   */
+  default boolean isCacheable() {
+    return false;
+  }
 }
@@ -56,6 +56,26 @@ public class AndroidParsedDataDeserializer implements AndroidDataDeserializer {
     this.filteredResources = filteredResources;
   }
 
+  /**
+   * Returns true unless resources are filtered, as whether a filtered resource is skipped depends
+   * on the existence of its source file.
+   */
+  @Override
+  public boolean isCacheable() {
+    return filteredResources.isEmpty();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return obj instanceof AndroidParsedDataDeserializer
+        && filteredResources.equals(((AndroidParsedDataDeserializer) obj).filteredResources);
+  }
+
+  @Override
+  public int hashCode() {
+    return filteredResources.hashCode();
+  }
+
   /**
    * Reads the serialized {@link DataKey} and {@link DataValue} to the {@link KeyValueConsumers}.
    *
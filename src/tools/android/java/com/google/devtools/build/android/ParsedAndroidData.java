@@ -423,6 +423,15 @@ public class ParsedAndroidData {
     public Void call() throws Exception {
       final Builder parsedDataBuilder = ParsedAndroidData.Builder.newBuilder();
       try {
+        ParsedAndroidDataCache cache = ParsedAndroidDataCache.getInstance();
+        ParsedAndroidData cached =
+            cache != null ? cache.load(dependencyType, deserializer, dependency) : null;
+        if (cached != null) {
+          synchronized (targetBuilder) {
+            cached.copyTo(targetBuilder);
+          }
+          return null;
+        }
         dependency.deserialize(dependencyType, deserializer, parsedDataBuilder.consumers());
       } catch (DeserializationException e) {
         if (!e.isLegacy()) {
@@ -601,6 +610,21 @@ public class ParsedAndroidData {
     }
   }
 
+  /** Adds the data to the targetBuilder, as {@link Builder#copyTo} does. */
+  void copyTo(Builder targetBuilder) {
+    KeyValueConsumers consumers = targetBuilder.consumers();
+    for (Map.Entry<DataKey, DataResource> entry : overwritingResources.entrySet()) {
+      consumers.overwritingConsumer.accept(entry.getKey(), entry.getValue());
+    }
+    for (Map.Entry<DataKey, DataResource> entry : combiningResources.entrySet()) {
+      consumers.combiningConsumer.accept(entry.getKey(), entry.getValue());
+    }
+    for (Map.Entry<DataKey, DataAsset> entry : assets.entrySet()) {
+      consumers.assetConsumer.accept(entry.getKey(), entry.getValue());
+    }
+    targetBuilder.conflicts.addAll(conflicts);
+  }
+
   Iterable<Map.Entry<DataKey, DataResource>> iterateOverwritableEntries() {
     return overwritingResources.entrySet();
   }
@@ -0,0 +1,206 @@
+// Copyright 2021 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.android;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import com.google.devtools.build.android.AndroidResourceMerger.MergingException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * Keeps the deserialized resources of dependencies in memory between the requests of a persistent
+ * worker, so that only the resource sets that changed since a previous request are read again.
+ *
+ * <p>Entries are keyed by the path and digest of the serialized file, the dependency it was read
+ * for and the {@link AndroidDataDeserializer} that read it. The path is part of the key because
+ * the {@link DataSource}s of the data may be resolved against it. The digests are the ones Bazel
+ * sends with each work request when available, and are computed from the file contents otherwise.
+ * The cache is bounded by the total size of the serialized files, and its values are softly
+ * referenced so that they can be dropped under memory pressure.
+ *
+ * <p>Each load returns a copy of the cached data, so that no two requests share its collections.
+ */
+final class ParsedAndroidDataCache {
+
+  private static final Logger logger = Logger.getLogger(ParsedAndroidDataCache.class.getName());
+
+  /** The default bound on the total size of the serialized files whose data is cached. */
+  static final long DEFAULT_MAX_SERIALIZED_BYTES = 256L << 20;
+
+  @Nullable private static volatile ParsedAndroidDataCache instance;
+
+  /** Enables caching for the rest of the life of this process. */
+  static void enable(long maxSerializedBytes) {
+    if (instance == null) {
+      instance = new ParsedAndroidDataCache(maxSerializedBytes);
+    }
+  }
+
+  /** Returns the cache of this process, or null if caching is not enabled. */
+  @Nullable
+  static ParsedAndroidDataCache getInstance() {
+    return instance;
+  }
+
+  private final Cache<Key, ParsedAndroidData> cache;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  private volatile ImmutableMap<Path, HashCode> inputDigests = ImmutableMap.of();
+
+  @VisibleForTesting
+  ParsedAndroidDataCache(long maxSerializedBytes) {
+    this.cache =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maxSerializedBytes)
+            .weigher((Key key, ParsedAndroidData value) -> key.weight)
+            .softValues()
+            .build();
+  }
+
+  /**
+   * Sets the digests of the inputs of the current request, keyed by path. Files that are not in
+   * the map are digested when they are looked up.
+   */
+  void setInputDigests(Map<Path, HashCode> digests) {
+    ImmutableMap.Builder<Path, HashCode> normalized = ImmutableMap.builder();
+    for (Map.Entry<Path, HashCode> entry : digests.entrySet()) {
+      normalized.put(entry.getKey().toAbsolutePath().normalize(), entry.getValue());
+    }
+    inputDigests = normalized.build();
+  }
+
+  private HashCode digestOf(Path path) throws IOException {
+    HashCode digest = inputDigests.get(path.toAbsolutePath().normalize());
+    if (digest != null) {
+      return digest;
+    }
+    return MoreFiles.asByteSource(path).hash(Hashing.sha256());
+  }
+
+  /**
+   * Returns a copy of the deserialized data of a dependency, reading it only if it is not cached.
+   * Returns null if the data cannot be cached, either because the dependency has no serialized
+   * symbols or because the deserializer does not support caching; the caller must read it then.
+   *
+   * @throws DeserializationException if the serialized data cannot be read.
+   * @throws MergingException if the deserialized data is not valid.
+   */
+  @Nullable
+  ParsedAndroidData load(
+      DependencyInfo.DependencyType dependencyType,
+      AndroidDataDeserializer deserializer,
+      SerializedAndroidData dependency) {
+    Path symbols = dependency.symbols;
+    if (symbols == null || !deserializer.isCacheable()) {
+      return null;
+    }
+    Key key;
+    try {
+      key =
+          new Key(
+              deserializer,
+              DependencyInfo.create(dependency.getLabel(), dependencyType),
+              symbols.toAbsolutePath().normalize(),
+              digestOf(symbols),
+              Files.size(symbols));
+    } catch (IOException e) {
+      throw new DeserializationException("Error digesting " + symbols, e);
+    }
+    ParsedAndroidData cached = cache.getIfPresent(key);
+    if (cached != null) {
+      hits.incrementAndGet();
+      return copyOf(cached);
+    }
+    misses.incrementAndGet();
+    ParsedAndroidData.Builder builder = ParsedAndroidData.Builder.newBuilder();
+    dependency.deserialize(dependencyType, deserializer, builder.consumers());
+    ParsedAndroidData data = builder.build();
+    // Concurrent loads of the same key only duplicate work, as they produce equal data.
+    cache.put(key, data);
+    return copyOf(data);
+  }
+
+  private static ParsedAndroidData copyOf(ParsedAndroidData data) {
+    ParsedAndroidData.Builder builder = ParsedAndroidData.Builder.newBuilder();
+    data.copyTo(builder);
+    return builder.build();
+  }
+
+  /** Logs and resets the hit and miss counts since the last call. */
+  void logStats() {
+    logger.fine(
+        String.format(
+            "Parsed data cache: %d hits, %d misses, %d entries",
+            hits.getAndSet(0), misses.getAndSet(0), cache.size()));
+  }
+
+  @VisibleForTesting
+  long size() {
+    return cache.size();
+  }
+
+  private static final class Key {
+    private final AndroidDataDeserializer deserializer;
+    private final DependencyInfo dependencyInfo;
+    private final Path path;
+    private final HashCode digest;
+    private final int weight;
+
+    Key(
+        AndroidDataDeserializer deserializer,
+        DependencyInfo dependencyInfo,
+        Path path,
+        HashCode digest,
+        long size) {
+      this.deserializer = deserializer;
+      this.dependencyInfo = dependencyInfo;
+      this.path = path;
+      this.digest = digest;
+      this.weight = (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return deserializer.equals(other.deserializer)
+          && dependencyInfo.equals(other.dependencyInfo)
+          && path.equals(other.path)
+          && digest.equals(other.digest);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(deserializer, dependencyInfo, path, digest);
+    }
+  }
+}
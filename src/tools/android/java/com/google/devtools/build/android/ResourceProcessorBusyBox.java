@@ -14,8 +14,10 @@
 
 package com.google.devtools.build.android;
 
+import com.google.common.hash.HashCode;
 import com.google.devtools.build.android.aapt2.Aapt2Exception;
 import com.google.devtools.build.android.resources.JavaIdentifierValidator.InvalidJavaIdentifier;
+import com.google.devtools.build.lib.worker.WorkerProtocol.Input;
 import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
 import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
 import com.google.devtools.common.options.EnumConverter;
@@ -31,8 +33,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -188,6 +194,10 @@ public class ResourceProcessorBusyBox {
       System.setOut(ps);
       System.setErr(ps);
 
+      // Dependencies' resources rarely change between requests, so keep them deserialized.
+      ParsedAndroidDataCache.enable(ParsedAndroidDataCache.DEFAULT_MAX_SERIALIZED_BYTES);
+      ParsedAndroidDataCache cache = ParsedAndroidDataCache.getInstance();
+
       while (true) {
         try {
           WorkRequest request = WorkRequest.parseDelimitedFrom(System.in);
@@ -195,7 +205,9 @@ public class ResourceProcessorBusyBox {
             break;
           }
 
+          cache.setInputDigests(inputDigests(request));
           int exitCode = processRequest(request.getArgumentsList());
+          cache.logStats();
           ps.flush();
 
           WorkResponse.newBuilder()
@@ -220,6 +232,18 @@ public class ResourceProcessorBusyBox {
     return 0;
   }
 
+  /** Returns the digests Bazel sent for the inputs of a request, keyed by path. */
+  private static Map<Path, HashCode> inputDigests(WorkRequest request) {
+    Map<Path, HashCode> digests = new HashMap<>();
+    for (Input input : request.getInputsList()) {
+      if (!input.getDigest().isEmpty()) {
+        digests.put(
+            Paths.get(input.getPath()), HashCode.fromBytes(input.getDigest().toByteArray()));
+      }
+    }
+    return digests;
+  }
+
   private static int processRequest(List<String> args) throws Exception {
     OptionsParser optionsParser =
         OptionsParser.builder()
@@ -125,6 +125,12 @@ public class ZipFilterAction {
     @Parameter(names = "--outputMode", description = "Output zip compression mode.")
     OutputMode outputMode = OutputMode.DONT_CARE;
 
+    @Parameter(
+      names = "--threads",
+      description = "Threads compressing output zip entries, one per processor by default."
+    )
+    int threads = Runtime.getRuntime().availableProcessors();
+
     @Parameter(
       names = "--checkHashMismatch",
       description =
@@ -249,7 +255,8 @@ public class ZipFilterAction {
             explicitFilter, entriesToOmit, inputEntries.build(), options.hashMismatchCheckMode);
 
     try (OutputStream out = Files.newOutputStream(options.outputZip);
-        ZipCombiner combiner = new ZipCombiner(options.outputMode, entryFilter, out)) {
+        ZipCombiner combiner =
+            new ZipCombiner(options.outputMode, entryFilter, out, options.threads)) {
       combiner.addZip(options.inputZip.toFile());
     }
     logger.fine(String.format("Filtering completed in %dms", timer.elapsed(TimeUnit.MILLISECONDS)));
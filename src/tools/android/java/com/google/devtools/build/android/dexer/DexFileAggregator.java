@@ -31,7 +31,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.zip.ZipEntry;
+import javax.annotation.Nullable;
 
 /**
  * Merger for {@code .dex} files into larger chunks subject to {@code .dex} file limits on methods
@@ -57,6 +59,10 @@ class DexFileAggregator implements Closeable {
   private int nextDexFileIndex = 0;
   private ListenableFuture<Void> lastWriter = Futures.<Void>immediateFuture(null);
 
+  /** Time spent merging and writing shards, summed over all threads. */
+  private final LongAdder mergeNanos = new LongAdder();
+  private final LongAdder writeNanos = new LongAdder();
+
   public DexFileAggregator(
       DxContext context,
       DexFileArchive dest,
@@ -77,15 +83,26 @@ class DexFileAggregator implements Closeable {
   }
 
   public DexFileAggregator add(Dex dexFile) {
+    return add(dexFile, null);
+  }
+
+  /**
+   * Adds the given file, whose field and method references may have been computed ahead of time,
+   * e.g. concurrently with reading other inputs.
+   */
+  public DexFileAggregator add(Dex dexFile, @Nullable DexLimitTracker.References references) {
     if (multidex.isMultidexAllowed()) {
+      if (references == null) {
+        references = DexLimitTracker.References.of(dexFile);
+      }
       // To determine whether currentShard is "full" we track unique field and method signatures,
       // which predicts precisely the number of field and method indices.
-      if (tracker.track(dexFile) && !currentShard.isEmpty()) {
+      if (tracker.track(references) && !currentShard.isEmpty()) {
         // For simplicity just start a new shard to fit the given file.
         // Don't bother with waiting for a later file that might fit the old shard as in the extreme
         // we'd have to wait until the end to write all shards.
         rotateDexFile();
-        tracker.track(dexFile);
+        tracker.track(references);
       }
     }
     currentShard.add(dexFile);
@@ -122,6 +139,16 @@ class DexFileAggregator implements Closeable {
     return nextDexFileIndex;
   }
 
+  /** Returns the time spent merging shards so far, in nanoseconds summed over all threads. */
+  public long getMergeNanos() {
+    return mergeNanos.sum();
+  }
+
+  /** Returns the time spent writing shards so far, in nanoseconds. */
+  public long getWriteNanos() {
+    return writeNanos.sum();
+  }
+
   private void rotateDexFile() {
     writeMergedFile(currentShard.toArray(/* apparently faster than pre-sized array */ new Dex[0]));
     currentShard.clear();
@@ -138,7 +165,7 @@ class DexFileAggregator implements Closeable {
             : executor.submit(new RunDexMerger(dexes));
     lastWriter =
         Futures.whenAllSucceed(lastWriter, merged)
-            .call(new WriteFile(filename, merged, dest), executor);
+            .call(new WriteFile(filename, merged, dest, writeNanos), executor);
   }
 
   private Dex merge(Dex... dexes) throws IOException {
@@ -195,6 +222,7 @@ class DexFileAggregator implements Closeable {
 
     @Override
     public Dex call() throws IOException {
+      long start = System.nanoTime();
       try {
         return merge(dexes);
       } catch (Throwable t) {
@@ -203,6 +231,8 @@ class DexFileAggregator implements Closeable {
         Throwables.throwIfInstanceOf(t, IOException.class);
         Throwables.throwIfUnchecked(t);
         throw new AssertionError(t);  // shouldn't get here
+      } finally {
+        mergeNanos.add(System.nanoTime() - start);
       }
     }
   }
@@ -212,15 +242,20 @@ class DexFileAggregator implements Closeable {
     private final ListenableFuture<Dex> dex;
     private final String filename;
     @SuppressWarnings ("hiding") private final DexFileArchive dest;
+    @SuppressWarnings("hiding")
+    private final LongAdder writeNanos;
 
-    public WriteFile(String filename, ListenableFuture<Dex> dex, DexFileArchive dest) {
+    public WriteFile(
+        String filename, ListenableFuture<Dex> dex, DexFileArchive dest, LongAdder writeNanos) {
       this.filename = filename;
       this.dex = dex;
       this.dest = dest;
+      this.writeNanos = writeNanos;
     }
 
     @Override
     public Void call() throws Exception {
+      long start = System.nanoTime();
       try {
         checkState(dex.isDone());
         ZipEntry entry = new ZipEntry(filename);
@@ -235,6 +270,8 @@ class DexFileAggregator implements Closeable {
         t.printStackTrace();
         Throwables.throwIfUnchecked(t);
         throw new AssertionError(t);  // shouldn't get here
+      } finally {
+        writeNanos.add(System.nanoTime() - start);
       }
     }
   }
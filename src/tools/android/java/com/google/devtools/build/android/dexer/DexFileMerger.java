@@ -16,6 +16,7 @@ package com.google.devtools.build.android.dexer;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 import com.android.dex.Dex;
@@ -29,6 +30,8 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.devtools.build.android.Converters.ExistingPathConverter;
@@ -47,16 +50,19 @@ import java.io.PrintStream;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
+import javax.annotation.Nullable;
 
 /**
  * Tool used by Bazel as a replacement for Android's {@code dx} tool that assembles a single or, if
@@ -207,13 +213,16 @@ class DexFileMerger {
 
   @VisibleForTesting
   static void buildMergedDexFiles(Options options) throws IOException {
+    long start = System.nanoTime();
     ListeningExecutorService executor;
     checkArgument(!options.inputArchives.isEmpty(), "Need at least one --input");
     checkArgument(
         options.mainDexListFile == null || options.inputArchives.size() == 1,
         "--main-dex-list only supported with exactly one --input, use DexFileSplitter for more");
+    // Inputs are read and decoded on this pool regardless of the multidex mode.
+    ListeningExecutorService pool = createThreadPool();
     if (options.multidexMode.isMultidexAllowed()) {
-      executor = createThreadPool();
+      executor = pool;
     } else {
       checkArgument(
           options.mainDexListFile == null,
@@ -231,7 +240,10 @@ class DexFileMerger {
         ? ImmutableSet.copyOf(Files.readAllLines(options.mainDexListFile, UTF_8))
         : null;
     PrintStream originalStdOut = System.out;
-    try (DexFileAggregator out = createDexFileAggregator(options, executor)) {
+    InputReader reader = new InputReader(pool, options.multidexMode.isMultidexAllowed());
+    // Keep a reference to the aggregator to report its timings once it's closed.
+    DexFileAggregator aggregator = createDexFileAggregator(options, executor);
+    try (DexFileAggregator out = aggregator) {
       if (!options.verbose) {
         // com.android.dx.merge.DexMerger prints status information to System.out that we silence
         // here unless it was explicitly requested.  (It also prints debug info to DxContext.out,
@@ -246,21 +258,21 @@ class DexFileMerger {
         try (ZipFile zip = new ZipFile(inputArchive.toFile())) {
           ArrayList<ZipEntry> dexFiles = filesToProcess(zip);
           if (classesInMainDex == null) {
-            processDexFiles(zip, dexFiles, seen, out);
+            reader.processDexFiles(zip, dexFiles, seen, out);
           } else {
             // To honor --main_dex_list make two passes:
             // 1. process only the classes listed in the given file
             // 2. process the remaining files
             Predicate<ZipEntry> mainDexFilter =
                 ZipEntryPredicates.classFileFilter(classesInMainDex);
-            processDexFiles(zip, Iterables.filter(dexFiles, mainDexFilter), seen, out);
+            reader.processDexFiles(zip, Iterables.filter(dexFiles, mainDexFilter), seen, out);
             // Fail if main_dex_list is too big, following dx's example
             checkState(out.getDexFilesWritten() == 0, "Too many classes listed in main dex list "
                 + "file %s, main dex capacity exceeded", options.mainDexListFile);
             if (options.minimalMainDex) {
               out.flush(); // Start new .dex file if requested
             }
-            processDexFiles(
+            reader.processDexFiles(
                 zip, Iterables.filter(dexFiles, Predicates.not(mainDexFilter)), seen, out);
           }
         }
@@ -268,8 +280,22 @@ class DexFileMerger {
     } finally {
       // Kill threads in the pool so we don't hang
       MoreExecutors.shutdownAndAwaitTermination(executor, 1, SECONDS);
+      MoreExecutors.shutdownAndAwaitTermination(pool, 1, SECONDS);
       System.setOut(originalStdOut);
     }
+    if (options.verbose) {
+      originalStdOut.printf(
+          "Merged %d .dex files into %d: read %d ms (waited %d ms), tracked %d ms, merged %d ms,"
+              + " wrote %d ms (merge and read times summed over threads), total %d ms%n",
+          reader.filesRead,
+          aggregator.getDexFilesWritten(),
+          NANOSECONDS.toMillis(reader.readNanos.sum()),
+          NANOSECONDS.toMillis(reader.waitNanos),
+          NANOSECONDS.toMillis(reader.trackNanos),
+          NANOSECONDS.toMillis(aggregator.getMergeNanos()),
+          NANOSECONDS.toMillis(aggregator.getWriteNanos()),
+          NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
   }
 
   /**
@@ -287,24 +313,87 @@ class DexFileMerger {
     return result;
   }
 
-  private static void processDexFiles(
-      ZipFile zip,
-      Iterable<ZipEntry> filesToProcess,
-      LinkedHashSet<String> seen,
-      DexFileAggregator out)
-      throws IOException {
-    for (ZipEntry entry : filesToProcess) {
-      String filename = entry.getName();
-      checkState(filename.endsWith(".dex"), "Input shouldn't contain .class files: %s", filename);
-      if (!seen.add(filename)) {
-        continue;  // pick first occurrence of each file to match how JVM treats dupes on classpath
+  /**
+   * Reads and decodes the {@code .dex} files to merge on a thread pool, a bounded number of files
+   * ahead of the one being added to the {@link DexFileAggregator}, and adds them in order. {@link
+   * ZipFile} can be read from several threads, and each of them inflates its own entries.
+   */
+  private static class InputReader {
+    private final ListeningExecutorService pool;
+    private final boolean multidex;
+    private final int maxPending;
+
+    private final LongAdder readNanos = new LongAdder();
+    private long waitNanos;
+    private long trackNanos;
+    private int filesRead;
+
+    InputReader(ListeningExecutorService pool, boolean multidex) {
+      this.pool = pool;
+      this.multidex = multidex;
+      this.maxPending = 4 * Runtime.getRuntime().availableProcessors();
+    }
+
+    void processDexFiles(
+        ZipFile zip,
+        Iterable<ZipEntry> filesToProcess,
+        LinkedHashSet<String> seen,
+        DexFileAggregator out)
+        throws IOException {
+      ArrayDeque<ListenableFuture<InputDex>> pending = new ArrayDeque<>();
+      for (ZipEntry entry : filesToProcess) {
+        String filename = entry.getName();
+        checkState(filename.endsWith(".dex"), "Input shouldn't contain .class files: %s", filename);
+        // Pick first occurrence of each file to match how JVM treats dupes on classpath.
+        if (!seen.add(filename)) {
+          continue;
+        }
+        pending.add(pool.submit(() -> read(zip, entry)));
+        if (pending.size() >= maxPending) {
+          add(pending.remove(), out);
+        }
+      }
+      while (!pending.isEmpty()) {
+        add(pending.remove(), out);
       }
+    }
+
+    private InputDex read(ZipFile zip, ZipEntry entry) throws IOException {
+      long start = System.nanoTime();
       try (InputStream content = zip.getInputStream(entry)) {
         // We don't want to use the Dex(InputStream) constructor because it closes the stream,
         // which will break the for loop, and it has its own bespoke way of reading the file into
         // a byte buffer before effectively calling Dex(byte[]) anyway.
-        out.add(new Dex(ByteStreams.toByteArray(content)));
+        Dex dex = new Dex(ByteStreams.toByteArray(content));
+        return new InputDex(dex, multidex ? DexLimitTracker.References.of(dex) : null);
+      } finally {
+        readNanos.add(System.nanoTime() - start);
+      }
+    }
+
+    private void add(ListenableFuture<InputDex> future, DexFileAggregator out)
+        throws IOException {
+      long start = System.nanoTime();
+      InputDex input;
+      try {
+        input = Futures.getChecked(future, IOException.class);
+      } finally {
+        waitNanos += System.nanoTime() - start;
       }
+      start = System.nanoTime();
+      out.add(input.dex, input.references);
+      trackNanos += System.nanoTime() - start;
+      filesRead++;
+    }
+  }
+
+  private static class InputDex {
+    final Dex dex;
+    @Nullable final DexLimitTracker.References references;
+
+    InputDex(Dex dex, @Nullable DexLimitTracker.References references) {
+      this.dex = dex;
+      this.references = references;
     }
   }
 
@@ -339,11 +428,13 @@ class DexFileMerger {
   }
 
   /**
-   * Creates an unbounded thread pool executor, which is appropriate here since the number of tasks
-   * we will add to the thread pool is at most dozens and some of them perform I/O (ie, may block).
+   * Creates a fork-join pool with one thread per core, on which the inputs are read and the shards
+   * are merged concurrently. None of the tasks wait for one another: the writes are chained
+   * through futures by {@link DexFileAggregator}.
    */
   private static ListeningExecutorService createThreadPool() {
-    return MoreExecutors.listeningDecorator(Executors.newCachedThreadPool());
+    return MoreExecutors.listeningDecorator(
+        new ForkJoinPool(Runtime.getRuntime().availableProcessors()));
   }
 
   private DexFileMerger() {
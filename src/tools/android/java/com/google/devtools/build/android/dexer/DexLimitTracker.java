@@ -45,7 +45,16 @@ class DexLimitTracker {
    *     are within limits.
    */
   public boolean track(Dex dexFile) {
-    trackFieldsAndMethods(dexFile);
+    return track(References.of(dexFile));
+  }
+
+  /**
+   * Same as {@link #track(Dex)}, for references that were computed ahead of time, e.g. on another
+   * thread.
+   */
+  public boolean track(References references) {
+    fieldsSeen.addAll(references.fields);
+    methodsSeen.addAll(references.methods);
     return fieldsSeen.size() > maxNumberOfIdxPerDex
         || methodsSeen.size() > maxNumberOfIdxPerDex;
   }
@@ -55,14 +64,34 @@ class DexLimitTracker {
     methodsSeen.clear();
   }
 
-  private void trackFieldsAndMethods(Dex dexFile) {
-    int fieldCount = dexFile.fieldIds().size();
-    for (int fieldIndex = 0; fieldIndex < fieldCount; ++fieldIndex) {
-      fieldsSeen.add(FieldDescriptor.fromDex(dexFile, fieldIndex));
+  /**
+   * The field and method references of a {@code .dex} file. Decoding them is the expensive part of
+   * tracking, and can be done concurrently for different files.
+   */
+  static final class References {
+    private final ImmutableList<FieldDescriptor> fields;
+    private final ImmutableList<MethodDescriptor> methods;
+
+    private References(
+        ImmutableList<FieldDescriptor> fields, ImmutableList<MethodDescriptor> methods) {
+      this.fields = fields;
+      this.methods = methods;
     }
-    int methodCount = dexFile.methodIds().size();
-    for (int methodIndex = 0; methodIndex < methodCount; ++methodIndex) {
-      methodsSeen.add(MethodDescriptor.fromDex(dexFile, methodIndex));
+
+    static References of(Dex dexFile) {
+      int fieldCount = dexFile.fieldIds().size();
+      ImmutableList.Builder<FieldDescriptor> fields =
+          ImmutableList.builderWithExpectedSize(fieldCount);
+      for (int fieldIndex = 0; fieldIndex < fieldCount; ++fieldIndex) {
+        fields.add(FieldDescriptor.fromDex(dexFile, fieldIndex));
+      }
+      int methodCount = dexFile.methodIds().size();
+      ImmutableList.Builder<MethodDescriptor> methods =
+          ImmutableList.builderWithExpectedSize(methodCount);
+      for (int methodIndex = 0; methodIndex < methodCount; ++methodIndex) {
+        methods.add(MethodDescriptor.fromDex(dexFile, methodIndex));
+      }
+      return new References(fields.build(), methods.build());
     }
   }
 
@@ -24,9 +24,11 @@ import com.google.bytestream.ByteStreamProto.ReadResponse;
 import com.google.bytestream.ByteStreamProto.WriteRequest;
 import com.google.bytestream.ByteStreamProto.WriteResponse;
 import com.google.common.flogger.GoogleLogger;
+import com.google.common.io.ByteStreams;
 import com.google.devtools.build.lib.remote.Chunker;
 import com.google.devtools.build.lib.remote.common.CacheNotFoundException;
 import com.google.devtools.build.lib.remote.common.RemoteActionExecutionContext;
+import com.google.devtools.build.lib.remote.util.BlobCompressor;
 import com.google.devtools.build.lib.remote.util.DigestUtil;
 import com.google.devtools.build.lib.remote.util.TracingMetadataUtils;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
@@ -35,6 +37,7 @@ import io.grpc.Status;
 import io.grpc.protobuf.StatusProto;
 import io.grpc.stub.StreamObserver;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.UUID;
 import javax.annotation.Nullable;
@@ -61,6 +64,26 @@ final class ByteStreamServer extends ByteStreamImplBase {
     }
   }
 
+  /**
+   * Returns the compressor of a {@code compressed-blobs} resource name, or null if the resource is
+   * not compressed.
+   *
+   * @throws IllegalArgumentException if the compressor is not supported
+   */
+  @Nullable
+  static BlobCompressor parseCompressorFromResourceName(String resourceName) {
+    String[] tokens = resourceName.split("/");
+    if (tokens.length < 4 || !tokens[tokens.length - 4].equals("compressed-blobs")) {
+      return null;
+    }
+    String name = tokens[tokens.length - 3];
+    BlobCompressor compressor = BlobCompressor.forName(name);
+    if (compressor == null) {
+      throw new IllegalArgumentException("Unsupported compressor: " + name);
+    }
+    return compressor;
+  }
+
   public ByteStreamServer(OnDiskBlobStoreCache cache, Path workPath, DigestUtil digestUtil) {
     this.cache = cache;
     this.workPath = workPath;
@@ -80,11 +103,22 @@ final class ByteStreamServer extends ByteStreamImplBase {
               "Failed parsing digest from resource_name:" + request.getResourceName()));
     }
 
+    BlobCompressor compressor;
+    try {
+      compressor = parseCompressorFromResourceName(request.getResourceName());
+    } catch (IllegalArgumentException e) {
+      responseObserver.onError(StatusUtils.invalidArgumentError("resource_name", e.getMessage()));
+      return;
+    }
+
     try {
       // This still relies on the blob size to be small enough to fit in memory.
       // TODO(olaola): refactor to fix this if the need arises.
       Chunker c =
-          Chunker.builder().setInput(getFromFuture(cache.downloadBlob(context, digest))).build();
+          Chunker.builder()
+              .setInput(getFromFuture(cache.downloadBlob(context, digest)))
+              .setCompressor(compressor)
+              .build();
       while (c.hasNext()) {
         responseObserver.onNext(
             ReadResponse.newBuilder().setData(c.next().getData()).build());
@@ -116,6 +150,8 @@ final class ByteStreamServer extends ByteStreamImplBase {
     }
     return new StreamObserver<WriteRequest>() {
       private Digest digest;
+      @Nullable private BlobCompressor compressor;
+      // For compressed uploads, the offset into the compressed data.
       private long offset;
       private String resourceName;
       private boolean closed;
@@ -129,6 +165,14 @@ final class ByteStreamServer extends ByteStreamImplBase {
         if (digest == null) {
           resourceName = request.getResourceName();
           digest = parseDigestFromResourceName(resourceName);
+          try {
+            compressor = parseCompressorFromResourceName(resourceName);
+          } catch (IllegalArgumentException e) {
+            responseObserver.onError(
+                StatusUtils.invalidArgumentError("resource_name", e.getMessage()));
+            closed = true;
+            return;
+          }
         }
 
         if (digest == null) {
@@ -142,8 +186,10 @@ final class ByteStreamServer extends ByteStreamImplBase {
 
         if (offset == 0) {
           if (cache.containsKey(digest)) {
+            // The compressed size of a blob that was not uploaded is unknown.
+            long committedSize = compressor == null ? digest.getSizeBytes() : -1;
             responseObserver.onNext(
-                WriteResponse.newBuilder().setCommittedSize(digest.getSizeBytes()).build());
+                WriteResponse.newBuilder().setCommittedSize(committedSize).build());
             responseObserver.onCompleted();
             closed = true;
             return;
@@ -182,7 +228,9 @@ final class ByteStreamServer extends ByteStreamImplBase {
           offset += size;
         }
 
-        boolean shouldFinishWrite = offset == digest.getSizeBytes();
+        // The size of compressed data is only known once the client finishes the write.
+        boolean shouldFinishWrite =
+            compressor == null ? offset == digest.getSizeBytes() : request.getFinishWrite();
 
         if (shouldFinishWrite != request.getFinishWrite()) {
           responseObserver.onError(
@@ -213,7 +261,7 @@ final class ByteStreamServer extends ByteStreamImplBase {
           return;
         }
 
-        if (digest == null || offset != digest.getSizeBytes()) {
+        if (digest == null || (compressor == null && offset != digest.getSizeBytes())) {
           responseObserver.onError(
               StatusProto.toStatusRuntimeException(
                   com.google.rpc.Status.newBuilder()
@@ -225,10 +273,15 @@ final class ByteStreamServer extends ByteStreamImplBase {
         }
 
         try {
-          Digest d = digestUtil.compute(temp);
-          getFromFuture(cache.uploadFile(context, d, temp));
+          Path blob = temp;
+          if (compressor != null) {
+            blob = decompress(temp, compressor);
+          }
+          Digest d = digestUtil.compute(blob);
+          getFromFuture(cache.uploadFile(context, d, blob));
           try {
             temp.delete();
+            blob.delete();
           } catch (IOException e) {
             logger.atWarning().withCause(e).log("Could not delete temp file");
           }
@@ -253,6 +306,19 @@ final class ByteStreamServer extends ByteStreamImplBase {
     };
   }
 
+  /** Decompresses {@code compressed} into a new file next to it, and returns that file. */
+  private static Path decompress(Path compressed, BlobCompressor compressor) throws IOException {
+    Path decompressed =
+        compressed.getParentDirectory().getRelative(compressed.getBaseName() + ".decompressed");
+    try (InputStream in = compressed.getInputStream();
+        OutputStream out = decompressed.getOutputStream()) {
+      try (OutputStream decompressing = compressor.decompress(out)) {
+        ByteStreams.copy(in, decompressing);
+      }
+    }
+    return decompressed;
+  }
+
   private static class NoOpStreamObserver<T> implements StreamObserver<T> {
     @Override
     public void onNext(T value) {
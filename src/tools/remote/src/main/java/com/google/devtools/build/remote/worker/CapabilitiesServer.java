@@ -17,6 +17,7 @@ package com.google.devtools.build.remote.worker;
 import build.bazel.remote.execution.v2.ActionCacheUpdateCapabilities;
 import build.bazel.remote.execution.v2.CacheCapabilities;
 import build.bazel.remote.execution.v2.CapabilitiesGrpc.CapabilitiesImplBase;
+import build.bazel.remote.execution.v2.Compressor;
 import build.bazel.remote.execution.v2.DigestFunction;
 import build.bazel.remote.execution.v2.ExecutionCapabilities;
 import build.bazel.remote.execution.v2.GetCapabilitiesRequest;
@@ -24,8 +25,11 @@ import build.bazel.remote.execution.v2.ServerCapabilities;
 import build.bazel.remote.execution.v2.SymlinkAbsolutePathStrategy;
 import build.bazel.semver.SemVer;
 import com.google.devtools.build.lib.remote.ApiVersion;
+import com.google.devtools.build.lib.remote.util.BlobCompressor;
 import com.google.devtools.build.lib.remote.util.DigestUtil;
 import io.grpc.stub.StreamObserver;
+import java.util.ArrayList;
+import java.util.List;
 
 /** A basic implementation of a Capabilities service. */
 final class CapabilitiesServer extends CapabilitiesImplBase {
@@ -53,6 +57,7 @@ final class CapabilitiesServer extends CapabilitiesImplBase {
                     .setActionCacheUpdateCapabilities(
                         ActionCacheUpdateCapabilities.newBuilder().setUpdateEnabled(true).build())
                     .setMaxBatchTotalSizeBytes(CasServer.MAX_BATCH_SIZE_BYTES)
+                    .addAllSupportedCompressors(supportedCompressors())
                     .build());
     if (execEnabled) {
       response.setExecutionCapabilities(
@@ -61,4 +66,12 @@ final class CapabilitiesServer extends CapabilitiesImplBase {
     responseObserver.onNext(response.build());
     responseObserver.onCompleted();
   }
+
+  private static List<Compressor.Value> supportedCompressors() {
+    List<Compressor.Value> compressors = new ArrayList<>();
+    for (BlobCompressor compressor : BlobCompressor.values()) {
+      compressors.add(compressor.getValue());
+    }
+    return compressors;
+  }
 }